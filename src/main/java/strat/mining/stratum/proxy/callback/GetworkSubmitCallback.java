@@ -0,0 +1,38 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.callback;
+
+/**
+ * Callback of getwork share submits.
+ * 
+ * @author Strat
+ * 
+ */
+public interface GetworkSubmitCallback {
+
+	/**
+	 * Called when the result of the submit is known.
+	 * 
+	 * @param errorMessage
+	 *            the reason of the failure/rejection, or null if the share is
+	 *            accepted.
+	 */
+	public void onSubmitResult(String errorMessage);
+
+}
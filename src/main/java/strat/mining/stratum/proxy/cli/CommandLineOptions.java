@@ -115,7 +115,7 @@ public class CommandLineOptions {
     @Option(name = "--pool-use-worker-password", usage = "Use the worker password instead of the pool password to authorize workers. (false by default)", handler = BooleanArrayOptionHandler.class, metaVar = "boolean1 [boolean2] [boolean3]...")
     private List<Boolean> poolsUseWorkerPassword;
 
-    @Option(name = "--pool-weight", usage = "Specify the weight of the pool compared to each other. Only used when the Pool Switching strategy is WeightedRoundRobin. (1 by default)", handler = IntegerArrayOptionHandler.class, metaVar = "pool1Weight [pool2Weight] [pool3Weight]...")
+    @Option(name = "--pool-weight", usage = "Specify the weight of the pool compared to each other. Only used when the Pool Switching strategy is WeightedRoundRobin or weightedHashrateSplit. (1 by default)", handler = IntegerArrayOptionHandler.class, metaVar = "pool1Weight [pool2Weight] [pool3Weight]...")
     private List<Integer> poolsWeight;
 
     @Option(name = "--pool-hashrate-sampling-period", usage = "The sampling period in seconds used to calculate hashrate on pools. (600 seconds by default)")
@@ -145,7 +145,7 @@ public class CommandLineOptions {
     @Option(name = "--validate-getwork-shares", usage = "If set, the proxy will check that SHA256 or Scrypt shares submitted by getwork miners are valide (the share is below the target). If not valid, the share is discarded and not submitted to the pool. Increase the CPU load of the proxy if set. (Default to false).")
     private boolean validateGetworkShares;
 
-    @Option(name = "--pool-switching-strategy", usage = "Set the pool switching strategy. The strategy defines on which pool workers will mine. It also define when a pool switch occurs. By default, the priorityFailover is used. Strategies available are: priorityFailover, weightedRoundRobin.")
+    @Option(name = "--pool-switching-strategy", usage = "Set the pool switching strategy. The strategy defines on which pool workers will mine. It also define when a pool switch occurs. By default, the priorityFailover is used. Strategies available are: priorityFailover, weightedRoundRobin, poolQuality, weightedHashrateSplit.")
     private String poolSwitchingStrategy;
 
     @Option(name = "--weighted-round-robin-round-duration", usage = "Set the duration (in minutes) of a round for the weightedRoundRobin pool switching strategy. (60 minutes by default)")
@@ -187,6 +187,54 @@ public class CommandLineOptions {
     @Option(name = "--suggest-pool-difficulty", usage = "Suggest the difficulty to the pool. The pool may ignore the suggested difficulty. (if not compatible or for any other reasons)")
     private Double suggestedPoolDifficulty;
 
+    @Option(name = "--enable-nio-transport", usage = "Use the non-blocking (NIO) transport for the stratum worker connections. A few selector threads handle all the connections instead of one thread per connection.", handler = BooleanOptionHandler.class)
+    private Boolean enableNioTransport;
+
+    @Option(name = "--nio-selector-threads", usage = "The number of selector threads used by the NIO transport. (2 by default)")
+    private Integer nioSelectorThreads;
+
+    @Option(name = "--enable-virtual-threads", usage = "Run the connection read loops, the pool connection tasks and the timer tasks on virtual threads. Needs Java 21 or higher, else platform threads are used.", handler = BooleanOptionHandler.class)
+    private Boolean enableVirtualThreads;
+
+    @Option(name = "--pool-write-coalescing-delay", usage = "The maximum delay in microseconds a message sent to a pool can wait to be written with the next ones in a single write. 0 to write each message immediately. (0 by default)")
+    private Integer poolWriteCoalescingDelay;
+
+    @Option(name = "--getwork-pregeneration-depth", usage = "The number of getwork work units generated in advance for each getwork connection. 0 to build the work when the miner requests it. (8 by default)")
+    private Integer getworkPregenerationDepth;
+
+    @Option(name = "--getwork-work-history-size", usage = "The max number of getwork works remembered for each getwork connection to match the submitted shares. The oldest works are forgotten first. (4096 by default)")
+    private Integer getworkWorkHistorySize;
+
+    @Option(name = "--getwork-submit-timeout", usage = "The delay in milliseconds to wait for the pool response to a getwork share submit. After this delay, the share is reported to the miner as maybe accepted. (1000 by default)")
+    private Integer getworkSubmitTimeout;
+
+    @Option(name = "--worker-migration-parallelism", usage = "The number of worker connections switched in parallel when the workers are moved to another pool. (16 by default)")
+    private Integer workerMigrationParallelism;
+
+    @Option(name = "--worker-migration-batch-delay", usage = "The delay in milliseconds between two batches of worker connections switched to another pool, to not flood the new pool. 0 to switch the batches without delay. (0 by default)")
+    private Integer workerMigrationBatchDelay;
+
+    @Option(name = "--pool-sessions", usage = "The number of upstream sessions opened on each pool when the pool starts. The worker connections are spread over the sessions, each session having its own extranonce tail space and difficulty. (1 by default)")
+    private Integer poolSessions;
+
+    @Option(name = "--pool-max-sessions", usage = "The maximum number of upstream sessions opened on each pool. New sessions are opened when the extranonce tails of the opened sessions are almost all used. Not lower than --pool-sessions. (1 by default)")
+    private Integer poolMaxSessions;
+
+    @Option(name = "--standby-pools-warm-up", usage = "Authorize the usernames of the connected workers on the ready standby pools (with --append-worker-names) so that a failover to one of them does not wait for the authorizations. (true by default)", handler = ExplicitBooleanOptionHandler.class)
+    private Boolean standbyPoolsWarmUp;
+
+    @Option(name = "--pool-quality-evaluation-period", usage = "Set the period (in seconds) between two evaluations of the pools by the poolQuality pool switching strategy. A better pool is selected only if it stays better during one period. (60 seconds by default)")
+    private Integer poolQualityEvaluationPeriod;
+
+    @Option(name = "--pool-quality-switch-threshold", usage = "Set the minimum gain (in percent) of effective accepted hashrate a pool has to offer over the current one to be selected by the poolQuality pool switching strategy. (5 percent by default)")
+    private Integer poolQualitySwitchThreshold;
+
+    @Option(name = "--hashrate-split-rebalance-period", usage = "Set the period (in seconds) between two rebalances of the worker connections over the pools by the weightedHashrateSplit pool switching strategy. (60 seconds by default)")
+    private Integer hashrateSplitRebalancePeriod;
+
+    @Option(name = "--hashrate-split-rebalance-threshold", usage = "Set the gap (in percent of the total hashrate) between the hashrate of a pool and its expected hashrate under which the weightedHashrateSplit pool switching strategy does not move worker connections. (5 percent by default)")
+    private Integer hashrateSplitRebalanceThreshold;
+
     public CommandLineOptions() {
         parser = new CmdLineParser(this);
     }
@@ -395,4 +443,68 @@ public class CommandLineOptions {
         return suggestedPoolDifficulty;
     }
 
+    public Boolean isEnableNioTransport() {
+        return enableNioTransport;
+    }
+
+    public Integer getNioSelectorThreads() {
+        return nioSelectorThreads;
+    }
+
+    public Boolean isEnableVirtualThreads() {
+        return enableVirtualThreads;
+    }
+
+    public Integer getPoolWriteCoalescingDelay() {
+        return poolWriteCoalescingDelay;
+    }
+
+    public Integer getGetworkPregenerationDepth() {
+        return getworkPregenerationDepth;
+    }
+
+    public Integer getGetworkWorkHistorySize() {
+        return getworkWorkHistorySize;
+    }
+
+    public Integer getGetworkSubmitTimeout() {
+        return getworkSubmitTimeout;
+    }
+
+    public Integer getWorkerMigrationParallelism() {
+        return workerMigrationParallelism;
+    }
+
+    public Integer getWorkerMigrationBatchDelay() {
+        return workerMigrationBatchDelay;
+    }
+
+    public Integer getPoolSessions() {
+        return poolSessions;
+    }
+
+    public Integer getPoolMaxSessions() {
+        return poolMaxSessions;
+    }
+
+    public Boolean isStandbyPoolsWarmUp() {
+        return standbyPoolsWarmUp;
+    }
+
+    public Integer getPoolQualityEvaluationPeriod() {
+        return poolQualityEvaluationPeriod;
+    }
+
+    public Integer getPoolQualitySwitchThreshold() {
+        return poolQualitySwitchThreshold;
+    }
+
+    public Integer getHashrateSplitRebalancePeriod() {
+        return hashrateSplitRebalancePeriod;
+    }
+
+    public Integer getHashrateSplitRebalanceThreshold() {
+        return hashrateSplitRebalanceThreshold;
+    }
+
 }
@@ -120,6 +120,38 @@ public class ConfigurationManager {
 
 	private Integer extranonce1TailSize = Constants.DEFAULT_EXTRANONCE1_TAIL_SIZE;
 
+	private boolean enableNioTransport = false;
+
+	private Integer nioSelectorThreads = Constants.DEFAULT_NIO_SELECTOR_THREADS;
+
+	private boolean enableVirtualThreads = false;
+
+	private Integer poolWriteCoalescingDelay = Constants.DEFAULT_POOL_WRITE_COALESCING_DELAY;
+
+	private Integer getworkPregenerationDepth = Constants.DEFAULT_GETWORK_PREGENERATION_DEPTH;
+
+	private Integer getworkWorkHistorySize = Constants.DEFAULT_GETWORK_WORK_HISTORY_SIZE;
+
+	private Integer getworkSubmitTimeout = Constants.DEFAULT_GETWORK_SUBMIT_TIMEOUT;
+
+	private Integer workerMigrationParallelism = Constants.DEFAULT_WORKER_MIGRATION_PARALLELISM;
+
+	private Integer workerMigrationBatchDelay = Constants.DEFAULT_WORKER_MIGRATION_BATCH_DELAY;
+
+	private Integer poolSessions = Constants.DEFAULT_POOL_SESSIONS;
+
+	private Integer poolMaxSessions = Constants.DEFAULT_POOL_MAX_SESSIONS;
+
+	private boolean standbyPoolsWarmUp = Constants.DEFAULT_STANDBY_POOLS_WARM_UP;
+
+	private Integer poolQualityEvaluationPeriod = Constants.DEFAULT_POOL_QUALITY_EVALUATION_PERIOD;
+
+	private Integer poolQualitySwitchThreshold = Constants.DEFAULT_POOL_QUALITY_SWITCH_THRESHOLD;
+
+	private Integer hashrateSplitRebalancePeriod = Constants.DEFAULT_HASHRATE_SPLIT_REBALANCE_PERIOD;
+
+	private Integer hashrateSplitRebalanceThreshold = Constants.DEFAULT_HASHRATE_SPLIT_REBALANCE_THRESHOLD;
+
 	private ObjectMapper jsonParser;
 
 	public static ConfigurationManager getInstance() {
@@ -252,6 +284,38 @@ public class ConfigurationManager {
 			apiPassword = null;
 		}
 
+		enableNioTransport = configuration.getEnableNioTransport() != null ? configuration.getEnableNioTransport() : enableNioTransport;
+
+		nioSelectorThreads = configuration.getNioSelectorThreads() != null ? configuration.getNioSelectorThreads() : nioSelectorThreads;
+
+		enableVirtualThreads = configuration.getEnableVirtualThreads() != null ? configuration.getEnableVirtualThreads() : enableVirtualThreads;
+
+		poolWriteCoalescingDelay = configuration.getPoolWriteCoalescingDelay() != null ? configuration.getPoolWriteCoalescingDelay() : poolWriteCoalescingDelay;
+
+		getworkPregenerationDepth = configuration.getGetworkPregenerationDepth() != null ? configuration.getGetworkPregenerationDepth() : getworkPregenerationDepth;
+
+		getworkWorkHistorySize = configuration.getGetworkWorkHistorySize() != null ? configuration.getGetworkWorkHistorySize() : getworkWorkHistorySize;
+
+		getworkSubmitTimeout = configuration.getGetworkSubmitTimeout() != null ? configuration.getGetworkSubmitTimeout() : getworkSubmitTimeout;
+
+		workerMigrationParallelism = configuration.getWorkerMigrationParallelism() != null ? configuration.getWorkerMigrationParallelism() : workerMigrationParallelism;
+
+		workerMigrationBatchDelay = configuration.getWorkerMigrationBatchDelay() != null ? configuration.getWorkerMigrationBatchDelay() : workerMigrationBatchDelay;
+
+		poolSessions = configuration.getPoolSessions() != null ? configuration.getPoolSessions() : poolSessions;
+
+		poolMaxSessions = configuration.getPoolMaxSessions() != null ? configuration.getPoolMaxSessions() : poolMaxSessions;
+
+		standbyPoolsWarmUp = configuration.getStandbyPoolsWarmUp() != null ? configuration.getStandbyPoolsWarmUp() : standbyPoolsWarmUp;
+
+		poolQualityEvaluationPeriod = configuration.getPoolQualityEvaluationPeriod() != null ? configuration.getPoolQualityEvaluationPeriod() : poolQualityEvaluationPeriod;
+
+		poolQualitySwitchThreshold = configuration.getPoolQualitySwitchThreshold() != null ? configuration.getPoolQualitySwitchThreshold() : poolQualitySwitchThreshold;
+
+		hashrateSplitRebalancePeriod = configuration.getHashrateSplitRebalancePeriod() != null ? configuration.getHashrateSplitRebalancePeriod() : hashrateSplitRebalancePeriod;
+
+		hashrateSplitRebalanceThreshold = configuration.getHashrateSplitRebalanceThreshold() != null ? configuration.getHashrateSplitRebalanceThreshold() : hashrateSplitRebalanceThreshold;
+
 		defineExtranonce1TailSize(configuration.getWorkerNumberLimit());
 
 		buildPoolsFromConfigurationFile(configuration);
@@ -425,6 +489,38 @@ public class ConfigurationManager {
 			apiPassword = null;
 		}
 
+		enableNioTransport = cliParser.isEnableNioTransport() != null ? cliParser.isEnableNioTransport() : enableNioTransport;
+
+		nioSelectorThreads = cliParser.getNioSelectorThreads() != null ? cliParser.getNioSelectorThreads() : nioSelectorThreads;
+
+		enableVirtualThreads = cliParser.isEnableVirtualThreads() != null ? cliParser.isEnableVirtualThreads() : enableVirtualThreads;
+
+		poolWriteCoalescingDelay = cliParser.getPoolWriteCoalescingDelay() != null ? cliParser.getPoolWriteCoalescingDelay() : poolWriteCoalescingDelay;
+
+		getworkPregenerationDepth = cliParser.getGetworkPregenerationDepth() != null ? cliParser.getGetworkPregenerationDepth() : getworkPregenerationDepth;
+
+		getworkWorkHistorySize = cliParser.getGetworkWorkHistorySize() != null ? cliParser.getGetworkWorkHistorySize() : getworkWorkHistorySize;
+
+		getworkSubmitTimeout = cliParser.getGetworkSubmitTimeout() != null ? cliParser.getGetworkSubmitTimeout() : getworkSubmitTimeout;
+
+		workerMigrationParallelism = cliParser.getWorkerMigrationParallelism() != null ? cliParser.getWorkerMigrationParallelism() : workerMigrationParallelism;
+
+		workerMigrationBatchDelay = cliParser.getWorkerMigrationBatchDelay() != null ? cliParser.getWorkerMigrationBatchDelay() : workerMigrationBatchDelay;
+
+		poolSessions = cliParser.getPoolSessions() != null ? cliParser.getPoolSessions() : poolSessions;
+
+		poolMaxSessions = cliParser.getPoolMaxSessions() != null ? cliParser.getPoolMaxSessions() : poolMaxSessions;
+
+		standbyPoolsWarmUp = cliParser.isStandbyPoolsWarmUp() != null ? cliParser.isStandbyPoolsWarmUp() : standbyPoolsWarmUp;
+
+		poolQualityEvaluationPeriod = cliParser.getPoolQualityEvaluationPeriod() != null ? cliParser.getPoolQualityEvaluationPeriod() : poolQualityEvaluationPeriod;
+
+		poolQualitySwitchThreshold = cliParser.getPoolQualitySwitchThreshold() != null ? cliParser.getPoolQualitySwitchThreshold() : poolQualitySwitchThreshold;
+
+		hashrateSplitRebalancePeriod = cliParser.getHashrateSplitRebalancePeriod() != null ? cliParser.getHashrateSplitRebalancePeriod() : hashrateSplitRebalancePeriod;
+
+		hashrateSplitRebalanceThreshold = cliParser.getHashrateSplitRebalanceThreshold() != null ? cliParser.getHashrateSplitRebalanceThreshold() : hashrateSplitRebalanceThreshold;
+
 		defineExtranonce1TailSize(cliParser.getWorkerNumberLimit());
 
 		buildPoolsFromCommandLine(cliParser);
@@ -900,4 +996,68 @@ public class ConfigurationManager {
 		return suggestedPoolDifficulty;
 	}
 
+	public boolean isEnableNioTransport() {
+		return enableNioTransport;
+	}
+
+	public Integer getNioSelectorThreads() {
+		return nioSelectorThreads;
+	}
+
+	public boolean isEnableVirtualThreads() {
+		return enableVirtualThreads;
+	}
+
+	public Integer getPoolWriteCoalescingDelay() {
+		return poolWriteCoalescingDelay;
+	}
+
+	public Integer getGetworkPregenerationDepth() {
+		return getworkPregenerationDepth;
+	}
+
+	public Integer getGetworkWorkHistorySize() {
+		return getworkWorkHistorySize;
+	}
+
+	public Integer getGetworkSubmitTimeout() {
+		return getworkSubmitTimeout;
+	}
+
+	public Integer getWorkerMigrationParallelism() {
+		return workerMigrationParallelism;
+	}
+
+	public Integer getWorkerMigrationBatchDelay() {
+		return workerMigrationBatchDelay;
+	}
+
+	public Integer getPoolSessions() {
+		return poolSessions;
+	}
+
+	public Integer getPoolMaxSessions() {
+		return poolMaxSessions;
+	}
+
+	public boolean isStandbyPoolsWarmUp() {
+		return standbyPoolsWarmUp;
+	}
+
+	public Integer getPoolQualityEvaluationPeriod() {
+		return poolQualityEvaluationPeriod;
+	}
+
+	public Integer getPoolQualitySwitchThreshold() {
+		return poolQualitySwitchThreshold;
+	}
+
+	public Integer getHashrateSplitRebalancePeriod() {
+		return hashrateSplitRebalancePeriod;
+	}
+
+	public Integer getHashrateSplitRebalanceThreshold() {
+		return hashrateSplitRebalanceThreshold;
+	}
+
 }
@@ -75,6 +75,38 @@ public class Configuration {
 
     private Double suggestedPoolDifficulty;
 
+    private Boolean enableNioTransport;
+
+    private Integer nioSelectorThreads;
+
+    private Boolean enableVirtualThreads;
+
+    private Integer poolWriteCoalescingDelay;
+
+    private Integer getworkPregenerationDepth;
+
+    private Integer getworkWorkHistorySize;
+
+    private Integer getworkSubmitTimeout;
+
+    private Integer workerMigrationParallelism;
+
+    private Integer workerMigrationBatchDelay;
+
+    private Integer poolSessions;
+
+    private Integer poolMaxSessions;
+
+    private Boolean standbyPoolsWarmUp;
+
+    private Integer poolQualityEvaluationPeriod;
+
+    private Integer poolQualitySwitchThreshold;
+
+    private Integer hashrateSplitRebalancePeriod;
+
+    private Integer hashrateSplitRebalanceThreshold;
+
     @Valid
     private List<Pool> pools;
 
@@ -393,4 +425,132 @@ public class Configuration {
         this.suggestedPoolDifficulty = suggestedPoolDifficulty;
     }
 
+    public Boolean getEnableNioTransport() {
+        return enableNioTransport;
+    }
+
+    public void setEnableNioTransport(Boolean enableNioTransport) {
+        this.enableNioTransport = enableNioTransport;
+    }
+
+    public Integer getNioSelectorThreads() {
+        return nioSelectorThreads;
+    }
+
+    public void setNioSelectorThreads(Integer nioSelectorThreads) {
+        this.nioSelectorThreads = nioSelectorThreads;
+    }
+
+    public Boolean getEnableVirtualThreads() {
+        return enableVirtualThreads;
+    }
+
+    public void setEnableVirtualThreads(Boolean enableVirtualThreads) {
+        this.enableVirtualThreads = enableVirtualThreads;
+    }
+
+    public Integer getPoolWriteCoalescingDelay() {
+        return poolWriteCoalescingDelay;
+    }
+
+    public void setPoolWriteCoalescingDelay(Integer poolWriteCoalescingDelay) {
+        this.poolWriteCoalescingDelay = poolWriteCoalescingDelay;
+    }
+
+    public Integer getGetworkPregenerationDepth() {
+        return getworkPregenerationDepth;
+    }
+
+    public void setGetworkPregenerationDepth(Integer getworkPregenerationDepth) {
+        this.getworkPregenerationDepth = getworkPregenerationDepth;
+    }
+
+    public Integer getGetworkWorkHistorySize() {
+        return getworkWorkHistorySize;
+    }
+
+    public void setGetworkWorkHistorySize(Integer getworkWorkHistorySize) {
+        this.getworkWorkHistorySize = getworkWorkHistorySize;
+    }
+
+    public Integer getGetworkSubmitTimeout() {
+        return getworkSubmitTimeout;
+    }
+
+    public void setGetworkSubmitTimeout(Integer getworkSubmitTimeout) {
+        this.getworkSubmitTimeout = getworkSubmitTimeout;
+    }
+
+    public Integer getWorkerMigrationParallelism() {
+        return workerMigrationParallelism;
+    }
+
+    public void setWorkerMigrationParallelism(Integer workerMigrationParallelism) {
+        this.workerMigrationParallelism = workerMigrationParallelism;
+    }
+
+    public Integer getWorkerMigrationBatchDelay() {
+        return workerMigrationBatchDelay;
+    }
+
+    public void setWorkerMigrationBatchDelay(Integer workerMigrationBatchDelay) {
+        this.workerMigrationBatchDelay = workerMigrationBatchDelay;
+    }
+
+    public Integer getPoolSessions() {
+        return poolSessions;
+    }
+
+    public void setPoolSessions(Integer poolSessions) {
+        this.poolSessions = poolSessions;
+    }
+
+    public Integer getPoolMaxSessions() {
+        return poolMaxSessions;
+    }
+
+    public void setPoolMaxSessions(Integer poolMaxSessions) {
+        this.poolMaxSessions = poolMaxSessions;
+    }
+
+    public Boolean getStandbyPoolsWarmUp() {
+        return standbyPoolsWarmUp;
+    }
+
+    public void setStandbyPoolsWarmUp(Boolean standbyPoolsWarmUp) {
+        this.standbyPoolsWarmUp = standbyPoolsWarmUp;
+    }
+
+    public Integer getPoolQualityEvaluationPeriod() {
+        return poolQualityEvaluationPeriod;
+    }
+
+    public void setPoolQualityEvaluationPeriod(Integer poolQualityEvaluationPeriod) {
+        this.poolQualityEvaluationPeriod = poolQualityEvaluationPeriod;
+    }
+
+    public Integer getPoolQualitySwitchThreshold() {
+        return poolQualitySwitchThreshold;
+    }
+
+    public void setPoolQualitySwitchThreshold(Integer poolQualitySwitchThreshold) {
+        this.poolQualitySwitchThreshold = poolQualitySwitchThreshold;
+    }
+
+    public Integer getHashrateSplitRebalancePeriod() {
+        return hashrateSplitRebalancePeriod;
+    }
+
+    public void setHashrateSplitRebalancePeriod(Integer hashrateSplitRebalancePeriod) {
+        this.hashrateSplitRebalancePeriod = hashrateSplitRebalancePeriod;
+    }
+
+    public Integer getHashrateSplitRebalanceThreshold() {
+        return hashrateSplitRebalanceThreshold;
+    }
+
+    public void setHashrateSplitRebalanceThreshold(Integer hashrateSplitRebalanceThreshold) {
+        this.hashrateSplitRebalanceThreshold = hashrateSplitRebalanceThreshold;
+    }
+
 }
@@ -68,6 +68,34 @@ public class Constants {
     public static final Integer DEFAULT_POOL_WEIGHT = 1;
     public static final Integer DEFAULT_WEIGHTED_ROUND_ROBIN_ROUND_DURATION = 3600000;
 
+    public static final Integer DEFAULT_NIO_SELECTOR_THREADS = 2;
+
+    public static final Integer DEFAULT_POOL_WRITE_COALESCING_DELAY = 0;
+
+    public static final Integer DEFAULT_GETWORK_PREGENERATION_DEPTH = 8;
+
+    public static final Integer DEFAULT_GETWORK_WORK_HISTORY_SIZE = 4096;
+
+    public static final Integer DEFAULT_GETWORK_SUBMIT_TIMEOUT = 1000;
+
+    public static final Integer DEFAULT_WORKER_MIGRATION_PARALLELISM = 16;
+
+    public static final Integer DEFAULT_WORKER_MIGRATION_BATCH_DELAY = 0;
+
+    public static final Integer DEFAULT_POOL_SESSIONS = 1;
+
+    public static final Integer DEFAULT_POOL_MAX_SESSIONS = 1;
+
+    public static final Boolean DEFAULT_STANDBY_POOLS_WARM_UP = true;
+
+    public static final Integer DEFAULT_POOL_QUALITY_EVALUATION_PERIOD = 60;
+
+    public static final Integer DEFAULT_POOL_QUALITY_SWITCH_THRESHOLD = 5;
+
+    public static final Integer DEFAULT_HASHRATE_SPLIT_REBALANCE_PERIOD = 60;
+
+    public static final Integer DEFAULT_HASHRATE_SPLIT_REBALANCE_THRESHOLD = 5;
+
     public static final String IP_VERSION_AUTO = "auto";
     public static final String IP_VERSION_V4 = "v4";
     public static final String IP_VERSION_V6 = "V6";
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import strat.mining.stratum.proxy.exception.AuthorizationException;
 import strat.mining.stratum.proxy.exception.NotFoundException;
@@ -36,6 +37,11 @@ import strat.mining.stratum.proxy.worker.WorkerConnection;
 /**
  * Manage the authorization of users.
  * 
+ * The connections can cache the authorizations they have checked with the
+ * authorizations version. The version changes each time a user or an address
+ * is banned or kicked, so cached authorizations of an older version have to be
+ * checked again.
+ * 
  * @author strat
  * 
  */
@@ -44,9 +50,30 @@ public class AuthorizationManager {
 	private Set<String> bannedUserNames;
 	private Set<InetAddress> bannedAddresses;
 
+	private AtomicLong authorizationsVersion;
+
 	public AuthorizationManager() {
 		bannedUserNames = Collections.synchronizedSet(new HashSet<String>());
 		bannedAddresses = Collections.synchronizedSet(new HashSet<InetAddress>());
+		authorizationsVersion = new AtomicLong(0);
+	}
+
+	/**
+	 * Return the current version of the authorizations. An authorization
+	 * cached with another version is no more valid.
+	 * 
+	 * @return
+	 */
+	public long getAuthorizationsVersion() {
+		return authorizationsVersion.get();
+	}
+
+	/**
+	 * Invalidate all the cached authorizations. To call when a user or a
+	 * connection is kicked or banned.
+	 */
+	public void invalidateAuthorizations() {
+		authorizationsVersion.incrementAndGet();
 	}
 
 	/**
@@ -72,6 +99,7 @@ public class AuthorizationManager {
 	 */
 	public void banUser(UserNameDTO username) {
 		bannedUserNames.add(username.getUsername());
+		invalidateAuthorizations();
 	}
 
 	/**
@@ -110,6 +138,7 @@ public class AuthorizationManager {
 	public void banAddress(AddressDTO address) throws UnknownHostException {
 		InetAddress inetAddress = InetAddress.getByName(address.getAddress());
 		bannedAddresses.add(inetAddress);
+		invalidateAuthorizations();
 	}
 
 	/**
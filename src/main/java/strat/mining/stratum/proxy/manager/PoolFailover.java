@@ -0,0 +1,204 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.worker.WorkerConnection;
+
+/**
+ * The switch of the worker connections of a pool which is down to another
+ * pool. Measure the switch-over latency of the connections (from the
+ * detection of the pool failure to the rebind of the connection, which
+ * receives the cached job of the new pool at once) and estimate the hashes
+ * wasted by the workers during this time.
+ * 
+ * @author Strat
+ * 
+ */
+public class PoolFailover {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PoolFailover.class);
+
+	private final Pool failedPool;
+
+	private final Pool targetPool;
+
+	private final long detectionTime;
+
+	private int numberOfConnections = 0;
+
+	private int numberOfSwitchedConnections = 0;
+
+	private int numberOfFailedConnections = 0;
+
+	private double hashrate = 0;
+
+	private long maxLatency = 0;
+
+	private long totalLatency = 0;
+
+	private double wastedHashes = 0;
+
+	private boolean isCancelled = false;
+
+	private boolean isDone = false;
+
+	private long endTime;
+
+	public PoolFailover(Pool failedPool, Pool targetPool) {
+		this.failedPool = failedPool;
+		this.targetPool = targetPool;
+		this.detectionTime = failedPool.getLastStopDate() != null ? failedPool.getLastStopDate().getTime() : System.currentTimeMillis();
+	}
+
+	/**
+	 * Add a connection of the failed pool to switch.
+	 * 
+	 * @param connection
+	 */
+	public synchronized void addConnection(WorkerConnection connection) {
+		numberOfConnections++;
+		hashrate += connection.getAcceptedHashrate();
+	}
+
+	/**
+	 * Called when the given connection is switched to the target pool.
+	 * 
+	 * @param connection
+	 */
+	public synchronized void onConnectionSwitched(WorkerConnection connection) {
+		numberOfSwitchedConnections++;
+		long latency = Math.max(0, System.currentTimeMillis() - detectionTime);
+		maxLatency = Math.max(maxLatency, latency);
+		totalLatency += latency;
+		wastedHashes += connection.getAcceptedHashrate() * latency / 1000;
+	}
+
+	/**
+	 * Called when the given connection has not been switched to the target
+	 * pool. Its hashes are wasted until it reconnects.
+	 * 
+	 * @param connection
+	 */
+	public synchronized void onConnectionFailed(WorkerConnection connection) {
+		numberOfFailedConnections++;
+		long latency = Math.max(0, System.currentTimeMillis() - detectionTime);
+		wastedHashes += connection.getAcceptedHashrate() * latency / 1000;
+	}
+
+	/**
+	 * Called when the switch of the connections is over.
+	 * 
+	 * @param isCancelled
+	 */
+	public synchronized void complete(boolean isCancelled) {
+		this.isCancelled = isCancelled;
+		this.isDone = true;
+		this.endTime = System.currentTimeMillis();
+		LOGGER.info("Failover from pool {} to pool {} {}. {} connections switched in {} ms (average {} ms), {} failed. About {} hashes wasted.",
+				failedPool.getName(), targetPool.getName(), isCancelled ? "cancelled" : "done", numberOfSwitchedConnections, maxLatency,
+				getAverageLatency(), numberOfFailedConnections, (long) wastedHashes);
+	}
+
+	public Pool getFailedPool() {
+		return failedPool;
+	}
+
+	public Pool getTargetPool() {
+		return targetPool;
+	}
+
+	public long getDetectionTime() {
+		return detectionTime;
+	}
+
+	public synchronized int getNumberOfConnections() {
+		return numberOfConnections;
+	}
+
+	public synchronized int getNumberOfSwitchedConnections() {
+		return numberOfSwitchedConnections;
+	}
+
+	public synchronized int getNumberOfFailedConnections() {
+		return numberOfFailedConnections;
+	}
+
+	/**
+	 * Return the accepted hashrate of the switched connections when the pool
+	 * failed (in hashes per second).
+	 * 
+	 * @return
+	 */
+	public synchronized double getHashrate() {
+		return hashrate;
+	}
+
+	/**
+	 * Return the switch-over latency of the last switched connection in
+	 * milliseconds.
+	 * 
+	 * @return
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Return the average switch-over latency of the switched connections in
+	 * milliseconds.
+	 * 
+	 * @return
+	 */
+	public synchronized long getAverageLatency() {
+		return numberOfSwitchedConnections > 0 ? totalLatency / numberOfSwitchedConnections : 0;
+	}
+
+	/**
+	 * Return the estimated number of hashes computed by the workers for the
+	 * failed pool between the failure detection and their switch.
+	 * 
+	 * @return
+	 */
+	public synchronized double getWastedHashes() {
+		return wastedHashes;
+	}
+
+	public synchronized boolean isCancelled() {
+		return isCancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return isDone;
+	}
+
+	/**
+	 * Return the duration of the failover in milliseconds, up to now if it is
+	 * not done.
+	 * 
+	 * @return
+	 */
+	public synchronized long getDuration() {
+		return (isDone ? endTime : System.currentTimeMillis()) - detectionTime;
+	}
+
+}
@@ -20,20 +20,24 @@ package strat.mining.stratum.proxy.manager;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang.BooleanUtils;
@@ -67,7 +71,9 @@ import strat.mining.stratum.proxy.manager.strategy.PoolSwitchingStrategyFactory;
 import strat.mining.stratum.proxy.manager.strategy.PoolSwitchingStrategyManager;
 import strat.mining.stratum.proxy.model.Share;
 import strat.mining.stratum.proxy.model.User;
+import strat.mining.stratum.proxy.network.SerializedNotification;
 import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.pool.PoolSession;
 import strat.mining.stratum.proxy.rest.dto.AddPoolDTO;
 import strat.mining.stratum.proxy.rest.dto.AddressDTO;
 import strat.mining.stratum.proxy.rest.dto.ConnectionIdentifierDTO;
@@ -76,6 +82,8 @@ import strat.mining.stratum.proxy.rest.dto.UserNameDTO;
 import strat.mining.stratum.proxy.worker.StratumWorkerConnection;
 import strat.mining.stratum.proxy.worker.WorkerConnection;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 /**
  * Manage connections (Pool and Worker) and build some stats.
  * 
@@ -95,7 +103,7 @@ public class ProxyManager {
 
     private List<WorkerConnection> workerConnections;
 
-    private Map<String, User> users;
+    private ConcurrentMap<String, User> users;
 
     private Map<Pool, Set<WorkerConnection>> poolWorkerConnections;
 
@@ -107,13 +115,21 @@ public class ProxyManager {
 
     private PoolSwitchingStrategyFactory poolSwitchingStrategyFactory;
 
+    private WorkerConnectionMigrator workerConnectionMigrator;
+
+    private StandbyPoolsWarmer standbyPoolsWarmer;
+
     private ProxyManager() {
         this.stratumAuthorizationManager = new AuthorizationManager();
         this.pools = Collections.synchronizedList(new ArrayList<Pool>());
         this.workerConnections = new CopyOnWriteArrayList<WorkerConnection>();
-        this.users = Collections.synchronizedMap(new HashMap<String, User>());
+        this.users = new ConcurrentHashMap<String, User>();
         this.poolWorkerConnections = Collections.synchronizedMap(new HashMap<Pool, Set<WorkerConnection>>());
         this.poolSwitchingStrategyFactory = new PoolSwitchingStrategyFactory(this);
+        this.workerConnectionMigrator = new WorkerConnectionMigrator(this);
+        if (ConfigurationManager.getInstance().isStandbyPoolsWarmUp()) {
+            this.standbyPoolsWarmer = new StandbyPoolsWarmer(this);
+        }
 
         setPoolSwitchingStrategy(ConfigurationManager.getInstance().getPoolSwitchingStrategy());
     }
@@ -165,7 +181,12 @@ public class ProxyManager {
      * @throws IOException
      */
     public void startListeningIncomingConnections(String bindInterface, Integer port) throws IOException {
-        if (bindInterface == null) {
+        if (ConfigurationManager.getInstance().isEnableNioTransport()) {
+            // Sockets accepted through a channel are handled by the NIO
+            // transport.
+            serverSocket = ServerSocketChannel.open().socket();
+            serverSocket.bind(bindInterface == null ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getByName(bindInterface), port));
+        } else if (bindInterface == null) {
             serverSocket = new ServerSocket(port, 0);
         } else {
             serverSocket = new ServerSocket(port, 0, InetAddress.getByName(bindInterface));
@@ -259,9 +280,25 @@ public class ProxyManager {
 
         // Authorize the worker on the pool. Block until the authorization is
         // done.
-        connection.getPool().authorizeWorker(request);
+        connection.getPool().authorizeWorker(connection.getPoolSession(), request);
 
         linkConnectionToUser(connection, request);
+
+        // Authorize the worker on the standby pools in background to be ready
+        // for a failover.
+        if (standbyPoolsWarmer != null) {
+            standbyPoolsWarmer.warmUp(connection, request);
+        }
+    }
+
+    /**
+     * Return the current version of the authorizations. An authorization
+     * checked with an older version has to be checked again.
+     * 
+     * @return
+     */
+    public long getAuthorizationsVersion() {
+        return stratumAuthorizationManager.getAuthorizationsVersion();
     }
 
     /**
@@ -273,9 +310,12 @@ public class ProxyManager {
     private void linkConnectionToUser(WorkerConnection connection, MiningAuthorizeRequest request) {
         User user = users.get(request.getUsername());
         if (user == null) {
-            user = new User(request.getUsername());
-            user.setSamplingHashesPeriod(ConfigurationManager.getInstance().getUserHashrateSamplingPeriod());
-            users.put(request.getUsername(), user);
+            User newUser = new User(request.getUsername());
+            newUser.setSamplingHashesPeriod(ConfigurationManager.getInstance().getUserHashrateSamplingPeriod());
+            user = users.putIfAbsent(request.getUsername(), newUser);
+            if (user == null) {
+                user = newUser;
+            }
         }
         user.addConnection(connection);
     }
@@ -290,7 +330,7 @@ public class ProxyManager {
     public void onSubmitRequest(final WorkerConnection workerConnection, final MiningSubmitRequest workerRequest) {
         if (workerConnection.getPool() != null && workerConnection.getPool().isReady()) {
             for (int i = 0; i < workerConnection.getPool().getNumberOfSubmit(); i++) {
-                workerConnection.getPool().submitShare(workerRequest, new ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>() {
+                workerConnection.getPool().submitShare(workerConnection.getPoolSession(), workerRequest, new ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>() {
                     public void onResponseReceived(MiningSubmitRequest request, MiningSubmitResponse response) {
                         updateShareLists(workerRequest, response, workerConnection);
                         workerConnection.onPoolSubmitResponse(workerRequest, response);
@@ -324,7 +364,8 @@ public class ProxyManager {
     private void updateShareLists(MiningSubmitRequest request, MiningSubmitResponse response, WorkerConnection workerConnection) {
         if (workerConnection.getPool() != null) {
             Share share = new Share();
-            share.setDifficulty(workerConnection.getPool().getDifficulty());
+            PoolSession poolSession = workerConnection.getPoolSession();
+            share.setDifficulty(poolSession != null ? poolSession.getDifficulty() : workerConnection.getPool().getDifficulty());
             share.setTime(System.currentTimeMillis());
 
             boolean isAccepted = response.getIsAccepted() != null && response.getIsAccepted();
@@ -341,13 +382,14 @@ public class ProxyManager {
     }
 
     /**
-     * Called when a pool set the difficulty.
+     * Called when a pool session set the difficulty.
      * 
      * @param pool
+     * @param session
      * @param setDifficulty
      */
-    public void onPoolSetDifficulty(Pool pool, MiningSetDifficultyNotification setDifficulty) {
-        LOGGER.info("Set difficulty {} on pool {}.", setDifficulty.getDifficulty(), pool.getName());
+    public void onPoolSetDifficulty(Pool pool, PoolSession session, MiningSetDifficultyNotification setDifficulty) {
+        LOGGER.info("Set difficulty {} on pool {}.", setDifficulty.getDifficulty(), session.getName());
 
         MiningSetDifficultyNotification notification = new MiningSetDifficultyNotification();
         notification.setDifficulty(setDifficulty.getDifficulty());
@@ -358,19 +400,22 @@ public class ProxyManager {
             LOGGER.debug("No worker connections on pool {}. Do not send setDifficulty.", pool.getName());
         } else {
             for (WorkerConnection connection : connections) {
-                connection.onPoolDifficultyChanged(notification);
+                if (connection.getPoolSession() == session) {
+                    connection.onPoolDifficultyChanged(notification);
+                }
             }
         }
     }
 
     /**
-     * Called when a pool set the extranonce
+     * Called when a pool session set the extranonce
      * 
      * @param pool
+     * @param session
      * @param setExtranonce
      */
-    public void onPoolSetExtranonce(Pool pool, MiningSetExtranonceNotification setExtranonce) {
-        LOGGER.info("Set the extranonce on pool {}.", pool.getName());
+    public void onPoolSetExtranonce(Pool pool, PoolSession session, MiningSetExtranonceNotification setExtranonce) {
+        LOGGER.info("Set the extranonce on pool {}.", session.getName());
 
         Set<WorkerConnection> connections = getPoolWorkerConnections(pool);
 
@@ -378,6 +423,9 @@ public class ProxyManager {
             LOGGER.debug("No worker connections on pool {}. Do not send setExtranonce.", pool.getName());
         } else {
             for (WorkerConnection connection : connections) {
+                if (connection.getPoolSession() != session) {
+                    continue;
+                }
                 try {
                     connection.onPoolExtranonceChange();
                 } catch (ChangeExtranonceNotSupportedException e) {
@@ -390,15 +438,20 @@ public class ProxyManager {
     }
 
     /**
-     * Called when a pool send a notify request.
+     * Called when a pool session send a notify request.
      * 
      * @param pool
+     * @param session
      * @param setDifficulty
      */
-    public void onPoolNotify(Pool pool, MiningNotifyNotification notify) {
-        if (notify.getCleanJobs()) {
+    public void onPoolNotify(Pool pool, PoolSession session, MiningNotifyNotification notify) {
+        // The block is detected on all sessions. Only log it once.
+        if (notify.getCleanJobs() && session.isPrimary()) {
             LOGGER.info("New block detected on pool {}.", pool.getName());
         }
+        if (session.isPrimary()) {
+            poolSwitchingStrategyManager.onPoolNotify(pool, notify);
+        }
 
         MiningNotifyNotification notification = new MiningNotifyNotification();
         notification.setBitcoinVersion(notify.getBitcoinVersion());
@@ -416,8 +469,63 @@ public class ProxyManager {
         if (connections == null || connections.isEmpty()) {
             LOGGER.debug("No worker connections on pool {}. Do not send notify.", pool.getName());
         } else {
+            // Serialize the notification only once for all the connections.
+            try {
+                SerializedNotification serializedNotification = new SerializedNotification(notification);
+                for (WorkerConnection connection : connections) {
+                    if (connection.getPoolSession() == session) {
+                        connection.onPoolNotify(notification, serializedNotification);
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                LOGGER.error("Failed to serialize the notify of pool {}. Do not send notify.", pool.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Called when a secondary session of a pool is closed. Its worker
+     * connections are moved to the other sessions of the pool. The connections
+     * which do not support the extranonce change are closed.
+     * 
+     * @param pool
+     * @param session
+     */
+    public void onPoolSessionDown(Pool pool, PoolSession session) {
+        Set<WorkerConnection> connections = getPoolWorkerConnections(pool);
+
+        if (connections != null && !connections.isEmpty()) {
             for (WorkerConnection connection : connections) {
-                connection.onPoolNotify(notification);
+                if (connection.getPoolSession() == session) {
+                    try {
+                        connection.rebindToPool(pool);
+                    } catch (TooManyWorkersException | ChangeExtranonceNotSupportedException e) {
+                        LOGGER.info("Close connection {} since it cannot be moved from the closed session {}.", connection.getConnectionName(),
+                                session.getName());
+                        connection.close();
+                        onWorkerDisconnection(connection, e);
+                        continue;
+                    }
+
+                    // The miner does not authorize its workers again, so
+                    // authorize them on the new session of the connection.
+                    for (Entry<String, String> entry : connection.getAuthorizedWorkers().entrySet()) {
+                        MiningAuthorizeRequest fakeRequest = new MiningAuthorizeRequest();
+                        fakeRequest.setUsername(entry.getKey());
+                        fakeRequest.setPassword(entry.getValue());
+                        try {
+                            pool.authorizeWorker(connection.getPoolSession(), fakeRequest);
+                        } catch (AuthorizationException e) {
+                            LOGGER.error(
+                                    "Authorization of user {} failed on session {} when moving connection {} from session {}. Closing the connection. Cause: {}",
+                                    entry.getKey(), connection.getPoolSession().getName(), connection.getConnectionName(), session.getName(),
+                                    e.getMessage());
+                            connection.close();
+                            onWorkerDisconnection(connection, e);
+                            break;
+                        }
+                    }
+                }
             }
         }
     }
@@ -463,6 +571,9 @@ public class ProxyManager {
         if (pool.isReady()) {
             LOGGER.warn("Pool {} is UP.", pool.getName());
             poolSwitchingStrategyManager.onPoolUp(pool);
+            if (standbyPoolsWarmer != null) {
+                standbyPoolsWarmer.warmUp(pool);
+            }
         } else {
             LOGGER.warn("Pool {} is DOWN. Moving connections to another one.", pool.getName());
             poolSwitchingStrategyManager.onPoolDown(pool);
@@ -526,6 +637,73 @@ public class ProxyManager {
         }
     }
 
+    /**
+     * Switch the given connections to the given pool in background. The
+     * connections are switched by parallel batches. A running switch is
+     * cancelled. The switch of the connections leaving a pool which is down
+     * is reported as a failover of this pool.
+     * 
+     * @param connections
+     * @param newPool
+     */
+    public void migrateWorkerConnections(List<WorkerConnection> connections, Pool newPool) {
+        Map<WorkerConnection, Pool> targetPools = new LinkedHashMap<WorkerConnection, Pool>();
+        for (WorkerConnection connection : connections) {
+            targetPools.put(connection, newPool);
+        }
+        migrateWorkerConnections(targetPools);
+    }
+
+    /**
+     * Switch each given connection to its target pool in background. The
+     * connections are switched by parallel batches. A running switch is
+     * cancelled. The switch of the connections leaving a pool which is down
+     * is reported as a failover of this pool to each target pool.
+     * 
+     * @param targetPools
+     */
+    public void migrateWorkerConnections(Map<WorkerConnection, Pool> targetPools) {
+        Map<Pool, Map<Pool, PoolFailover>> failovers = new HashMap<Pool, Map<Pool, PoolFailover>>();
+        List<PoolFailover> failoverList = new ArrayList<PoolFailover>();
+        for (Entry<WorkerConnection, Pool> entry : targetPools.entrySet()) {
+            Pool pool = entry.getKey().getPool();
+            if (pool != null && !pool.isReady()) {
+                Map<Pool, PoolFailover> poolFailovers = failovers.get(pool);
+                if (poolFailovers == null) {
+                    poolFailovers = new HashMap<Pool, PoolFailover>();
+                    failovers.put(pool, poolFailovers);
+                }
+                PoolFailover failover = poolFailovers.get(entry.getValue());
+                if (failover == null) {
+                    failover = new PoolFailover(pool, entry.getValue());
+                    poolFailovers.put(entry.getValue(), failover);
+                    failoverList.add(failover);
+                }
+                failover.addConnection(entry.getKey());
+            }
+        }
+        workerConnectionMigrator.migrate(targetPools, failoverList);
+    }
+
+    /**
+     * Return the last failovers, the most recent first.
+     * 
+     * @return
+     */
+    public List<PoolFailover> getLastPoolFailovers() {
+        return workerConnectionMigrator.getLastFailovers();
+    }
+
+    /**
+     * Return the running or last migration of worker connections. Null if no
+     * migration has been started.
+     * 
+     * @return
+     */
+    public WorkerConnectionMigrator.Migration getLastWorkerMigration() {
+        return workerConnectionMigrator.getLastMigration();
+    }
+
     /**
      * Set the priority of the pool with the given name and rebind worker
      * connections based on this new priority.
@@ -628,11 +806,7 @@ public class ProxyManager {
      * @return
      */
     public List<User> getUsers() {
-        List<User> result = new ArrayList<>(users.size());
-        synchronized (users) {
-            result.addAll(users.values());
-        }
-        return result;
+        return new ArrayList<>(users.values());
     }
 
     /**
@@ -788,6 +962,7 @@ public class ProxyManager {
         if (username.getUsername() != null && !username.getUsername().trim().isEmpty()) {
             User user = users.get(username.getUsername());
             if (user != null) {
+                stratumAuthorizationManager.invalidateAuthorizations();
                 List<WorkerConnection> connections = user.getWorkerConnections();
                 if (connections != null && !connections.isEmpty()) {
                     for (WorkerConnection connection : connections) {
@@ -873,6 +1048,7 @@ public class ProxyManager {
             throw new NotFoundException("No connection found with address " + connection.getAddress() + " and port number " + connection.getPort());
         }
 
+        stratumAuthorizationManager.invalidateAuthorizations();
         connectionToKick.close();
         onWorkerDisconnection(connectionToKick, new Exception("Connection kicked"));
 
@@ -905,6 +1081,7 @@ public class ProxyManager {
             throw new NotFoundException("No connection found with address " + inetAddress.getAddress());
         }
 
+        stratumAuthorizationManager.invalidateAuthorizations();
         for (WorkerConnection connectionToKick : connectionsToKick) {
             connectionToKick.close();
             onWorkerDisconnection(connectionToKick, new Exception("Connection kicked"));
@@ -0,0 +1,185 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.manager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.exception.AuthorizationException;
+import strat.mining.stratum.proxy.json.MiningAuthorizeRequest;
+import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
+import strat.mining.stratum.proxy.worker.WorkerConnection;
+
+/**
+ * Keep the standby pools ready to receive the worker connections: the
+ * usernames of the connected workers are authorized in background on the
+ * ready pools the workers are not bound to. Since the standby pools are
+ * subscribed and keep their last job, a failover is then only a rebind of the
+ * connections followed by the notification of the cached job.
+ * 
+ * Only useful for the pools with appendWorkerNames, the other pools are
+ * authorized once with the pool username.
+ * 
+ * A username is authorized only once per pool until the pool restarts, so
+ * the workers reconnecting with the same username do not queue the same
+ * authorizations again.
+ * 
+ * @author Strat
+ * 
+ */
+public class StandbyPoolsWarmer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StandbyPoolsWarmer.class);
+
+	private static final int WARM_UP_THREADS = 4;
+
+	private ProxyManager proxyManager;
+
+	private ExecutorService executor;
+
+	// The usernames authorized or being authorized on each pool.
+	private ConcurrentMap<Pool, Set<String>> warmedUpUsernames;
+
+	public StandbyPoolsWarmer(ProxyManager proxyManager) {
+		this.proxyManager = proxyManager;
+		this.executor = ThreadingUtils.newBoundedExecutor("StandbyPoolWarmUpThread-", WARM_UP_THREADS);
+		this.warmedUpUsernames = new ConcurrentHashMap<Pool, Set<String>>();
+	}
+
+	/**
+	 * Authorize the username of the given request on the standby pools of the
+	 * given connection.
+	 * 
+	 * @param connection
+	 * @param request
+	 */
+	public void warmUp(WorkerConnection connection, MiningAuthorizeRequest request) {
+		for (Pool pool : proxyManager.getPools()) {
+			if (pool != connection.getPool() && isStandby(pool)) {
+				authorize(pool, request.getUsername(), request.getPassword());
+			}
+		}
+	}
+
+	/**
+	 * Authorize on the given pool the usernames of the worker connections
+	 * bound to the other pools. Called when the pool is up: the
+	 * authorizations done before it restarted are lost.
+	 * 
+	 * @param pool
+	 */
+	public void warmUp(Pool pool) {
+		warmedUpUsernames.remove(pool);
+		if (isStandby(pool)) {
+			List<WorkerConnection> connections = proxyManager.getWorkerConnections();
+			Map<String, String> passwordsByUsername = new HashMap<String, String>();
+			for (WorkerConnection connection : connections) {
+				if (connection.getPool() != pool) {
+					for (Entry<String, String> entry : connection.getAuthorizedWorkers().entrySet()) {
+						if (!passwordsByUsername.containsKey(entry.getKey())) {
+							passwordsByUsername.put(entry.getKey(), entry.getValue());
+						}
+					}
+				}
+			}
+
+			if (passwordsByUsername.size() > 0) {
+				LOGGER.info("Warming up the standby pool {} with {} usernames.", pool.getName(), passwordsByUsername.size());
+				for (Entry<String, String> entry : passwordsByUsername.entrySet()) {
+					authorize(pool, entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	private boolean isStandby(Pool pool) {
+		return pool.isEnabled() && pool.isReady() && pool.isAppendWorkerNames();
+	}
+
+	/**
+	 * Return the usernames authorized or being authorized on the given pool.
+	 * 
+	 * @param pool
+	 * @return
+	 */
+	private Set<String> getWarmedUpUsernames(Pool pool) {
+		Set<String> usernames = warmedUpUsernames.get(pool);
+		if (usernames == null) {
+			Set<String> newUsernames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			usernames = warmedUpUsernames.putIfAbsent(pool, newUsernames);
+			if (usernames == null) {
+				usernames = newUsernames;
+			}
+		}
+		return usernames;
+	}
+
+	/**
+	 * Authorize in background the given username on the given pool, if not
+	 * already authorized or being authorized.
+	 * 
+	 * @param pool
+	 * @param username
+	 * @param password
+	 */
+	private void authorize(final Pool pool, String username, String password) {
+		final Set<String> usernames = getWarmedUpUsernames(pool);
+		if (!usernames.add(username)) {
+			return;
+		}
+
+		final MiningAuthorizeRequest request = new MiningAuthorizeRequest();
+		request.setUsername(username);
+		request.setPassword(password);
+		executor.execute(new Runnable() {
+			public void run() {
+				boolean isAuthorized = false;
+				try {
+					// Do nothing if the pool has failed in the meantime.
+					if (pool.isReady()) {
+						pool.authorizeWorker(request);
+						isAuthorized = true;
+					}
+				} catch (AuthorizationException e) {
+					LOGGER.warn("Failed to authorize user {} on the standby pool {}. Cause: {}", request.getUsername(), pool.getName(), e.getMessage());
+				} catch (Exception e) {
+					LOGGER.error("Unexpected error during the authorization of user {} on the standby pool {}.", request.getUsername(), pool.getName(),
+							e);
+				} finally {
+					if (!isAuthorized) {
+						// Let the next authorization of the username retry.
+						usernames.remove(request.getUsername());
+					}
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,426 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.exception.AuthorizationException;
+import strat.mining.stratum.proxy.exception.ChangeExtranonceNotSupportedException;
+import strat.mining.stratum.proxy.exception.TooManyWorkersException;
+import strat.mining.stratum.proxy.json.MiningAuthorizeRequest;
+import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
+import strat.mining.stratum.proxy.worker.WorkerConnection;
+
+/**
+ * Move worker connections to other pools in background. Each connection has
+ * its own target pool. The usernames of the connections are first authorized
+ * on their target pools, once per username and pool and in parallel. Then the
+ * connections are switched in parallel by batches, with an optional delay
+ * between two batches to not flood the new pool.
+ * 
+ * Only one migration runs at a time: starting a new migration cancels the
+ * running one.
+ * 
+ * When the connections leave a pool which is down, the migration reports the
+ * {@link PoolFailover} of this pool to each target pool. The last failovers
+ * are kept.
+ * 
+ * @author Strat
+ * 
+ */
+public class WorkerConnectionMigrator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WorkerConnectionMigrator.class);
+
+	private static final int FAILOVER_HISTORY_SIZE = 50;
+
+	private ProxyManager proxyManager;
+
+	private ExecutorService executor;
+
+	private int parallelism;
+
+	private long batchDelay;
+
+	// The running migration or the last one.
+	private volatile Migration lastMigration;
+
+	private Deque<PoolFailover> lastFailovers;
+
+	public WorkerConnectionMigrator(ProxyManager proxyManager) {
+		this.proxyManager = proxyManager;
+		this.parallelism = Math.max(1, ConfigurationManager.getInstance().getWorkerMigrationParallelism());
+		this.batchDelay = Math.max(0, ConfigurationManager.getInstance().getWorkerMigrationBatchDelay());
+		this.executor = ThreadingUtils.newBoundedExecutor("WorkerMigrationThread-", parallelism);
+		this.lastFailovers = new LinkedList<PoolFailover>();
+	}
+
+	/**
+	 * Start to move each given connection to its target pool. The running
+	 * migration, if any, is cancelled. The failovers are the ones of the
+	 * failed pools the connections are leaving, one per failed pool and
+	 * target pool.
+	 * 
+	 * @param targetPools
+	 *            the target pool of each connection to move
+	 * @param failovers
+	 */
+	public synchronized void migrate(Map<WorkerConnection, Pool> targetPools, List<PoolFailover> failovers) {
+		if (lastMigration != null) {
+			lastMigration.cancel();
+		}
+
+		synchronized (lastFailovers) {
+			for (PoolFailover failover : failovers) {
+				lastFailovers.addFirst(failover);
+				if (lastFailovers.size() > FAILOVER_HISTORY_SIZE) {
+					lastFailovers.removeLast();
+				}
+			}
+		}
+
+		Migration migration = new Migration(targetPools, failovers);
+		lastMigration = migration;
+		ThreadingUtils.newThread(migration, "WorkerMigrationCoordinatorThread-" + migration.getTargetPoolName()).start();
+	}
+
+	/**
+	 * Return the running migration or the last one. Null if no migration has
+	 * been started.
+	 * 
+	 * @return
+	 */
+	public Migration getLastMigration() {
+		return lastMigration;
+	}
+
+	/**
+	 * Return the last failovers, the most recent first.
+	 * 
+	 * @return
+	 */
+	public List<PoolFailover> getLastFailovers() {
+		synchronized (lastFailovers) {
+			return new ArrayList<PoolFailover>(lastFailovers);
+		}
+	}
+
+	/**
+	 * The migration of a set of connections, each to its target pool.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	public class Migration implements Runnable {
+
+		private final List<WorkerConnection> connections;
+
+		private final Map<WorkerConnection, Pool> targetPools;
+
+		private final String targetPoolName;
+
+		private final List<PoolFailover> failovers;
+
+		// The usernames not authorized on each target pool.
+		private final Map<Pool, Set<String>> failedUsernames;
+
+		private final AtomicInteger numberOfMigratedConnections;
+
+		private final AtomicInteger numberOfFailedConnections;
+
+		private volatile int numberOfUsernames;
+
+		private volatile boolean isCancelled = false;
+
+		private volatile boolean isDone = false;
+
+		private final long startTime;
+
+		private volatile long endTime;
+
+		private Migration(Map<WorkerConnection, Pool> targetPools, List<PoolFailover> failovers) {
+			this.targetPools = new LinkedHashMap<WorkerConnection, Pool>(targetPools);
+			this.connections = new ArrayList<WorkerConnection>(this.targetPools.keySet());
+			this.failovers = new ArrayList<PoolFailover>(failovers);
+			this.failedUsernames = new HashMap<Pool, Set<String>>();
+			StringBuilder targetPoolNames = new StringBuilder();
+			for (Pool targetPool : new LinkedHashSet<Pool>(this.targetPools.values())) {
+				failedUsernames.put(targetPool, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+				targetPoolNames.append(targetPoolNames.length() > 0 ? ", " : "").append(targetPool.getName());
+			}
+			this.targetPoolName = targetPoolNames.toString();
+			this.numberOfMigratedConnections = new AtomicInteger(0);
+			this.numberOfFailedConnections = new AtomicInteger(0);
+			this.startTime = System.currentTimeMillis();
+		}
+
+		public void run() {
+			LOGGER.info("Start to switch {} worker connections to pool {}.", connections.size(), targetPoolName);
+			try {
+				authorizeUsernames();
+
+				for (int batchStart = 0; batchStart < connections.size() && !isCancelled; batchStart += parallelism) {
+					if (batchStart > 0 && batchDelay > 0) {
+						Thread.sleep(batchDelay);
+					}
+					List<WorkerConnection> batch = connections.subList(batchStart, Math.min(batchStart + parallelism, connections.size()));
+					final CountDownLatch batchLatch = new CountDownLatch(batch.size());
+					for (final WorkerConnection connection : batch) {
+						executor.execute(new Runnable() {
+							public void run() {
+								try {
+									migrateConnection(connection);
+								} finally {
+									batchLatch.countDown();
+								}
+							}
+						});
+					}
+					batchLatch.await();
+				}
+			} catch (InterruptedException e) {
+				LOGGER.warn("Switch of the worker connections to pool {} interrupted.", targetPoolName);
+			} catch (Exception e) {
+				LOGGER.error("Unexpected error during the switch of the worker connections to pool {}.", targetPoolName, e);
+			} finally {
+				endTime = System.currentTimeMillis();
+				isDone = true;
+				LOGGER.info("Switch of worker connections to pool {} {} in {} ms. {} connections switched, {} failed.", targetPoolName,
+						isCancelled ? "cancelled" : "done", endTime - startTime, numberOfMigratedConnections.get(), numberOfFailedConnections.get());
+				for (PoolFailover failover : failovers) {
+					failover.complete(isCancelled);
+				}
+			}
+		}
+
+		/**
+		 * Authorize in parallel each username of the connections once on each
+		 * target pool of its connections. At most parallelism authorizations
+		 * are queued at a time since the executor may be unbounded. The
+		 * connections are then switched without waiting for the pool
+		 * authorizations.
+		 * 
+		 * @throws InterruptedException
+		 */
+		private void authorizeUsernames() throws InterruptedException {
+			Map<Pool, Map<String, String>> passwordsByUsernameByPool = new HashMap<Pool, Map<String, String>>();
+			int numberOfAuthorizations = 0;
+			for (WorkerConnection connection : connections) {
+				Pool targetPool = targetPools.get(connection);
+				Map<String, String> passwordsByUsername = passwordsByUsernameByPool.get(targetPool);
+				if (passwordsByUsername == null) {
+					passwordsByUsername = new HashMap<String, String>();
+					passwordsByUsernameByPool.put(targetPool, passwordsByUsername);
+				}
+				for (Entry<String, String> entry : connection.getAuthorizedWorkers().entrySet()) {
+					if (!passwordsByUsername.containsKey(entry.getKey())) {
+						passwordsByUsername.put(entry.getKey(), entry.getValue());
+						numberOfAuthorizations++;
+					}
+				}
+			}
+			numberOfUsernames = numberOfAuthorizations;
+
+			final CountDownLatch authorizationsLatch = new CountDownLatch(numberOfAuthorizations);
+			final Semaphore authorizationPermits = new Semaphore(parallelism);
+			for (Entry<Pool, Map<String, String>> poolEntry : passwordsByUsernameByPool.entrySet()) {
+				final Pool targetPool = poolEntry.getKey();
+				for (final Entry<String, String> entry : poolEntry.getValue().entrySet()) {
+					authorizationPermits.acquire();
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								if (!isCancelled) {
+									MiningAuthorizeRequest request = new MiningAuthorizeRequest();
+									request.setUsername(entry.getKey());
+									request.setPassword(entry.getValue());
+									targetPool.authorizeWorker(request);
+								}
+							} catch (AuthorizationException e) {
+								LOGGER.error("Authorization of user {} failed on pool {}. Its connections will be closed. Cause: {}", entry.getKey(),
+										targetPool.getName(), e.getMessage());
+								failedUsernames.get(targetPool).add(entry.getKey());
+							} catch (Exception e) {
+								LOGGER.error("Unexpected error during the authorization of user {} on pool {}.", entry.getKey(), targetPool.getName(),
+										e);
+								failedUsernames.get(targetPool).add(entry.getKey());
+							} finally {
+								authorizationPermits.release();
+								authorizationsLatch.countDown();
+							}
+						}
+					});
+				}
+			}
+			authorizationsLatch.await();
+		}
+
+		/**
+		 * Switch the given connection to its target pool. Close it if one of
+		 * its usernames is not authorized on the target pool or if it does not
+		 * support the extranonce change.
+		 * 
+		 * @param connection
+		 */
+		private void migrateConnection(WorkerConnection connection) {
+			Pool targetPool = targetPools.get(connection);
+			// A connection is switched by one migration at a time.
+			synchronized (connection) {
+				if (!isCancelled && connection.isConnected() && !targetPool.equals(connection.getPool())) {
+					PoolFailover failover = getFailover(connection.getPool(), targetPool);
+					boolean isSwitched = false;
+					try {
+						if (!Collections.disjoint(failedUsernames.get(targetPool), connection.getAuthorizedWorkers().keySet())) {
+							LOGGER.error("Authorization failed on pool {} when rebinding connection {}. Closing the connection.", targetPool.getName(),
+									connection.getConnectionName());
+							connection.close();
+							numberOfFailedConnections.incrementAndGet();
+						} else {
+							proxyManager.switchPoolForConnection(connection, targetPool);
+							numberOfMigratedConnections.incrementAndGet();
+							isSwitched = true;
+						}
+					} catch (TooManyWorkersException e) {
+						LOGGER.warn("Failed to rebind worker connection {} on pool {}. Too many workers on this pool.", connection.getConnectionName(),
+								targetPool.getName());
+						numberOfFailedConnections.incrementAndGet();
+					} catch (ChangeExtranonceNotSupportedException e) {
+						LOGGER.info("Close connection {} since the on-the-fly extranonce change is not supported.", connection.getConnectionName(),
+								targetPool.getName());
+						connection.close();
+						proxyManager.onWorkerDisconnection(connection, e);
+						numberOfFailedConnections.incrementAndGet();
+					} catch (Exception e) {
+						LOGGER.error("Failed to rebind worker connection {} on pool {}.", connection.getConnectionName(), targetPool.getName(), e);
+						numberOfFailedConnections.incrementAndGet();
+					} finally {
+						if (failover != null) {
+							if (isSwitched) {
+								failover.onConnectionSwitched(connection);
+							} else {
+								failover.onConnectionFailed(connection);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Return the failover from the given failed pool to the given target
+		 * pool. Null if the connections of the pool are not failing over.
+		 * 
+		 * @param failedPool
+		 * @param targetPool
+		 * @return
+		 */
+		private PoolFailover getFailover(Pool failedPool, Pool targetPool) {
+			for (PoolFailover failover : failovers) {
+				if (failover.getFailedPool().equals(failedPool) && failover.getTargetPool().equals(targetPool)) {
+					return failover;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Stop the migration. The connections being switched are switched, the
+		 * others are not.
+		 */
+		public void cancel() {
+			isCancelled = true;
+		}
+
+		/**
+		 * Return the names of the target pools, separated by commas.
+		 * 
+		 * @return
+		 */
+		public String getTargetPoolName() {
+			return targetPoolName;
+		}
+
+		public int getNumberOfConnections() {
+			return connections.size();
+		}
+
+		public int getNumberOfMigratedConnections() {
+			return numberOfMigratedConnections.get();
+		}
+
+		public int getNumberOfFailedConnections() {
+			return numberOfFailedConnections.get();
+		}
+
+		public int getNumberOfUsernames() {
+			return numberOfUsernames;
+		}
+
+		public int getNumberOfFailedUsernames() {
+			int result = 0;
+			for (Set<String> usernames : failedUsernames.values()) {
+				result += usernames.size();
+			}
+			return result;
+		}
+
+		public boolean isCancelled() {
+			return isCancelled;
+		}
+
+		public boolean isDone() {
+			return isDone;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Return the duration of the migration in milliseconds, up to now if
+		 * it is not done.
+		 * 
+		 * @return
+		 */
+		public long getDuration() {
+			return (isDone ? endTime : System.currentTimeMillis()) - startTime;
+		}
+	}
+
+}
@@ -18,6 +18,7 @@
  */
 package strat.mining.stratum.proxy.manager.strategy;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,9 +26,8 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import strat.mining.stratum.proxy.exception.ChangeExtranonceNotSupportedException;
 import strat.mining.stratum.proxy.exception.NoPoolAvailableException;
-import strat.mining.stratum.proxy.exception.TooManyWorkersException;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
 import strat.mining.stratum.proxy.manager.ProxyManager;
 import strat.mining.stratum.proxy.pool.Pool;
 import strat.mining.stratum.proxy.worker.WorkerConnection;
@@ -68,23 +68,17 @@ public abstract class MonoCurrentPoolStrategyManager implements PoolSwitchingStr
 				if (oldCurrentPool != currentPool) {
 					LOGGER.info("Switching worker connections from pool {} to pool {}.", oldCurrentPool != null ? oldCurrentPool.getName() : "none",
 							currentPool != null ? currentPool.getName() : "none");
+					List<WorkerConnection> connectionsToSwitch = new ArrayList<WorkerConnection>();
 					for (WorkerConnection connection : workerConnections) {
 						// If the connection is not bound to the poolToBind,
 						// switch the pool.
-						if (!connection.getPool().equals(currentPool)) {
-							try {
-								proxyManager.switchPoolForConnection(connection, currentPool);
-							} catch (TooManyWorkersException e) {
-								LOGGER.warn("Failed to rebind worker connection {} on pool {}. Too many workers on this pool.",
-										connection.getConnectionName(), currentPool.getName());
-							} catch (ChangeExtranonceNotSupportedException e) {
-								LOGGER.info("Close connection {} since the on-the-fly extranonce change is not supported.",
-										connection.getConnectionName(), currentPool.getName());
-								connection.close();
-								proxyManager.onWorkerDisconnection(connection, e);
-							}
+						if (!currentPool.equals(connection.getPool())) {
+							connectionsToSwitch.add(connection);
 						}
 					}
+					if (connectionsToSwitch.size() > 0) {
+						proxyManager.migrateWorkerConnections(connectionsToSwitch, currentPool);
+					}
 				}
 			}
 
@@ -131,6 +125,11 @@ public abstract class MonoCurrentPoolStrategyManager implements PoolSwitchingStr
 
 	}
 
+	@Override
+	public void onPoolNotify(Pool pool, MiningNotifyNotification notify) {
+		// Nothing to do.
+	}
+
 	/**
 	 * Compute and set the current pool.
 	 * 
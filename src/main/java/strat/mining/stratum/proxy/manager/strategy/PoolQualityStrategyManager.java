@@ -0,0 +1,448 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.manager.strategy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.exception.NoPoolAvailableException;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.manager.ProxyManager;
+import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.utils.ExponentialMovingAverage;
+import strat.mining.stratum.proxy.utils.Timer;
+
+/**
+ * A pool switching manager which mines on the pool with the best expected
+ * effective accepted hashrate.
+ * 
+ * The part of the hashrate accepted by a pool is estimated with:
+ * <ul>
+ * <li>the reject ratio of the pool (measured on the accepted and rejected
+ * difficulty of the shares submitted to the pool),</li>
+ * <li>the stale ratio due to the latency of the pool: its delay to notify a
+ * new block compared to the first pool which has notified this block (on the
+ * same coin) plus half of its response time to the requests, compared to the
+ * average time between two blocks.</li>
+ * </ul>
+ * 
+ * A pool which has not received shares yet is expected to reject as much as
+ * the measured pools, and the reject ratio of a pool which no longer receives
+ * shares is pulled back to the one of the pools which do at each evaluation.
+ * 
+ * The pools are evaluated periodically. To avoid flapping, the current pool is
+ * left only if another pool offers a gain higher than the switch threshold
+ * during a full evaluation period (or if the current pool fails).
+ * 
+ * @author Strat
+ * 
+ */
+public class PoolQualityStrategyManager extends MonoCurrentPoolStrategyManager {
+
+	public static final String NAME = "poolQuality";
+
+	public static final String DESCRIPTION = "Mine on the pool with the best expected effective accepted hashrate. The expected effective accepted hashrate is based on the reject ratio of the pool, its latency to notify the new blocks compared to the other pools on the same coin and its response time to the requests.<br>The pools are evaluated periodically and a switch only occurs if another pool is better than the current one by the switch threshold during a full evaluation period.";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PoolQualityStrategyManager.class);
+
+	// The weight of each new value in the averages.
+	private static final double AVERAGE_WEIGHT = 0.2;
+
+	// The number of recent blocks kept to compute the notify delays.
+	private static final int BLOCK_HISTORY_SIZE = 32;
+
+	// The period between two evaluations. (In milliseconds)
+	private long evaluationPeriod = Math.max(1, ConfigurationManager.getInstance().getPoolQualityEvaluationPeriod()) * 1000L;
+
+	// The gain needed to switch to another pool. (0.05 for 5%)
+	private double switchThreshold = Math.max(0, ConfigurationManager.getInstance().getPoolQualitySwitchThreshold()) / 100d;
+
+	private ConcurrentMap<Pool, PoolQuality> poolQualities;
+
+	// The time the blocks have been notified for the first time, by previous
+	// hash.
+	private Map<String, Long> blockNotificationTimes;
+
+	private volatile EvaluationTask evaluationTask;
+
+	private volatile boolean isStopped = false;
+
+	private long numberOfEvaluations = 0;
+
+	// True while the evaluation task computes the current pool. The candidate
+	// pools are only recorded and confirmed by the evaluations.
+	private boolean isEvaluating = false;
+
+	// The pool better than the current one and the evaluation when it has been
+	// found better.
+	private Pool candidatePool;
+	private long candidateEvaluation;
+
+	private Map<Pool, Double> lastScores;
+
+	public PoolQualityStrategyManager(ProxyManager proxyManager) {
+		super(proxyManager);
+		this.poolQualities = new ConcurrentHashMap<Pool, PoolQuality>();
+		this.blockNotificationTimes = new HashMap<String, Long>();
+		this.lastScores = new HashMap<Pool, Double>();
+
+		checkConnectionsBinding();
+		scheduleEvaluation();
+	}
+
+	@Override
+	public void onPoolRemoved(Pool pool) {
+		poolQualities.remove(pool);
+		super.onPoolRemoved(pool);
+	}
+
+	@Override
+	public void onPoolDown(Pool pool) {
+		// The first notify after the reconnection is not a new block, do not
+		// measure its delay.
+		getPoolQuality(pool).lastPreviousHash = null;
+		super.onPoolDown(pool);
+	}
+
+	@Override
+	public void onPoolNotify(Pool pool, MiningNotifyNotification notify) {
+		String previousHash = notify.getPreviousHash();
+		if (previousHash != null) {
+			long now = System.currentTimeMillis();
+			PoolQuality quality = getPoolQuality(pool);
+			synchronized (blockNotificationTimes) {
+				if (!previousHash.equals(quality.lastPreviousHash)) {
+					// Do not measure the first notify of the pool, it is not a
+					// new block.
+					if (quality.lastPreviousHash != null) {
+						Long firstNotificationTime = blockNotificationTimes.get(previousHash);
+						quality.notifyDelay.add(firstNotificationTime != null ? now - firstNotificationTime : 0);
+						if (quality.lastBlockTime != null) {
+							quality.blockInterval.add(now - quality.lastBlockTime);
+						}
+						quality.lastBlockTime = now;
+					}
+					quality.lastPreviousHash = previousHash;
+
+					if (!blockNotificationTimes.containsKey(previousHash)) {
+						if (blockNotificationTimes.size() >= BLOCK_HISTORY_SIZE) {
+							removeOldestBlock();
+						}
+						blockNotificationTimes.put(previousHash, now);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		isStopped = true;
+		if (evaluationTask != null) {
+			evaluationTask.cancel();
+		}
+	}
+
+	/**
+	 * Compute and set the current pool.
+	 */
+	@Override
+	protected synchronized void computeCurrentPool() throws NoPoolAvailableException {
+		List<Pool> pools = getProxyManager().getPools();
+		List<Pool> candidates = new ArrayList<Pool>();
+		for (Pool pool : pools) {
+			if (pool.isReady() && pool.isEnabled() && pool.isStable()) {
+				candidates.add(pool);
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			throw new NoPoolAvailableException("No pool available. " + pools);
+		}
+
+		Map<Pool, Double> scores = computeScores(candidates);
+		lastScores = scores;
+		Pool bestPool = null;
+		for (Pool pool : candidates) {
+			if (bestPool == null || scores.get(pool) > scores.get(bestPool)) {
+				bestPool = pool;
+			}
+		}
+
+		Pool currentPool = getCurrentPool();
+		if (currentPool == null || !candidates.contains(currentPool)) {
+			// No current pool or it is no more available. Switch now.
+			candidatePool = null;
+			setCurrentPool(bestPool);
+		} else if (isEvaluating) {
+			// The current pool is only left by an evaluation. Between two
+			// evaluations, it is kept while it is available.
+			if (bestPool != currentPool && scores.get(bestPool) > scores.get(currentPool) * (1 + switchThreshold)) {
+				if (bestPool != candidatePool) {
+					LOGGER.info("Pool {} is better than the current pool {} ({} vs {}). Switch if it is still better at the next evaluation.",
+							bestPool.getName(), currentPool.getName(), scores.get(bestPool), scores.get(currentPool));
+					candidatePool = bestPool;
+					candidateEvaluation = numberOfEvaluations;
+				} else if (numberOfEvaluations > candidateEvaluation) {
+					candidatePool = null;
+					setCurrentPool(bestPool);
+				}
+			} else {
+				candidatePool = null;
+			}
+		}
+	}
+
+	/**
+	 * Return the score of the given pools: the expected part of the hashrate
+	 * which is accepted by the pool, between 0 and 1. The unknown measures of a
+	 * pool (reject ratio and latencies) are replaced by the average of the
+	 * measures of the other pools.
+	 * 
+	 * @param pools
+	 * @return
+	 */
+	private Map<Pool, Double> computeScores(List<Pool> pools) {
+		List<Double> rejectRatios = new ArrayList<Double>();
+		List<Double> notifyDelays = new ArrayList<Double>();
+		List<Double> responseTimes = new ArrayList<Double>();
+		List<Double> blockIntervals = new ArrayList<Double>();
+		for (Pool pool : pools) {
+			PoolQuality quality = getPoolQuality(pool);
+			rejectRatios.add(quality.rejectRatio.get());
+			notifyDelays.add(quality.notifyDelay.get());
+			responseTimes.add(pool.getResponseTime());
+			blockIntervals.add(quality.blockInterval.get());
+		}
+		double defaultRejectRatio = getAverage(rejectRatios);
+		double defaultNotifyDelay = getAverage(notifyDelays);
+		double defaultResponseTime = getAverage(responseTimes);
+		double defaultBlockInterval = getAverage(blockIntervals);
+
+		Map<Pool, Double> scores = new HashMap<Pool, Double>();
+		for (int i = 0; i < pools.size(); i++) {
+			double rejectRatio = rejectRatios.get(i) != null ? rejectRatios.get(i) : defaultRejectRatio;
+			double notifyDelay = notifyDelays.get(i) != null ? notifyDelays.get(i) : defaultNotifyDelay;
+			double responseTime = responseTimes.get(i) != null ? responseTimes.get(i) : defaultResponseTime;
+			double blockInterval = blockIntervals.get(i) != null ? blockIntervals.get(i) : defaultBlockInterval;
+
+			double staleRatio = blockInterval > 0 ? Math.min(1, (notifyDelay + responseTime / 2) / blockInterval) : 0;
+			scores.put(pools.get(i), (1 - rejectRatio) * (1 - staleRatio));
+		}
+		return scores;
+	}
+
+	/**
+	 * Return the average of the non null values. 0 if there is no value.
+	 * 
+	 * @param values
+	 * @return
+	 */
+	private double getAverage(List<Double> values) {
+		double sum = 0;
+		int count = 0;
+		for (Double value : values) {
+			if (value != null) {
+				sum += value;
+				count++;
+			}
+		}
+		return count > 0 ? sum / count : 0;
+	}
+
+	/**
+	 * Update the reject ratio of the pools with the shares submitted since the
+	 * last evaluation. The reject ratio of the pools which have received no
+	 * shares since the last evaluation is pulled toward the average reject
+	 * ratio of the pools which have, so that a pool left once is not judged
+	 * on its old measure forever.
+	 */
+	private void updateRejectRatios() {
+		List<PoolQuality> staleQualities = new ArrayList<PoolQuality>();
+		List<Double> freshRejectRatios = new ArrayList<Double>();
+		for (Pool pool : getProxyManager().getPools()) {
+			PoolQuality quality = getPoolQuality(pool);
+			double acceptedDifficulty = pool.getAcceptedDifficulty();
+			double rejectedDifficulty = pool.getRejectedDifficulty();
+			double acceptedDelta = acceptedDifficulty - quality.lastAcceptedDifficulty;
+			double rejectedDelta = rejectedDifficulty - quality.lastRejectedDifficulty;
+			if (acceptedDelta + rejectedDelta > 0) {
+				quality.rejectRatio.add(rejectedDelta / (acceptedDelta + rejectedDelta));
+				freshRejectRatios.add(quality.rejectRatio.get());
+			} else if (quality.rejectRatio.get() != null) {
+				staleQualities.add(quality);
+			}
+			quality.lastAcceptedDifficulty = acceptedDifficulty;
+			quality.lastRejectedDifficulty = rejectedDifficulty;
+		}
+
+		if (!freshRejectRatios.isEmpty()) {
+			double averageRejectRatio = getAverage(freshRejectRatios);
+			for (PoolQuality quality : staleQualities) {
+				quality.rejectRatio.add(averageRejectRatio);
+			}
+		}
+	}
+
+	/**
+	 * Remove the block notified for the first time the longest time ago.
+	 */
+	private void removeOldestBlock() {
+		String oldestBlock = null;
+		long oldestTime = Long.MAX_VALUE;
+		for (Map.Entry<String, Long> entry : blockNotificationTimes.entrySet()) {
+			if (entry.getValue() < oldestTime) {
+				oldestBlock = entry.getKey();
+				oldestTime = entry.getValue();
+			}
+		}
+		blockNotificationTimes.remove(oldestBlock);
+	}
+
+	private PoolQuality getPoolQuality(Pool pool) {
+		PoolQuality quality = poolQualities.get(pool);
+		if (quality == null) {
+			PoolQuality newQuality = new PoolQuality();
+			quality = poolQualities.putIfAbsent(pool, newQuality);
+			if (quality == null) {
+				quality = newQuality;
+			}
+		}
+		return quality;
+	}
+
+	private void scheduleEvaluation() {
+		evaluationTask = new EvaluationTask();
+		Timer.getInstance().schedule(evaluationTask, evaluationPeriod);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public synchronized Map<String, String> getDetails() {
+		Map<String, String> details = super.getDetails();
+		details.put("Evaluation period", String.valueOf(evaluationPeriod / 1000));
+		details.put("Switch threshold", String.valueOf(Math.round(switchThreshold * 100)) + "%");
+		details.put("Candidate pool", candidatePool != null ? candidatePool.getName() : "None");
+
+		// The hashrate of the workers is the same whatever the pool.
+		double workersHashrate = 0;
+		for (Pool pool : getProxyManager().getPools()) {
+			workersHashrate += pool.getAcceptedHashesPerSeconds() + pool.getRejectedHashesPerSeconds();
+		}
+
+		for (Map.Entry<Pool, PoolQuality> entry : poolQualities.entrySet()) {
+			String poolName = entry.getKey().getName();
+			PoolQuality quality = entry.getValue();
+			Double score = lastScores.get(entry.getKey());
+			if (score != null) {
+				details.put("Score of pool " + poolName, String.format("%.2f%%", score * 100));
+				details.put("Expected accepted hashrate of pool " + poolName, String.valueOf((long) (score * workersHashrate)));
+			}
+			details.put("Reject ratio of pool " + poolName, formatMeasure(quality.rejectRatio.get() != null ? quality.rejectRatio.get() * 100 : null));
+			details.put("Notify delay of pool " + poolName + " (ms)", formatMeasure(quality.notifyDelay.get()));
+			details.put("Response time of pool " + poolName + " (ms)", formatMeasure(entry.getKey().getResponseTime()));
+			details.put("Block interval of pool " + poolName + " (s)",
+					formatMeasure(quality.blockInterval.get() != null ? quality.blockInterval.get() / 1000 : null));
+		}
+		return details;
+	}
+
+	private String formatMeasure(Double value) {
+		return value != null ? String.format("%.2f", value) : "Unknown";
+	}
+
+	@Override
+	public String getDescription() {
+		return DESCRIPTION;
+	}
+
+	@Override
+	public void setParameter(String parameterKey, String value) {
+		// No parameters can be changed.
+	}
+
+	/**
+	 * The measures of a pool.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class PoolQuality {
+
+		private final ExponentialMovingAverage rejectRatio = new ExponentialMovingAverage(AVERAGE_WEIGHT);
+
+		// The delay of the pool to notify the new blocks. (In milliseconds)
+		private final ExponentialMovingAverage notifyDelay = new ExponentialMovingAverage(AVERAGE_WEIGHT);
+
+		// The time between two blocks. (In milliseconds)
+		private final ExponentialMovingAverage blockInterval = new ExponentialMovingAverage(AVERAGE_WEIGHT);
+
+		// Guarded by the blockNotificationTimes lock.
+		private String lastPreviousHash;
+		private Long lastBlockTime;
+
+		// Only accessed by the evaluation.
+		private double lastAcceptedDifficulty = 0;
+		private double lastRejectedDifficulty = 0;
+
+	}
+
+	/**
+	 * The task that evaluates the pools and switch the pool if needed.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private class EvaluationTask extends Timer.Task {
+
+		public EvaluationTask() {
+			setName("PoolQualityEvaluationTask");
+		}
+
+		public void run() {
+			synchronized (PoolQualityStrategyManager.this) {
+				numberOfEvaluations++;
+				updateRejectRatios();
+				isEvaluating = true;
+				try {
+					checkConnectionsBinding();
+				} finally {
+					isEvaluating = false;
+				}
+			}
+			if (!isStopped) {
+				scheduleEvaluation();
+			}
+		}
+
+	}
+
+}
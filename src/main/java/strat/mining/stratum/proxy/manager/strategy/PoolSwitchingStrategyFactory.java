@@ -35,9 +35,13 @@ public class PoolSwitchingStrategyFactory {
 			result = getPriorityFailoverStrategyManager();
 		} else if (WeightedRoundRobinStrategyManager.NAME.equalsIgnoreCase(name)) {
 			result = getWeightedRoundRobinStrategyManager();
+		} else if (PoolQualityStrategyManager.NAME.equalsIgnoreCase(name)) {
+			result = getPoolQualityStrategyManager();
+		} else if (WeightedHashrateSplitStrategyManager.NAME.equalsIgnoreCase(name)) {
+			result = getWeightedHashrateSplitStrategyManager();
 		} else {
 			throw new UnsupportedPoolSwitchingStrategyException("No pool switching strategy found with name " + name
-					+ ". Available strategy are: priorityFailover, weightedRoundRobin");
+					+ ". Available strategy are: priorityFailover, weightedRoundRobin, poolQuality, weightedHashrateSplit");
 		}
 		return result;
 	}
@@ -49,4 +53,12 @@ public class PoolSwitchingStrategyFactory {
 	private WeightedRoundRobinStrategyManager getWeightedRoundRobinStrategyManager() {
 		return new WeightedRoundRobinStrategyManager(proxyManager);
 	}
+
+	private PoolQualityStrategyManager getPoolQualityStrategyManager() {
+		return new PoolQualityStrategyManager(proxyManager);
+	}
+
+	private WeightedHashrateSplitStrategyManager getWeightedHashrateSplitStrategyManager() {
+		return new WeightedHashrateSplitStrategyManager(proxyManager);
+	}
 }
@@ -21,6 +21,7 @@ package strat.mining.stratum.proxy.manager.strategy;
 import java.util.Map;
 
 import strat.mining.stratum.proxy.exception.NoPoolAvailableException;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
 import strat.mining.stratum.proxy.pool.Pool;
 import strat.mining.stratum.proxy.worker.WorkerConnection;
 
@@ -81,6 +82,8 @@ public interface PoolSwitchingStrategyManager {
 	 */
 	public void onPoolStable(Pool pool);
 
+	public void onPoolNotify(Pool pool, MiningNotifyNotification notify);
+
 	/**
 	 * Return the pool to which the connection has to be bound.
 	 * 
@@ -0,0 +1,464 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.manager.strategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.exception.NoPoolAvailableException;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.manager.ProxyManager;
+import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.utils.Timer;
+import strat.mining.stratum.proxy.worker.WorkerConnection;
+
+/**
+ * A pool switching manager which splits the hashrate of the worker
+ * connections over all the available pools in proportion to their weight.
+ * Each connection mines on one pool, and the connections are spread by their
+ * hashrate (not by their number): a new connection is bound to the pool the
+ * most below its expected hashrate, and the connections are rebalanced
+ * periodically or when a pool changes.
+ * 
+ * A rebalance only moves the connections of the unavailable pools and the few
+ * connections needed to bring each pool back near its expected hashrate. The
+ * pools which are less than the rebalance threshold away from their expected
+ * hashrate are not touched.
+ * 
+ * @author Strat
+ * 
+ */
+public class WeightedHashrateSplitStrategyManager implements PoolSwitchingStrategyManager {
+
+	public static final String NAME = "weightedHashrateSplit";
+
+	public static final String DESCRIPTION = "Mine on all pools at the same time. The hashrate of the workers is split over the pools based on their weight value: each worker connection mines on one pool and the connections are spread by hashrate.<br>For example, with 2 pools (pool1, weight=9) and (pool2, weight=1): the connections which provide 90% of the hashrate mine on pool1 and the others on pool2. Only a few connections are moved when the weights, the pools or the hashrate change.";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WeightedHashrateSplitStrategyManager.class);
+
+	private ProxyManager proxyManager;
+
+	// The period between two rebalances. (In milliseconds)
+	private long rebalancePeriod = Math.max(1, ConfigurationManager.getInstance().getHashrateSplitRebalancePeriod()) * 1000L;
+
+	// The gap to the expected hashrate of a pool under which no connection is
+	// moved. (0.05 for 5% of the total hashrate)
+	private double rebalanceThreshold = Math.max(0, ConfigurationManager.getInstance().getHashrateSplitRebalanceThreshold()) / 100d;
+
+	// The hashrate of the connections bound to each pool at the last
+	// rebalance, plus the expected hashrate of the connections bound since.
+	private Map<Pool, Double> poolLoads;
+
+	// The hashrate given to a connection which has not submitted shares yet.
+	private double defaultConnectionLoad = 1;
+
+	private final Object rebalanceLock = new Object();
+
+	private volatile RebalanceTask rebalanceTask;
+
+	private volatile boolean isStopped = false;
+
+	public WeightedHashrateSplitStrategyManager(ProxyManager proxyManager) {
+		this.proxyManager = proxyManager;
+		this.poolLoads = new HashMap<Pool, Double>();
+
+		for (Pool pool : proxyManager.getPools()) {
+			if (pool.getWeight() == null) {
+				pool.setWeight(1);
+			}
+		}
+
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolAdded(Pool pool) {
+		if (pool.getWeight() == null) {
+			pool.setWeight(1);
+		}
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolRemoved(Pool pool) {
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolUpdated(Pool pool) {
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolDown(Pool pool) {
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolUp(Pool pool) {
+		// Nothing to do. Wait for the pool to be stable.
+	}
+
+	@Override
+	public void onPoolStable(Pool pool) {
+		scheduleRebalance(0);
+	}
+
+	@Override
+	public void onPoolNotify(Pool pool, MiningNotifyNotification notify) {
+		// Nothing to do.
+	}
+
+	@Override
+	public synchronized Pool getPoolForConnection(WorkerConnection connection) throws NoPoolAvailableException {
+		List<Pool> pools = getAvailablePools();
+		if (pools.isEmpty()) {
+			throw new NoPoolAvailableException("No pool available. " + proxyManager.getPools());
+		}
+
+		// Bind the connection to the pool the most below its expected
+		// hashrate, once the connection is added.
+		double totalLoad = defaultConnectionLoad;
+		for (Pool pool : pools) {
+			totalLoad += getLoad(pool);
+		}
+		Map<Pool, Double> expectedLoads = getExpectedLoads(pools, totalLoad);
+		Pool result = null;
+		for (Pool pool : pools) {
+			if (result == null || expectedLoads.get(pool) - getLoad(pool) > expectedLoads.get(result) - getLoad(result)) {
+				result = pool;
+			}
+		}
+		poolLoads.put(result, getLoad(result) + defaultConnectionLoad);
+
+		return result;
+	}
+
+	/**
+	 * Rebalance the worker connections over the available pools.
+	 */
+	protected void rebalance() {
+		// Only one rebalance at a time.
+		synchronized (rebalanceLock) {
+			Map<WorkerConnection, Pool> moves = null;
+			try {
+				moves = computeMoves();
+			} catch (NoPoolAvailableException e) {
+				if (proxyManager.getWorkerConnections().size() > 0) {
+					LOGGER.error("Failed to rebalance workers connections. No pool is available. Closing all workers connections.", e);
+					proxyManager.closeAllWorkerConnections();
+				}
+			}
+
+			// The connections are moved in background by parallel batches.
+			if (moves != null && !moves.isEmpty()) {
+				LOGGER.info("Rebalancing the hashrate: moving {} worker connections.", moves.size());
+				proxyManager.migrateWorkerConnections(moves);
+			}
+		}
+	}
+
+	/**
+	 * Compute the connections to move and their new pool. First the
+	 * connections of the unavailable pools, then the connections of the pools
+	 * above their expected hashrate, the biggest connection which does not
+	 * overshoot first.
+	 * 
+	 * @return
+	 * @throws NoPoolAvailableException
+	 */
+	private synchronized Map<WorkerConnection, Pool> computeMoves() throws NoPoolAvailableException {
+		List<Pool> pools = getAvailablePools();
+		for (Pool pool : proxyManager.getPools()) {
+			pool.setIsActive(pools.contains(pool));
+		}
+		if (pools.isEmpty()) {
+			poolLoads.clear();
+			throw new NoPoolAvailableException("No pool available. " + proxyManager.getPools());
+		}
+
+		List<WorkerConnection> connections = proxyManager.getWorkerConnections();
+		updateDefaultConnectionLoad(connections);
+
+		Map<Pool, List<WorkerConnection>> poolConnections = new HashMap<Pool, List<WorkerConnection>>();
+		Map<Pool, Double> loads = new HashMap<Pool, Double>();
+		for (Pool pool : pools) {
+			poolConnections.put(pool, new ArrayList<WorkerConnection>());
+			loads.put(pool, 0d);
+		}
+		List<WorkerConnection> orphanConnections = new ArrayList<WorkerConnection>();
+		double totalLoad = 0;
+		for (WorkerConnection connection : connections) {
+			double load = getLoad(connection);
+			totalLoad += load;
+			List<WorkerConnection> connectionsOfPool = poolConnections.get(connection.getPool());
+			if (connectionsOfPool != null) {
+				connectionsOfPool.add(connection);
+				loads.put(connection.getPool(), loads.get(connection.getPool()) + load);
+			} else {
+				orphanConnections.add(connection);
+			}
+		}
+		Map<Pool, Double> expectedLoads = getExpectedLoads(pools, totalLoad);
+		Map<WorkerConnection, Pool> moves = new LinkedHashMap<WorkerConnection, Pool>();
+
+		// The connections of the unavailable pools have to move. Bind the
+		// biggest first to the pool the most below its expected hashrate.
+		sortByLoad(orphanConnections);
+		for (WorkerConnection connection : orphanConnections) {
+			Pool mostBelowPool = getMostBelowPool(pools, loads, expectedLoads);
+			moves.put(connection, mostBelowPool);
+			loads.put(mostBelowPool, loads.get(mostBelowPool) + getLoad(connection));
+		}
+
+		// Then move connections from the pools above their expected hashrate
+		// to the pools below, while the gaps are above the threshold.
+		double threshold = totalLoad * rebalanceThreshold;
+		for (Pool pool : pools) {
+			sortByLoad(poolConnections.get(pool));
+		}
+		for (int i = 0; i < connections.size(); i++) {
+			Pool mostBelowPool = getMostBelowPool(pools, loads, expectedLoads);
+			Pool mostAbovePool = null;
+			for (Pool pool : pools) {
+				if (mostAbovePool == null || loads.get(pool) - expectedLoads.get(pool) > loads.get(mostAbovePool) - expectedLoads.get(mostAbovePool)) {
+					mostAbovePool = pool;
+				}
+			}
+			double excess = loads.get(mostAbovePool) - expectedLoads.get(mostAbovePool);
+			double deficit = expectedLoads.get(mostBelowPool) - loads.get(mostBelowPool);
+			if (excess <= threshold || deficit <= threshold) {
+				break;
+			}
+
+			// The biggest connection which does not make the pools overshoot.
+			WorkerConnection connectionToMove = null;
+			for (WorkerConnection connection : poolConnections.get(mostAbovePool)) {
+				if (getLoad(connection) <= Math.min(excess, deficit)) {
+					connectionToMove = connection;
+					break;
+				}
+			}
+			if (connectionToMove == null) {
+				break;
+			}
+
+			double load = getLoad(connectionToMove);
+			poolConnections.get(mostAbovePool).remove(connectionToMove);
+			poolConnections.get(mostBelowPool).add(connectionToMove);
+			loads.put(mostAbovePool, loads.get(mostAbovePool) - load);
+			loads.put(mostBelowPool, loads.get(mostBelowPool) + load);
+			moves.put(connectionToMove, mostBelowPool);
+		}
+
+		poolLoads = loads;
+		return moves;
+	}
+
+	/**
+	 * Return the pools which can receive connections.
+	 * 
+	 * @return
+	 */
+	private List<Pool> getAvailablePools() {
+		List<Pool> result = new ArrayList<Pool>();
+		for (Pool pool : proxyManager.getPools()) {
+			if (pool.isReady() && pool.isEnabled() && pool.isStable() && pool.getWeight() != null && pool.getWeight() > 0) {
+				result.add(pool);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the hashrate expected on each pool for the given total hashrate.
+	 * 
+	 * @param pools
+	 * @param totalLoad
+	 * @return
+	 */
+	private Map<Pool, Double> getExpectedLoads(List<Pool> pools, double totalLoad) {
+		int totalWeight = 0;
+		for (Pool pool : pools) {
+			totalWeight += pool.getWeight();
+		}
+		Map<Pool, Double> result = new HashMap<Pool, Double>();
+		for (Pool pool : pools) {
+			result.put(pool, totalLoad * pool.getWeight() / totalWeight);
+		}
+		return result;
+	}
+
+	private Pool getMostBelowPool(List<Pool> pools, Map<Pool, Double> loads, Map<Pool, Double> expectedLoads) {
+		Pool result = null;
+		for (Pool pool : pools) {
+			if (result == null || expectedLoads.get(pool) - loads.get(pool) > expectedLoads.get(result) - loads.get(result)) {
+				result = pool;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sort the connections by hashrate, the biggest first.
+	 * 
+	 * @param connections
+	 */
+	private void sortByLoad(List<WorkerConnection> connections) {
+		final Map<WorkerConnection, Double> loads = new HashMap<WorkerConnection, Double>();
+		for (WorkerConnection connection : connections) {
+			loads.put(connection, getLoad(connection));
+		}
+		Collections.sort(connections, new Comparator<WorkerConnection>() {
+			public int compare(WorkerConnection o1, WorkerConnection o2) {
+				return loads.get(o2).compareTo(loads.get(o1));
+			}
+		});
+	}
+
+	/**
+	 * The default hashrate of a connection is the average hashrate of the
+	 * connections which have submitted shares.
+	 * 
+	 * @param connections
+	 */
+	private void updateDefaultConnectionLoad(List<WorkerConnection> connections) {
+		double totalLoad = 0;
+		int numberOfConnections = 0;
+		for (WorkerConnection connection : connections) {
+			double load = connection.getAcceptedHashrate() + connection.getRejectedHashrate();
+			if (load > 0) {
+				totalLoad += load;
+				numberOfConnections++;
+			}
+		}
+		defaultConnectionLoad = numberOfConnections > 0 ? totalLoad / numberOfConnections : 1;
+	}
+
+	private double getLoad(WorkerConnection connection) {
+		double load = connection.getAcceptedHashrate() + connection.getRejectedHashrate();
+		return load > 0 ? load : defaultConnectionLoad;
+	}
+
+	private double getLoad(Pool pool) {
+		Double load = poolLoads.get(pool);
+		return load != null ? load : 0;
+	}
+
+	/**
+	 * Rebalance the connections in delay milliseconds, then periodically.
+	 * 
+	 * @param delay
+	 */
+	private void scheduleRebalance(long delay) {
+		if (!isStopped) {
+			RebalanceTask newTask = new RebalanceTask();
+			RebalanceTask previousTask = rebalanceTask;
+			rebalanceTask = newTask;
+			if (previousTask != null) {
+				previousTask.cancel();
+			}
+			Timer.getInstance().schedule(newTask, delay);
+		}
+	}
+
+	@Override
+	public void stop() {
+		isStopped = true;
+		if (rebalanceTask != null) {
+			rebalanceTask.cancel();
+		}
+		// The next strategy sets the pools it mines on as active.
+		for (Pool pool : proxyManager.getPools()) {
+			pool.setIsActive(false);
+		}
+	}
+
+	@Override
+	public Map<String, String> getConfigurationParameters() {
+		// Return an empty map since there is no parameters
+		return new HashMap<String, String>();
+	}
+
+	@Override
+	public synchronized Map<String, String> getDetails() {
+		Map<String, String> details = new HashMap<String, String>();
+		details.put("Rebalance period", String.valueOf(rebalancePeriod / 1000));
+		details.put("Rebalance threshold", String.valueOf(Math.round(rebalanceThreshold * 100)) + "%");
+		List<Pool> pools = getAvailablePools();
+		double totalLoad = 0;
+		for (Pool pool : pools) {
+			totalLoad += getLoad(pool);
+		}
+		Map<Pool, Double> expectedLoads = getExpectedLoads(pools, totalLoad);
+		for (Pool pool : pools) {
+			details.put("Expected hashrate share of pool " + pool.getName(), String.format("%.2f%%", totalLoad > 0 ? expectedLoads.get(pool) * 100
+					/ totalLoad : 0));
+			details.put("Hashrate share of pool " + pool.getName(), String.format("%.2f%%", totalLoad > 0 ? getLoad(pool) * 100 / totalLoad : 0));
+		}
+		return details;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getDescription() {
+		return DESCRIPTION;
+	}
+
+	@Override
+	public void setParameter(String parameterKey, String value) {
+		// No parameters can be changed.
+	}
+
+	/**
+	 * The task that rebalances the connections and schedules the next
+	 * rebalance.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private class RebalanceTask extends Timer.Task {
+
+		public RebalanceTask() {
+			setName("HashrateSplitRebalanceTask");
+		}
+
+		public void run() {
+			rebalance();
+			if (rebalanceTask == this) {
+				scheduleRebalance(rebalancePeriod);
+			}
+		}
+
+	}
+
+}
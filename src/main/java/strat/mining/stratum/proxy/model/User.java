@@ -22,16 +22,16 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 import strat.mining.stratum.proxy.constant.Constants;
 import strat.mining.stratum.proxy.utils.EquatableWeakReference;
-import strat.mining.stratum.proxy.utils.mining.HashrateUtils;
+import strat.mining.stratum.proxy.utils.StripedDoubleAdder;
+import strat.mining.stratum.proxy.utils.StripedLongAdder;
+import strat.mining.stratum.proxy.utils.mining.HashrateWindow;
 import strat.mining.stratum.proxy.worker.WorkerConnection;
 
 /**
@@ -46,25 +46,28 @@ public class User {
 
     private volatile Set<WeakReference<WorkerConnection>> seenOnConnections;
 
-    private Deque<Share> lastAcceptedShares;
-    private Deque<Share> lastRejectedShares;
+    private HashrateWindow acceptedHashrateWindow;
+    private HashrateWindow rejectedHashrateWindow;
 
-    private double acceptedDifficulty;
-    private double rejectedDifficulty;
+    private StripedDoubleAdder acceptedDifficulty;
+    private StripedDoubleAdder rejectedDifficulty;
 
-    private long acceptedShareNumber;
-    private long rejectedShareNumber;
+    private StripedLongAdder acceptedShareNumber;
+    private StripedLongAdder rejectedShareNumber;
 
     private Date creationTime;
-    private Date lastShareSubmitted;
-
-    private Integer samplingHashesPeriod = Constants.DEFAULT_USER_HASHRATE_SAMPLING_PERIOD * 1000;
+    // The time of the last submitted share. 0 if no share has been submitted.
+    private volatile long lastShareSubmitted;
 
     public User(String name) {
         this.name = name;
         creationTime = new Date();
-        lastAcceptedShares = new ConcurrentLinkedDeque<Share>();
-        lastRejectedShares = new ConcurrentLinkedDeque<Share>();
+        acceptedDifficulty = new StripedDoubleAdder();
+        rejectedDifficulty = new StripedDoubleAdder();
+        acceptedShareNumber = new StripedLongAdder();
+        rejectedShareNumber = new StripedLongAdder();
+        acceptedHashrateWindow = new HashrateWindow(Constants.DEFAULT_USER_HASHRATE_SAMPLING_PERIOD * 1000);
+        rejectedHashrateWindow = new HashrateWindow(Constants.DEFAULT_USER_HASHRATE_SAMPLING_PERIOD * 1000);
         seenOnConnections = Collections.synchronizedSet(new HashSet<WeakReference<WorkerConnection>>());
     }
 
@@ -94,8 +97,7 @@ public class User {
      * @return
      */
     public double getAcceptedHashrate() {
-        HashrateUtils.purgeShareList(lastAcceptedShares, samplingHashesPeriod);
-        return HashrateUtils.getHashrateFromShareList(lastAcceptedShares, samplingHashesPeriod);
+        return acceptedHashrateWindow.getHashrate();
     }
 
     /**
@@ -104,8 +106,7 @@ public class User {
      * @return
      */
     public double getRejectedHashrate() {
-        HashrateUtils.purgeShareList(lastRejectedShares, samplingHashesPeriod);
-        return HashrateUtils.getHashrateFromShareList(lastRejectedShares, samplingHashesPeriod);
+        return rejectedHashrateWindow.getHashrate();
     }
 
     /**
@@ -116,17 +117,15 @@ public class User {
      */
     public void updateShareLists(Share share, boolean isAccepted) {
         if (isAccepted) {
-            acceptedDifficulty += share.getDifficulty();
-            lastAcceptedShares.addLast(share);
-            acceptedShareNumber++;
-            HashrateUtils.purgeShareList(lastAcceptedShares, samplingHashesPeriod);
+            acceptedDifficulty.add(share.getDifficulty());
+            acceptedHashrateWindow.add(share.getTime(), share.getDifficulty());
+            acceptedShareNumber.increment();
         } else {
-            rejectedDifficulty += share.getDifficulty();
-            lastRejectedShares.addLast(share);
-            rejectedShareNumber++;
-            HashrateUtils.purgeShareList(lastRejectedShares, samplingHashesPeriod);
+            rejectedDifficulty.add(share.getDifficulty());
+            rejectedHashrateWindow.add(share.getTime(), share.getDifficulty());
+            rejectedShareNumber.increment();
         }
-        lastShareSubmitted = new Date();
+        lastShareSubmitted = share.getTime();
     }
 
     /**
@@ -140,7 +139,8 @@ public class User {
     }
 
     public void setSamplingHashesPeriod(Integer samplingHashesPeriod) {
-        this.samplingHashesPeriod = samplingHashesPeriod * 1000;
+        acceptedHashrateWindow.setSamplingPeriod(samplingHashesPeriod * 1000);
+        rejectedHashrateWindow.setSamplingPeriod(samplingHashesPeriod * 1000);
     }
 
     public String getName() {
@@ -148,23 +148,24 @@ public class User {
     }
 
     public Date getLastShareSubmitted() {
-        return lastShareSubmitted;
+        long lastShareSubmittedTime = lastShareSubmitted;
+        return lastShareSubmittedTime > 0 ? new Date(lastShareSubmittedTime) : null;
     }
 
     public double getAcceptedDifficulty() {
-        return acceptedDifficulty;
+        return acceptedDifficulty.sum();
     }
 
     public double getRejectedDifficulty() {
-        return rejectedDifficulty;
+        return rejectedDifficulty.sum();
     }
 
     public long getAcceptedShareNumber() {
-        return acceptedShareNumber;
+        return acceptedShareNumber.sum();
     }
 
     public long getRejectedShareNumber() {
-        return rejectedShareNumber;
+        return rejectedShareNumber.sum();
     }
 
     /**
@@ -0,0 +1,357 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the non-blocking IO state of a {@link StratumConnection}: line framing
+ * of the received bytes, the ordered dispatch of the lines and the pending
+ * writes.
+ * 
+ * Lines are dispatched outside of the selector thread since the handling of
+ * some requests blocks (authorization, pool responses...). The lines of a
+ * connection are always processed in order and by one thread at a time. A
+ * request which blocks for long (see {@link #runBlocking(Runnable)}) is moved
+ * to the blocking executor and the next lines of the connection wait for it.
+ * 
+ * A line longer than {@link #MAX_LINE_LENGTH} bytes closes the connection.
+ * 
+ * @author Strat
+ * 
+ */
+public class NioConnectionHandler {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // The longest line accepted from a worker. Stratum requests are a few
+    // hundred bytes long.
+    public static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private StratumConnection connection;
+    private SocketChannel channel;
+    private NioEventLoop eventLoop;
+    private Executor dispatchExecutor;
+    private Executor blockingExecutor;
+    private volatile SelectionKey selectionKey;
+
+    private ByteBuffer readBuffer;
+    private byte[] lineBuffer;
+    private int lineLength;
+
+    private Queue<String> pendingLines;
+    private AtomicBoolean isDispatching;
+    private volatile Throwable closeCause;
+    private volatile boolean isCloseDispatched;
+
+    // The blocking task of the line being dispatched. Only accessed by the
+    // dispatching thread.
+    private Runnable blockingTask;
+
+    private Deque<ByteBuffer> pendingWrites;
+    // A buffer on the last written array. Guarded by pendingWrites.
+    private ByteBuffer writeBuffer;
+
+    private Runnable dispatchTask = new Runnable() {
+        public void run() {
+            dispatchPendingLines();
+        }
+    };
+
+    public NioConnectionHandler(StratumConnection connection, SocketChannel channel, NioEventLoop eventLoop, Executor dispatchExecutor,
+            Executor blockingExecutor) {
+        this.connection = connection;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.dispatchExecutor = dispatchExecutor;
+        this.blockingExecutor = blockingExecutor;
+        this.readBuffer = ByteBuffer.allocate(4096);
+        this.lineBuffer = new byte[512];
+        this.pendingLines = new ConcurrentLinkedQueue<String>();
+        this.isDispatching = new AtomicBoolean(false);
+        this.pendingWrites = new ArrayDeque<ByteBuffer>();
+    }
+
+    /**
+     * Start reading the channel.
+     */
+    public void start() {
+        eventLoop.register(this);
+    }
+
+    /**
+     * Called by the selector thread when bytes are available.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            while (read > 0) {
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    byte b = readBuffer.get();
+                    if (b == '\n') {
+                        int length = lineLength;
+                        if (length > 0 && lineBuffer[length - 1] == '\r') {
+                            length--;
+                        }
+                        pendingLines.offer(new String(lineBuffer, 0, length, UTF8));
+                        lineLength = 0;
+                    } else {
+                        if (lineLength == lineBuffer.length) {
+                            if (lineLength == MAX_LINE_LENGTH) {
+                                onTransportError(new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes."));
+                                return;
+                            }
+                            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH));
+                        }
+                        lineBuffer[lineLength++] = b;
+                    }
+                }
+                readBuffer.clear();
+                read = channel.read(readBuffer);
+            }
+
+            if (read < 0) {
+                onTransportError(new EOFException("Connection closed."));
+            } else {
+                scheduleDispatch();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            onTransportError(e);
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel can accept more bytes.
+     */
+    void onWritable() {
+        try {
+            synchronized (pendingWrites) {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer buffer = pendingWrites.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    pendingWrites.poll();
+                }
+                eventLoop.setInterestOps(selectionKey, SelectionKey.OP_READ);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            onTransportError(e);
+        }
+    }
+
+    /**
+     * Write the given bytes on the channel. The bytes are written from the
+     * given array when nothing is pending. Bytes that cannot be written
+     * immediately are copied in a direct buffer and flushed later by the
+     * selector thread. The given array can be reused by the caller as soon as
+     * this method returns.
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Socket not connected.");
+        }
+        synchronized (pendingWrites) {
+            ByteBuffer buffer = wrap(bytes, offset, length);
+            if (pendingWrites.isEmpty()) {
+                channel.write(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                ByteBuffer remaining = ByteBuffer.allocateDirect(buffer.remaining());
+                remaining.put(buffer);
+                remaining.flip();
+                addPendingWrite(remaining);
+            }
+        }
+    }
+
+    /**
+     * Write the given bytes shared with other connections (which are never
+     * modified). The buffer is queued as is if it cannot be written
+     * immediately, so the bytes are never copied. The buffer must not be
+     * used by the caller after this call.
+     * 
+     * @param buffer
+     * @throws IOException
+     */
+    public void writeShared(ByteBuffer buffer) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Socket not connected.");
+        }
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                channel.write(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                addPendingWrite(buffer);
+            }
+        }
+    }
+
+    /**
+     * Return a buffer on the given bytes. The buffer of the last array is
+     * reused since the connection writes most messages from the same
+     * encoding buffer.
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    private ByteBuffer wrap(byte[] bytes, int offset, int length) {
+        if (writeBuffer == null || writeBuffer.array() != bytes) {
+            writeBuffer = ByteBuffer.wrap(bytes);
+        }
+        writeBuffer.limit(offset + length);
+        writeBuffer.position(offset);
+        return writeBuffer;
+    }
+
+    /**
+     * Queue the given buffer and ask the selector thread to flush it.
+     * 
+     * @param buffer
+     */
+    private void addPendingWrite(ByteBuffer buffer) {
+        pendingWrites.offer(buffer);
+        if (selectionKey != null) {
+            eventLoop.setInterestOps(selectionKey, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Stop reading and notify the connection once all the lines already read
+     * are processed.
+     * 
+     * @param cause
+     */
+    void onTransportError(Throwable cause) {
+        if (closeCause == null) {
+            closeCause = cause;
+        }
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        scheduleDispatch();
+    }
+
+    /**
+     * Schedule the dispatch of the pending lines if no dispatch is running for
+     * this connection.
+     */
+    private void scheduleDispatch() {
+        if (isDispatching.compareAndSet(false, true)) {
+            dispatchExecutor.execute(dispatchTask);
+        }
+    }
+
+    /**
+     * Run the given task on the blocking executor. Must be called by the
+     * thread processing a line of this connection. The next lines of the
+     * connection are processed once the task is done.
+     * 
+     * @param task
+     */
+    void runBlocking(Runnable task) {
+        blockingTask = task;
+    }
+
+    /**
+     * Process all the pending lines, then the close if requested.
+     */
+    private void dispatchPendingLines() {
+        do {
+            String line = pendingLines.poll();
+            while (line != null) {
+                connection.onLineRead(line);
+                if (blockingTask != null) {
+                    dispatchBlockingTask();
+                    // Still dispatching: the blocking thread goes on with the
+                    // next lines.
+                    return;
+                }
+                line = pendingLines.poll();
+            }
+
+            if (closeCause != null && !isCloseDispatched) {
+                isCloseDispatched = true;
+                connection.onTransportClosed(closeCause);
+            }
+
+            isDispatching.set(false);
+            // Loop again if lines (or the close) have been added since the
+            // last poll and no other dispatch has been scheduled in the
+            // meantime.
+        } while ((!pendingLines.isEmpty() || (closeCause != null && !isCloseDispatched)) && isDispatching.compareAndSet(false, true));
+    }
+
+    /**
+     * Run the blocking task of the last line, then dispatch the next lines on
+     * the dispatch executor.
+     */
+    private void dispatchBlockingTask() {
+        final Runnable task = blockingTask;
+        blockingTask = null;
+        blockingExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    dispatchExecutor.execute(dispatchTask);
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the channel. The selection key is cancelled by the close.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+}
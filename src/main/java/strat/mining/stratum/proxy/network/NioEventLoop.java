@@ -0,0 +1,138 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A selector thread that drives the IO of a set of non-blocking connections.
+ * Registrations and interest changes are queued and executed by the selector
+ * thread itself.
+ * 
+ * @author Strat
+ * 
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private Selector selector;
+
+    private Queue<Runnable> pendingTasks;
+
+    private Thread thread;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Run the given task on the selector thread.
+     * 
+     * @param task
+     */
+    public void execute(Runnable task) {
+        pendingTasks.offer(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register the given handler for read events.
+     * 
+     * @param handler
+     */
+    public void register(final NioConnectionHandler handler) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    SelectionKey key = handler.getChannel().register(selector, SelectionKey.OP_READ, handler);
+                    handler.setSelectionKey(key);
+                } catch (ClosedChannelException e) {
+                    handler.onTransportError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Update the interest set of the given key.
+     * 
+     * @param key
+     * @param interestOps
+     */
+    public void setInterestOps(final SelectionKey key, final int interestOps) {
+        if (Thread.currentThread() == thread) {
+            if (key.isValid()) {
+                key.interestOps(interestOps);
+            }
+        } else {
+            execute(new Runnable() {
+                public void run() {
+                    if (key.isValid()) {
+                        key.interestOps(interestOps);
+                    }
+                }
+            });
+        }
+    }
+
+    public void run() {
+        LOGGER.debug("Event loop {} started.", thread.getName());
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+
+                Runnable task = pendingTasks.poll();
+                while (task != null) {
+                    task.run();
+                    task = pendingTasks.poll();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnectionHandler handler = (NioConnectionHandler) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        handler.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handler.onWritable();
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.error("Unexpected error in event loop {}.", thread.getName(), e);
+            }
+        }
+    }
+
+}
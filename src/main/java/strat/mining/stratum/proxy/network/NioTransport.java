@@ -0,0 +1,101 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
+
+/**
+ * The non-blocking transport. A fixed number of selector threads read and
+ * write all the registered connections. Read lines are dispatched on a shared
+ * executor with a bounded number of threads, so the number of threads does
+ * not grow with the number of connections.
+ * 
+ * The requests whose processing blocks (worker authorization waits for the
+ * pool response) are run on a second bounded executor, so that they do not
+ * hold the dispatch threads.
+ * 
+ * @author Strat
+ * 
+ */
+public class NioTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTransport.class);
+
+    // Lines are parsed and processed by the dispatch threads.
+    private static final int DISPATCH_THREADS_PER_CORE = 2;
+
+    // The maximum number of blocking requests processed at once.
+    private static final int MAX_BLOCKING_THREADS = 64;
+
+    private static NioTransport instance;
+
+    private NioEventLoop[] eventLoops;
+
+    private AtomicInteger nextEventLoopIndex;
+
+    private ExecutorService dispatchExecutor;
+
+    private ExecutorService blockingExecutor;
+
+    private NioTransport(int numberOfSelectorThreads) throws IOException {
+        int numberOfEventLoops = Math.max(1, numberOfSelectorThreads);
+        this.eventLoops = new NioEventLoop[numberOfEventLoops];
+        for (int i = 0; i < numberOfEventLoops; i++) {
+            eventLoops[i] = new NioEventLoop("NioEventLoopThread-" + i);
+        }
+        this.nextEventLoopIndex = new AtomicInteger(0);
+        this.dispatchExecutor = ThreadingUtils.newBoundedExecutor("NioDispatchThread-",
+                Math.max(2, Runtime.getRuntime().availableProcessors() * DISPATCH_THREADS_PER_CORE));
+        this.blockingExecutor = ThreadingUtils.newBoundedExecutor("NioBlockingThread-", MAX_BLOCKING_THREADS);
+        LOGGER.info("NIO transport started with {} selector threads.", numberOfEventLoops);
+    }
+
+    public static synchronized NioTransport getInstance() throws IOException {
+        if (instance == null) {
+            instance = new NioTransport(ConfigurationManager.getInstance().getNioSelectorThreads());
+        }
+        return instance;
+    }
+
+    /**
+     * Create the handler of the given connection on one of the event loops.
+     * The channel is switched to the non-blocking mode. The reading starts
+     * when the handler is started.
+     * 
+     * @param connection
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    public NioConnectionHandler createHandler(StratumConnection connection, SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        NioEventLoop eventLoop = eventLoops[(nextEventLoopIndex.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+        return new NioConnectionHandler(connection, channel, eventLoop, dispatchExecutor, blockingExecutor);
+    }
+
+}
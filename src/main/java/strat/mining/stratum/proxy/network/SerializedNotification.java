@@ -0,0 +1,100 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import strat.mining.stratum.proxy.json.JsonRpcNotification;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A notification serialized once and sent as-is on several connections. The
+ * line bytes are shared by all the connections and must not be modified.
+ * 
+ * @author Strat
+ * 
+ */
+public final class SerializedNotification {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final JsonRpcNotification notification;
+
+    private final String json;
+
+    private final byte[] line;
+
+    private final ByteBuffer lineBuffer;
+
+    public SerializedNotification(JsonRpcNotification notification) throws JsonProcessingException {
+        this.notification = notification;
+        StratumMessageWriter messageWriter = new StratumMessageWriter();
+        if (messageWriter.encode(notification)) {
+            this.json = messageWriter.getJson();
+            this.line = messageWriter.toByteArray();
+        } else {
+            this.json = StratumConnection.formatJson(OBJECT_MAPPER.writeValueAsString(notification));
+            this.line = (json + "\n").getBytes(UTF8);
+        }
+        this.lineBuffer = ByteBuffer.wrap(line).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return the notification that has been serialized.
+     * 
+     * @return
+     */
+    public JsonRpcNotification getNotification() {
+        return notification;
+    }
+
+    /**
+     * Return the JSON of the notification (without the line terminator).
+     * 
+     * @return
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Return the bytes of the line to send (with the line terminator).
+     * 
+     * @return
+     */
+    byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Return a new read-only buffer on the bytes of the line. The bytes are
+     * shared, only the position of the buffer is owned by the caller.
+     * 
+     * @return
+     */
+    ByteBuffer newLineBuffer() {
+        return lineBuffer.duplicate();
+    }
+
+}
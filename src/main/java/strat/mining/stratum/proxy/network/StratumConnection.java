@@ -26,9 +26,6 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +49,8 @@ import strat.mining.stratum.proxy.json.MiningSubmitRequest;
 import strat.mining.stratum.proxy.json.MiningSubmitResponse;
 import strat.mining.stratum.proxy.json.MiningSubscribeRequest;
 import strat.mining.stratum.proxy.json.MiningSubscribeResponse;
+import strat.mining.stratum.proxy.utils.PendingRequestTable;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -63,11 +62,18 @@ public abstract class StratumConnection implements Connection {
     private Socket socket;
     private Thread readThread;
     private ObjectMapper objectMapper;
+    private StratumMessageWriter messageWriter;
+    private StratumMessageReader messageReader;
 
-    private Map<Object, JsonRpcRequest> sentRequestIds;
+    private PendingRequestTable<JsonRpcRequest> sentRequestIds;
 
     private DataOutputStream outputStream;
 
+    // Set when the connection is driven by the non-blocking transport.
+    private volatile NioConnectionHandler nioHandler;
+
+    private volatile WriteCoalescer writeCoalescer;
+
     // Indicate if an error should be thrown on socket disconnection. (False if
     // the disconnect is a user request)
     private Boolean throwDisconnectError;
@@ -83,7 +89,9 @@ public abstract class StratumConnection implements Connection {
     public StratumConnection(Socket socket) {
         this.socket = socket;
         this.objectMapper = new ObjectMapper();
-        this.sentRequestIds = Collections.synchronizedMap(new HashMap<Object, JsonRpcRequest>());
+        this.messageWriter = new StratumMessageWriter();
+        this.messageReader = new StratumMessageReader();
+        this.sentRequestIds = new PendingRequestTable<JsonRpcRequest>();
         this.throwDisconnectError = true;
         this.disconnectOnParsingError = false;
         this.isFirstLine = true;
@@ -97,13 +105,13 @@ public abstract class StratumConnection implements Connection {
     public void sendRequest(JsonRpcRequest request) {
         try {
             sentRequestIds.put(request.getId(), request);
-            String json = objectMapper.writeValueAsString(request);
-            json = json.replaceAll("\":", "\": ").replaceAll(",\"", ", \"");
+            if (!writeWithMessageWriter(request, "request")) {
+                String json = objectMapper.writeValueAsString(request);
+                json = formatJson(json);
 
-            LOGGER.debug("{}. Send request: {}", getConnectionName(), json);
-            byte[] stringBytes = (json + "\n").getBytes("UTF-8");
-            ensureStream().write(stringBytes, 0, stringBytes.length);
-            ensureStream().flush();
+                LOGGER.debug("{}. Send request: {}", getConnectionName(), json);
+                writeLine(json);
+            }
         } catch (IOException e) {
             onDisconnectWithError(e);
         }
@@ -116,13 +124,13 @@ public abstract class StratumConnection implements Connection {
      */
     public void sendResponse(JsonRpcResponse response) {
         try {
-            String json = objectMapper.writeValueAsString(response);
-            json = json.replaceAll("\":", "\": ").replaceAll(",\"", ", \"");
+            if (!writeWithMessageWriter(response, "response")) {
+                String json = objectMapper.writeValueAsString(response);
+                json = formatJson(json);
 
-            LOGGER.debug("{}. Send response: {}", getConnectionName(), json);
-            byte[] stringBytes = (json + "\n").getBytes("UTF-8");
-            ensureStream().write(stringBytes, 0, stringBytes.length);
-            ensureStream().flush();
+                LOGGER.debug("{}. Send response: {}", getConnectionName(), json);
+                writeLine(json);
+            }
         } catch (IOException e) {
             onDisconnectWithError(e);
         }
@@ -135,50 +143,181 @@ public abstract class StratumConnection implements Connection {
      */
     public void sendNotification(JsonRpcNotification notification) {
         try {
-            String json = objectMapper.writeValueAsString(notification);
-            json = json.replaceAll("\":", "\": ").replaceAll(",\"", ", \"");
+            if (!writeWithMessageWriter(notification, "notification")) {
+                String json = objectMapper.writeValueAsString(notification);
+                json = formatJson(json);
 
-            LOGGER.debug("{}. Send notification: {}", getConnectionName(), json);
-            byte[] stringBytes = (json + "\n").getBytes("UTF-8");
-            ensureStream().write(stringBytes, 0, stringBytes.length);
-            ensureStream().flush();
+                LOGGER.debug("{}. Send notification: {}", getConnectionName(), json);
+                writeLine(json);
+            }
         } catch (IOException e) {
             onDisconnectWithError(e);
         }
     }
 
     /**
-     * Start reading lines from the connection.
+     * Send a notification serialized once for several connections.
+     * 
+     * @param notification
      */
-    public void startReading() {
-        readThread = new Thread() {
-            public void run() {
-                if (socket != null && socket.isConnected() && !socket.isClosed()) {
-                    LOGGER.debug("Start reading on connection {}.", getConnectionName());
-                    try {
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                        String line = reader.readLine();
-                        while (line != null && !Thread.currentThread().isInterrupted()) {
-                            onLineRead(line);
-                            line = reader.readLine();
-                        }
+    public void sendNotification(SerializedNotification notification) {
+        try {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{}. Send notification: {}", getConnectionName(), notification.getJson());
+            }
+            NioConnectionHandler handler = nioHandler;
+            if (handler != null) {
+                handler.writeShared(notification.newLineBuffer());
+            } else {
+                byte[] line = notification.getLine();
+                writeLineBytes(line, 0, line.length);
+            }
+        } catch (IOException e) {
+            onDisconnectWithError(e);
+        }
+    }
+
+    /**
+     * Format the JSON with a space after colons and commas.
+     * 
+     * @param json
+     * @return
+     */
+    static String formatJson(String json) {
+        return json.replaceAll("\":", "\": ").replaceAll(",\"", ", \"");
+    }
 
-                        throw new EOFException("Connection closed.");
+    /**
+     * Encode the message with the streaming message writer and write it on
+     * the connection. Return false (and write nothing) if the message is not
+     * supported by the writer.
+     * 
+     * @param message
+     * @param messageType
+     * @return
+     * @throws IOException
+     */
+    private boolean writeWithMessageWriter(Object message, String messageType) throws IOException {
+        synchronized (messageWriter) {
+            boolean isEncoded = messageWriter.encode(message);
+            if (isEncoded) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("{}. Send {}: {}", getConnectionName(), messageType, messageWriter.getJson());
+                }
+                writeLineBytes(messageWriter.getBuffer(), 0, messageWriter.getLength());
+            }
+            return isEncoded;
+        }
+    }
+
+    /**
+     * Write the given line on the connection.
+     * 
+     * @param line
+     * @throws IOException
+     */
+    private void writeLine(String line) throws IOException {
+        byte[] stringBytes = (line + "\n").getBytes("UTF-8");
+        writeLineBytes(stringBytes, 0, stringBytes.length);
+    }
+
+    /**
+     * Write the given bytes (a line with its terminator) on the connection.
+     * 
+     * @param stringBytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    private void writeLineBytes(byte[] stringBytes, int offset, int length) throws IOException {
+        if (nioHandler != null) {
+            nioHandler.write(stringBytes, offset, length);
+        } else if (writeCoalescer != null) {
+            writeCoalescer.write(stringBytes, offset, length);
+        } else {
+            writeDirect(stringBytes, offset, length);
+        }
+    }
+
+    /**
+     * Write and flush the given bytes on the socket output stream.
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    void writeDirect(byte[] bytes, int offset, int length) throws IOException {
+        ensureStream().write(bytes, offset, length);
+        ensureStream().flush();
+    }
 
-                    } catch (Exception e) {
-                        if (throwDisconnectError) {
-                            onDisconnectWithError(e);
+    /**
+     * Coalesce the lines written on the connection during at most
+     * maxDelayMicros microseconds in a single write. Disable the coalescing
+     * if maxDelayMicros is 0 or less. Has no effect on connections using the
+     * non-blocking transport. The written batches are counted in the given
+     * statistics.
+     * 
+     * @param maxDelayMicros
+     * @param statistics
+     */
+    protected void setWriteCoalescingDelay(long maxDelayMicros, WriteBatchStatistics statistics) {
+        writeCoalescer = maxDelayMicros > 0 ? new WriteCoalescer(this, maxDelayMicros, statistics) : null;
+    }
+
+    /**
+     * Return the write coalescer of the connection, or null if the writes are
+     * not coalesced.
+     * 
+     * @return
+     */
+    public WriteCoalescer getWriteCoalescer() {
+        return writeCoalescer;
+    }
+
+    /**
+     * Start reading lines from the connection. If the socket has been opened
+     * through a channel, the connection is registered on the non-blocking
+     * transport. Else, a thread is started to read the socket.
+     */
+    public void startReading() {
+        if (socket.getChannel() != null) {
+            try {
+                LOGGER.debug("Start reading on connection {} with the NIO transport.", getConnectionName());
+                nioHandler = NioTransport.getInstance().createHandler(this, socket.getChannel());
+                nioHandler.start();
+            } catch (IOException e) {
+                onTransportClosed(e);
+            }
+        } else {
+            readThread = ThreadingUtils.newThread(new Runnable() {
+                public void run() {
+                    if (socket != null && socket.isConnected() && !socket.isClosed()) {
+                        LOGGER.debug("Start reading on connection {}.", getConnectionName());
+                        try {
+                            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+                            String line = reader.readLine();
+                            while (line != null && !Thread.currentThread().isInterrupted()) {
+                                onLineRead(line);
+                                line = reader.readLine();
+                            }
+
+                            throw new EOFException("Connection closed.");
+
+                        } catch (Exception e) {
+                            if (throwDisconnectError) {
+                                onDisconnectWithError(e);
+                            }
+                        } finally {
+                            close();
                         }
-                    } finally {
-                        close();
                     }
                 }
-            }
-        };
-        readThread.setName(getConnectionName() + "-Thread");
-        readThread.setDaemon(true);
-        readThread.start();
+            }, getConnectionName() + "-Thread");
+            readThread.start();
+        }
     }
 
     /**
@@ -187,7 +326,12 @@ public abstract class StratumConnection implements Connection {
     public void close() {
         LOGGER.debug("Closing connection {}...", getConnectionName());
         throwDisconnectError = false;
-        readThread.interrupt();
+        if (readThread != null) {
+            readThread.interrupt();
+        }
+        if (writeCoalescer != null) {
+            writeCoalescer.close();
+        }
         try {
             socket.close();
         } catch (IOException e) {
@@ -195,6 +339,23 @@ public abstract class StratumConnection implements Connection {
         }
     }
 
+    /**
+     * Run the given task, which may block for long, while processing a line.
+     * With the non-blocking transport, the task is run out of the dispatch
+     * threads and the next lines of the connection are processed once it is
+     * done. Else, the task is run by the read thread.
+     * 
+     * @param task
+     */
+    protected void runBlocking(Runnable task) {
+        NioConnectionHandler handler = nioHandler;
+        if (handler != null) {
+            handler.runBlocking(task);
+        } else {
+            task.run();
+        }
+    }
+
     /**
      * Return the output stream of the connection. If it is not available, then
      * throw an exception.
@@ -213,38 +374,50 @@ public abstract class StratumConnection implements Connection {
         return outputStream;
     }
 
+    /**
+     * Called by the non-blocking transport when the connection is closed by
+     * the remote host or on IO error.
+     * 
+     * @param cause
+     */
+    void onTransportClosed(Throwable cause) {
+        if (throwDisconnectError) {
+            onDisconnectWithError(cause);
+        }
+        close();
+    }
+
     /**
      * Parse the JSON-RPC command and call on message Received
      * 
      * @param line
      */
-    private void onLineRead(String line) {
+    void onLineRead(String line) {
         try {
             LOGGER.debug("{}. Line read: {}", getConnectionName(), line);
             try {
-                JsonRpcRequest request = objectMapper.readValue(line, JsonRpcRequest.class);
+                Object message = messageReader.read(line);
+                if (message == null) {
+                    // The line is not handled by the single pass reader.
+                    // Fallback on Jackson to keep the same behavior.
+                    message = readWithObjectMapper(line);
+                }
                 if (isFirstLine) {
                     isFirstLine = false;
                 }
 
-                // If there is an id, it may be a request or a response
-                if (request.getId() != null) {
-                    // If there is a method name, it is a request.
-                    if (request.getMethod() != null) {
-                        onRequestReceived(request);
+                if (message instanceof JsonRpcRequest) {
+                    onRequestReceived((JsonRpcRequest) message);
+                } else if (message instanceof JsonRpcResponse) {
+                    JsonRpcResponse response = (JsonRpcResponse) message;
+                    JsonRpcRequest request = sentRequestIds.remove(response.getId());
+                    if (request != null) {
+                        onResponseReceived(request, response);
                     } else {
-                        // Else it is a response
-                        JsonRpcResponse response = objectMapper.readValue(line, JsonRpcResponse.class);
-                        request = sentRequestIds.remove(response.getId());
-                        if (request != null) {
-                            onResponseReceived(request, response);
-                        } else {
-                            LOGGER.debug("Drop response since no request has been sent with the id {}.", response.getId());
-                        }
+                        LOGGER.debug("Drop response since no request has been sent with the id {}.", response.getId());
                     }
                 } else {
-                    // Else it is a notification
-                    onNotificationReceived(new JsonRpcNotification(request));
+                    onNotificationReceived((JsonRpcNotification) message);
                 }
             } catch (JsonMappingException e) {
                 if (isFirstLine || disconnectOnParsingError) {
@@ -259,13 +432,42 @@ public abstract class StratumConnection implements Connection {
         }
     }
 
+    /**
+     * Parse the line with Jackson and return a {@link JsonRpcRequest}, a
+     * {@link JsonRpcResponse} or a {@link JsonRpcNotification}.
+     * 
+     * @param line
+     * @return
+     * @throws IOException
+     */
+    private Object readWithObjectMapper(String line) throws IOException {
+        Object message = null;
+        JsonRpcRequest request = objectMapper.readValue(line, JsonRpcRequest.class);
+        // If there is an id, it may be a request or a response
+        if (request.getId() != null) {
+            // If there is a method name, it is a request.
+            if (request.getMethod() != null) {
+                message = request;
+            } else {
+                // Else it is a response
+                message = objectMapper.readValue(line, JsonRpcResponse.class);
+            }
+        } else {
+            // Else it is a notification
+            message = new JsonRpcNotification(request);
+        }
+        return message;
+    }
+
     /**
      * Called when a notification is received from the remote host.
      */
     protected void onNotificationReceived(JsonRpcNotification notification) {
         switch (notification.getMethod()) {
         case MiningNotifyNotification.METHOD_NAME:
-            MiningNotifyNotification notify = new MiningNotifyNotification(notification);
+            // The reader returns the notify already typed.
+            MiningNotifyNotification notify = notification instanceof MiningNotifyNotification ? (MiningNotifyNotification) notification
+                    : new MiningNotifyNotification(notification);
             onNotify(notify);
             break;
         case MiningSetDifficultyNotification.METHOD_NAME:
@@ -351,7 +553,9 @@ public abstract class StratumConnection implements Connection {
             break;
 
         case MiningSubmitRequest.METHOD_NAME:
-            MiningSubmitRequest submitRequest = new MiningSubmitRequest(request);
+            // The reader returns the submit request already typed.
+            MiningSubmitRequest submitRequest = request instanceof MiningSubmitRequest ? (MiningSubmitRequest) request
+                    : new MiningSubmitRequest(request);
             onSubmitRequest(submitRequest);
             break;
 
@@ -0,0 +1,613 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import strat.mining.stratum.proxy.json.JsonRpcNotification;
+import strat.mining.stratum.proxy.json.JsonRpcRequest;
+import strat.mining.stratum.proxy.json.JsonRpcResponse;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.json.MiningSubmitRequest;
+
+/**
+ * A single pass JSON-RPC line parser. The line is tokenized once and the
+ * message is directly classified as a request, a response or a notification
+ * (same rules as the previous Jackson based parsing: a message with an id and
+ * a method is a request, with an id and no method a response, else a
+ * notification. A message without id gets the next request id.)
+ * 
+ * Values are decoded with the same types as the Jackson untyped mapping
+ * (Integer, Long, Double, Boolean, String, List and Map), so the Mining*
+ * wrappers behave the same way. The params of the mining.submit requests and
+ * of the mining.notify notifications are directly read in the fields of a
+ * {@link MiningSubmitRequest} or a {@link MiningNotifyNotification} when they
+ * have the expected types, without building the params list (even when the
+ * params come before the method, as sent by most miners).
+ * 
+ * When the line is not a plain JSON object this parser can handle (invalid
+ * JSON, big integers, trailing content...), null is returned and the caller
+ * has to fallback on Jackson to get the same result and errors as before.
+ * 
+ * The parser is not thread safe.
+ * 
+ * @author Strat
+ * 
+ */
+public class StratumMessageReader {
+
+    private static final MalformedLineException MALFORMED_LINE = new MalformedLineException();
+
+    // Longs with at most 18 digits never overflow.
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private String line;
+
+    private int position;
+
+    private int end;
+
+    /**
+     * Parse the given line and return a {@link JsonRpcRequest}, a
+     * {@link JsonRpcResponse} or a {@link JsonRpcNotification}. Return null
+     * if the line cannot be parsed by this reader.
+     * 
+     * @param line
+     * @return
+     */
+    public Object read(String line) {
+        this.line = line;
+        this.position = 0;
+        this.end = line.length();
+
+        Object message = null;
+        try {
+            message = readMessage();
+        } catch (MalformedLineException e) {
+            message = null;
+        } finally {
+            this.line = null;
+        }
+        return message;
+    }
+
+    private Object readMessage() throws MalformedLineException {
+        String jsonrpc = null;
+        Object id = null;
+        boolean hasId = false;
+        String method = null;
+        // A list, or a MiningSubmitRequest or a MiningNotifyNotification.
+        Object params = null;
+        Object result = null;
+        Object error = null;
+
+        skipWhitespaces();
+        expect('{');
+        skipWhitespaces();
+        if (peek() != '}') {
+            do {
+                skipWhitespaces();
+                expect('"');
+                String key = readString();
+                skipWhitespaces();
+                expect(':');
+                if (key.equals("params")) {
+                    params = readParams(method);
+                } else {
+                    Object value = readValue();
+                    switch (key) {
+                    case "id":
+                        id = value;
+                        hasId = true;
+                        break;
+                    case "method":
+                        method = toStringValue(value);
+                        break;
+                    case "result":
+                        result = value;
+                        break;
+                    case "error":
+                        error = value;
+                        break;
+                    case "jsonrpc":
+                        jsonrpc = toStringValue(value);
+                        break;
+                    default:
+                        // Unknown properties are ignored.
+                        break;
+                    }
+                }
+                skipWhitespaces();
+            } while (consume(','));
+        }
+        expect('}');
+
+        // Do not accept trailing content.
+        skipWhitespaces();
+        if (position != end) {
+            throw MALFORMED_LINE;
+        }
+
+        // As with Jackson, a message without id gets the next request id and
+        // is a request or a response. The params read in a submit request or
+        // a notify are turned back to a list if the method does not match.
+        boolean isNotification = hasId && id == null;
+        Object message = null;
+        if (!isNotification && params instanceof MiningSubmitRequest && MiningSubmitRequest.METHOD_NAME.equals(method)) {
+            MiningSubmitRequest request = (MiningSubmitRequest) params;
+            request.setJsonrpc(jsonrpc);
+            if (hasId) {
+                request.setId(id);
+            }
+            message = request;
+        } else if (isNotification && params instanceof MiningNotifyNotification && MiningNotifyNotification.METHOD_NAME.equals(method)) {
+            message = params;
+        } else if (!isNotification) {
+            if (method != null) {
+                JsonRpcRequest request = new JsonRpcRequest(method);
+                request.setJsonrpc(jsonrpc);
+                if (hasId) {
+                    request.setId(id);
+                }
+                request.setParams(toParamsList(params));
+                message = request;
+            } else {
+                JsonRpcResponse response = new JsonRpcResponse();
+                response.setJsonrpc(jsonrpc);
+                response.setId(id);
+                response.setError(error);
+                response.setResult(result);
+                message = response;
+            }
+        } else {
+            JsonRpcNotification notification = new JsonRpcNotification(method);
+            notification.setParams(toParamsList(params));
+            message = notification;
+        }
+        return message;
+    }
+
+    /**
+     * Read the params of a message with the given method (null if the params
+     * come before the method). The params of a mining.submit or of a
+     * mining.notify are read in a {@link MiningSubmitRequest} or a
+     * {@link MiningNotifyNotification} if they have the expected types. Else,
+     * they are read as a list.
+     * 
+     * @param method
+     * @return
+     * @throws MalformedLineException
+     */
+    private Object readParams(String method) throws MalformedLineException {
+        if (method == null || MiningSubmitRequest.METHOD_NAME.equals(method) || MiningNotifyNotification.METHOD_NAME.equals(method)) {
+            int start = position;
+            try {
+                return readMiningParams();
+            } catch (MalformedLineException e) {
+                // Not the params of a submit or a notify. Read them as a list.
+                position = start;
+            }
+        }
+        return toListValue(readValue());
+    }
+
+    /**
+     * Return the given params as a list. The params read in a submit request
+     * or a notify are rebuilt as a list (a notify sent as a request for
+     * example).
+     * 
+     * @param params
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> toParamsList(Object params) {
+        List<Object> result = null;
+        if (params instanceof JsonRpcRequest) {
+            result = ((JsonRpcRequest) params).getParams();
+        } else if (params instanceof JsonRpcNotification) {
+            result = ((JsonRpcNotification) params).getParams();
+        } else {
+            result = (List<Object>) params;
+        }
+        return result;
+    }
+
+    /**
+     * Read the params of a mining.submit request (5 strings) or of a
+     * mining.notify notification (4 strings, a list of strings, 3 strings and
+     * a boolean). Both start with 4 strings, the fifth element tells which
+     * one it is. Throw a {@link MalformedLineException} if the params are of
+     * none of these types.
+     * 
+     * @return
+     * @throws MalformedLineException
+     */
+    private Object readMiningParams() throws MalformedLineException {
+        skipWhitespaces();
+        expect('[');
+        String first = readStringElement();
+        expectElementSeparator();
+        String second = readStringElement();
+        expectElementSeparator();
+        String third = readStringElement();
+        expectElementSeparator();
+        String fourth = readStringElement();
+        expectElementSeparator();
+        skipWhitespaces();
+
+        Object params = null;
+        if (peek() == '"') {
+            MiningSubmitRequest request = new MiningSubmitRequest();
+            request.setWorkerName(first);
+            request.setJobId(second);
+            request.setExtranonce2(third);
+            request.setNtime(fourth);
+            request.setNonce(readStringElement());
+            params = request;
+        } else {
+            MiningNotifyNotification notify = new MiningNotifyNotification();
+            notify.setJobId(first);
+            notify.setPreviousHash(second);
+            notify.setCoinbase1(third);
+            notify.setCoinbase2(fourth);
+
+            List<String> merkleBranches = new ArrayList<String>();
+            expect('[');
+            skipWhitespaces();
+            if (!consume(']')) {
+                do {
+                    merkleBranches.add(readStringElement());
+                    skipWhitespaces();
+                } while (consume(','));
+                expect(']');
+            }
+            notify.setMerkleBranches(merkleBranches);
+            expectElementSeparator();
+
+            notify.setBitcoinVersion(readStringElement());
+            expectElementSeparator();
+            notify.setNetworkDifficultyBits(readStringElement());
+            expectElementSeparator();
+            notify.setCurrentNTime(readStringElement());
+            expectElementSeparator();
+
+            skipWhitespaces();
+            if (peek() == 't') {
+                expectLiteral("true");
+                notify.setCleanJobs(Boolean.TRUE);
+            } else {
+                expectLiteral("false");
+                notify.setCleanJobs(Boolean.FALSE);
+            }
+            params = notify;
+        }
+        skipWhitespaces();
+        expect(']');
+        return params;
+    }
+
+    private String readStringElement() throws MalformedLineException {
+        skipWhitespaces();
+        expect('"');
+        return readString();
+    }
+
+    private void expectElementSeparator() throws MalformedLineException {
+        skipWhitespaces();
+        expect(',');
+    }
+
+    private Object readValue() throws MalformedLineException {
+        skipWhitespaces();
+        Object value = null;
+        char c = peek();
+        switch (c) {
+        case '"':
+            position++;
+            value = readString();
+            break;
+        case '[':
+            position++;
+            value = readArray();
+            break;
+        case '{':
+            position++;
+            value = readObject();
+            break;
+        case 't':
+            expectLiteral("true");
+            value = Boolean.TRUE;
+            break;
+        case 'f':
+            expectLiteral("false");
+            value = Boolean.FALSE;
+            break;
+        case 'n':
+            expectLiteral("null");
+            value = null;
+            break;
+        default:
+            value = readNumber();
+            break;
+        }
+        return value;
+    }
+
+    private List<Object> readArray() throws MalformedLineException {
+        List<Object> array = new ArrayList<Object>();
+        skipWhitespaces();
+        if (!consume(']')) {
+            do {
+                array.add(readValue());
+                skipWhitespaces();
+            } while (consume(','));
+            expect(']');
+        }
+        return array;
+    }
+
+    private Map<String, Object> readObject() throws MalformedLineException {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        skipWhitespaces();
+        if (!consume('}')) {
+            do {
+                skipWhitespaces();
+                expect('"');
+                String key = readString();
+                skipWhitespaces();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespaces();
+            } while (consume(','));
+            expect('}');
+        }
+        return object;
+    }
+
+    /**
+     * Read a string whose opening quote has already been consumed.
+     * 
+     * @return
+     * @throws MalformedLineException
+     */
+    private String readString() throws MalformedLineException {
+        int start = position;
+        // Fast path: no escaped character, the string is a substring of the
+        // line.
+        while (position < end) {
+            char c = line.charAt(position);
+            if (c == '"') {
+                String value = line.substring(start, position);
+                position++;
+                return value;
+            } else if (c == '\\') {
+                break;
+            } else if (c < 0x20) {
+                throw MALFORMED_LINE;
+            }
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(position - start + 16);
+        builder.append(line, start, position);
+        while (position < end) {
+            char c = line.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            } else if (c == '\\') {
+                if (position >= end) {
+                    throw MALFORMED_LINE;
+                }
+                char escaped = line.charAt(position++);
+                switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(escaped);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    builder.append(readUnicodeEscape());
+                    break;
+                default:
+                    throw MALFORMED_LINE;
+                }
+            } else if (c < 0x20) {
+                throw MALFORMED_LINE;
+            } else {
+                builder.append(c);
+            }
+        }
+        throw MALFORMED_LINE;
+    }
+
+    private char readUnicodeEscape() throws MalformedLineException {
+        if (position + 4 > end) {
+            throw MALFORMED_LINE;
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(line.charAt(position++), 16);
+            if (digit < 0) {
+                throw MALFORMED_LINE;
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    /**
+     * Read a number. Integers are returned as Integer if they fit, else as
+     * Long, and decimal numbers as Double (as Jackson does).
+     * 
+     * @return
+     * @throws MalformedLineException
+     */
+    private Object readNumber() throws MalformedLineException {
+        int start = position;
+        boolean isNegative = consume('-');
+
+        int integerStart = position;
+        long value = 0;
+        while (position < end && isDigit(line.charAt(position))) {
+            value = value * 10 + (line.charAt(position) - '0');
+            position++;
+        }
+        int integerDigits = position - integerStart;
+        // No digit or leading zero are invalid JSON.
+        if (integerDigits == 0 || (integerDigits > 1 && line.charAt(integerStart) == '0')) {
+            throw MALFORMED_LINE;
+        }
+
+        boolean isDecimal = false;
+        if (consume('.')) {
+            isDecimal = true;
+            readDigits();
+        }
+        if (position < end && (line.charAt(position) == 'e' || line.charAt(position) == 'E')) {
+            isDecimal = true;
+            position++;
+            if (!consume('+')) {
+                consume('-');
+            }
+            readDigits();
+        }
+
+        Object number = null;
+        if (isDecimal) {
+            number = Double.valueOf(line.substring(start, position));
+        } else {
+            if (integerDigits > MAX_LONG_DIGITS) {
+                // Let Jackson deal with big integers.
+                throw MALFORMED_LINE;
+            }
+            value = isNegative ? -value : value;
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                number = Integer.valueOf((int) value);
+            } else {
+                number = Long.valueOf(value);
+            }
+        }
+        return number;
+    }
+
+    private void readDigits() throws MalformedLineException {
+        int start = position;
+        while (position < end && isDigit(line.charAt(position))) {
+            position++;
+        }
+        if (position == start) {
+            throw MALFORMED_LINE;
+        }
+    }
+
+    private String toStringValue(Object value) throws MalformedLineException {
+        // Jackson would coerce scalar values to String. Let it do.
+        if (value != null && !(value instanceof String)) {
+            throw MALFORMED_LINE;
+        }
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> toListValue(Object value) throws MalformedLineException {
+        if (value != null && !(value instanceof List)) {
+            throw MALFORMED_LINE;
+        }
+        return (List<Object>) value;
+    }
+
+    private void expectLiteral(String literal) throws MalformedLineException {
+        if (!line.startsWith(literal, position)) {
+            throw MALFORMED_LINE;
+        }
+        position += literal.length();
+    }
+
+    private void expect(char c) throws MalformedLineException {
+        if (!consume(c)) {
+            throw MALFORMED_LINE;
+        }
+    }
+
+    private boolean consume(char c) {
+        boolean isConsumed = false;
+        if (position < end && line.charAt(position) == c) {
+            position++;
+            isConsumed = true;
+        }
+        return isConsumed;
+    }
+
+    private char peek() throws MalformedLineException {
+        if (position >= end) {
+            throw MALFORMED_LINE;
+        }
+        return line.charAt(position);
+    }
+
+    private void skipWhitespaces() {
+        while (position < end) {
+            char c = line.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            position++;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Thrown when the line cannot be parsed. A single instance without stack
+     * trace is used since it only triggers the fallback on Jackson.
+     * 
+     * @author Strat
+     * 
+     */
+    private static class MalformedLineException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+}
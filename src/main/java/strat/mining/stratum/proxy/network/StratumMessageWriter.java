@@ -0,0 +1,368 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import strat.mining.stratum.proxy.json.JsonRpcError;
+import strat.mining.stratum.proxy.json.JsonRpcNotification;
+import strat.mining.stratum.proxy.json.JsonRpcRequest;
+import strat.mining.stratum.proxy.json.JsonRpcResponse;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.json.MiningSetDifficultyNotification;
+import strat.mining.stratum.proxy.json.MiningSubmitRequest;
+import strat.mining.stratum.proxy.json.MiningSubmitResponse;
+
+/**
+ * A streaming JSON encoder for the most frequent stratum messages (submit
+ * requests and responses, notify and set_difficulty notifications). The
+ * message is written in a reusable buffer, with the same format as the
+ * Jackson serialization followed by {@link StratumConnection#formatJson}: a
+ * space after the colon of keys and after the commas followed by a string.
+ * 
+ * Encoding a message does not allocate any object (except when the buffer
+ * has to grow or when a difficulty is written). The writer is not thread
+ * safe.
+ * 
+ * @author Strat
+ * 
+ */
+public class StratumMessageWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(UTF8);
+
+    private static final byte[] JSONRPC_KEY = "\"jsonrpc\": ".getBytes(UTF8);
+    private static final byte[] ID_KEY = "\"id\": ".getBytes(UTF8);
+    private static final byte[] METHOD_KEY = ", \"method\": ".getBytes(UTF8);
+    private static final byte[] PARAMS_KEY = ", \"params\": ".getBytes(UTF8);
+    private static final byte[] ERROR_KEY = ", \"error\": ".getBytes(UTF8);
+    private static final byte[] RESULT_KEY = ", \"result\": ".getBytes(UTF8);
+    private static final byte[] CODE_KEY = "{\"code\": ".getBytes(UTF8);
+    private static final byte[] MESSAGE_KEY = ", \"message\": ".getBytes(UTF8);
+    private static final byte[] TRACEBACK_KEY = ", \"traceback\": ".getBytes(UTF8);
+    private static final byte[] NULL = "null".getBytes(UTF8);
+    private static final byte[] TRUE = "true".getBytes(UTF8);
+    private static final byte[] FALSE = "false".getBytes(UTF8);
+    private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes(UTF8);
+
+    private byte[] buffer;
+
+    private int length;
+
+    public StratumMessageWriter() {
+        this.buffer = new byte[512];
+    }
+
+    /**
+     * Encode the given message as a line (with the line terminator). Return
+     * false if the message is not supported by this writer. In this case, the
+     * content of the buffer is undefined.
+     * 
+     * @param message
+     * @return
+     */
+    public boolean encode(Object message) {
+        length = 0;
+        boolean isEncoded = false;
+        if (message != null) {
+            Class<?> messageClass = message.getClass();
+            if (messageClass == MiningSubmitRequest.class) {
+                isEncoded = writeRequest((JsonRpcRequest) message);
+            } else if (messageClass == MiningSubmitResponse.class) {
+                isEncoded = writeResponse((JsonRpcResponse) message);
+            } else if (messageClass == MiningNotifyNotification.class || messageClass == MiningSetDifficultyNotification.class) {
+                isEncoded = writeNotification((JsonRpcNotification) message);
+            }
+        }
+
+        if (isEncoded) {
+            writeByte('\n');
+        }
+        return isEncoded;
+    }
+
+    /**
+     * Return the buffer that contains the encoded line. Only the first
+     * {@link #getLength()} bytes are meaningful.
+     * 
+     * @return
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Return the length of the encoded line.
+     * 
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Return a copy of the encoded line.
+     * 
+     * @return
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Return the JSON of the encoded message (without the line terminator).
+     * 
+     * @return
+     */
+    public String getJson() {
+        return new String(buffer, 0, length > 0 && buffer[length - 1] == '\n' ? length - 1 : length, UTF8);
+    }
+
+    private boolean writeRequest(JsonRpcRequest request) {
+        writeByte('{');
+        writeJsonrpc(request.getJsonrpc());
+        writeBytes(ID_KEY);
+        boolean isEncoded = writeValue(request.getId());
+        writeBytes(METHOD_KEY);
+        writeString(request.getMethod());
+        writeBytes(PARAMS_KEY);
+        isEncoded = isEncoded && writeValue(request.getParams());
+        writeByte('}');
+        return isEncoded;
+    }
+
+    private boolean writeResponse(JsonRpcResponse response) {
+        writeByte('{');
+        writeJsonrpc(response.getJsonrpc());
+        writeBytes(ID_KEY);
+        boolean isEncoded = writeValue(response.getId());
+        writeBytes(ERROR_KEY);
+        isEncoded = isEncoded && writeValue(response.getError());
+        writeBytes(RESULT_KEY);
+        isEncoded = isEncoded && writeValue(response.getResult());
+        writeByte('}');
+        return isEncoded;
+    }
+
+    private boolean writeNotification(JsonRpcNotification notification) {
+        writeByte('{');
+        writeJsonrpc(notification.getJsonrpc());
+        writeBytes(ID_KEY);
+        boolean isEncoded = writeValue(notification.getId());
+        writeBytes(METHOD_KEY);
+        writeString(notification.getMethod());
+        writeBytes(PARAMS_KEY);
+        isEncoded = isEncoded && writeValue(notification.getParams());
+        writeByte('}');
+        return isEncoded;
+    }
+
+    /**
+     * Write the jsonrpc field (only if not null).
+     * 
+     * @param jsonrpc
+     */
+    private void writeJsonrpc(String jsonrpc) {
+        if (jsonrpc != null) {
+            writeBytes(JSONRPC_KEY);
+            writeString(jsonrpc);
+            writeByte(',');
+            writeByte(' ');
+        }
+    }
+
+    /**
+     * Write the given value. Return false if the type of the value is not
+     * supported.
+     * 
+     * @param value
+     * @return
+     */
+    private boolean writeValue(Object value) {
+        boolean isSupported = true;
+        if (value == null) {
+            writeBytes(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            writeBytes(((Boolean) value) ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            // Same representation as Jackson. Not allocation free, but only
+            // used for difficulties.
+            writeAscii(value.toString());
+        } else if (value instanceof List) {
+            isSupported = writeList((List<?>) value);
+        } else if (value instanceof JsonRpcError) {
+            JsonRpcError error = (JsonRpcError) value;
+            writeBytes(CODE_KEY);
+            isSupported = writeValue(error.getCode());
+            writeBytes(MESSAGE_KEY);
+            isSupported = isSupported && writeValue(error.getMessage());
+            writeBytes(TRACEBACK_KEY);
+            isSupported = isSupported && writeValue(error.getTraceback());
+            writeByte('}');
+        } else {
+            isSupported = false;
+        }
+        return isSupported;
+    }
+
+    private boolean writeList(List<?> list) {
+        boolean isSupported = true;
+        writeByte('[');
+        // Use indexes instead of an iterator to not allocate.
+        for (int i = 0; i < list.size() && isSupported; i++) {
+            Object element = list.get(i);
+            if (i > 0) {
+                writeByte(',');
+                if (element instanceof String) {
+                    writeByte(' ');
+                }
+            }
+            isSupported = writeValue(element);
+        }
+        writeByte(']');
+        return isSupported;
+    }
+
+    /**
+     * Write the given string as a JSON string (quoted, escaped and UTF-8
+     * encoded).
+     * 
+     * @param value
+     */
+    private void writeString(String value) {
+        // A char is at most 6 bytes long when written (escape sequence).
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[length++] = '\\';
+                buffer[length++] = (byte) c;
+            } else if (c < 0x20) {
+                writeControlCharacter(c);
+            } else if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * Write the escape sequence of a control character (same sequences as
+     * Jackson).
+     * 
+     * @param c
+     */
+    private void writeControlCharacter(char c) {
+        buffer[length++] = '\\';
+        switch (c) {
+        case '\n':
+            buffer[length++] = 'n';
+            break;
+        case '\r':
+            buffer[length++] = 'r';
+            break;
+        case '\t':
+            buffer[length++] = 't';
+            break;
+        case '\b':
+            buffer[length++] = 'b';
+            break;
+        case '\f':
+            buffer[length++] = 'f';
+            break;
+        default:
+            buffer[length++] = 'u';
+            buffer[length++] = '0';
+            buffer[length++] = '0';
+            buffer[length++] = HEX_DIGITS[c >> 4];
+            buffer[length++] = HEX_DIGITS[c & 0xF];
+            break;
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+        } else {
+            ensureCapacity(20);
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            // Write the digits backward then reverse them.
+            int start = length;
+            do {
+                buffer[length++] = (byte) ('0' + (value % 10));
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte tmp = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = tmp;
+            }
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void ensureCapacity(int additionalLength) {
+        if (length + additionalLength > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additionalLength));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+/**
+ * Statistics about the batches written by {@link WriteCoalescer}s: the batch
+ * sizes and the queueing delays. Can be shared by the successive connections
+ * of a pool so that the statistics survive the reconnections.
+ * 
+ * @author Strat
+ * 
+ */
+public class WriteBatchStatistics {
+
+    private long numberOfBatches;
+
+    private long numberOfLines;
+
+    private int maxBatchSize;
+
+    private long totalQueueingDelay;
+
+    private long maxQueueingDelay;
+
+    /**
+     * Count a written batch.
+     * 
+     * @param batchSize
+     *            the number of lines of the batch
+     * @param queueingDelay
+     *            the time (nano) waited by the first line of the batch
+     */
+    public synchronized void addBatch(int batchSize, long queueingDelay) {
+        numberOfBatches++;
+        numberOfLines += batchSize;
+        maxBatchSize = Math.max(maxBatchSize, batchSize);
+        totalQueueingDelay += queueingDelay;
+        maxQueueingDelay = Math.max(maxQueueingDelay, queueingDelay);
+    }
+
+    public synchronized long getNumberOfBatches() {
+        return numberOfBatches;
+    }
+
+    public synchronized long getNumberOfLines() {
+        return numberOfLines;
+    }
+
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Return the average number of lines written per batch.
+     * 
+     * @return
+     */
+    public synchronized double getAverageBatchSize() {
+        return numberOfBatches > 0 ? (double) numberOfLines / numberOfBatches : 0;
+    }
+
+    /**
+     * Return the average time (in microseconds) waited by the first line of
+     * the batches.
+     * 
+     * @return
+     */
+    public synchronized long getAverageQueueingDelay() {
+        return numberOfBatches > 0 ? totalQueueingDelay / numberOfBatches / 1000 : 0;
+    }
+
+    /**
+     * Return the maximum time (in microseconds) waited by the first line of a
+     * batch.
+     * 
+     * @return
+     */
+    public synchronized long getMaxQueueingDelay() {
+        return maxQueueingDelay / 1000;
+    }
+
+}
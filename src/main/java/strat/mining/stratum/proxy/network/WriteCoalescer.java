@@ -0,0 +1,205 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.network;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
+
+/**
+ * Coalesce the lines written on a blocking connection. The lines are
+ * buffered and written with a single write and flush at most maxDelay
+ * microseconds after the first buffered line (or immediately when the buffer
+ * is full). The batch sizes and the queueing delays are counted in the given
+ * statistics.
+ * 
+ * The buffer is swapped with a spare one under the lock and the batch is
+ * written after the lock is released, so the lines can still be buffered
+ * while a batch is written on the socket.
+ * 
+ * @author Strat
+ * 
+ */
+public class WriteCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    // Above this size, the buffer is written without waiting.
+    private static final int MAX_BATCH_BYTES = 16384;
+
+    // The flush threads are shared by all the connections. More than one so
+    // that a slow socket does not delay the batches of the other connections.
+    private static final int MIN_FLUSH_THREADS = 2;
+
+    private static ScheduledExecutorService flushExecutor;
+
+    private final StratumConnection connection;
+
+    private final WriteBatchStatistics statistics;
+
+    private final long maxDelayMicros;
+
+    // Held while a batch is written, so the batches are written in order.
+    // Always taken before the monitor of the coalescer.
+    private final Object flushLock = new Object();
+
+    private byte[] buffer;
+
+    // The buffer of the batch being written. Guarded by flushLock.
+    private byte[] spareBuffer;
+
+    private int length;
+
+    private int bufferedLines;
+
+    // The time (nano) when the first buffered line has been added.
+    private long firstLineTime;
+
+    private boolean isFlushScheduled;
+
+    private boolean isClosed;
+
+    private final Runnable flushTask;
+
+    public WriteCoalescer(StratumConnection connection, long maxDelayMicros, WriteBatchStatistics statistics) {
+        this.connection = connection;
+        this.maxDelayMicros = maxDelayMicros;
+        this.statistics = statistics;
+        this.buffer = new byte[1024];
+        this.spareBuffer = new byte[1024];
+        this.flushTask = new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    WriteCoalescer.this.connection.onDisconnectWithError(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Buffer the given line. The line is written later by the flush executor
+     * or now if the buffer is full.
+     * 
+     * @param line
+     * @param offset
+     * @param lineLength
+     * @throws IOException
+     */
+    public void write(byte[] line, int offset, int lineLength) throws IOException {
+        boolean isFull;
+        synchronized (this) {
+            if (isClosed) {
+                throw new IOException("Connection closed.");
+            }
+            if (length + lineLength > buffer.length) {
+                byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + lineLength)];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+            System.arraycopy(line, offset, buffer, length, lineLength);
+            length += lineLength;
+            if (bufferedLines == 0) {
+                firstLineTime = System.nanoTime();
+            }
+            bufferedLines++;
+
+            isFull = length >= MAX_BATCH_BYTES;
+            if (!isFull && !isFlushScheduled) {
+                isFlushScheduled = true;
+                getFlushExecutor().schedule(flushTask, maxDelayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        if (isFull) {
+            flush();
+        }
+    }
+
+    /**
+     * Write all the buffered lines on the connection.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            byte[] batch;
+            int batchLength;
+            synchronized (this) {
+                isFlushScheduled = false;
+                if (bufferedLines == 0) {
+                    return;
+                }
+                long queueingDelay = System.nanoTime() - firstLineTime;
+                statistics.addBatch(bufferedLines, queueingDelay);
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("{}. Writing {} lines ({} bytes) queued for {} µs.", connection.getConnectionName(), bufferedLines, length,
+                            queueingDelay / 1000);
+                }
+
+                batch = buffer;
+                batchLength = length;
+                buffer = spareBuffer;
+                spareBuffer = batch;
+                bufferedLines = 0;
+                length = 0;
+            }
+            connection.writeDirect(batch, 0, batchLength);
+        }
+    }
+
+    /**
+     * Refuse the next lines and write the buffered ones (if possible).
+     */
+    public void close() {
+        synchronized (this) {
+            isClosed = true;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.debug("{}. Failed to write the buffered lines on close.", connection.getConnectionName(), e);
+        }
+    }
+
+    /**
+     * Return the statistics of the written batches.
+     * 
+     * @return
+     */
+    public WriteBatchStatistics getStatistics() {
+        return statistics;
+    }
+
+    private static synchronized ScheduledExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            int numberOfThreads = Math.max(MIN_FLUSH_THREADS, Runtime.getRuntime().availableProcessors());
+            flushExecutor = Executors.newScheduledThreadPool(numberOfThreads, ThreadingUtils.newThreadFactory("WriteCoalescerThread-", true));
+        }
+        return flushExecutor;
+    }
+
+}
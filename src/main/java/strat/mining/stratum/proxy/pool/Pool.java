@@ -20,19 +20,15 @@ package strat.mining.stratum.proxy.pool;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -51,6 +47,7 @@ import strat.mining.stratum.proxy.exception.PoolStartException;
 import strat.mining.stratum.proxy.exception.TooManyWorkersException;
 import strat.mining.stratum.proxy.json.ClientReconnectNotification;
 import strat.mining.stratum.proxy.json.ClientShowMessageNotification;
+import strat.mining.stratum.proxy.json.JsonRpcError;
 import strat.mining.stratum.proxy.json.MiningAuthorizeRequest;
 import strat.mining.stratum.proxy.json.MiningAuthorizeResponse;
 import strat.mining.stratum.proxy.json.MiningExtranonceSubscribeRequest;
@@ -65,16 +62,21 @@ import strat.mining.stratum.proxy.json.MiningSubscribeResponse;
 import strat.mining.stratum.proxy.json.MiningSuggestDifficultyRequest;
 import strat.mining.stratum.proxy.manager.ProxyManager;
 import strat.mining.stratum.proxy.model.Share;
+import strat.mining.stratum.proxy.network.WriteBatchStatistics;
+import strat.mining.stratum.proxy.utils.ExponentialMovingAverage;
+import strat.mining.stratum.proxy.utils.PendingRequestTable;
+import strat.mining.stratum.proxy.utils.StripedDoubleAdder;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
 import strat.mining.stratum.proxy.utils.Timer;
 import strat.mining.stratum.proxy.utils.Timer.Task;
-import strat.mining.stratum.proxy.utils.mining.HashrateUtils;
-
-import com.google.common.util.concurrent.AtomicDouble;
+import strat.mining.stratum.proxy.utils.mining.HashrateWindow;
 
 public class Pool {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Pool.class);
 
+    private static final double RESPONSE_TIME_AVERAGE_WEIGHT = 0.1;
+
     private ProxyManager manager;
 
     private String name;
@@ -83,10 +85,6 @@ public class Pool {
     private String username;
     private String password;
 
-    private Double difficulty;
-    private String extranonce1;
-    private Integer extranonce2Size;
-
     private Date readySince;
     private boolean isReady;
     private boolean isEnabled;
@@ -99,19 +97,16 @@ public class Pool {
 
     private String workerSeparator;
 
-    // Contains all available tails in Hexa format.
-    private Deque<String> tails;
-
-    private PoolConnection connection;
-
-    private MiningNotifyNotification currentJob;
+    // The upstream sessions of the pool. The first one is the primary
+    // session.
+    private List<PoolSession> sessions;
+    private PoolSession primarySession;
 
     private Executor connectionExecutor;
 
     private Task reconnectTask;
     private Task notifyTimeoutTask;
     private Task stabilityTestTask;
-    private Task subscribeResponseTimeoutTask;
 
     private Boolean isExtranonceSubscribeEnabled = false;
 
@@ -120,11 +115,15 @@ public class Pool {
     private Integer priority;
     private Integer weight;
 
-    private AtomicDouble acceptedDifficulty;
-    private AtomicDouble rejectedDifficulty;
+    private StripedDoubleAdder acceptedDifficulty;
+    private StripedDoubleAdder rejectedDifficulty;
 
-    private Deque<Share> lastAcceptedShares;
-    private Deque<Share> lastRejectedShares;
+    private HashrateWindow acceptedHashrateWindow;
+    private HashrateWindow rejectedHashrateWindow;
+
+    // The response time of the pool to the submit and authorize requests (in
+    // milliseconds).
+    private ExponentialMovingAverage responseTime;
     // Time of sampling shares to calculate hash rate
     private Integer samplingHashratePeriod = Constants.DEFAULT_POOL_HASHRATE_SAMPLING_PERIOD * 1000;
 
@@ -134,17 +133,17 @@ public class Pool {
 
     private int extranonce1TailSize = ConfigurationManager.getInstance().getExtranonce1TailSize();
 
+    private int numberOfSessions = Math.max(1, ConfigurationManager.getInstance().getPoolSessions());
+    private int maxNumberOfSessions = Math.max(numberOfSessions, ConfigurationManager.getInstance().getPoolMaxSessions());
+
     private Boolean isRejectReconnect = false;
 
     // Store the callbacks to call when the pool responds to a submit request.
-    private Map<Object, ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>> submitCallbacks;
+    private PendingRequestTable<ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>> submitCallbacks;
 
     // Store the callbacks to call when the pool responds to worker authorize
     // request.
-    private Map<Object, ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse>> authorizeCallbacks;
-
-    private Set<String> authorizedWorkers;
-    private Map<String, CountDownLatch> pendingAuthorizeRequests;
+    private PendingRequestTable<ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse>> authorizeCallbacks;
 
     private String lastStopCause;
     private Date lastStopDate;
@@ -153,6 +152,10 @@ public class Pool {
 
     private String lastPoolMessage;
 
+    // The write batches of all the connections of the pool, kept across the
+    // reconnections.
+    private WriteBatchStatistics writeBatchStatistics;
+
     public Pool(String name, String host, String username, String password) {
         super();
         this.name = name == null || name.isEmpty() ? host : name;
@@ -164,20 +167,20 @@ public class Pool {
         this.isStable = false;
         this.isFirstRun = true;
         this.numberOfDisconnections = 0;
-        this.connectionExecutor = Executors.newSingleThreadExecutor();
+        this.writeBatchStatistics = new WriteBatchStatistics();
+        this.connectionExecutor = Executors.newSingleThreadExecutor(ThreadingUtils.newThreadFactory("PoolConnectionThread-", false));
 
-        acceptedDifficulty = new AtomicDouble(0);
-        rejectedDifficulty = new AtomicDouble(0);
+        acceptedDifficulty = new StripedDoubleAdder();
+        responseTime = new ExponentialMovingAverage(RESPONSE_TIME_AVERAGE_WEIGHT);
+        rejectedDifficulty = new StripedDoubleAdder();
 
-        this.tails = buildTails();
-        this.submitCallbacks = Collections
-                .synchronizedMap(new HashMap<Object, ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>>());
-        this.authorizeCallbacks = Collections
-                .synchronizedMap(new HashMap<Object, ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse>>());
-        this.lastAcceptedShares = new ConcurrentLinkedDeque<Share>();
-        this.lastRejectedShares = new ConcurrentLinkedDeque<Share>();
-        this.authorizedWorkers = Collections.synchronizedSet(new HashSet<String>());
-        this.pendingAuthorizeRequests = Collections.synchronizedMap(new HashMap<String, CountDownLatch>());
+        this.primarySession = new PoolSession(this, 0, extranonce1TailSize);
+        this.sessions = new CopyOnWriteArrayList<PoolSession>();
+        this.sessions.add(primarySession);
+        this.submitCallbacks = new PendingRequestTable<ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>>();
+        this.authorizeCallbacks = new PendingRequestTable<ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse>>();
+        this.acceptedHashrateWindow = new HashrateWindow(samplingHashratePeriod);
+        this.rejectedHashrateWindow = new HashrateWindow(samplingHashratePeriod);
     }
 
     public synchronized void startPool(ProxyManager manager) throws PoolStartException, URISyntaxException, SocketException {
@@ -191,15 +194,12 @@ public class Pool {
             }
 
             this.manager = manager;
-            if (connection == null) {
+            if (!primarySession.isConnected()) {
                 LOGGER.debug("Starting pool {}...", getName());
                 uri = new URI("stratum+tcp://" + host);
                 if (uri.getPort() < 0) {
                     UriBuilder.fromUri(uri).port(Constants.DEFAULT_POOL_PORT);
                 }
-                final Socket socket = new Socket();
-                socket.setKeepAlive(true);
-                socket.setTcpNoDelay(true);
 
                 // The runnable to start the connection
                 Runnable connectionRunnable = new Runnable() {
@@ -207,11 +207,9 @@ public class Pool {
                     @Override
                     public void run() {
                         try {
-                            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() > -1 ? uri.getPort() : Constants.DEFAULT_POOL_PORT));
-                            connection = new PoolConnection(Pool.this, socket);
-                            connection.startReading();
+                            primarySession.open(uri);
 
-                            sendSubscribeRequest();
+                            sendSubscribeRequest(primarySession);
                         } catch (IOException e) {
                             LOGGER.error("Failed to connect the pool {}.", getName(), e);
                             stopPool("Connection failed: " + e.getMessage());
@@ -237,62 +235,172 @@ public class Pool {
     }
 
     /**
-     * Send the subscribe request.
+     * Send the subscribe request on the given session.
+     * 
+     * @param session
      */
-    private void sendSubscribeRequest() {
-        sendSuggestedDifficultyRequest();
+    private void sendSubscribeRequest(PoolSession session) {
+        sendSuggestedDifficultyRequest(session);
         MiningSubscribeRequest request = new MiningSubscribeRequest();
-        startSubscribeTimeoutTimer();
-        connection.sendRequest(request);
+        startSubscribeTimeoutTimer(session);
+        session.sendRequest(request);
     }
 
     /**
-     * Start the timer which check the subscribe response timeout
+     * Start the timer which check the subscribe response timeout of the given
+     * session.
+     * 
+     * @param session
      */
-    private void startSubscribeTimeoutTimer() {
-        subscribeResponseTimeoutTask = new Timer.Task() {
+    private void startSubscribeTimeoutTimer(final PoolSession session) {
+        Task subscribeResponseTimeoutTask = new Timer.Task() {
             public void run() {
-                LOGGER.warn("Subscribe response timeout. Stopping the pool");
-                stopPool("Pool subscribe response timed out.");
-                retryConnect(true);
+                LOGGER.warn("Subscribe response timeout on {}. Stopping the session.", session.getName());
+                restartSession(session, "Pool subscribe response timed out.", true);
             }
         };
-        subscribeResponseTimeoutTask.setName("SubscribeTimeoutTask-" + getName());
+        subscribeResponseTimeoutTask.setName("SubscribeTimeoutTask-" + session.getName());
+        session.setSubscribeResponseTimeoutTask(subscribeResponseTimeoutTask);
         Timer.getInstance().schedule(subscribeResponseTimeoutTask, 5000);
     }
 
-    /**
-     * Stop the timer which check the subscribe response timeout
-     */
-    private void stopSubscribeTimeoutTimer() {
-        if (subscribeResponseTimeoutTask != null) {
-            subscribeResponseTimeoutTask.cancel();
-            subscribeResponseTimeoutTask = null;
-        }
-    }
-
     public synchronized void stopPool(String cause) {
         if (cause != null) {
             this.lastStopCause = cause;
             lastStopDate = new Date();
         }
 
-        if (connection != null) {
+        if (primarySession.isConnected()) {
             cancelTimers();
-            authorizedWorkers.clear();
 
             isReady = false;
             isStable = false;
             manager.onPoolStateChange(this);
             LOGGER.debug("Stopping pool {}...", getName());
-            if (connection != null) {
-                connection.close();
-                connection = null;
+            for (PoolSession session : sessions) {
+                session.close();
             }
             LOGGER.info("Pool {} stopped.", getName());
         }
     }
 
+    /**
+     * Stop the given session after a failure and retry to connect it. If the
+     * session is the primary one, the whole pool is stopped.
+     * 
+     * @param session
+     * @param cause
+     * @param delayFirstRetry
+     */
+    private void restartSession(PoolSession session, String cause, boolean delayFirstRetry) {
+        if (session.isPrimary()) {
+            stopPool(cause);
+            retryConnect(delayFirstRetry);
+        } else {
+            stopSession(session, cause);
+            retrySessionConnect(session);
+        }
+    }
+
+    /**
+     * Start the secondary sessions up to the configured number of sessions.
+     */
+    private void startSessions() {
+        for (int i = 1; i < numberOfSessions; i++) {
+            startSession(getOrCreateSession(i));
+        }
+    }
+
+    /**
+     * Return the session with the given index. Create it if it does not
+     * exist.
+     * 
+     * @param index
+     * @return
+     */
+    private synchronized PoolSession getOrCreateSession(int index) {
+        while (sessions.size() <= index) {
+            sessions.add(new PoolSession(this, sessions.size(), extranonce1TailSize));
+        }
+        return sessions.get(index);
+    }
+
+    /**
+     * Open a new secondary session if the max number of sessions is not
+     * reached.
+     */
+    private synchronized void addSession() {
+        if (isReady) {
+            for (int i = 1; i < maxNumberOfSessions; i++) {
+                PoolSession session = getOrCreateSession(i);
+                if (!session.isStarted()) {
+                    LOGGER.info("Opening the session {} on pool {} since the extranonce tails are almost all used.", i, getName());
+                    startSession(session);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Connect the given secondary session in background.
+     * 
+     * @param session
+     */
+    private void startSession(final PoolSession session) {
+        if (isReady && session.setStarted()) {
+            LOGGER.debug("Starting session {}...", session.getName());
+            connectionExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        session.open(uri);
+                        sendSubscribeRequest(session);
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to connect the session {}.", session.getName(), e);
+                        session.close();
+                        retrySessionConnect(session);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Close the given secondary session. Its worker connections are moved to
+     * the other sessions.
+     * 
+     * @param session
+     * @param cause
+     */
+    private void stopSession(PoolSession session, String cause) {
+        if (session.isConnected()) {
+            session.close();
+            session.setCurrentStratumJob(null);
+            LOGGER.info("Session {} stopped. Cause: {}", session.getName(), cause);
+            manager.onPoolSessionDown(this, session);
+        }
+    }
+
+    /**
+     * Retry to connect the given secondary session after the connection retry
+     * delay.
+     * 
+     * @param session
+     */
+    private void retrySessionConnect(final PoolSession session) {
+        if (connectionRetryDelay > 0) {
+            Task reconnectSessionTask = new Task() {
+                public void run() {
+                    LOGGER.info("Trying reconnect of session {}...", session.getName());
+                    startSession(session);
+                }
+            };
+            reconnectSessionTask.setName("ReconnectTask-" + session.getName());
+            session.setReconnectTask(reconnectSessionTask);
+            Timer.getInstance().schedule(reconnectSessionTask, connectionRetryDelay * 1000);
+        }
+    }
+
     public String getName() {
         return name;
     }
@@ -350,11 +458,11 @@ public class Pool {
     }
 
     public String getExtranonce1() {
-        return extranonce1;
+        return primarySession.getExtranonce1();
     }
 
     public Integer getExtranonce2Size() {
-        return extranonce2Size;
+        return primarySession.getExtranonce2Size();
     }
 
     public boolean isReady() {
@@ -366,29 +474,36 @@ public class Pool {
     }
 
     public Double getDifficulty() {
-        return difficulty;
+        return primarySession.getDifficulty();
     }
 
-    public void processNotify(MiningNotifyNotification notify) {
-        resetNotifyTimeoutTimer();
-        currentJob = notify;
-        manager.onPoolNotify(this, notify);
+    public void processNotify(PoolSession session, MiningNotifyNotification notify) {
+        if (session.isPrimary()) {
+            resetNotifyTimeoutTimer();
+        }
+        session.setCurrentStratumJob(notify);
+        manager.onPoolNotify(this, session, notify);
 
         // Set the clean job flag on the current job. Is needed for new workers
         // coming between 2 notify. They will be notifyed with the current job
         // and the flag has to be true for them.
-        currentJob.setCleanJobs(true);
+        notify.setCleanJobs(true);
     }
 
-    public void processSetDifficulty(MiningSetDifficultyNotification setDifficulty) {
-        difficulty = setDifficulty.getDifficulty();
-        manager.onPoolSetDifficulty(this, setDifficulty);
+    public void processSetDifficulty(PoolSession session, MiningSetDifficultyNotification setDifficulty) {
+        session.setDifficulty(setDifficulty.getDifficulty());
+        manager.onPoolSetDifficulty(this, session, setDifficulty);
     }
 
-    public void processClientReconnect(ClientReconnectNotification clientReconnect) {
-        // If the pool just ask a reconnection (no host specified), just restart
-        // the pool.
-        if (clientReconnect.getHost() == null || clientReconnect.getHost().isEmpty()) {
+    public void processClientReconnect(PoolSession session, ClientReconnectNotification clientReconnect) {
+        if (!session.isPrimary()) {
+            // A secondary session is always reconnected on the pool host.
+            LOGGER.info("Received client.reconnect on session {}. Restarting the session.", session.getName());
+            stopSession(session, "Pool asked reconnection.");
+            startSession(session);
+        } else if (clientReconnect.getHost() == null || clientReconnect.getHost().isEmpty()) {
+            // If the pool just ask a reconnection (no host specified), just
+            // restart the pool.
             LOGGER.info("Received client.reconnect from pool {}.", getName());
             stopPool("Pool asked reconnection.");
             try {
@@ -425,99 +540,105 @@ public class Pool {
         }
     }
 
-    public void processSetExtranonce(MiningSetExtranonceNotification setExtranonce) {
-        extranonce1 = setExtranonce.getExtranonce1();
+    public void processSetExtranonce(PoolSession session, MiningSetExtranonceNotification setExtranonce) {
+        session.setExtranonce1(setExtranonce.getExtranonce1());
 
         if (setExtranonce.getExtranonce2Size() - extranonce1TailSize < 1) {
             // If the extranonce2size is not big enough, we cannot generate
             // unique extranonce for workers, so deactivate the pool.
-            LOGGER.error("The extranonce2Size for the pool {} is to low. Size: {}, mininum needed {}.", getName(), extranonce2Size,
-                    extranonce1TailSize + 1);
-            stopPool("Pool asked extranonce change with too small extranonce2 size (" + extranonce2Size + ". Minimum needed is "
-                    + (extranonce1TailSize + 1));
-            retryConnect(true);
+            LOGGER.error("The extranonce2Size for the pool {} is to low. Size: {}, mininum needed {}.", session.getName(),
+                    session.getExtranonce2Size(), extranonce1TailSize + 1);
+            restartSession(session, "Pool asked extranonce change with too small extranonce2 size (" + session.getExtranonce2Size()
+                    + ". Minimum needed is " + (extranonce1TailSize + 1), true);
         } else {
-            extranonce2Size = setExtranonce.getExtranonce2Size();
+            session.setExtranonce2Size(setExtranonce.getExtranonce2Size());
             // If extrnaonce is OK, notify the manager.
-            manager.onPoolSetExtranonce(this, setExtranonce);
+            manager.onPoolSetExtranonce(this, session, setExtranonce);
         }
 
     }
 
-    public void processSubscribeResponse(MiningSubscribeRequest request, MiningSubscribeResponse response) {
-        stopSubscribeTimeoutTimer();
-        extranonce1 = response.getExtranonce1();
-        extranonce2Size = response.getExtranonce2Size();
+    public void processSubscribeResponse(PoolSession session, MiningSubscribeRequest request, MiningSubscribeResponse response) {
+        session.cancelSubscribeResponseTimeoutTask();
+        session.setExtranonce1(response.getExtranonce1());
+        session.setExtranonce2Size(response.getExtranonce2Size());
 
-        if (extranonce2Size - extranonce1TailSize < 1) {
+        if (session.getExtranonce2Size() - extranonce1TailSize < 1) {
             // If the extranonce2size is not big enough, we cannot generate
             // unique extranonce for workers, so deactivate the pool.
-            LOGGER.error("The extranonce2Size for the pool {} is too low. Size: {}, mininum needed {}.", getName(), extranonce2Size,
-                    extranonce1TailSize + 1);
-            stopPool("The pool extranonce2 size is too low (" + extranonce2Size + "). Minimum is " + (extranonce1TailSize + 1));
-            retryConnect(true);
+            LOGGER.error("The extranonce2Size for the pool {} is too low. Size: {}, mininum needed {}.", session.getName(),
+                    session.getExtranonce2Size(), extranonce1TailSize + 1);
+            restartSession(session, "The pool extranonce2 size is too low (" + session.getExtranonce2Size() + "). Minimum is "
+                    + (extranonce1TailSize + 1), true);
         } else {
-            sendSubscribeExtranonceRequest();
+            sendSubscribeExtranonceRequest(session);
 
             // Start the notify timeout timer
-            resetNotifyTimeoutTimer();
+            if (session.isPrimary()) {
+                resetNotifyTimeoutTimer();
+            }
 
             // If appendWorkerNames is true, do not try to authorize the pool
             // username. Workers will be authorized on connection. So, just
-            // declare the pool as ready.
+            // declare the session as ready.
             if (isAppendWorkerNames) {
-                setPoolAsReady();
+                setSessionAsReady(session);
             } else {
                 // Send the authorize request if worker names are not appended.
                 MiningAuthorizeRequest authorizeRequest = new MiningAuthorizeRequest();
                 authorizeRequest.setUsername(username);
                 authorizeRequest.setPassword(password);
-                connection.sendRequest(authorizeRequest);
+                session.sendRequest(authorizeRequest);
             }
         }
     }
 
     /**
-     * Send an extranonce subscribe request to the pool.
+     * Send an extranonce subscribe request on the given session.
+     * 
+     * @param session
      */
-    private void sendSubscribeExtranonceRequest() {
+    private void sendSubscribeExtranonceRequest(PoolSession session) {
         if (isExtranonceSubscribeEnabled) {
             // Else try to subscribe to extranonce change notification
             MiningExtranonceSubscribeRequest extranonceRequest = new MiningExtranonceSubscribeRequest();
-            connection.sendRequest(extranonceRequest);
+            session.sendRequest(extranonceRequest);
         }
     }
 
-    public void processSubscribeExtranonceResponse(MiningExtranonceSubscribeRequest request, MiningExtranonceSubscribeResponse response) {
+    public void processSubscribeExtranonceResponse(PoolSession session, MiningExtranonceSubscribeRequest request,
+            MiningExtranonceSubscribeResponse response) {
         if (response.getIsSubscribed()) {
-            LOGGER.info("Extranonce change subscribed on pool {}.", getName());
+            LOGGER.info("Extranonce change subscribed on pool {}.", session.getName());
         } else {
-            LOGGER.info("Failed to subscribe to extranonce change on pool {}. Error: {}", getName(), response.getJsonError());
+            LOGGER.info("Failed to subscribe to extranonce change on pool {}. Error: {}", session.getName(), response.getJsonError());
         }
     }
 
     /**
-     * Send the suggested difficulty to the pool.
+     * Send the suggested difficulty on the given session.
+     * 
+     * @param session
      */
-    private void sendSuggestedDifficultyRequest() {
+    private void sendSuggestedDifficultyRequest(PoolSession session) {
         Double suggestedDifficulty = ConfigurationManager.getInstance().getSuggestedPoolDifficulty();
         if (suggestedDifficulty != null) {
-            LOGGER.info("Suggest the difficulty {} to the pool {}.", suggestedDifficulty, getName());
+            LOGGER.info("Suggest the difficulty {} to the pool {}.", suggestedDifficulty, session.getName());
             MiningSuggestDifficultyRequest request = new MiningSuggestDifficultyRequest();
             request.setSuggestedDifficulty(suggestedDifficulty);
-            connection.sendRequest(request);
+            session.sendRequest(request);
         }
     }
 
-    public void processAuthorizeResponse(MiningAuthorizeRequest request, MiningAuthorizeResponse response) {
+    public void processAuthorizeResponse(PoolSession session, MiningAuthorizeRequest request, MiningAuthorizeResponse response) {
         // If the appendWorkerNames is true, the proxy does not request an
         // authorization with the configuraed pool username but will request
         // authorization for each newly connected workers.
         if (isAppendWorkerNames) {
-            ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse> callback = authorizeCallbacks.get(response.getId());
+            ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse> callback = authorizeCallbacks.remove(response.getId());
             if (isAuthorized(request, response)) {
                 // If authorized, add it in the authorized user list.
-                authorizedWorkers.add(request.getUsername());
+                session.getAuthorizedWorkers().add(request.getUsername());
             }
             // Then call the callback.
             if (callback != null) {
@@ -527,17 +648,16 @@ public class Pool {
             }
         } else {
             // If the appendWorkerName is false and the authorization succeed,
-            // then set the pool as started
+            // then set the session as started
             if (isAuthorized(request, response)) {
-                setPoolAsReady();
+                setSessionAsReady(session);
             } else {
-                LOGGER.error("Stopping pool {} since user {} is not authorized. {}", getName(), username, response.getJsonError());
+                LOGGER.error("Stopping pool {} since user {} is not authorized. {}", session.getName(), username, response.getJsonError());
                 String errorMessage = "User " + username + " not authorized.";
                 if (response.getJsonError() != null) {
                     errorMessage += " " + response.getJsonError().toString();
                 }
-                stopPool(errorMessage);
-                retryConnect(true);
+                restartSession(session, errorMessage, true);
             }
         }
     }
@@ -560,6 +680,21 @@ public class Pool {
         return isAuthorized;
     }
 
+    /**
+     * Set the given session as ready. The pool is ready once the primary
+     * session is ready.
+     * 
+     * @param session
+     */
+    private void setSessionAsReady(PoolSession session) {
+        session.setReady(true);
+        if (session.isPrimary()) {
+            setPoolAsReady();
+        } else {
+            LOGGER.info("Session {} started.", session.getName());
+        }
+    }
+
     /**
      * Set the pool as ready.
      */
@@ -567,6 +702,7 @@ public class Pool {
         LOGGER.info("Pool {} started", getName());
         this.isReady = true;
         readySince = new Date();
+        startSessions();
         testStability();
         isFirstRun = false;
         manager.onPoolStateChange(this);
@@ -574,12 +710,20 @@ public class Pool {
 
     public void processSubmitResponse(MiningSubmitRequest request, MiningSubmitResponse response) {
         ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse> callback = submitCallbacks.remove(response.getId());
-        callback.onResponseReceived(request, response);
+        if (callback != null) {
+            callback.onResponseReceived(request, response);
+        } else {
+            LOGGER.warn("Received an unexpected or expired submit response on pool {}. {}", getName(), response.getId());
+        }
     }
 
-    public void processShowMessage(ClientShowMessageNotification showMessage) {
-        lastPoolMessage = showMessage.getMessage();
-        manager.onPoolShowMessage(this, showMessage);
+    public void processShowMessage(PoolSession session, ClientShowMessageNotification showMessage) {
+        // The pool sends the same messages on all sessions. Only show the
+        // ones of the primary session.
+        if (session.isPrimary()) {
+            lastPoolMessage = showMessage.getMessage();
+            manager.onPoolShowMessage(this, showMessage);
+        }
     }
 
     /**
@@ -591,34 +735,24 @@ public class Pool {
      */
     public void updateShareLists(Share share, boolean isAccepted) {
         if (isAccepted) {
-            acceptedDifficulty.addAndGet(getDifficulty());
-            lastAcceptedShares.add(share);
+            acceptedDifficulty.add(share.getDifficulty());
+            acceptedHashrateWindow.add(share.getTime(), share.getDifficulty());
         } else {
-            rejectedDifficulty.addAndGet(getDifficulty());
-            lastRejectedShares.add(share);
+            rejectedDifficulty.add(share.getDifficulty());
+            rejectedHashrateWindow.add(share.getTime(), share.getDifficulty());
         }
-
-        purgeShareLists();
     }
 
     /**
-     * Purge all share lists from the old shares.
-     * 
-     * @param shareList
-     * @param share
-     */
-    private void purgeShareLists() {
-        HashrateUtils.purgeShareList(lastAcceptedShares, samplingHashratePeriod);
-        HashrateUtils.purgeShareList(lastRejectedShares, samplingHashratePeriod);
-    }
-
-    /**
-     * Send a submit request and return the submit response.
+     * Send a submit request on the given session and return the submit
+     * response.
      * 
+     * @param session
      * @param workerRequest
      * @return
      */
-    public void submitShare(MiningSubmitRequest workerRequest, ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse> callback) {
+    public void submitShare(PoolSession session, MiningSubmitRequest workerRequest,
+            final ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse> callback) {
         MiningSubmitRequest poolRequest = new MiningSubmitRequest();
         poolRequest.setExtranonce2(workerRequest.getExtranonce2());
         poolRequest.setJobId(workerRequest.getJobId());
@@ -632,11 +766,40 @@ public class Pool {
             poolRequest.setWorkerName(username);
         }
 
-        submitCallbacks.put(poolRequest.getId(), callback);
-        connection.sendRequest(poolRequest);
+        final long sendTime = System.nanoTime();
+        submitCallbacks.put(poolRequest.getId(), new ResponseReceivedCallback<MiningSubmitRequest, MiningSubmitResponse>() {
+            public void onResponseReceived(MiningSubmitRequest request, MiningSubmitResponse response) {
+                updateResponseTime(sendTime);
+                callback.onResponseReceived(request, response);
+            }
+        });
+        PoolSession targetSession = session != null ? session : primarySession;
+        if (!targetSession.sendRequest(poolRequest)) {
+            // The session is down while the pool is still ready (the
+            // connection will be moved to another session). Reject the share
+            // now instead of letting the request time out.
+            if (submitCallbacks.remove(poolRequest.getId()) != null) {
+                LOGGER.warn("REJECTED share. Share submit from {} dropped since session {} is not connected.", workerRequest.getWorkerName(),
+                        targetSession.getName());
+                MiningSubmitResponse fakePoolResponse = new MiningSubmitResponse();
+                fakePoolResponse.setId(workerRequest.getId());
+                fakePoolResponse.setIsAccepted(false);
+                JsonRpcError error = new JsonRpcError();
+                error.setCode(JsonRpcError.ErrorCode.UNKNOWN.getCode());
+                error.setMessage("The pool session is not ready.");
+                fakePoolResponse.setErrorRpc(error);
+                callback.onResponseReceived(workerRequest, fakePoolResponse);
+            }
+        }
     }
 
-    public void onDisconnectWithError(Throwable cause) {
+    public void onDisconnectWithError(PoolSession session, Throwable cause) {
+        if (!session.isPrimary()) {
+            LOGGER.error("Disconnection of session {}.", session.getName(), cause);
+            restartSession(session, cause.getMessage(), true);
+            return;
+        }
+
         LOGGER.error("Disconnection of pool {}.", this, cause);
 
         String causeMessage = null;
@@ -664,28 +827,48 @@ public class Pool {
     }
 
     /**
-     * Return a free tail for this pool.
+     * Return the session with the most free tails. Open a new session if the
+     * tails of the opened sessions are almost all used.
      * 
      * @return
      * @throws TooManyWorkersException
      */
-    public String getFreeTail() throws TooManyWorkersException {
-        if (tails.size() > 0) {
-            return tails.poll();
-        } else {
+    public PoolSession getFreeSession() throws TooManyWorkersException {
+        PoolSession result = null;
+        int numberOfFreeTails = 0;
+        int resultNumberOfFreeTails = 0;
+        for (PoolSession session : sessions) {
+            // The primary session is used even if the pool is not ready yet.
+            // The secondary ones are used once they have a job.
+            if (session.isPrimary() || (session.isReady() && session.getCurrentStratumJob() != null)) {
+                int sessionNumberOfFreeTails = session.getNumberOfFreeTails();
+                numberOfFreeTails += sessionNumberOfFreeTails;
+                if (result == null || sessionNumberOfFreeTails > resultNumberOfFreeTails) {
+                    result = session;
+                    resultNumberOfFreeTails = sessionNumberOfFreeTails;
+                }
+            }
+        }
+
+        // Open a new session when less than 10% of a session tails remain
+        // free once this worker is bound.
+        if (numberOfFreeTails - 1 <= primarySession.getNumberOfTails() / 10) {
+            addSession();
+        }
+
+        if (result == null || resultNumberOfFreeTails == 0) {
             throw new TooManyWorkersException("No more tails available on pool " + getName());
         }
+        return result;
     }
 
     /**
-     * Release the given tail.
+     * Return the sessions of this pool. The first one is the primary session.
      * 
-     * @param tail
+     * @return
      */
-    public void releaseTail(String tail) {
-        if (tail != null && !tails.contains(tail)) {
-            tails.add(tail);
-        }
+    public List<PoolSession> getSessions() {
+        return new ArrayList<PoolSession>(sessions);
     }
 
     /**
@@ -694,38 +877,11 @@ public class Pool {
      * @return
      */
     public Integer getWorkerExtranonce2Size() {
-        return extranonce2Size != null ? extranonce2Size - extranonce1TailSize : 0;
-    }
-
-    private Deque<String> buildTails() {
-        Deque<String> result = new ConcurrentLinkedDeque<String>();
-
-        // For nb worker limit of 1
-        if (extranonce1TailSize == 0) {
-            result.add("");
-        } else {
-            // For nb worker limit of 256 and 65536
-            int nbTails = (int) Math.pow(2, extranonce1TailSize * 8);
-            int tailNbChars = extranonce1TailSize * 2;
-            for (int i = 0; i < nbTails; i++) {
-                String tail = Integer.toHexString(i);
-
-                if (tail.length() > extranonce1TailSize * 2) {
-                    tail = tail.substring(0, tailNbChars);
-                } else {
-                    while (tail.length() < extranonce1TailSize * 2) {
-                        tail = "0" + tail;
-                    }
-                }
-
-                result.add(tail);
-            }
-        }
-        return result;
+        return primarySession.getWorkerExtranonce2Size();
     }
 
     public MiningNotifyNotification getCurrentStratumJob() {
-        return currentJob;
+        return primarySession.getCurrentStratumJob();
     }
 
     /**
@@ -821,11 +977,11 @@ public class Pool {
     }
 
     public Double getAcceptedDifficulty() {
-        return acceptedDifficulty.get();
+        return acceptedDifficulty.sum();
     }
 
     public Double getRejectedDifficulty() {
-        return rejectedDifficulty.get();
+        return rejectedDifficulty.sum();
     }
 
     public Date getReadySince() {
@@ -854,7 +1010,8 @@ public class Pool {
 
     public void setSamplingHashratePeriod(Integer samplingHashratePeriod) {
         this.samplingHashratePeriod = samplingHashratePeriod * 1000;
-        purgeShareLists();
+        acceptedHashrateWindow.setSamplingPeriod(this.samplingHashratePeriod);
+        rejectedHashrateWindow.setSamplingPeriod(this.samplingHashratePeriod);
     }
 
     /**
@@ -945,30 +1102,61 @@ public class Pool {
             notifyTimeoutTask.cancel();
             notifyTimeoutTask = null;
         }
+    }
 
-        if (subscribeResponseTimeoutTask != null) {
-            subscribeResponseTimeoutTask.cancel();
-            subscribeResponseTimeoutTask = null;
-        }
+    /**
+     * Update the response time of the pool with a response to a request sent
+     * at the given time (System.nanoTime based).
+     * 
+     * @param sendTime
+     */
+    private void updateResponseTime(long sendTime) {
+        responseTime.add((System.nanoTime() - sendTime) / 1000000d);
+    }
+
+    /**
+     * Return the average response time of the pool to the submit and
+     * authorize requests in milliseconds. Null if no response has been
+     * received yet.
+     * 
+     * @return
+     */
+    public Double getResponseTime() {
+        return responseTime.get();
     }
 
     public double getAcceptedHashesPerSeconds() {
-        return HashrateUtils.getHashrateFromShareList(lastAcceptedShares, samplingHashratePeriod);
+        return acceptedHashrateWindow.getHashrate();
     }
 
     public double getRejectedHashesPerSeconds() {
-        return HashrateUtils.getHashrateFromShareList(lastRejectedShares, samplingHashratePeriod);
+        return rejectedHashrateWindow.getHashrate();
     }
 
     /**
-     * Authorize the given worker on the pool. Throws an exception if the worker
-     * is not authorized on the pool. This method blocs until the response is
-     * received from the pool.
+     * Authorize the given worker on all the ready sessions of the pool. Throws
+     * an exception if the worker is not authorized on a session. This method
+     * blocs until the responses are received from the pool.
      * 
      * @param workerRequest
-     * @param callback
      */
     public void authorizeWorker(MiningAuthorizeRequest workerRequest) throws AuthorizationException {
+        for (PoolSession session : sessions) {
+            if (session.isReady() || session.isPrimary()) {
+                authorizeWorker(session, workerRequest);
+            }
+        }
+    }
+
+    /**
+     * Authorize the given worker on the given session of the pool. Throws an
+     * exception if the worker is not authorized on the pool. This method blocs
+     * until the response is received from the pool.
+     * 
+     * @param session
+     * @param workerRequest
+     */
+    public void authorizeWorker(PoolSession session, MiningAuthorizeRequest workerRequest) throws AuthorizationException {
         // Authorize the worker only if isAppendWorkerNames is true. If true, it
         // means that each worker has to be authorized. If false, the
         // authorization has already been done with the configured username.
@@ -976,11 +1164,14 @@ public class Pool {
             String finalUserName = (username == null ? "" : username) + (workerSeparator == null ? "" : workerSeparator)
                     + workerRequest.getUsername();
 
+            Set<String> authorizedWorkers = session.getAuthorizedWorkers();
+            Map<String, CountDownLatch> pendingAuthorizeRequests = session.getPendingAuthorizeRequests();
+
             // If the worker is already authorized, do nothing
             if (authorizedWorkers.contains(finalUserName)) {
-                LOGGER.debug("Worker {} already authorized on the pool {}.", finalUserName, getName());
+                LOGGER.debug("Worker {} already authorized on the pool {}.", finalUserName, session.getName());
             } else {
-                LOGGER.debug("Authorize worker {} on pool {}.", finalUserName, getName());
+                LOGGER.debug("Authorize worker {} on pool {}.", finalUserName, session.getName());
 
                 // Create a latch to wait the authorization response.
                 CountDownLatch responseLatch = null;
@@ -1010,8 +1201,11 @@ public class Pool {
                         // Prepare the callback to call when response is
                         // received.
                         final CountDownLatch closureLatch = responseLatch;
+                        final long sendTime = System.nanoTime();
                         authorizeCallbacks.put(poolRequest.getId(), new ResponseReceivedCallback<MiningAuthorizeRequest, MiningAuthorizeResponse>() {
                             public void onResponseReceived(MiningAuthorizeRequest request, MiningAuthorizeResponse response) {
+                                updateResponseTime(sendTime);
+
                                 // Recopy values to allow blocked thread
                                 // to access the
                                 // response values.
@@ -1024,7 +1218,7 @@ public class Pool {
                         });
 
                         // Send the request.
-                        connection.sendRequest(poolRequest);
+                        session.sendRequest(poolRequest);
 
                         // Wait for the response
                         waitForAuthorizeResponse(finalUserName, responseLatch);
@@ -1161,6 +1355,16 @@ public class Pool {
         return this.numberOfDisconnections;
     }
 
+    /**
+     * Return the statistics of the write batches of the pool connections,
+     * since the pool creation.
+     * 
+     * @return
+     */
+    public WriteBatchStatistics getWriteBatchStatistics() {
+        return writeBatchStatistics;
+    }
+
     /**
      * Return the pool uptime in seconds
      * 
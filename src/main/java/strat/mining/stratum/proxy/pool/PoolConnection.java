@@ -23,6 +23,7 @@ import java.net.Socket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
 import strat.mining.stratum.proxy.constant.Constants;
 import strat.mining.stratum.proxy.json.ClientGetVersionRequest;
 import strat.mining.stratum.proxy.json.ClientGetVersionResponse;
@@ -48,9 +49,13 @@ public class PoolConnection extends StratumConnection {
 
     private Pool pool;
 
-    public PoolConnection(Pool pool, Socket socket) {
+    private PoolSession session;
+
+    public PoolConnection(PoolSession session, Socket socket) {
         super(socket);
-        this.pool = pool;
+        this.session = session;
+        this.pool = session.getPool();
+        setWriteCoalescingDelay(ConfigurationManager.getInstance().getPoolWriteCoalescingDelay(), pool.getWriteBatchStatistics());
     }
 
     @Override
@@ -60,37 +65,37 @@ public class PoolConnection extends StratumConnection {
 
     @Override
     protected void onDisconnectWithError(Throwable cause) {
-        pool.onDisconnectWithError(cause);
+        pool.onDisconnectWithError(session, cause);
     }
 
     @Override
     public String getConnectionName() {
-        return "Pool-" + pool.getName();
+        return "Pool-" + session.getName();
     }
 
     @Override
     protected void onNotify(MiningNotifyNotification notify) {
-        pool.processNotify(notify);
+        pool.processNotify(session, notify);
     }
 
     @Override
     protected void onShowMessage(ClientShowMessageNotification showMessage) {
-        pool.processShowMessage(showMessage);
+        pool.processShowMessage(session, showMessage);
     }
 
     @Override
     protected void onSetDifficulty(MiningSetDifficultyNotification setDifficulty) {
-        pool.processSetDifficulty(setDifficulty);
+        pool.processSetDifficulty(session, setDifficulty);
     }
 
     @Override
     protected void onSetExtranonce(MiningSetExtranonceNotification setExtranonce) {
-        pool.processSetExtranonce(setExtranonce);
+        pool.processSetExtranonce(session, setExtranonce);
     }
 
     @Override
     protected void onClientReconnect(ClientReconnectNotification clientReconnect) {
-        pool.processClientReconnect(clientReconnect);
+        pool.processClientReconnect(session, clientReconnect);
     }
 
     @Override
@@ -129,17 +134,17 @@ public class PoolConnection extends StratumConnection {
 
     @Override
     protected void onAuthorizeResponse(MiningAuthorizeRequest request, MiningAuthorizeResponse response) {
-        pool.processAuthorizeResponse(request, response);
+        pool.processAuthorizeResponse(session, request, response);
     }
 
     @Override
     protected void onSubscribeResponse(MiningSubscribeRequest request, MiningSubscribeResponse response) {
-        pool.processSubscribeResponse(request, response);
+        pool.processSubscribeResponse(session, request, response);
     }
 
     @Override
     protected void onExtranonceSubscribeResponse(MiningExtranonceSubscribeRequest request, MiningExtranonceSubscribeResponse response) {
-        pool.processSubscribeExtranonceResponse(request, response);
+        pool.processSubscribeExtranonceResponse(session, request, response);
     }
 
     @Override
@@ -0,0 +1,356 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.pool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import strat.mining.stratum.proxy.constant.Constants;
+import strat.mining.stratum.proxy.exception.TooManyWorkersException;
+import strat.mining.stratum.proxy.json.JsonRpcRequest;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.utils.Timer.Task;
+
+/**
+ * An upstream session of a pool. Each session has its own connection to the
+ * pool, its own extranonce1, difficulty and jobs. The worker connections are
+ * bound to a session and use a tail of the session extranonce1.
+ * 
+ * The session with index 0 is the primary session: its state is the state of
+ * the pool.
+ * 
+ * @author Strat
+ * 
+ */
+public class PoolSession {
+
+    private Pool pool;
+
+    private int index;
+
+    private volatile PoolConnection connection;
+
+    private volatile String extranonce1;
+    private volatile Integer extranonce2Size;
+    private volatile Double difficulty;
+    private volatile MiningNotifyNotification currentJob;
+
+    private volatile boolean isReady;
+
+    // True from the start of the session until it is closed.
+    private AtomicBoolean isStarted;
+
+    private int extranonce1TailSize;
+
+    // Contains all available tails in Hexa format.
+    private Deque<String> tails;
+    private int numberOfTails;
+    // The tails used by a worker connection. The sizes are counted apart
+    // since the deque size and contains walk all the tails.
+    private Set<String> usedTails;
+    private AtomicInteger numberOfFreeTails;
+
+    private Set<String> authorizedWorkers;
+    private Map<String, CountDownLatch> pendingAuthorizeRequests;
+
+    private Task subscribeResponseTimeoutTask;
+    private Task reconnectTask;
+
+    public PoolSession(Pool pool, int index, int extranonce1TailSize) {
+        this.pool = pool;
+        this.index = index;
+        this.isReady = false;
+        this.isStarted = new AtomicBoolean(false);
+        this.extranonce1TailSize = extranonce1TailSize;
+        this.tails = buildTails();
+        this.numberOfTails = tails.size();
+        this.usedTails = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.numberOfFreeTails = new AtomicInteger(numberOfTails);
+        this.authorizedWorkers = Collections.synchronizedSet(new HashSet<String>());
+        this.pendingAuthorizeRequests = Collections.synchronizedMap(new HashMap<String, CountDownLatch>());
+    }
+
+    /**
+     * Open the connection of this session to the given pool URI. Block until
+     * the connection is established.
+     * 
+     * @param uri
+     * @throws IOException
+     */
+    public void open(URI uri) throws IOException {
+        Socket socket = new Socket();
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() > -1 ? uri.getPort() : Constants.DEFAULT_POOL_PORT));
+        connection = new PoolConnection(this, socket);
+        connection.startReading();
+    }
+
+    /**
+     * Close the connection of this session. The session is no more ready and
+     * the workers have to be authorized again.
+     */
+    public synchronized void close() {
+        isStarted.set(false);
+        isReady = false;
+        authorizedWorkers.clear();
+        cancelSubscribeResponseTimeoutTask();
+        if (reconnectTask != null) {
+            reconnectTask.cancel();
+            reconnectTask = null;
+        }
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    /**
+     * Send the given request to the pool. Do nothing if the session is not
+     * connected.
+     * 
+     * @param request
+     * @return false if the request has not been sent since the session is not
+     *         connected.
+     */
+    public boolean sendRequest(JsonRpcRequest request) {
+        PoolConnection currentConnection = connection;
+        if (currentConnection != null) {
+            currentConnection.sendRequest(request);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return a free tail of this session.
+     * 
+     * @return
+     * @throws TooManyWorkersException
+     */
+    public String getFreeTail() throws TooManyWorkersException {
+        String tail = tails.poll();
+        if (tail == null) {
+            throw new TooManyWorkersException("No more tails available on session " + index + " of pool " + pool.getName());
+        }
+        numberOfFreeTails.decrementAndGet();
+        usedTails.add(tail);
+        return tail;
+    }
+
+    /**
+     * Release the given tail.
+     * 
+     * @param tail
+     */
+    public void releaseTail(String tail) {
+        if (tail != null && usedTails.remove(tail)) {
+            tails.add(tail);
+            numberOfFreeTails.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the number of tails not used by a worker connection.
+     * 
+     * @return
+     */
+    public int getNumberOfFreeTails() {
+        return numberOfFreeTails.get();
+    }
+
+    /**
+     * Return the number of tails of this session.
+     * 
+     * @return
+     */
+    public int getNumberOfTails() {
+        return numberOfTails;
+    }
+
+    /**
+     * Return the number of worker connections bound to this session.
+     * 
+     * @return
+     */
+    public int getNumberOfWorkerConnections() {
+        return numberOfTails - numberOfFreeTails.get();
+    }
+
+    /**
+     * Return the extranonce2 size for the workers of this session.
+     * 
+     * @return
+     */
+    public Integer getWorkerExtranonce2Size() {
+        return extranonce2Size != null ? extranonce2Size - extranonce1TailSize : 0;
+    }
+
+    private Deque<String> buildTails() {
+        Deque<String> result = new ConcurrentLinkedDeque<String>();
+
+        // For nb worker limit of 1
+        if (extranonce1TailSize == 0) {
+            result.add("");
+        } else {
+            // For nb worker limit of 256 and 65536
+            int nbTails = (int) Math.pow(2, extranonce1TailSize * 8);
+            int tailNbChars = extranonce1TailSize * 2;
+            for (int i = 0; i < nbTails; i++) {
+                String tail = Integer.toHexString(i);
+
+                if (tail.length() > extranonce1TailSize * 2) {
+                    tail = tail.substring(0, tailNbChars);
+                } else {
+                    while (tail.length() < extranonce1TailSize * 2) {
+                        tail = "0" + tail;
+                    }
+                }
+
+                result.add(tail);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return true if this session is the primary session of the pool.
+     * 
+     * @return
+     */
+    public boolean isPrimary() {
+        return index == 0;
+    }
+
+    public Pool getPool() {
+        return pool;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Return the name of the session. The name of the pool for the primary
+     * session.
+     * 
+     * @return
+     */
+    public String getName() {
+        return isPrimary() ? pool.getName() : pool.getName() + "#" + index;
+    }
+
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * Mark the session as started. Return false if the session is already
+     * started.
+     * 
+     * @return
+     */
+    boolean setStarted() {
+        return isStarted.compareAndSet(false, true);
+    }
+
+    public boolean isStarted() {
+        return isStarted.get();
+    }
+
+    public boolean isReady() {
+        return isReady;
+    }
+
+    void setReady(boolean isReady) {
+        this.isReady = isReady;
+    }
+
+    public String getExtranonce1() {
+        return extranonce1;
+    }
+
+    void setExtranonce1(String extranonce1) {
+        this.extranonce1 = extranonce1;
+    }
+
+    public Integer getExtranonce2Size() {
+        return extranonce2Size;
+    }
+
+    void setExtranonce2Size(Integer extranonce2Size) {
+        this.extranonce2Size = extranonce2Size;
+    }
+
+    public Double getDifficulty() {
+        return difficulty;
+    }
+
+    void setDifficulty(Double difficulty) {
+        this.difficulty = difficulty;
+    }
+
+    public MiningNotifyNotification getCurrentStratumJob() {
+        return currentJob;
+    }
+
+    void setCurrentStratumJob(MiningNotifyNotification currentJob) {
+        this.currentJob = currentJob;
+    }
+
+    Set<String> getAuthorizedWorkers() {
+        return authorizedWorkers;
+    }
+
+    Map<String, CountDownLatch> getPendingAuthorizeRequests() {
+        return pendingAuthorizeRequests;
+    }
+
+    synchronized void setSubscribeResponseTimeoutTask(Task subscribeResponseTimeoutTask) {
+        this.subscribeResponseTimeoutTask = subscribeResponseTimeoutTask;
+    }
+
+    synchronized void cancelSubscribeResponseTimeoutTask() {
+        if (subscribeResponseTimeoutTask != null) {
+            subscribeResponseTimeoutTask.cancel();
+            subscribeResponseTimeoutTask = null;
+        }
+    }
+
+    synchronized void setReconnectTask(Task reconnectTask) {
+        if (this.reconnectTask != null) {
+            this.reconnectTask.cancel();
+        }
+        this.reconnectTask = reconnectTask;
+    }
+
+}
@@ -55,9 +55,13 @@ import strat.mining.stratum.proxy.exception.NoPoolAvailableException;
 import strat.mining.stratum.proxy.exception.NotConnectedException;
 import strat.mining.stratum.proxy.exception.NotFoundException;
 import strat.mining.stratum.proxy.exception.PoolStartException;
+import strat.mining.stratum.proxy.manager.PoolFailover;
 import strat.mining.stratum.proxy.manager.ProxyManager;
+import strat.mining.stratum.proxy.manager.WorkerConnectionMigrator.Migration;
 import strat.mining.stratum.proxy.model.User;
+import strat.mining.stratum.proxy.network.WriteBatchStatistics;
 import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.pool.PoolSession;
 import strat.mining.stratum.proxy.rest.authentication.PubliclyAvailable;
 import strat.mining.stratum.proxy.rest.dto.AddPoolDTO;
 import strat.mining.stratum.proxy.rest.dto.AddressDTO;
@@ -69,7 +73,9 @@ import strat.mining.stratum.proxy.rest.dto.HashrateHistoryDTO;
 import strat.mining.stratum.proxy.rest.dto.LogEntry;
 import strat.mining.stratum.proxy.rest.dto.LogLevelDTO;
 import strat.mining.stratum.proxy.rest.dto.PoolDetailsDTO;
+import strat.mining.stratum.proxy.rest.dto.PoolFailoverDTO;
 import strat.mining.stratum.proxy.rest.dto.PoolNameDTO;
+import strat.mining.stratum.proxy.rest.dto.PoolSessionDTO;
 import strat.mining.stratum.proxy.rest.dto.ProxyVersionDTO;
 import strat.mining.stratum.proxy.rest.dto.RemovePoolDTO;
 import strat.mining.stratum.proxy.rest.dto.StatusDTO;
@@ -79,6 +85,7 @@ import strat.mining.stratum.proxy.rest.dto.UpdatePoolDTO;
 import strat.mining.stratum.proxy.rest.dto.UserDetailsDTO;
 import strat.mining.stratum.proxy.rest.dto.UserNameDTO;
 import strat.mining.stratum.proxy.rest.dto.WorkerConnectionDTO;
+import strat.mining.stratum.proxy.rest.dto.WorkerMigrationDTO;
 import strat.mining.stratum.proxy.worker.StratumWorkerConnection;
 import strat.mining.stratum.proxy.worker.WorkerConnection;
 
@@ -604,6 +611,71 @@ public class ProxyResources {
 		return response;
 	}
 
+	/**
+	 * Return the progress of the running or last switch of worker connections
+	 * to a new pool.
+	 * 
+	 * @return
+	 */
+	@GET
+	@Path("pool/migration")
+	@ApiOperation(value = "Return the progress of the running or last switch of worker connections to a new pool.", response = WorkerMigrationDTO.class)
+	@ApiResponses({ @ApiResponse(code = 404, message = "No switch of worker connections since the proxy is started.") })
+	@PubliclyAvailable
+	public Response getWorkerMigration() {
+		Response response = null;
+		Migration migration = stratumProxyManager.getLastWorkerMigration();
+
+		if (migration != null) {
+			WorkerMigrationDTO result = new WorkerMigrationDTO();
+			result.setTargetPoolName(migration.getTargetPoolName());
+			result.setStatus(migration.isDone() ? (migration.isCancelled() ? "CANCELLED" : "DONE") : "RUNNING");
+			result.setNumberOfConnections(migration.getNumberOfConnections());
+			result.setNumberOfMigratedConnections(migration.getNumberOfMigratedConnections());
+			result.setNumberOfFailedConnections(migration.getNumberOfFailedConnections());
+			result.setNumberOfUsernames(migration.getNumberOfUsernames());
+			result.setNumberOfFailedUsernames(migration.getNumberOfFailedUsernames());
+			result.setStartTime(migration.getStartTime());
+			result.setDuration(migration.getDuration());
+			response = Response.status(Response.Status.OK).entity(result).build();
+		} else {
+			response = Response.status(Response.Status.NOT_FOUND).build();
+		}
+
+		return response;
+	}
+
+	/**
+	 * Return the last failovers of pools.
+	 * 
+	 * @return
+	 */
+	@GET
+	@Path("pool/failover/list")
+	@ApiOperation(value = "Return the last failovers of pools, the most recent first. Give the switch-over latency of the worker connections and the hashes wasted during the failover.", response = PoolFailoverDTO.class, responseContainer = "List")
+	@PubliclyAvailable
+	public Response getPoolFailovers() {
+		List<PoolFailoverDTO> result = new ArrayList<>();
+		for (PoolFailover failover : stratumProxyManager.getLastPoolFailovers()) {
+			PoolFailoverDTO failoverDTO = new PoolFailoverDTO();
+			failoverDTO.setFailedPoolName(failover.getFailedPool().getName());
+			failoverDTO.setTargetPoolName(failover.getTargetPool().getName());
+			failoverDTO.setStatus(failover.isDone() ? (failover.isCancelled() ? "CANCELLED" : "DONE") : "RUNNING");
+			failoverDTO.setDetectionTime(failover.getDetectionTime());
+			failoverDTO.setDuration(failover.getDuration());
+			failoverDTO.setNumberOfConnections(failover.getNumberOfConnections());
+			failoverDTO.setNumberOfSwitchedConnections(failover.getNumberOfSwitchedConnections());
+			failoverDTO.setNumberOfFailedConnections(failover.getNumberOfFailedConnections());
+			failoverDTO.setHashesPerSeconds(Double.valueOf(failover.getHashrate()).longValue());
+			failoverDTO.setMaxSwitchLatency(failover.getMaxLatency());
+			failoverDTO.setAverageSwitchLatency(failover.getAverageLatency());
+			failoverDTO.setWastedHashes(Double.valueOf(failover.getWastedHashes()).longValue());
+			result.add(failoverDTO);
+		}
+
+		return Response.status(Response.Status.OK).entity(result).build();
+	}
+
 	@POST
 	@Path("log/level")
 	@ApiOperation(value = "Change the log level.", response = StatusDTO.class)
@@ -820,6 +892,28 @@ public class ProxyResources {
 		result.setUseWorkerPassword(pool.isUseWorkerPassword());
 		result.setLastPoolMessage(pool.getLastPoolMessage());
 
+		WriteBatchStatistics writeBatchStatistics = pool.getWriteBatchStatistics();
+		if (writeBatchStatistics.getNumberOfBatches() > 0) {
+			result.setNumberOfWriteBatches(writeBatchStatistics.getNumberOfBatches());
+			result.setAverageWriteBatchSize(writeBatchStatistics.getAverageBatchSize());
+			result.setMaxWriteBatchSize(writeBatchStatistics.getMaxBatchSize());
+			result.setAverageWriteQueueingDelay(writeBatchStatistics.getAverageQueueingDelay());
+			result.setMaxWriteQueueingDelay(writeBatchStatistics.getMaxQueueingDelay());
+		}
+
+		List<PoolSessionDTO> sessions = new ArrayList<>();
+		for (PoolSession session : pool.getSessions()) {
+			PoolSessionDTO sessionDTO = new PoolSessionDTO();
+			sessionDTO.setIndex(session.getIndex());
+			sessionDTO.setIsReady(session.isReady());
+			sessionDTO.setDifficulty(session.getDifficulty() != null ? session.getDifficulty().toString() : null);
+			sessionDTO.setExtranonce1(session.getExtranonce1());
+			sessionDTO.setExtranonce2Size(session.getExtranonce2Size());
+			sessionDTO.setNumberOfWorkerConnections(session.getNumberOfWorkerConnections());
+			sessions.add(sessionDTO);
+		}
+		result.setSessions(sessions);
+
 		return result;
 	}
 
@@ -18,6 +18,8 @@
  */
 package strat.mining.stratum.proxy.rest.dto;
 
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -64,6 +66,14 @@ public class PoolDetailsDTO {
 
     private String lastPoolMessage;
 
+    private Long numberOfWriteBatches;
+    private Double averageWriteBatchSize;
+    private Integer maxWriteBatchSize;
+    private Long averageWriteQueueingDelay;
+    private Long maxWriteQueueingDelay;
+
+    private List<PoolSessionDTO> sessions;
+
     public String getName() {
         return name;
     }
@@ -304,4 +314,52 @@ public class PoolDetailsDTO {
         this.lastPoolMessage = lastPoolMessage;
     }
 
+    public Long getNumberOfWriteBatches() {
+        return numberOfWriteBatches;
+    }
+
+    public void setNumberOfWriteBatches(Long numberOfWriteBatches) {
+        this.numberOfWriteBatches = numberOfWriteBatches;
+    }
+
+    public Double getAverageWriteBatchSize() {
+        return averageWriteBatchSize;
+    }
+
+    public void setAverageWriteBatchSize(Double averageWriteBatchSize) {
+        this.averageWriteBatchSize = averageWriteBatchSize;
+    }
+
+    public Integer getMaxWriteBatchSize() {
+        return maxWriteBatchSize;
+    }
+
+    public void setMaxWriteBatchSize(Integer maxWriteBatchSize) {
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
+    public Long getAverageWriteQueueingDelay() {
+        return averageWriteQueueingDelay;
+    }
+
+    public void setAverageWriteQueueingDelay(Long averageWriteQueueingDelay) {
+        this.averageWriteQueueingDelay = averageWriteQueueingDelay;
+    }
+
+    public Long getMaxWriteQueueingDelay() {
+        return maxWriteQueueingDelay;
+    }
+
+    public void setMaxWriteQueueingDelay(Long maxWriteQueueingDelay) {
+        this.maxWriteQueueingDelay = maxWriteQueueingDelay;
+    }
+
+    public List<PoolSessionDTO> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<PoolSessionDTO> sessions) {
+        this.sessions = sessions;
+    }
+
 }
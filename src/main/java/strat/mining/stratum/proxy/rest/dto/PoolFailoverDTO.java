@@ -0,0 +1,135 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.rest.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PoolFailoverDTO {
+
+    private String failedPoolName;
+    private String targetPoolName;
+    private String status;
+    private Long detectionTime;
+    private Long duration;
+    private Integer numberOfConnections;
+    private Integer numberOfSwitchedConnections;
+    private Integer numberOfFailedConnections;
+    private Long hashesPerSeconds;
+    private Long maxSwitchLatency;
+    private Long averageSwitchLatency;
+    private Long wastedHashes;
+
+    public String getFailedPoolName() {
+        return failedPoolName;
+    }
+
+    public void setFailedPoolName(String failedPoolName) {
+        this.failedPoolName = failedPoolName;
+    }
+
+    public String getTargetPoolName() {
+        return targetPoolName;
+    }
+
+    public void setTargetPoolName(String targetPoolName) {
+        this.targetPoolName = targetPoolName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Long getDetectionTime() {
+        return detectionTime;
+    }
+
+    public void setDetectionTime(Long detectionTime) {
+        this.detectionTime = detectionTime;
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Long duration) {
+        this.duration = duration;
+    }
+
+    public Integer getNumberOfConnections() {
+        return numberOfConnections;
+    }
+
+    public void setNumberOfConnections(Integer numberOfConnections) {
+        this.numberOfConnections = numberOfConnections;
+    }
+
+    public Integer getNumberOfSwitchedConnections() {
+        return numberOfSwitchedConnections;
+    }
+
+    public void setNumberOfSwitchedConnections(Integer numberOfSwitchedConnections) {
+        this.numberOfSwitchedConnections = numberOfSwitchedConnections;
+    }
+
+    public Integer getNumberOfFailedConnections() {
+        return numberOfFailedConnections;
+    }
+
+    public void setNumberOfFailedConnections(Integer numberOfFailedConnections) {
+        this.numberOfFailedConnections = numberOfFailedConnections;
+    }
+
+    public Long getHashesPerSeconds() {
+        return hashesPerSeconds;
+    }
+
+    public void setHashesPerSeconds(Long hashesPerSeconds) {
+        this.hashesPerSeconds = hashesPerSeconds;
+    }
+
+    public Long getMaxSwitchLatency() {
+        return maxSwitchLatency;
+    }
+
+    public void setMaxSwitchLatency(Long maxSwitchLatency) {
+        this.maxSwitchLatency = maxSwitchLatency;
+    }
+
+    public Long getAverageSwitchLatency() {
+        return averageSwitchLatency;
+    }
+
+    public void setAverageSwitchLatency(Long averageSwitchLatency) {
+        this.averageSwitchLatency = averageSwitchLatency;
+    }
+
+    public Long getWastedHashes() {
+        return wastedHashes;
+    }
+
+    public void setWastedHashes(Long wastedHashes) {
+        this.wastedHashes = wastedHashes;
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.rest.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PoolSessionDTO {
+
+    private Integer index;
+    private Boolean isReady;
+    private String difficulty;
+    private String extranonce1;
+    private Integer extranonce2Size;
+    private Integer numberOfWorkerConnections;
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+
+    public Boolean getIsReady() {
+        return isReady;
+    }
+
+    public void setIsReady(Boolean isReady) {
+        this.isReady = isReady;
+    }
+
+    public String getDifficulty() {
+        return difficulty;
+    }
+
+    public void setDifficulty(String difficulty) {
+        this.difficulty = difficulty;
+    }
+
+    public String getExtranonce1() {
+        return extranonce1;
+    }
+
+    public void setExtranonce1(String extranonce1) {
+        this.extranonce1 = extranonce1;
+    }
+
+    public Integer getExtranonce2Size() {
+        return extranonce2Size;
+    }
+
+    public void setExtranonce2Size(Integer extranonce2Size) {
+        this.extranonce2Size = extranonce2Size;
+    }
+
+    public Integer getNumberOfWorkerConnections() {
+        return numberOfWorkerConnections;
+    }
+
+    public void setNumberOfWorkerConnections(Integer numberOfWorkerConnections) {
+        this.numberOfWorkerConnections = numberOfWorkerConnections;
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.rest.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class WorkerMigrationDTO {
+
+    private String targetPoolName;
+    private String status;
+    private Integer numberOfConnections;
+    private Integer numberOfMigratedConnections;
+    private Integer numberOfFailedConnections;
+    private Integer numberOfUsernames;
+    private Integer numberOfFailedUsernames;
+    private Long startTime;
+    private Long duration;
+
+    public String getTargetPoolName() {
+        return targetPoolName;
+    }
+
+    public void setTargetPoolName(String targetPoolName) {
+        this.targetPoolName = targetPoolName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getNumberOfConnections() {
+        return numberOfConnections;
+    }
+
+    public void setNumberOfConnections(Integer numberOfConnections) {
+        this.numberOfConnections = numberOfConnections;
+    }
+
+    public Integer getNumberOfMigratedConnections() {
+        return numberOfMigratedConnections;
+    }
+
+    public void setNumberOfMigratedConnections(Integer numberOfMigratedConnections) {
+        this.numberOfMigratedConnections = numberOfMigratedConnections;
+    }
+
+    public Integer getNumberOfFailedConnections() {
+        return numberOfFailedConnections;
+    }
+
+    public void setNumberOfFailedConnections(Integer numberOfFailedConnections) {
+        this.numberOfFailedConnections = numberOfFailedConnections;
+    }
+
+    public Integer getNumberOfUsernames() {
+        return numberOfUsernames;
+    }
+
+    public void setNumberOfUsernames(Integer numberOfUsernames) {
+        this.numberOfUsernames = numberOfUsernames;
+    }
+
+    public Integer getNumberOfFailedUsernames() {
+        return numberOfFailedUsernames;
+    }
+
+    public void setNumberOfFailedUsernames(Integer numberOfFailedUsernames) {
+        this.numberOfFailedUsernames = numberOfFailedUsernames;
+    }
+
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public Long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Long duration) {
+        this.duration = duration;
+    }
+
+}
@@ -109,6 +109,30 @@ public final class ArrayUtils {
 		return result;
 	}
 
+	/**
+	 * Copy length bytes of source from sourceOffset in destination from
+	 * destinationOffset, with the bytes of each word reversed. The length must
+	 * be a multiple of the wordByteLength.
+	 * 
+	 * @param source
+	 * @param sourceOffset
+	 * @param destination
+	 * @param destinationOffset
+	 * @param length
+	 * @param wordByteLength
+	 */
+	public static final void swapBytes(byte[] source, int sourceOffset, byte[] destination, int destinationOffset, int length, int wordByteLength) {
+		if (wordByteLength < 1 || length % wordByteLength > 0) {
+			throw new IndexOutOfBoundsException("The wordByteLength is not a multiple of the length. wordByteLength=" + wordByteLength + ", length="
+					+ length);
+		}
+		for (int word = 0; word < length; word += wordByteLength) {
+			for (int i = 0; i < wordByteLength; i++) {
+				destination[destinationOffset + word + i] = source[sourceOffset + word + wordByteLength - 1 - i];
+			}
+		}
+	}
+
 	/**
 	 * Copy the toCopy array into the into Array. The copy start at the
 	 * intoStartIndex in the into array.
@@ -0,0 +1,68 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+/**
+ * An exponentially weighted moving average. The first value initializes the
+ * average.
+ * 
+ * @author Strat
+ * 
+ */
+public class ExponentialMovingAverage {
+
+	private final double alpha;
+
+	private double average;
+
+	private boolean hasValue = false;
+
+	/**
+	 * The weight of each new value is alpha, between 0 (excluded) and 1.
+	 * 
+	 * @param alpha
+	 */
+	public ExponentialMovingAverage(double alpha) {
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Add a value to the average.
+	 * 
+	 * @param value
+	 */
+	public synchronized void add(double value) {
+		if (hasValue) {
+			average += alpha * (value - average);
+		} else {
+			average = value;
+			hasValue = true;
+		}
+	}
+
+	/**
+	 * Return the average, null if no value has been added.
+	 * 
+	 * @return
+	 */
+	public synchronized Double get() {
+		return hasValue ? average : null;
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free table of the pending requests, keyed by request id. The
+ * numeric ids are stored in a ring indexed by the low bits of the id (request
+ * ids are sequential, so the slots are reused in turn). When the slot of an id
+ * is still used by a pending request, or when the id is not a number, the
+ * entry goes in an overflow concurrent map.
+ * 
+ * Entries expire after the given timeout, so requests that never get a
+ * response do not stay in the table forever. Expired entries are purged by
+ * the puts, at most once per timeout period.
+ * 
+ * @author Strat
+ * 
+ * @param <V>
+ */
+public class PendingRequestTable<V> {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	public static final long DEFAULT_TIMEOUT = 120000;
+
+	private final AtomicReferenceArray<PendingEntry<V>> slots;
+
+	private final int mask;
+
+	private final ConcurrentMap<Object, PendingEntry<V>> overflow;
+
+	private final long timeoutNanos;
+
+	private final AtomicLong nextPurgeTime;
+
+	public PendingRequestTable() {
+		this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * 
+	 * @param capacity
+	 *            the number of slots of the ring. Rounded up to a power of two.
+	 * @param timeout
+	 *            the time in milliseconds after which a pending request
+	 *            expires.
+	 */
+	public PendingRequestTable(int capacity, long timeout) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		this.slots = new AtomicReferenceArray<PendingEntry<V>>(size);
+		this.mask = size - 1;
+		this.overflow = new ConcurrentHashMap<Object, PendingEntry<V>>();
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.nextPurgeTime = new AtomicLong(System.nanoTime() + timeoutNanos);
+	}
+
+	/**
+	 * Add a pending request with the given id.
+	 * 
+	 * @param id
+	 * @param value
+	 */
+	public void put(Object id, V value) {
+		long now = System.nanoTime();
+		purgeIfNeeded(now);
+
+		if (id instanceof Integer || id instanceof Long) {
+			long key = ((Number) id).longValue();
+			PendingEntry<V> entry = new PendingEntry<V>(key, value, now + timeoutNanos);
+			int index = (int) key & mask;
+			PendingEntry<V> current = slots.get(index);
+			if ((current == null || current.isExpired(now)) && slots.compareAndSet(index, current, entry)) {
+				return;
+			}
+			overflow.put(key, entry);
+		} else if (id != null) {
+			overflow.put(id, new PendingEntry<V>(0, value, now + timeoutNanos));
+		}
+	}
+
+	/**
+	 * Return the pending request with the given id and remove it from the
+	 * table. Return null if no request is pending with this id (or if it has
+	 * expired).
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public V remove(Object id) {
+		PendingEntry<V> entry = null;
+		if (id instanceof Integer || id instanceof Long) {
+			long key = ((Number) id).longValue();
+			int index = (int) key & mask;
+			PendingEntry<V> current = slots.get(index);
+			if (current != null && current.id == key && slots.compareAndSet(index, current, null)) {
+				entry = current;
+			} else {
+				entry = overflow.remove(key);
+			}
+		} else if (id != null) {
+			entry = overflow.remove(id);
+		}
+		return entry != null && !entry.isExpired(System.nanoTime()) ? entry.value : null;
+	}
+
+	/**
+	 * Return the number of entries in the table (expired ones included until
+	 * they are purged).
+	 * 
+	 * @return
+	 */
+	public int size() {
+		int size = overflow.size();
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Remove all the expired entries. Return the number of removed entries.
+	 * 
+	 * @return
+	 */
+	public int purgeExpired() {
+		long now = System.nanoTime();
+		int removed = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			PendingEntry<V> current = slots.get(i);
+			if (current != null && current.isExpired(now) && slots.compareAndSet(i, current, null)) {
+				removed++;
+			}
+		}
+		Iterator<Entry<Object, PendingEntry<V>>> iterator = overflow.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getValue().isExpired(now)) {
+				iterator.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private void purgeIfNeeded(long now) {
+		long purgeTime = nextPurgeTime.get();
+		if (now - purgeTime >= 0 && nextPurgeTime.compareAndSet(purgeTime, now + timeoutNanos)) {
+			purgeExpired();
+		}
+	}
+
+	private static final class PendingEntry<V> {
+
+		private final long id;
+
+		private final V value;
+
+		private final long expirationTime;
+
+		private PendingEntry(long id, V value, long expirationTime) {
+			this.id = id;
+			this.value = value;
+			this.expirationTime = expirationTime;
+		}
+
+		private boolean isExpired(long now) {
+			return now - expirationTime >= 0;
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum of doubles that does not contend under concurrent updates. Works as
+ * the {@link StripedLongAdder}, with the double values stored as long bits.
+ * 
+ * @author Strat
+ * 
+ */
+public class StripedDoubleAdder {
+
+	private final AtomicLong base;
+
+	private volatile AtomicLongArray cells;
+
+	public StripedDoubleAdder() {
+		base = new AtomicLong(Double.doubleToRawLongBits(0));
+	}
+
+	/**
+	 * Add the given value.
+	 * 
+	 * @param value
+	 */
+	public void add(double value) {
+		AtomicLongArray currentCells = cells;
+		if (currentCells == null) {
+			long current = base.get();
+			if (base.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value))) {
+				return;
+			}
+			currentCells = getOrCreateCells();
+		}
+
+		int index = StripedLongAdder.getStripeIndex() * StripedLongAdder.CELL_PADDING;
+		long current = currentCells.get(index);
+		while (!currentCells.compareAndSet(index, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value))) {
+			current = currentCells.get(index);
+		}
+	}
+
+	/**
+	 * Return the current sum. Concurrent updates may or may not be included.
+	 * 
+	 * @return
+	 */
+	public double sum() {
+		double sum = Double.longBitsToDouble(base.get());
+		AtomicLongArray currentCells = cells;
+		if (currentCells != null) {
+			for (int i = 0; i < currentCells.length(); i += StripedLongAdder.CELL_PADDING) {
+				sum += Double.longBitsToDouble(currentCells.get(i));
+			}
+		}
+		return sum;
+	}
+
+	private synchronized AtomicLongArray getOrCreateCells() {
+		if (cells == null) {
+			// Cells are initialized with the bits of 0.0, which are 0.
+			cells = new AtomicLongArray(StripedLongAdder.NUMBER_OF_STRIPES * StripedLongAdder.CELL_PADDING);
+		}
+		return cells;
+	}
+
+	@Override
+	public String toString() {
+		return Double.toString(sum());
+	}
+
+}
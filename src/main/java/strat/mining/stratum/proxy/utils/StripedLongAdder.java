@@ -0,0 +1,112 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter of longs that does not contend under concurrent updates. The
+ * value is first updated on a single atomic long. On the first contention,
+ * cells are allocated and each thread then updates the cell of its stripe.
+ * The value is the sum of the base and the cells, computed on read.
+ * 
+ * Same principle as the Java 8 LongAdder, which is not available in Java 7.
+ * 
+ * @author Strat
+ * 
+ */
+public class StripedLongAdder {
+
+	// Number of longs between two cells to keep them on different cache
+	// lines.
+	public static final int CELL_PADDING = 8;
+
+	public static final int NUMBER_OF_STRIPES = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 32)) * 2 - 1);
+
+	private final AtomicLong base;
+
+	private volatile AtomicLongArray cells;
+
+	public StripedLongAdder() {
+		base = new AtomicLong();
+	}
+
+	/**
+	 * Add the given value.
+	 * 
+	 * @param value
+	 */
+	public void add(long value) {
+		AtomicLongArray currentCells = cells;
+		if (currentCells == null) {
+			long current = base.get();
+			if (base.compareAndSet(current, current + value)) {
+				return;
+			}
+			currentCells = getOrCreateCells();
+		}
+		currentCells.addAndGet(getStripeIndex() * CELL_PADDING, value);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Return the current sum. Concurrent updates may or may not be included.
+	 * 
+	 * @return
+	 */
+	public long sum() {
+		long sum = base.get();
+		AtomicLongArray currentCells = cells;
+		if (currentCells != null) {
+			for (int i = 0; i < currentCells.length(); i += CELL_PADDING) {
+				sum += currentCells.get(i);
+			}
+		}
+		return sum;
+	}
+
+	private synchronized AtomicLongArray getOrCreateCells() {
+		if (cells == null) {
+			cells = new AtomicLongArray(NUMBER_OF_STRIPES * CELL_PADDING);
+		}
+		return cells;
+	}
+
+	/**
+	 * Return the stripe of the current thread.
+	 * 
+	 * @return
+	 */
+	public static int getStripeIndex() {
+		long id = Thread.currentThread().getId();
+		// Spread the thread ids over the stripes.
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (hash >>> 16) & (NUMBER_OF_STRIPES - 1);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Create the threads and executors used by the connections. When the virtual
+ * threads are enabled and supported by the running JVM (Java 21+), virtual
+ * threads are used, else platform threads are used.
+ * 
+ * The virtual threads API is accessed through reflection since the project is
+ * built for older Java versions.
+ * 
+ * @author Strat
+ * 
+ */
+public final class ThreadingUtils {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThreadingUtils.class);
+
+	private static Boolean useVirtualThreads;
+
+	private static Method ofVirtualMethod;
+	private static Method builderNameMethod;
+	private static Method builderNameWithCounterMethod;
+	private static Method builderUnstartedMethod;
+	private static Method builderFactoryMethod;
+	private static Method newThreadPerTaskExecutorMethod;
+
+	private ThreadingUtils() {
+	}
+
+	/**
+	 * Return true if the threads created by this class are virtual threads.
+	 * 
+	 * @return
+	 */
+	public static synchronized boolean isUsingVirtualThreads() {
+		if (useVirtualThreads == null) {
+			useVirtualThreads = false;
+			if (ConfigurationManager.getInstance().isEnableVirtualThreads()) {
+				try {
+					Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+					ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+					builderNameMethod = builderClass.getMethod("name", String.class);
+					builderNameWithCounterMethod = builderClass.getMethod("name", String.class, long.class);
+					builderUnstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+					builderFactoryMethod = builderClass.getMethod("factory");
+					newThreadPerTaskExecutorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+					useVirtualThreads = true;
+					LOGGER.info("Virtual threads enabled.");
+				} catch (ClassNotFoundException | NoSuchMethodException e) {
+					LOGGER.warn("Virtual threads are not supported by this JVM (Java 21 or higher is needed). Using platform threads.");
+				}
+			}
+		}
+		return useVirtualThreads;
+	}
+
+	/**
+	 * Return a new unstarted thread with the given name that will run the given
+	 * task. Platform threads are created as daemon threads.
+	 * 
+	 * @param task
+	 * @param name
+	 * @return
+	 */
+	public static Thread newThread(Runnable task, String name) {
+		Thread result = null;
+		if (isUsingVirtualThreads()) {
+			try {
+				Object builder = builderNameMethod.invoke(ofVirtualMethod.invoke(null), name);
+				result = (Thread) builderUnstartedMethod.invoke(builder, task);
+			} catch (Exception e) {
+				LOGGER.error("Failed to create virtual thread {}. Using a platform thread.", name, e);
+			}
+		}
+
+		if (result == null) {
+			result = new Thread(task, name);
+			result.setDaemon(true);
+		}
+		return result;
+	}
+
+	/**
+	 * Return a thread factory. Thread names start with the given prefix and end
+	 * with a counter.
+	 * 
+	 * @param namePrefix
+	 * @param daemon
+	 *            only used for platform threads (virtual threads are always
+	 *            daemon)
+	 * @return
+	 */
+	public static ThreadFactory newThreadFactory(String namePrefix, boolean daemon) {
+		ThreadFactory result = null;
+		if (isUsingVirtualThreads()) {
+			try {
+				Object builder = builderNameWithCounterMethod.invoke(ofVirtualMethod.invoke(null), namePrefix, 0L);
+				result = (ThreadFactory) builderFactoryMethod.invoke(builder);
+			} catch (Exception e) {
+				LOGGER.error("Failed to create a virtual thread factory. Using platform threads.", e);
+			}
+		}
+
+		if (result == null) {
+			result = new ThreadFactoryBuilder().setNameFormat(namePrefix + "%s").setDaemon(daemon).build();
+		}
+		return result;
+	}
+
+	/**
+	 * Return an executor that runs each task on its own thread. With virtual
+	 * threads, a new thread is started for each task. With platform threads,
+	 * idle threads are reused (cached thread pool).
+	 * 
+	 * @param namePrefix
+	 * @return
+	 */
+	public static ExecutorService newCachedExecutor(String namePrefix) {
+		ExecutorService result = null;
+		ThreadFactory threadFactory = newThreadFactory(namePrefix, true);
+		if (isUsingVirtualThreads()) {
+			try {
+				result = (ExecutorService) newThreadPerTaskExecutorMethod.invoke(null, threadFactory);
+			} catch (Exception e) {
+				LOGGER.error("Failed to create a virtual thread executor. Using platform threads.", e);
+				threadFactory = new ThreadFactoryBuilder().setNameFormat(namePrefix + "%s").setDaemon(true).build();
+			}
+		}
+
+		if (result == null) {
+			result = Executors.newCachedThreadPool(threadFactory);
+		}
+		return result;
+	}
+
+	/**
+	 * Return an executor that runs the tasks on at most maxThreads platform
+	 * threads (idle threads are stopped after 60 seconds). With virtual
+	 * threads, a new virtual thread is started for each task since they are
+	 * not a scarce resource.
+	 * 
+	 * @param namePrefix
+	 * @param maxThreads
+	 * @return
+	 */
+	public static ExecutorService newBoundedExecutor(String namePrefix, int maxThreads) {
+		ExecutorService result = null;
+		if (isUsingVirtualThreads()) {
+			result = newCachedExecutor(namePrefix);
+		} else {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					newThreadFactory(namePrefix, true));
+			executor.allowCoreThreadTimeOut(true);
+			result = executor;
+		}
+		return result;
+	}
+
+}
@@ -18,57 +18,92 @@
  */
 package strat.mining.stratum.proxy.utils;
 
-import java.util.Comparator;
-import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-
+/**
+ * A timer based on a hashed timing wheel. Tasks are placed in the bucket of
+ * the tick of their execution (modulo the wheel size, with a number of
+ * remaining rounds), so scheduling and cancelling a task is O(1). The
+ * scheduler thread advances the wheel every {@link #TICK_DURATION} ms and runs
+ * the expired tasks on a bounded executor.
+ * 
+ * Tasks are scheduled and cancelled through lock-free queues, only the
+ * scheduler thread modifies the wheel.
+ * 
+ * @author Strat
+ * 
+ */
 public class Timer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Timer.class);
 
-	private static Timer instance;
+	// The duration of a tick in milliseconds.
+	public static final long TICK_DURATION = 10;
+
+	// The number of buckets of the wheel. Must be a power of two.
+	private static final int WHEEL_SIZE = 512;
+
+	private static final int EXECUTOR_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
 
 	private ExecutorService executor;
 
-	private Queue<Task> waitingTasks;
+	private Queue<Task> scheduledTasks;
+
+	private Queue<Task> cancelledTasks;
+
+	private Bucket[] wheel;
+
+	private long tickDurationNanos;
+
+	private long startTime;
 
 	private Scheduler scheduler;
 
 	private Timer() {
-		waitingTasks = new PriorityQueue<Task>(16, new Comparator<Task>() {
-			public int compare(Task o1, Task o2) {
-				int result = 0;
-				if (o1 == null || o1.getExpectedExecutionTime() == null) {
-					result = -1;
-				} else if (o2 == null || o2.getExpectedExecutionTime() == null) {
-					result = 1;
-				} else {
-					result = o1.getExpectedExecutionTime().compareTo(o2.getExpectedExecutionTime());
-				}
-				return result;
-			}
-		});
+		scheduledTasks = new ConcurrentLinkedQueue<Task>();
+		cancelledTasks = new ConcurrentLinkedQueue<Task>();
+		wheel = new Bucket[WHEEL_SIZE];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		tickDurationNanos = TimeUnit.MILLISECONDS.toNanos(TICK_DURATION);
+		startTime = System.nanoTime();
+
 		scheduler = new Scheduler();
-		executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("TimerExecutorThread-%s").setDaemon(true).build());
+		executor = ThreadingUtils.newBoundedExecutor("TimerExecutorThread-", EXECUTOR_THREADS);
 
 		Thread timerThread = new Thread(scheduler, "TimerSchedulerThread");
 		timerThread.setDaemon(true);
 		timerThread.start();
 	}
 
+	/**
+	 * Return the timer. It is created (and its threads started) on the first
+	 * call. No lock is taken since the timer is used on each schedule and
+	 * cancel.
+	 * 
+	 * @return
+	 */
 	public static Timer getInstance() {
-		if (instance == null) {
-			instance = new Timer();
-		}
-		return instance;
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Holds the timer. The class is initialized on the first call of
+	 * {@link Timer#getInstance()}.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class InstanceHolder {
+		private static final Timer INSTANCE = new Timer();
 	}
 
 	/**
@@ -82,74 +117,154 @@ public class Timer {
 		if (task != null && delay >= 0) {
 			LOGGER.debug("Scheduling of task {} in {} ms.", task.getName(), delay);
 			task.setExpectedExecutionTime(System.currentTimeMillis() + delay);
+			task.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
 			LOGGER.trace("Expected execution time of task {}: {}.", task.getName(), task.getExpectedExecutionTime());
-			// Wake up the scheduler.
-			synchronized (waitingTasks) {
-				boolean isInserted = waitingTasks.offer(task);
-				waitingTasks.notifyAll();
-				if (isInserted) {
-					LOGGER.trace("Task {} added in queue => Waking up the scheduler. {}", task.getName(), waitingTasks);
-				} else {
-					LOGGER.warn("Task {} not added in queue. {}", task.getName(), waitingTasks);
-				}
-			}
+			scheduledTasks.offer(task);
 		} else {
 			LOGGER.info("Failed to schedule task {} in {} ms.", task != null ? task.getName() : "null", delay);
 		}
 	}
 
 	/**
-	 * The scheduler of the timer.
+	 * Return the number of tasks waiting in the wheel (the tasks scheduled or
+	 * cancelled since the last tick are not counted yet).
+	 * 
+	 * @return
+	 */
+	public int getNumberOfWaitingTasks() {
+		return scheduler.numberOfWaitingTasks;
+	}
+
+	/**
+	 * The scheduler of the timer. Advance the wheel at each tick.
 	 * 
 	 * @author Strat
 	 * 
 	 */
 	protected class Scheduler implements Runnable {
 
+		private long tick = 0;
+
+		private volatile int numberOfWaitingTasks = 0;
+
 		public void run() {
 			while (true) {
-				Task nextTask = null;
-				long currentTime = System.currentTimeMillis();
 				try {
-					synchronized (waitingTasks) {
-						LOGGER.trace("Looking for next task to execute: {}", waitingTasks);
-						nextTask = waitingTasks.peek();
-
-						if (nextTask == null || nextTask.getExpectedExecutionTime() > currentTime) {
-							// Wait for a new task add if no task is present
-							// or wait for the delay before the execution of the
-							// next task.
-							long timeToWait = 500;
-							if (nextTask != null) {
-								timeToWait = nextTask.getExpectedExecutionTime() - currentTime;
-								LOGGER.trace("Next task to execute {}: waiting for {} ms.", nextTask.getName(), timeToWait);
-							} else {
-								LOGGER.trace("No task in the queue. Waiting for {} ms.", timeToWait);
-							}
-
-							waitingTasks.wait(timeToWait);
-
-						} else {
-							nextTask = waitingTasks.poll();
-
-							LOGGER.trace("Task to execute now: {}.", nextTask.getName());
-
-							// Run the task only if it is not cancelled.
-							if (!nextTask.isCancelled()) {
-								LOGGER.debug("Executing task {} now.", nextTask.getName());
-								executor.execute(nextTask);
-							} else {
-								LOGGER.trace("Task {} cancelled. Do not execute.", nextTask.getName());
-							}
-						}
-					}
-
+					waitForNextTick();
+					processCancelledTasks();
+					processScheduledTasks();
+					expireBucket(wheel[(int) (tick & (WHEEL_SIZE - 1))]);
+					tick++;
 				} catch (InterruptedException e) {
 				} catch (Exception e) {
 					LOGGER.error("Unexpected error in TimerSchedulerThread", e);
 				}
+			}
+		}
+
+		private void waitForNextTick() throws InterruptedException {
+			long tickTime = startTime + (tick + 1) * tickDurationNanos;
+			long sleepTime = tickTime - System.nanoTime();
+			while (sleepTime > 0) {
+				TimeUnit.NANOSECONDS.sleep(sleepTime);
+				sleepTime = tickTime - System.nanoTime();
+			}
+		}
+
+		private void processCancelledTasks() {
+			Task task = cancelledTasks.poll();
+			while (task != null) {
+				if (task.bucket != null) {
+					task.bucket.remove(task);
+					numberOfWaitingTasks--;
+					LOGGER.trace("Task {} cancelled. Removed from the wheel.", task.getName());
+				}
+				task = cancelledTasks.poll();
+			}
+		}
+
+		private void processScheduledTasks() {
+			Task task = scheduledTasks.poll();
+			while (task != null) {
+				// A task scheduled again before its execution is moved.
+				if (task.bucket != null) {
+					task.bucket.remove(task);
+					numberOfWaitingTasks--;
+				}
+
+				if (!task.isCancelled()) {
+					long taskTick = Math.max((task.deadline - startTime) / tickDurationNanos, tick);
+					task.remainingRounds = (taskTick - tick) / WHEEL_SIZE;
+					wheel[(int) (taskTick & (WHEEL_SIZE - 1))].add(task);
+					numberOfWaitingTasks++;
+				} else {
+					LOGGER.trace("Task {} cancelled. Do not add it in the wheel.", task.getName());
+				}
+				task = scheduledTasks.poll();
+			}
+		}
+
+		private void expireBucket(Bucket bucket) {
+			Task task = bucket.head;
+			while (task != null) {
+				Task next = task.next;
+				if (task.remainingRounds <= 0) {
+					bucket.remove(task);
+					numberOfWaitingTasks--;
+					// Run the task only if it is not cancelled.
+					if (!task.isCancelled()) {
+						LOGGER.debug("Executing task {} now.", task.getName());
+						executor.execute(task);
+					} else {
+						LOGGER.trace("Task {} cancelled. Do not execute.", task.getName());
+					}
+				} else {
+					task.remainingRounds--;
+				}
+				task = next;
+			}
+		}
+	}
 
+	/**
+	 * A bucket of the wheel: a doubly linked list of tasks. Only accessed by
+	 * the scheduler thread.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class Bucket {
+
+		private Task head;
+
+		private Task tail;
+
+		private void add(Task task) {
+			task.bucket = this;
+			task.previous = tail;
+			task.next = null;
+			if (tail == null) {
+				head = task;
+			} else {
+				tail.next = task;
+			}
+			tail = task;
+		}
+
+		private void remove(Task task) {
+			if (task.previous == null) {
+				head = task.next;
+			} else {
+				task.previous.next = task.next;
+			}
+			if (task.next == null) {
+				tail = task.previous;
+			} else {
+				task.next.previous = task.previous;
 			}
+			task.previous = null;
+			task.next = null;
+			task.bucket = null;
 		}
 	}
 
@@ -171,6 +286,18 @@ public class Timer {
 
 		private Long taskId;
 
+		// The execution time (System.nanoTime based).
+		volatile long deadline;
+
+		// The following fields are only accessed by the scheduler thread.
+		long remainingRounds;
+
+		Bucket bucket;
+
+		Task previous;
+
+		Task next;
+
 		public Task() {
 			this.taskId = taskCounter.getAndIncrement();
 		}
@@ -178,14 +305,9 @@ public class Timer {
 		public void cancel() {
 			LOGGER.debug("Cancelling the task {}.", getName());
 			isCancelled = true;
-			synchronized (Timer.getInstance().waitingTasks) {
-				boolean removed = Timer.getInstance().waitingTasks.remove(this);
-				if (removed) {
-					LOGGER.debug("Task {} removed. {}", getName(), Timer.getInstance().waitingTasks);
-				} else {
-					LOGGER.debug("Failed to remove task {} but still cancelled. {}", getName(), Timer.getInstance().waitingTasks);
-				}
-			}
+			// The scheduler thread removes the task from the wheel at the next
+			// tick.
+			Timer.getInstance().cancelledTasks.offer(this);
 		}
 
 		public boolean isCancelled() {
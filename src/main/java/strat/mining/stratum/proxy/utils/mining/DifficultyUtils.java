@@ -20,12 +20,20 @@ package strat.mining.stratum.proxy.utils.mining;
 
 import strat.mining.stratum.proxy.configuration.ConfigurationManager;
 import strat.mining.stratum.proxy.worker.GetworkJobTemplate;
-import strat.mining.stratum.proxy.worker.GetworkJobTemplate.GetworkRequestResult;
 
 public final class DifficultyUtils {
 
+	// The block header buffer of each thread.
+	private static final ThreadLocal<byte[]> BLOCK_HEADER = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[SHA256Digest.BLOCK_HEADER_LENGTH];
+		}
+	};
+
 	/**
 	 * Return the real share difficulty of the share with the given parameters.
+	 * The block header is written in a buffer of the thread, the job template
+	 * is neither cloned nor modified.
 	 * 
 	 * @param currentJobTemplate
 	 *            the current job the share has been found on.
@@ -42,11 +50,8 @@ public final class DifficultyUtils {
 	 */
 	public static Double getRealShareDifficulty(GetworkJobTemplate currentJobTemplate, String extranonce1Tail, String extranonce2, String ntime,
 			String nonce) {
-		GetworkJobTemplate cloned = new GetworkJobTemplate(currentJobTemplate);
-		cloned.setTime(ntime);
-		cloned.setNonce(nonce);
-		GetworkRequestResult jobResult = cloned.getData(extranonce2.replaceFirst(extranonce1Tail, ""));
-		String blockHeader = jobResult.getData();
+		byte[] blockHeader = BLOCK_HEADER.get();
+		currentJobTemplate.writeBlockHeader(extranonce2.replaceFirst(extranonce1Tail, ""), ntime, nonce, blockHeader);
 		Double realDifficulty = 0d;
 		if (ConfigurationManager.getInstance().isScrypt()) {
 			realDifficulty = ScryptHashingUtils.getRealShareDifficulty(blockHeader);
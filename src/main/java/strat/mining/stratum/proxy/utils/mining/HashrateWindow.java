@@ -0,0 +1,344 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import strat.mining.stratum.proxy.utils.StripedLongAdder;
+
+/**
+ * A fixed memory sliding window of share difficulties used to compute a
+ * hashrate. The difficulties are summed in time slices stored in a ring, so
+ * adding a share is O(1) and reading the hashrate is O(number of slices).
+ * 
+ * Only a part of the oldest slice is counted (the part in the sampling
+ * period, assuming the shares are evenly spread in the slice).
+ * 
+ * The ring is preallocated: each bucket is a slice number and a difficulty
+ * in two primitive arrays. A bucket is updated by a CAS of its slice number
+ * to a busy marker, so adding a share neither locks nor allocates. As in
+ * {@link StripedLongAdder}, the shares are added on a single ring until the
+ * first contention. Then one ring per stripe is allocated and each thread
+ * adds on the ring of its stripe.
+ * 
+ * @author Strat
+ * 
+ */
+public class HashrateWindow {
+
+	// The default duration of a slice in milliseconds.
+	public static final int DEFAULT_SLICE_DURATION = 1000;
+
+	// Slice number of a bucket never used.
+	private static final long EMPTY = -1;
+
+	// Slice number of a bucket being updated.
+	private static final long BUSY = Long.MIN_VALUE;
+
+	// Slice number of a bucket moved to a new ring.
+	private static final long RETIRED = Long.MIN_VALUE + 1;
+
+	private final int sliceDuration;
+
+	private volatile Ring ring;
+
+	public HashrateWindow(int samplingPeriod) {
+		this(samplingPeriod, DEFAULT_SLICE_DURATION);
+	}
+
+	/**
+	 * 
+	 * @param samplingPeriod
+	 *            the sampling period in milliseconds.
+	 * @param sliceDuration
+	 *            the duration of a slice in milliseconds.
+	 */
+	public HashrateWindow(int samplingPeriod, int sliceDuration) {
+		this.sliceDuration = Math.max(sliceDuration, 1);
+		this.ring = new Ring(samplingPeriod, this.sliceDuration);
+	}
+
+	/**
+	 * Add a share with the given difficulty submitted at the given time.
+	 * 
+	 * @param time
+	 * @param difficulty
+	 */
+	public void add(long time, double difficulty) {
+		long sliceNumber = time / sliceDuration;
+		Ring currentRing = ring;
+		// The ring is retired only once the new one is published.
+		while (!currentRing.add(sliceNumber, difficulty)) {
+			currentRing = ring;
+		}
+	}
+
+	/**
+	 * Return the sum of the difficulties of the shares submitted during the
+	 * sampling period.
+	 * 
+	 * @return
+	 */
+	public synchronized double getTotalDifficulty() {
+		return getTotalDifficulty(ring);
+	}
+
+	private double getTotalDifficulty(Ring currentRing) {
+		long currentTime = System.currentTimeMillis();
+		long currentSlice = currentTime / sliceDuration;
+		long windowStart = currentTime - currentRing.samplingPeriod;
+		long firstSlice = windowStart / sliceDuration;
+		// Only the part of the first slice in the sampling period is counted.
+		double firstSliceWeight = (double) ((firstSlice + 1) * sliceDuration - windowStart) / sliceDuration;
+		return currentRing.sum(firstSlice, currentSlice, firstSliceWeight);
+	}
+
+	/**
+	 * Return the number of hashes per second during the sampling period.
+	 * 
+	 * @return
+	 */
+	public synchronized double getHashrate() {
+		Ring currentRing = ring;
+		return HashrateUtils.getHashrateFromDifficulty(getTotalDifficulty(currentRing), currentRing.samplingPeriod);
+	}
+
+	public int getSamplingPeriod() {
+		return ring.samplingPeriod;
+	}
+
+	/**
+	 * Change the sampling period (in milliseconds). The slices still in the
+	 * new period are kept.
+	 * 
+	 * The new ring is published first, then each bucket of the old ring is
+	 * retired and its difficulty added to the new ring. A share added on a
+	 * retired bucket is added again on the new ring, so no share is lost.
+	 * 
+	 * @param samplingPeriod
+	 */
+	public synchronized void setSamplingPeriod(int samplingPeriod) {
+		Ring oldRing = ring;
+		if (oldRing.samplingPeriod != samplingPeriod) {
+			Ring newRing = new Ring(samplingPeriod, sliceDuration);
+			ring = newRing;
+			long firstSlice = (System.currentTimeMillis() - samplingPeriod) / sliceDuration;
+			oldRing.retire(newRing, firstSlice);
+		}
+	}
+
+	/**
+	 * The slices of the window: a base ring, then one ring per stripe once
+	 * the base ring is contended.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static final class Ring {
+
+		private final int samplingPeriod;
+
+		private final int numberOfBuckets;
+
+		private final Buckets base;
+
+		private volatile Buckets stripes;
+
+		// Set when the ring is replaced. Guarded by this.
+		private boolean isRetired;
+
+		private Ring(int samplingPeriod, int sliceDuration) {
+			this.samplingPeriod = samplingPeriod;
+			// One more slice since the first and the current slices are
+			// partial.
+			this.numberOfBuckets = Math.max((samplingPeriod + sliceDuration - 1) / sliceDuration, 1) + 1;
+			this.base = new Buckets(1, numberOfBuckets);
+		}
+
+		/**
+		 * Add the difficulty on the given slice. Return false if the ring is
+		 * retired (the share has not been added).
+		 * 
+		 * @param sliceNumber
+		 * @param difficulty
+		 * @return
+		 */
+		private boolean add(long sliceNumber, double difficulty) {
+			Buckets currentStripes = stripes;
+			if (currentStripes == null) {
+				long result = base.add(0, sliceNumber, difficulty, true);
+				if (result != BUSY) {
+					return result != RETIRED;
+				}
+				currentStripes = getOrCreateStripes();
+				if (currentStripes == null) {
+					return false;
+				}
+			}
+			return currentStripes.add(StripedLongAdder.getStripeIndex(), sliceNumber, difficulty, false) != RETIRED;
+		}
+
+		private double sum(long firstSlice, long currentSlice, double firstSliceWeight) {
+			double total = base.sum(firstSlice, currentSlice, firstSliceWeight);
+			Buckets currentStripes = stripes;
+			if (currentStripes != null) {
+				total += currentStripes.sum(firstSlice, currentSlice, firstSliceWeight);
+			}
+			return total;
+		}
+
+		private synchronized Buckets getOrCreateStripes() {
+			if (stripes == null && !isRetired) {
+				stripes = new Buckets(StripedLongAdder.NUMBER_OF_STRIPES, numberOfBuckets);
+			}
+			return stripes;
+		}
+
+		/**
+		 * Retire all the buckets and add the slices from the given first one
+		 * on the new ring.
+		 * 
+		 * @param newRing
+		 * @param firstSlice
+		 */
+		private void retire(Ring newRing, long firstSlice) {
+			Buckets currentStripes;
+			synchronized (this) {
+				// No stripes can be created once retired.
+				isRetired = true;
+				currentStripes = stripes;
+			}
+			base.retire(newRing, firstSlice);
+			if (currentStripes != null) {
+				currentStripes.retire(newRing, firstSlice);
+			}
+		}
+	}
+
+	/**
+	 * Rows of buckets. Each bucket is a slice number and the sum of the
+	 * difficulties of the slice (as long bits). The rows are padded so that
+	 * two rows do not share a cache line.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static final class Buckets {
+
+		private final int numberOfBuckets;
+
+		private final int rowLength;
+
+		private final AtomicLongArray sliceNumbers;
+
+		private final AtomicLongArray difficulties;
+
+		private Buckets(int numberOfRows, int numberOfBuckets) {
+			this.numberOfBuckets = numberOfBuckets;
+			this.rowLength = numberOfBuckets + StripedLongAdder.CELL_PADDING;
+			this.sliceNumbers = new AtomicLongArray(numberOfRows * rowLength);
+			// Difficulties are initialized with the bits of 0.0, which are 0.
+			this.difficulties = new AtomicLongArray(numberOfRows * rowLength);
+			for (int i = 0; i < sliceNumbers.length(); i++) {
+				sliceNumbers.set(i, EMPTY);
+			}
+		}
+
+		/**
+		 * Add the difficulty on the bucket of the slice in the given row.
+		 * Return RETIRED if the bucket is retired, BUSY if the bucket is
+		 * contended and failOnContention is set, else the slice number.
+		 * 
+		 * @param row
+		 * @param sliceNumber
+		 * @param difficulty
+		 * @param failOnContention
+		 * @return
+		 */
+		private long add(int row, long sliceNumber, double difficulty, boolean failOnContention) {
+			int index = row * rowLength + (int) (sliceNumber % numberOfBuckets);
+			while (true) {
+				long bucketSlice = sliceNumbers.get(index);
+				if (bucketSlice == RETIRED) {
+					return RETIRED;
+				}
+				if (bucketSlice != BUSY) {
+					// If the bucket contains a newer slice, the share is too
+					// old to be in the window.
+					if (bucketSlice > sliceNumber) {
+						return sliceNumber;
+					}
+					if (sliceNumbers.compareAndSet(index, bucketSlice, BUSY)) {
+						// The bucket is reset if it contains an old slice.
+						double current = bucketSlice == sliceNumber ? Double.longBitsToDouble(difficulties.get(index)) : 0;
+						difficulties.set(index, Double.doubleToRawLongBits(current + difficulty));
+						sliceNumbers.set(index, sliceNumber);
+						return sliceNumber;
+					}
+				}
+				if (failOnContention) {
+					return BUSY;
+				}
+				Thread.yield();
+			}
+		}
+
+		private double sum(long firstSlice, long currentSlice, double firstSliceWeight) {
+			double total = 0;
+			for (int i = 0; i < sliceNumbers.length(); i++) {
+				long bucketSlice;
+				double difficulty;
+				do {
+					bucketSlice = waitNotBusy(i);
+					difficulty = Double.longBitsToDouble(difficulties.get(i));
+					// Read again if the bucket has been reset meanwhile.
+				} while (sliceNumbers.get(i) != bucketSlice);
+
+				if (bucketSlice > firstSlice && bucketSlice <= currentSlice) {
+					total += difficulty;
+				} else if (bucketSlice == firstSlice) {
+					total += difficulty * firstSliceWeight;
+				}
+			}
+			return total;
+		}
+
+		private void retire(Ring newRing, long firstSlice) {
+			for (int i = 0; i < sliceNumbers.length(); i++) {
+				long bucketSlice = waitNotBusy(i);
+				while (!sliceNumbers.compareAndSet(i, bucketSlice, RETIRED)) {
+					bucketSlice = waitNotBusy(i);
+				}
+				if (bucketSlice >= firstSlice && bucketSlice != EMPTY) {
+					newRing.add(bucketSlice, Double.longBitsToDouble(difficulties.get(i)));
+				}
+			}
+		}
+
+		private long waitNotBusy(int index) {
+			long bucketSlice = sliceNumbers.get(index);
+			while (bucketSlice == BUSY) {
+				Thread.yield();
+				bucketSlice = sliceNumbers.get(index);
+			}
+			return bucketSlice;
+		}
+	}
+
+}
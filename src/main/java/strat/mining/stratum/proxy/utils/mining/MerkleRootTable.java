@@ -0,0 +1,232 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+/**
+ * A bounded table of the works served to a getwork miner, keyed by the merkle
+ * root of the work. The 32 bytes merkle roots are stored as 4 longs in open
+ * addressing arrays, with the extranonce2 and the index of the job of the
+ * work.
+ * 
+ * A merkle root can only be stored in one of the {@link #PROBE_LENGTH} slots
+ * following its hash, so lookups and insertions are O(1). When all these slots
+ * are used, the oldest entry is evicted. An entry also expires once capacity
+ * newer entries have been inserted, so the table holds at most the last
+ * capacity works and its memory is allocated once.
+ * 
+ * @author Strat
+ * 
+ */
+public class MerkleRootTable {
+
+	// Returned by get when the merkle root is not in the table.
+	public static final long NOT_FOUND = -1;
+
+	private static final int PROBE_LENGTH = 16;
+
+	private final long[] keys;
+
+	private final int[] extranonce2s;
+
+	private final int[] jobIndexes;
+
+	// The insertion sequence of each slot. 0 if the slot has never been used.
+	private final long[] sequences;
+
+	private final int mask;
+
+	private final int capacity;
+
+	private long nextSequence = 1;
+
+	// Entries with a lower sequence are expired.
+	private long minValidSequence = 1;
+
+	/**
+	 * 
+	 * @param capacity
+	 *            the max number of entries of the table.
+	 */
+	public MerkleRootTable(int capacity) {
+		// Twice more slots than entries to keep the probe sequences short.
+		int size = Integer.highestOneBit(Math.max(capacity * 2 - 1, PROBE_LENGTH)) << 1;
+		this.capacity = capacity;
+		this.mask = size - 1;
+		this.keys = new long[size * 4];
+		this.extranonce2s = new int[size];
+		this.jobIndexes = new int[size];
+		this.sequences = new long[size];
+	}
+
+	/**
+	 * Add the work with the given merkle root (hex string of 32 bytes) in the
+	 * table.
+	 * 
+	 * @param merkleRoot
+	 * @param extranonce2
+	 * @param jobIndex
+	 *            a positive job index.
+	 * @throws IllegalArgumentException
+	 *             if the merkle root is not a 32 bytes hex string.
+	 */
+	public synchronized void put(String merkleRoot, int extranonce2, int jobIndex) {
+		if (!isValidMerkleRoot(merkleRoot)) {
+			throw new IllegalArgumentException("Bad merkle root: " + merkleRoot);
+		}
+		long k0 = parseKeyWord(merkleRoot, 0);
+		long k1 = parseKeyWord(merkleRoot, 1);
+		long k2 = parseKeyWord(merkleRoot, 2);
+		long k3 = parseKeyWord(merkleRoot, 3);
+
+		// Use the first free or expired slot. Else replace the same key or
+		// evict the oldest entry.
+		int slot = -1;
+		long oldestSequence = Long.MAX_VALUE;
+		int index = (int) hash(k0, k1) & mask;
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			int probe = (index + i) & mask;
+			long sequence = sequences[probe];
+			if (!isValid(sequence) || isKeyEqual(probe, k0, k1, k2, k3)) {
+				slot = probe;
+				break;
+			}
+			if (sequence < oldestSequence) {
+				oldestSequence = sequence;
+				slot = probe;
+			}
+		}
+
+		keys[slot * 4] = k0;
+		keys[slot * 4 + 1] = k1;
+		keys[slot * 4 + 2] = k2;
+		keys[slot * 4 + 3] = k3;
+		extranonce2s[slot] = extranonce2;
+		jobIndexes[slot] = jobIndex;
+		sequences[slot] = nextSequence++;
+	}
+
+	/**
+	 * Return the extranonce2 and the job index of the work with the given
+	 * merkle root (hex string of 32 bytes), packed in a long. Return
+	 * {@link #NOT_FOUND} if the merkle root is unknown or expired.
+	 * 
+	 * @param merkleRoot
+	 * @return
+	 */
+	public synchronized long get(String merkleRoot) {
+		long result = NOT_FOUND;
+		if (isValidMerkleRoot(merkleRoot)) {
+			long k0 = parseKeyWord(merkleRoot, 0);
+			long k1 = parseKeyWord(merkleRoot, 1);
+			long k2 = parseKeyWord(merkleRoot, 2);
+			long k3 = parseKeyWord(merkleRoot, 3);
+			int index = (int) hash(k0, k1) & mask;
+			for (int i = 0; i < PROBE_LENGTH; i++) {
+				int probe = (index + i) & mask;
+				if (isValid(sequences[probe]) && isKeyEqual(probe, k0, k1, k2, k3)) {
+					result = ((long) jobIndexes[probe] << 32) | (extranonce2s[probe] & 0xFFFFFFFFL);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the extranonce2 of a value returned by get.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static int getExtranonce2(long value) {
+		return (int) value;
+	}
+
+	/**
+	 * Return the job index of a value returned by get.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static int getJobIndex(long value) {
+		return (int) (value >>> 32);
+	}
+
+	/**
+	 * Expire all the entries. O(1), the slots are reused by the next puts.
+	 */
+	public synchronized void clear() {
+		minValidSequence = nextSequence;
+	}
+
+	/**
+	 * Return the number of valid entries.
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		int result = 0;
+		for (long sequence : sequences) {
+			if (isValid(sequence)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private boolean isValid(long sequence) {
+		return sequence >= minValidSequence && sequence > nextSequence - 1 - capacity;
+	}
+
+	private boolean isKeyEqual(int slot, long k0, long k1, long k2, long k3) {
+		int offset = slot * 4;
+		return keys[offset] == k0 && keys[offset + 1] == k1 && keys[offset + 2] == k2 && keys[offset + 3] == k3;
+	}
+
+	/**
+	 * The merkle root is a hash, so its bits are already well distributed.
+	 * Just mix the two first words.
+	 */
+	private static long hash(long k0, long k1) {
+		long h = k0 ^ (k1 * 0x9E3779B97F4A7C15L);
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * Return true if the given string is a 32 bytes hex string.
+	 */
+	private static boolean isValidMerkleRoot(String merkleRoot) {
+		boolean result = merkleRoot != null && merkleRoot.length() == 64;
+		for (int i = 0; result && i < 64; i++) {
+			result = Character.digit(merkleRoot.charAt(i), 16) >= 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Parse the given 8 bytes word of the hex merkle root.
+	 */
+	private static long parseKeyWord(String merkleRoot, int word) {
+		long result = 0;
+		for (int i = word * 16; i < word * 16 + 16; i++) {
+			result = (result << 4) | Character.digit(merkleRoot.charAt(i), 16);
+		}
+		return result;
+	}
+}
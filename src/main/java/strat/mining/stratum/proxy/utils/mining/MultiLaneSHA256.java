@@ -0,0 +1,234 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import java.util.Arrays;
+
+/**
+ * Compute the double SHA256 of several 80 bytes block headers at once. The
+ * state of each header is stored in a lane of int arrays (one array per SHA256
+ * word, one lane per header) and each step of the algorithm is applied to all
+ * the lanes in a simple loop, which the JIT compiler can vectorize (SIMD).
+ * 
+ * Not thread safe: use one instance per thread.
+ * 
+ * @author Strat
+ * 
+ */
+public final class MultiLaneSHA256 {
+
+	private static final int[] INITIAL_STATE = { 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab,
+			0x5be0cd19 };
+
+	private static final int[] K = { 0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+			0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174, 0xe49b69c1, 0xefbe4786,
+			0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da, 0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+			0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb,
+			0x81c2c92e, 0x92722c85, 0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+			0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3, 0x748f82ee, 0x78a5636f,
+			0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2 };
+
+	private final int numberOfLanes;
+
+	// The hash state: state[word][lane]
+	private final int[][] state;
+
+	// The message schedule: w[round][lane]
+	private final int[][] w;
+
+	// The working variables. The arrays are permuted at each round.
+	private final int[][] variables;
+
+	private int numberOfActiveLanes;
+
+	public MultiLaneSHA256(int numberOfLanes) {
+		this.numberOfLanes = numberOfLanes;
+		this.state = new int[8][numberOfLanes];
+		this.w = new int[64][numberOfLanes];
+		this.variables = new int[8][numberOfLanes];
+	}
+
+	public int getNumberOfLanes() {
+		return numberOfLanes;
+	}
+
+	/**
+	 * Compute the double SHA256 of count block headers (80 bytes each,
+	 * big-endian words) stored one after the other in headers, and write the
+	 * 32 bytes hashes one after the other in results.
+	 * 
+	 * @param headers
+	 * @param count
+	 *            at most the number of lanes
+	 * @param results
+	 */
+	public void doubleHashBlockHeaders(byte[] headers, int count, byte[] results) {
+		if (count > numberOfLanes) {
+			throw new IllegalArgumentException("Too many headers: " + count + ". Number of lanes: " + numberOfLanes);
+		}
+		numberOfActiveLanes = count;
+
+		// First block: the 64 first bytes of the headers
+		resetState();
+		for (int i = 0; i < 16; i++) {
+			int[] word = w[i];
+			for (int lane = 0; lane < count; lane++) {
+				word[lane] = readInt(headers, lane * SHA256Digest.BLOCK_HEADER_LENGTH + (i << 2));
+			}
+		}
+		compress();
+
+		// Second block: the 16 last bytes and the padding of a 80 bytes
+		// message
+		for (int i = 0; i < 4; i++) {
+			int[] word = w[i];
+			for (int lane = 0; lane < count; lane++) {
+				word[lane] = readInt(headers, lane * SHA256Digest.BLOCK_HEADER_LENGTH + SHA256Digest.BLOCK_LENGTH + (i << 2));
+			}
+		}
+		fillPadding(4, SHA256Digest.BLOCK_HEADER_LENGTH);
+		compress();
+
+		// Then the hash of the 32 bytes hash
+		for (int i = 0; i < 8; i++) {
+			System.arraycopy(state[i], 0, w[i], 0, count);
+		}
+		fillPadding(8, SHA256Digest.HASH_LENGTH);
+		resetState();
+		compress();
+
+		for (int i = 0; i < 8; i++) {
+			int[] word = state[i];
+			for (int lane = 0; lane < count; lane++) {
+				writeInt(word[lane], results, lane * SHA256Digest.HASH_LENGTH + (i << 2));
+			}
+		}
+	}
+
+	private void resetState() {
+		for (int i = 0; i < 8; i++) {
+			Arrays.fill(state[i], 0, numberOfActiveLanes, INITIAL_STATE[i]);
+		}
+	}
+
+	/**
+	 * Fill the message schedule from the given word with the padding of a
+	 * message of the given length (ending in this block).
+	 * 
+	 * @param firstWord
+	 * @param messageLength
+	 */
+	private void fillPadding(int firstWord, int messageLength) {
+		Arrays.fill(w[firstWord], 0, numberOfActiveLanes, 0x80000000);
+		for (int i = firstWord + 1; i < 15; i++) {
+			Arrays.fill(w[i], 0, numberOfActiveLanes, 0);
+		}
+		Arrays.fill(w[15], 0, numberOfActiveLanes, messageLength << 3);
+	}
+
+	/**
+	 * Compress the 16 first words of the message schedule in the state of all
+	 * the active lanes.
+	 */
+	private void compress() {
+		int count = numberOfActiveLanes;
+		for (int i = 16; i < 64; i++) {
+			int[] w16 = w[i - 16];
+			int[] w15 = w[i - 15];
+			int[] w7 = w[i - 7];
+			int[] w2 = w[i - 2];
+			int[] word = w[i];
+			for (int lane = 0; lane < count; lane++) {
+				int x = w15[lane];
+				int y = w2[lane];
+				word[lane] = w16[lane] + (Integer.rotateRight(x, 7) ^ Integer.rotateRight(x, 18) ^ (x >>> 3)) + w7[lane]
+						+ (Integer.rotateRight(y, 17) ^ Integer.rotateRight(y, 19) ^ (y >>> 10));
+			}
+		}
+
+		for (int i = 0; i < 8; i++) {
+			System.arraycopy(state[i], 0, variables[i], 0, count);
+		}
+		int[] a = variables[0], b = variables[1], c = variables[2], d = variables[3];
+		int[] e = variables[4], f = variables[5], g = variables[6], h = variables[7];
+
+		for (int i = 0; i < 64; i++) {
+			int k = K[i];
+			int[] word = w[i];
+			for (int lane = 0; lane < count; lane++) {
+				int al = a[lane];
+				int el = e[lane];
+				int t1 = h[lane] + (Integer.rotateRight(el, 6) ^ Integer.rotateRight(el, 11) ^ Integer.rotateRight(el, 25))
+						+ ((el & f[lane]) ^ (~el & g[lane])) + k + word[lane];
+				int t2 = (Integer.rotateRight(al, 2) ^ Integer.rotateRight(al, 13) ^ Integer.rotateRight(al, 22))
+						+ ((al & b[lane]) ^ (al & c[lane]) ^ (b[lane] & c[lane]));
+				// The new e is stored in the h array and the new a in the d
+				// array.
+				h[lane] = d[lane] + t1;
+				d[lane] = t1 + t2;
+			}
+			int[] newA = d;
+			int[] newE = h;
+			h = g;
+			g = f;
+			f = e;
+			e = newE;
+			d = c;
+			c = b;
+			b = a;
+			a = newA;
+		}
+
+		addToState(0, a);
+		addToState(1, b);
+		addToState(2, c);
+		addToState(3, d);
+		addToState(4, e);
+		addToState(5, f);
+		addToState(6, g);
+		addToState(7, h);
+	}
+
+	/**
+	 * Add the given working variable to the given word of the state. Keep the
+	 * variables arrays in the order of the state words.
+	 * 
+	 * @param index
+	 * @param variable
+	 */
+	private void addToState(int index, int[] variable) {
+		int[] word = state[index];
+		for (int lane = 0; lane < numberOfActiveLanes; lane++) {
+			word[lane] += variable[lane];
+		}
+		variables[index] = variable;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return data[offset] << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+	}
+
+	private static void writeInt(int value, byte[] data, int offset) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+}
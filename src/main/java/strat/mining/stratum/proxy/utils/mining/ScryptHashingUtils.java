@@ -20,64 +20,111 @@ package strat.mining.stratum.proxy.utils.mining;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.glassfish.grizzly.http.util.HexUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import strat.mining.stratum.proxy.utils.ArrayUtils;
 
 public class ScryptHashingUtils {
 
-	private static final Logger LOGGER = LoggerFactory.getLogger(ScryptHashingUtils.class);
-
 	public static final BigDecimal DIFFICULTY_1_TARGET = new BigDecimal(new BigInteger(
 			HexUtils.convert("0000ffff00000000000000000000000000000000000000000000000000000000")));
 
-	// Array to prepand to a byte array to build a positive bigInteger
-	private static final byte[] BIG_INTEGER_FAKE_SIGN_ARRAY = new byte[] { (byte) 0 };
+	public static final UInt256 DIFFICULTY_1_TARGET_VALUE = UInt256.valueOf(DIFFICULTY_1_TARGET.toBigInteger());
 
-	private static Mac mac;
+	private static final int BLOCK_HEADER_LENGTH = 80;
 
-	static {
-		try {
-			mac = Mac.getInstance("HmacSHA256");
-		} catch (NoSuchAlgorithmException e) {
-			LOGGER.error("Not supported algorithm. SHA256.");
-			throw new RuntimeException(e);
+	// The block header (big-endian words) followed by its hash, for each
+	// thread.
+	private static final ThreadLocal<byte[]> HEADER_BUFFERS = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[BLOCK_HEADER_LENGTH + 32];
 		}
-	}
+	};
+
+	// The number of scratchpads kept in the pool. More scratchpads are created
+	// if needed but are not kept.
+	private static final int MAX_POOLED_SCRATCHPADS = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static final Queue<Scratchpad> SCRATCHPAD_POOL = new ConcurrentLinkedQueue<Scratchpad>();
+
+	private static final AtomicInteger NUMBER_OF_POOLED_SCRATCHPADS = new AtomicInteger();
 
 	/**
 	 * Compute the Scrypt hash of the given data.
 	 * 
 	 * @param data
 	 * @return
-	 * @throws GeneralSecurityException
 	 */
 	public static byte[] scryptHash(byte[] data) {
-		byte[] H = new byte[32];
-		byte[] B = new byte[128 + 4];
-		int[] X = new int[32];
-		int[] V = new int[32 * 1024];
-		int i, j, k;
+		byte[] result = new byte[32];
+		scryptHash(data, 0, result, 0);
+		return result;
+	}
+
+	/**
+	 * Compute the Scrypt hash (N=1024, r=1, p=1) of the 80 bytes of data at
+	 * the given offset and write it in result. Thread safe.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param result
+	 * @param resultOffset
+	 */
+	public static void scryptHash(byte[] data, int offset, byte[] result, int resultOffset) {
+		Scratchpad scratchpad = SCRATCHPAD_POOL.poll();
+		if (scratchpad == null) {
+			scratchpad = new Scratchpad();
+		} else {
+			NUMBER_OF_POOLED_SCRATCHPADS.decrementAndGet();
+		}
 
 		try {
-			System.arraycopy(data, 0, B, 0, 80);
-			mac.init(new SecretKeySpec(B, 0, 80, "HmacSHA256"));
+			scratchpad.hash(data, offset, result, resultOffset);
+		} finally {
+			if (NUMBER_OF_POOLED_SCRATCHPADS.incrementAndGet() <= MAX_POOLED_SCRATCHPADS) {
+				SCRATCHPAD_POOL.offer(scratchpad);
+			} else {
+				NUMBER_OF_POOLED_SCRATCHPADS.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * The memory needed to compute a Scrypt hash (the 128 KB V array) and the
+	 * PBKDF2-HMAC-SHA256 state. Only used by one thread at a time.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class Scratchpad {
+
+		private final int[] V = new int[32 * 1024];
+		private final int[] X = new int[32];
+		private final byte[] B = new byte[128 + 4];
+		private final byte[] H = new byte[32];
+
+		private final SHA256Digest digest = new SHA256Digest();
+		private final byte[] hmacPad = new byte[SHA256Digest.BLOCK_LENGTH];
+		// The SHA256 states after the inner and outer pads of the HMAC key.
+		private final int[] innerState = new int[8];
+		private final int[] outerState = new int[8];
+
+		private void hash(byte[] data, int offset, byte[] result, int resultOffset) {
+			int i, j, k;
+
+			initHmac(data, offset, 80);
+			System.arraycopy(data, offset, B, 0, 80);
 			B[80] = 0;
 			B[81] = 0;
 			B[82] = 0;
 			for (i = 0; i < 4; i++) {
 				B[83] = (byte) (i + 1);
-				mac.update(B, 0, 84);
-				mac.doFinal(H, 0);
+				hmac(B, 84, H, 0);
 				for (j = 0; j < 8; j++) {
 					X[i * 8 + j] = (H[j * 4 + 0] & 0xff) << 0 | (H[j * 4 + 1] & 0xff) << 8 | (H[j * 4 + 2] & 0xff) << 16
 							| (H[j * 4 + 3] & 0xff) << 24;
@@ -101,13 +148,63 @@ public class ScryptHashingUtils {
 				B[i * 4 + 2] = (byte) (X[i] >> 16);
 				B[i * 4 + 3] = (byte) (X[i] >> 24);
 			}
+			B[128] = 0;
+			B[129] = 0;
+			B[130] = 0;
 			B[128 + 3] = 1;
-			mac.update(B, 0, 128 + 4);
-			mac.doFinal(H, 0);
-		} catch (GeneralSecurityException e) {
-			LOGGER.error("Failed to compute Scrypt hash.", e);
+			hmac(B, 128 + 4, result, resultOffset);
+		}
+
+		/**
+		 * Compute the SHA256 states of the inner and outer pads of the given
+		 * HMAC key.
+		 * 
+		 * @param key
+		 * @param offset
+		 * @param length
+		 */
+		private void initHmac(byte[] key, int offset, int length) {
+			// Keys longer than a block are hashed.
+			Arrays.fill(hmacPad, (byte) 0);
+			if (length > SHA256Digest.BLOCK_LENGTH) {
+				digest.update(key, offset, length);
+				digest.digest(hmacPad, 0);
+			} else {
+				System.arraycopy(key, offset, hmacPad, 0, length);
+			}
+
+			for (int i = 0; i < hmacPad.length; i++) {
+				hmacPad[i] ^= 0x36;
+			}
+			digest.update(hmacPad);
+			digest.getMidstate(innerState);
+			digest.reset();
+
+			// 0x36 ^ 0x5c: remove the inner pad and apply the outer pad
+			for (int i = 0; i < hmacPad.length; i++) {
+				hmacPad[i] ^= 0x6a;
+			}
+			digest.update(hmacPad);
+			digest.getMidstate(outerState);
+			digest.reset();
+		}
+
+		/**
+		 * Write the HMAC of the length first bytes of message in result.
+		 * 
+		 * @param message
+		 * @param length
+		 * @param result
+		 * @param resultOffset
+		 */
+		private void hmac(byte[] message, int length, byte[] result, int resultOffset) {
+			digest.reset(innerState, SHA256Digest.BLOCK_LENGTH);
+			digest.update(message, 0, length);
+			digest.digest(result, resultOffset);
+			digest.reset(outerState, SHA256Digest.BLOCK_LENGTH);
+			digest.update(result, resultOffset, SHA256Digest.HASH_LENGTH);
+			digest.digest(result, resultOffset);
 		}
-		return H;
 	}
 
 	private static void xorSalsa8(int di, int xi, int[] X) {
@@ -187,14 +284,30 @@ public class ScryptHashingUtils {
 	 * 
 	 * @return
 	 */
-	public static boolean isBlockHeaderScryptHashBelowTarget(String blockHeader, BigInteger target) {
-		BigInteger hash = getBlockHeaderHash(blockHeader);
+	public static boolean isBlockHeaderScryptHashBelowTarget(String blockHeader, UInt256 target) {
+		byte[] buffers = HEADER_BUFFERS.get();
+		SHA256HashingUtils.decodeBlockHeader(blockHeader, buffers);
+		return isBigEndianBlockHeaderHashBelowTarget(buffers, target);
+	}
 
-		// Check that the hash is less than the target. (The hash is valid if
-		// hash < target)
-		boolean isBelowTarget = hash.compareTo(target) < 0;
+	/**
+	 * Return true if the Scrypt hash of the given block header (little-endian
+	 * words, as in getwork data) is below the given target.
+	 * 
+	 * @param blockHeader
+	 * @param target
+	 * @return
+	 */
+	public static boolean isBlockHeaderScryptHashBelowTarget(byte[] blockHeader, UInt256 target) {
+		byte[] buffers = HEADER_BUFFERS.get();
+		ArrayUtils.swapBytes(blockHeader, 0, buffers, 0, BLOCK_HEADER_LENGTH, 4);
+		return isBigEndianBlockHeaderHashBelowTarget(buffers, target);
+	}
 
-		return isBelowTarget;
+	private static boolean isBigEndianBlockHeaderHashBelowTarget(byte[] buffers, UInt256 target) {
+		scryptHash(buffers, 0, buffers, BLOCK_HEADER_LENGTH);
+		// The hash is valid if hash < target
+		return target.compareToLittleEndian(buffers, BLOCK_HEADER_LENGTH) > 0;
 	}
 
 	/**
@@ -203,34 +316,25 @@ public class ScryptHashingUtils {
 	 * @param blockHeader
 	 * @return
 	 */
-	public static BigInteger getBlockHeaderHash(String blockHeader) {
-		// The block header is just composed of the 80 first bytes (the
-		// remaining is just padding)
-		byte[] blockHeaderBin = HexUtils.convert(blockHeader.substring(0, 160));
-
-		// LittleEndian to BigEndian
-		blockHeaderBin = ArrayUtils.swapBytes(blockHeaderBin, 4);
-
-		// Compute the hash
-		byte[] hashIntegerBytes = scryptHash(blockHeaderBin);
-
-		// Convert the hashInteger to a 256 bits (32 bytes) bytes array
-		byte[] hashBytes256Bits = new byte[32];
-		Arrays.fill(hashBytes256Bits, (byte) 0);
-		ArrayUtils.copyInto(hashIntegerBytes, hashBytes256Bits, 32 - hashIntegerBytes.length);
-
-		// Then swap bytes from big-endian to little-endian
-		hashBytes256Bits = ArrayUtils.swapBytes(hashBytes256Bits, 4);
-
-		// And reverse the order of 4-bytes words (big-endian to little-endian
-		// 256-bits integer)
-		hashBytes256Bits = ArrayUtils.reverseWords(hashBytes256Bits, 4);
-
-		// Build the integer (with a 0 value byte to fake an unsigned int (sign
-		// bit to 0)
-		BigInteger hashInteger = new BigInteger(org.apache.commons.lang.ArrayUtils.addAll(BIG_INTEGER_FAKE_SIGN_ARRAY, hashBytes256Bits));
+	public static UInt256 getBlockHeaderHash(String blockHeader) {
+		byte[] buffers = HEADER_BUFFERS.get();
+		SHA256HashingUtils.decodeBlockHeader(blockHeader, buffers);
+		scryptHash(buffers, 0, buffers, BLOCK_HEADER_LENGTH);
+		return UInt256.fromLittleEndian(buffers, BLOCK_HEADER_LENGTH);
+	}
 
-		return hashInteger;
+	/**
+	 * Compute the hash of the given block header (little-endian words, as in
+	 * getwork data).
+	 * 
+	 * @param blockHeader
+	 * @return
+	 */
+	public static UInt256 getBlockHeaderHash(byte[] blockHeader) {
+		byte[] buffers = HEADER_BUFFERS.get();
+		ArrayUtils.swapBytes(blockHeader, 0, buffers, 0, BLOCK_HEADER_LENGTH, 4);
+		scryptHash(buffers, 0, buffers, BLOCK_HEADER_LENGTH);
+		return UInt256.fromLittleEndian(buffers, BLOCK_HEADER_LENGTH);
 	}
 
 	/**
@@ -239,10 +343,16 @@ public class ScryptHashingUtils {
 	 * @return
 	 */
 	public static Double getRealShareDifficulty(String blockHeader) {
-		BigInteger realDifficulty = BigInteger.ZERO;
-		BigInteger hash = getBlockHeaderHash(blockHeader);
-		realDifficulty = DIFFICULTY_1_TARGET.toBigInteger().divide(hash);
-		return realDifficulty.doubleValue();
+		return getBlockHeaderHash(blockHeader).getDifficulty(DIFFICULTY_1_TARGET_VALUE);
+	}
+
+	/**
+	 * Compute and return the real difficulty of this share.
+	 * 
+	 * @return
+	 */
+	public static Double getRealShareDifficulty(byte[] blockHeader) {
+		return getBlockHeaderHash(blockHeader).getDifficulty(DIFFICULTY_1_TARGET_VALUE);
 	}
 
 }
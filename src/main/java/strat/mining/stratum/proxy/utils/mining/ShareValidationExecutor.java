@@ -0,0 +1,316 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.utils.ArrayUtils;
+
+/**
+ * The stage validating the shares submitted by the workers (Scrypt/SHA256
+ * hash of the block headers below the target). Validations are queued and run
+ * by one thread per core, out of the connection read threads. Each thread
+ * takes all the waiting validations (up to {@link #MAX_BATCH_SIZE}) at once,
+ * so that bursts of shares (on block changes) are hashed in batches.
+ * 
+ * SHA256 batches are hashed either one header at a time (JDK digest) or on
+ * all the headers at once ({@link MultiLaneSHA256}). The fastest depends on
+ * the JVM and the CPU (the JDK digest uses the SHA instructions of the CPU
+ * when available), so the cost of both is measured on the live batches and
+ * the cheapest is used.
+ * 
+ * When too many validations are waiting, the submitting thread runs the
+ * validation itself, which slows down the reading of the connection.
+ * 
+ * @author Strat
+ * 
+ */
+public class ShareValidationExecutor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShareValidationExecutor.class);
+
+	// The maximum number of validations waiting for a thread.
+	private static final int QUEUE_CAPACITY = 1024;
+
+	// The maximum number of shares validated at once. Also the number of
+	// lanes of the multi-lane hashing.
+	public static final int MAX_BATCH_SIZE = 16;
+
+	// Smaller SHA256 batches are always hashed one header at a time.
+	private static final int MIN_MULTI_LANE_BATCH_SIZE = 4;
+
+	// One batch out of this number is hashed with the engine which is not the
+	// cheapest, to keep its cost up to date.
+	private static final int EXPLORATION_PERIOD = 32;
+
+	// Weight of a new measure in the average cost of a hash.
+	private static final double COST_SMOOTHING_FACTOR = 0.25;
+
+	private static ShareValidationExecutor instance;
+
+	// The block header of the validations run by the submitting threads.
+	private static final ThreadLocal<byte[]> BLOCK_HEADER = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[SHA256Digest.BLOCK_HEADER_LENGTH];
+		}
+	};
+
+	private BlockingQueue<ShareValidation> pendingValidations;
+
+	private AtomicLong numberOfSha256Batches;
+
+	// The average cost of a hash in nanoseconds with each engine. Updated
+	// without synchronization since it is only used as a hint.
+	private volatile double scalarHashCost;
+	private volatile double multiLaneHashCost;
+
+	private ShareValidationExecutor() {
+		pendingValidations = new ArrayBlockingQueue<ShareValidation>(QUEUE_CAPACITY);
+		numberOfSha256Batches = new AtomicLong();
+
+		// CPU bound threads: always platform threads.
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < numberOfThreads; i++) {
+			Thread thread = new Thread(new ValidationWorker(), "ShareValidationThread-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public static synchronized ShareValidationExecutor getInstance() {
+		if (instance == null) {
+			instance = new ShareValidationExecutor();
+		}
+		return instance;
+	}
+
+	/**
+	 * Queue the given validation. If the queue is full, the validation is run
+	 * by the calling thread.
+	 * 
+	 * @param validation
+	 */
+	public void validate(ShareValidation validation) {
+		if (!pendingValidations.offer(validation)) {
+			LOGGER.debug("Share validation queue full. Validating on the submitting thread.");
+			byte[] blockHeader = BLOCK_HEADER.get();
+			if (buildBlockHeader(validation, blockHeader)) {
+				boolean isBelowTarget = ConfigurationManager.getInstance().isScrypt() ? ScryptHashingUtils.isBlockHeaderScryptHashBelowTarget(
+						blockHeader, validation.getTarget()) : SHA256HashingUtils.isBlockHeaderSHA256HashBelowTarget(blockHeader,
+						validation.getTarget());
+				release(validation, isBelowTarget);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of validations waiting for a thread.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfPendingValidations() {
+		return pendingValidations.size();
+	}
+
+	/**
+	 * Return true if the next SHA256 batch should be hashed on all the headers
+	 * at once.
+	 * 
+	 * @return
+	 */
+	private boolean isMultiLaneBatch() {
+		boolean isMultiLaneCheapest = multiLaneHashCost < scalarHashCost;
+		if (numberOfSha256Batches.incrementAndGet() % EXPLORATION_PERIOD == 0) {
+			return !isMultiLaneCheapest;
+		}
+		return isMultiLaneCheapest;
+	}
+
+	private static double updateCost(double cost, long duration, int numberOfHashes) {
+		double hashCost = (double) duration / numberOfHashes;
+		return cost == 0 ? hashCost : cost + COST_SMOOTHING_FACTOR * (hashCost - cost);
+	}
+
+	/**
+	 * Build the block header of the share in the given buffer. Return false
+	 * (and notify the failure) if it cannot be built.
+	 * 
+	 * @param validation
+	 * @param blockHeader
+	 * @return
+	 */
+	private static boolean buildBlockHeader(ShareValidation validation, byte[] blockHeader) {
+		boolean result = false;
+		try {
+			validation.buildBlockHeader(blockHeader);
+			result = true;
+		} catch (Exception e) {
+			LOGGER.error("Failed to build the block header of a share.", e);
+			try {
+				validation.onValidationFailed();
+			} catch (Exception e1) {
+				LOGGER.error("Failed to process a share validation failure.", e1);
+			}
+		}
+		return result;
+	}
+
+	private static void release(ShareValidation validation, boolean isBelowTarget) {
+		try {
+			validation.onValidated(isBelowTarget);
+		} catch (Exception e) {
+			LOGGER.error("Failed to process a validated share.", e);
+		}
+	}
+
+	/**
+	 * A validation thread. Take the waiting validations by batches.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private class ValidationWorker implements Runnable {
+
+		private final List<ShareValidation> batch = new ArrayList<ShareValidation>(MAX_BATCH_SIZE);
+
+		private final byte[][] blockHeaders = new byte[MAX_BATCH_SIZE][SHA256Digest.BLOCK_HEADER_LENGTH];
+
+		private final boolean[] results = new boolean[MAX_BATCH_SIZE];
+
+		private final MultiLaneSHA256 multiLaneSha256 = new MultiLaneSHA256(MAX_BATCH_SIZE);
+
+		// The big-endian headers of the batch, then their hashes.
+		private final byte[] multiLaneHeaders = new byte[MAX_BATCH_SIZE * SHA256Digest.BLOCK_HEADER_LENGTH];
+		private final byte[] multiLaneHashes = new byte[MAX_BATCH_SIZE * SHA256Digest.HASH_LENGTH];
+
+		public void run() {
+			while (true) {
+				try {
+					batch.add(pendingValidations.take());
+					pendingValidations.drainTo(batch, MAX_BATCH_SIZE - 1);
+					validateBatch();
+				} catch (InterruptedException e) {
+					LOGGER.debug("{} interrupted.", Thread.currentThread().getName());
+				} catch (Exception e) {
+					LOGGER.error("Unexpected error in {}.", Thread.currentThread().getName(), e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+
+		private void validateBatch() {
+			// Build the headers and keep only the valid ones at the beginning
+			// of the batch.
+			int size = 0;
+			for (ShareValidation validation : batch) {
+				if (buildBlockHeader(validation, blockHeaders[size])) {
+					batch.set(size, validation);
+					size++;
+				}
+			}
+
+			if (ConfigurationManager.getInstance().isScrypt()) {
+				for (int i = 0; i < size; i++) {
+					results[i] = ScryptHashingUtils.isBlockHeaderScryptHashBelowTarget(blockHeaders[i], batch.get(i).getTarget());
+				}
+			} else if (size < MIN_MULTI_LANE_BATCH_SIZE) {
+				validateSha256(size);
+			} else if (isMultiLaneBatch()) {
+				long start = System.nanoTime();
+				validateSha256MultiLane(size);
+				multiLaneHashCost = updateCost(multiLaneHashCost, System.nanoTime() - start, size);
+			} else {
+				long start = System.nanoTime();
+				validateSha256(size);
+				scalarHashCost = updateCost(scalarHashCost, System.nanoTime() - start, size);
+			}
+
+			for (int i = 0; i < size; i++) {
+				release(batch.get(i), results[i]);
+			}
+		}
+
+		private void validateSha256(int size) {
+			for (int i = 0; i < size; i++) {
+				results[i] = SHA256HashingUtils.isBlockHeaderSHA256HashBelowTarget(blockHeaders[i], batch.get(i).getTarget());
+			}
+		}
+
+		private void validateSha256MultiLane(int size) {
+			for (int i = 0; i < size; i++) {
+				// Little-endian words to big-endian words
+				ArrayUtils.swapBytes(blockHeaders[i], 0, multiLaneHeaders, i * SHA256Digest.BLOCK_HEADER_LENGTH, SHA256Digest.BLOCK_HEADER_LENGTH, 4);
+			}
+			multiLaneSha256.doubleHashBlockHeaders(multiLaneHeaders, size, multiLaneHashes);
+			for (int i = 0; i < size; i++) {
+				// The share is below the target if hash < target
+				results[i] = batch.get(i).getTarget().compareToLittleEndian(multiLaneHashes, i * SHA256Digest.HASH_LENGTH) > 0;
+			}
+		}
+	}
+
+	/**
+	 * A share to validate.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	public static abstract class ShareValidation {
+
+		/**
+		 * Write the block header (80 bytes, little-endian words, as in getwork
+		 * data) of the share in the given buffer, which belongs to the
+		 * validating thread. Called by the validation thread.
+		 * 
+		 * @param blockHeader
+		 */
+		protected abstract void buildBlockHeader(byte[] blockHeader);
+
+		/**
+		 * Return the target of the share.
+		 * 
+		 * @return
+		 */
+		protected abstract UInt256 getTarget();
+
+		/**
+		 * Called with the result of the validation.
+		 * 
+		 * @param isBelowTarget
+		 */
+		protected abstract void onValidated(boolean isBelowTarget);
+
+		/**
+		 * Called if the share cannot be validated (the block header cannot be
+		 * built).
+		 */
+		protected abstract void onValidationFailed();
+
+	}
+
+}
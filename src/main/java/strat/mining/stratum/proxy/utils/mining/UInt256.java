@@ -0,0 +1,220 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable unsigned 256 bits integer stored in four longs. Used for the
+ * hashes and the targets of the shares: the comparison with a hash stored as
+ * little-endian bytes does not allocate anything.
+ * 
+ * @author Strat
+ * 
+ */
+public final class UInt256 implements Comparable<UInt256> {
+
+	private static final BigInteger MAX_VALUE = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+	// 2^64 as double
+	private static final double TWO_POW_64 = 18446744073709551616d;
+
+	// From the most significant to the least significant word.
+	private final long word3;
+	private final long word2;
+	private final long word1;
+	private final long word0;
+
+	private UInt256(long word3, long word2, long word1, long word0) {
+		this.word3 = word3;
+		this.word2 = word2;
+		this.word1 = word1;
+		this.word0 = word0;
+	}
+
+	/**
+	 * Return the value of the given positive BigInteger. Throw an
+	 * IllegalArgumentException if it does not fit on 256 bits.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static UInt256 valueOf(BigInteger value) {
+		if (value.signum() < 0 || value.compareTo(MAX_VALUE) > 0) {
+			throw new IllegalArgumentException("Value out of the 256 bits unsigned range: " + value);
+		}
+		return new UInt256(value.shiftRight(192).longValue(), value.shiftRight(128).longValue(), value.shiftRight(64).longValue(), value.longValue());
+	}
+
+	/**
+	 * Return the value of the 32 bytes at the given offset, least significant
+	 * byte first (as a SHA256 or Scrypt hash).
+	 * 
+	 * @param data
+	 * @param offset
+	 * @return
+	 */
+	public static UInt256 fromLittleEndian(byte[] data, int offset) {
+		return new UInt256(readLittleEndianLong(data, offset + 24), readLittleEndianLong(data, offset + 16), readLittleEndianLong(data,
+				offset + 8), readLittleEndianLong(data, offset));
+	}
+
+	/**
+	 * Compare this value with the 32 bytes little-endian value at the given
+	 * offset. Return a negative integer, zero, or a positive integer as this
+	 * value is less than, equal to, or greater than the given one.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @return
+	 */
+	public int compareToLittleEndian(byte[] data, int offset) {
+		int result = compareUnsigned(word3, readLittleEndianLong(data, offset + 24));
+		if (result == 0) {
+			result = compareUnsigned(word2, readLittleEndianLong(data, offset + 16));
+			if (result == 0) {
+				result = compareUnsigned(word1, readLittleEndianLong(data, offset + 8));
+				if (result == 0) {
+					result = compareUnsigned(word0, readLittleEndianLong(data, offset));
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public int compareTo(UInt256 other) {
+		int result = compareUnsigned(word3, other.word3);
+		if (result == 0) {
+			result = compareUnsigned(word2, other.word2);
+			if (result == 0) {
+				result = compareUnsigned(word1, other.word1);
+				if (result == 0) {
+					result = compareUnsigned(word0, other.word0);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the nearest double of this value.
+	 * 
+	 * @return
+	 */
+	public double doubleValue() {
+		return ((unsignedToDouble(word3) * TWO_POW_64 + unsignedToDouble(word2)) * TWO_POW_64 + unsignedToDouble(word1)) * TWO_POW_64
+				+ unsignedToDouble(word0);
+	}
+
+	/**
+	 * Return the difficulty of a share with this hash, the difficulty 1 target
+	 * being the given one.
+	 * 
+	 * @param difficulty1Target
+	 * @return
+	 */
+	public double getDifficulty(UInt256 difficulty1Target) {
+		return difficulty1Target.doubleValue() / doubleValue();
+	}
+
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[33];
+		writeBigEndianLong(word3, bytes, 1);
+		writeBigEndianLong(word2, bytes, 9);
+		writeBigEndianLong(word1, bytes, 17);
+		writeBigEndianLong(word0, bytes, 25);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Return the 32 bytes of this value, least significant byte first.
+	 * 
+	 * @return
+	 */
+	public byte[] toLittleEndianBytes() {
+		byte[] result = new byte[32];
+		writeLittleEndianLong(word0, result, 0);
+		writeLittleEndianLong(word1, result, 8);
+		writeLittleEndianLong(word2, result, 16);
+		writeLittleEndianLong(word3, result, 24);
+		return result;
+	}
+
+	private static int compareUnsigned(long x, long y) {
+		x += Long.MIN_VALUE;
+		y += Long.MIN_VALUE;
+		return x < y ? -1 : (x == y ? 0 : 1);
+	}
+
+	private static double unsignedToDouble(long value) {
+		double result = (double) (value & Long.MAX_VALUE);
+		if (value < 0) {
+			result += 9223372036854775808d;
+		}
+		return result;
+	}
+
+	private static long readLittleEndianLong(byte[] data, int offset) {
+		return (data[offset] & 0xffL) | (data[offset + 1] & 0xffL) << 8 | (data[offset + 2] & 0xffL) << 16 | (data[offset + 3] & 0xffL) << 24
+				| (data[offset + 4] & 0xffL) << 32 | (data[offset + 5] & 0xffL) << 40 | (data[offset + 6] & 0xffL) << 48
+				| (data[offset + 7] & 0xffL) << 56;
+	}
+
+	private static void writeLittleEndianLong(long value, byte[] data, int offset) {
+		for (int i = 0; i < 8; i++) {
+			data[offset + i] = (byte) (value >>> (i << 3));
+		}
+	}
+
+	private static void writeBigEndianLong(long value, byte[] data, int offset) {
+		for (int i = 0; i < 8; i++) {
+			data[offset + 7 - i] = (byte) (value >>> (i << 3));
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (word0 ^ (word0 >>> 32));
+		result = prime * result + (int) (word1 ^ (word1 >>> 32));
+		result = prime * result + (int) (word2 ^ (word2 >>> 32));
+		result = prime * result + (int) (word3 ^ (word3 >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		UInt256 other = (UInt256) obj;
+		return word0 == other.word0 && word1 == other.word1 && word2 == other.word2 && word3 == other.word3;
+	}
+
+	@Override
+	public String toString() {
+		return toBigInteger().toString(16);
+	}
+
+}
@@ -18,9 +18,6 @@
  */
 package strat.mining.stratum.proxy.utils.mining;
 
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
-
 import strat.mining.stratum.proxy.constant.Constants;
 import strat.mining.stratum.proxy.model.Share;
 
@@ -32,13 +29,12 @@ import strat.mining.stratum.proxy.model.Share;
  */
 public class WorkerConnectionHashrateDelegator {
 
-	private Deque<Share> lastAcceptedShares;
-	private Deque<Share> lastRejectedShares;
-	private Integer samplingHashesPeriod = Constants.DEFAULT_WORKER_CONNECTION_HASHRATE_SAMPLING_PERIOD * 1000;
+	private HashrateWindow acceptedHashrateWindow;
+	private HashrateWindow rejectedHashrateWindow;
 
 	public WorkerConnectionHashrateDelegator() {
-		lastAcceptedShares = new ConcurrentLinkedDeque<Share>();
-		lastRejectedShares = new ConcurrentLinkedDeque<Share>();
+		acceptedHashrateWindow = new HashrateWindow(Constants.DEFAULT_WORKER_CONNECTION_HASHRATE_SAMPLING_PERIOD * 1000);
+		rejectedHashrateWindow = new HashrateWindow(Constants.DEFAULT_WORKER_CONNECTION_HASHRATE_SAMPLING_PERIOD * 1000);
 	}
 
 	/**
@@ -47,8 +43,7 @@ public class WorkerConnectionHashrateDelegator {
 	 * @return
 	 */
 	public double getAcceptedHashrate() {
-		HashrateUtils.purgeShareList(lastAcceptedShares, samplingHashesPeriod);
-		return HashrateUtils.getHashrateFromShareList(lastAcceptedShares, samplingHashesPeriod);
+		return acceptedHashrateWindow.getHashrate();
 	}
 
 	/**
@@ -57,8 +52,7 @@ public class WorkerConnectionHashrateDelegator {
 	 * @return
 	 */
 	public double getRejectedHashrate() {
-		HashrateUtils.purgeShareList(lastRejectedShares, samplingHashesPeriod);
-		return HashrateUtils.getHashrateFromShareList(lastRejectedShares, samplingHashesPeriod);
+		return rejectedHashrateWindow.getHashrate();
 	}
 
 	/**
@@ -69,11 +63,9 @@ public class WorkerConnectionHashrateDelegator {
 	 */
 	public void updateShareLists(Share share, boolean isAccepted) {
 		if (isAccepted) {
-			lastAcceptedShares.addLast(share);
-			HashrateUtils.purgeShareList(lastAcceptedShares, samplingHashesPeriod);
+			acceptedHashrateWindow.add(share.getTime(), share.getDifficulty());
 		} else {
-			lastRejectedShares.addLast(share);
-			HashrateUtils.purgeShareList(lastRejectedShares, samplingHashesPeriod);
+			rejectedHashrateWindow.add(share.getTime(), share.getDifficulty());
 		}
 	}
 
@@ -84,7 +76,8 @@ public class WorkerConnectionHashrateDelegator {
 	 * @param samplingHashesPeriod
 	 */
 	public void setSamplingHashesPeriod(Integer samplingHashesPeriod) {
-		this.samplingHashesPeriod = samplingHashesPeriod * 1000;
+		acceptedHashrateWindow.setSamplingPeriod(samplingHashesPeriod * 1000);
+		rejectedHashrateWindow.setSamplingPeriod(samplingHashesPeriod * 1000);
 	}
 
 }
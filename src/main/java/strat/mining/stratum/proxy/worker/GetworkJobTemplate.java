@@ -18,23 +18,24 @@
  */
 package strat.mining.stratum.proxy.worker;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.glassfish.grizzly.http.util.HexUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import strat.mining.stratum.proxy.configuration.ConfigurationManager;
-import strat.mining.stratum.proxy.utils.AtomicBigInteger;
+import strat.mining.stratum.proxy.utils.mining.MerkleRootBuilder;
 import strat.mining.stratum.proxy.utils.mining.SHA256HashingUtils;
 import strat.mining.stratum.proxy.utils.mining.ScryptHashingUtils;
+import strat.mining.stratum.proxy.utils.mining.UInt256;
+
+import com.google.common.primitives.Ints;
 
 /**
  * The template of a Getwork job built from stratum notify values.
@@ -68,23 +69,38 @@ public class GetworkJobTemplate {
 	// The default value for the nonce.
 	private static final byte[] DEFAULT_NONCE = { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
 
-	// The first index of the merkle root hash in the block header
+	// The length of the getwork data (block header and padding).
+	private static final int DATA_LENGTH = 128;
+
+	// The first index of each field in the block header
+	private static final int VERSION_BLOCK_HEADER_POSITION = 0;
+	private static final int HASH_PREV_BLOCK_BLOCK_HEADER_POSITION = 4;
 	private static final int MERKLE_ROOT_BLOCK_HEADER_POSITION = 36;
+	private static final int TIME_BLOCK_HEADER_POSITION = 68;
+	private static final int BITS_BLOCK_HEADER_POSITION = 72;
+	private static final int NONCE_BLOCK_HEADER_POSITION = 76;
+	private static final int PADDING_BLOCK_HEADER_POSITION = 80;
+
+	// The buffers used to build the getwork data of a request.
+	private static final ThreadLocal<DataBuffers> DATA_BUFFERS = new ThreadLocal<DataBuffers>() {
+		protected DataBuffers initialValue() {
+			return new DataBuffers();
+		}
+	};
 
-	private volatile String jobId;
+	private final String jobId;
 
 	private volatile byte[] version;
 	private volatile byte[] hashPrevBlock;
-	private AtomicBigInteger time;
+	// The ntime as a big-endian 32 bits word.
+	private AtomicInteger time;
 	private volatile byte[] bits;
 
 	private byte[] nonce;
 
-	// Stratum parameters
-	private volatile List<String> merkleBranches;
-	private volatile String coinbase1;
-	private volatile String coinbase2;
-	private volatile String extranonce1;
+	// Stratum parameters. Replaced as a whole when one of them changes, so
+	// that a merkle root is never built from the parameters of two versions.
+	private volatile CoinbaseParameters coinbaseParameters;
 
 	private volatile byte[] templateData;
 
@@ -93,51 +109,44 @@ public class GetworkJobTemplate {
 
 	private volatile double difficulty;
 	private volatile String target;
-	private volatile BigInteger targetInteger;
+	private volatile UInt256 targetValue;
 
 	private volatile long lastDataTemplateUpdateTime;
 
 	public GetworkJobTemplate(String jobId, String version, String hashPrevBlock, String time, String bits, List<String> merkleBranches,
 			String coinbase1, String coinbase2, String extranonce1) {
 		this.jobId = jobId;
-		this.merkleBranches = merkleBranches;
-		this.coinbase1 = coinbase1;
-		this.coinbase2 = coinbase2;
-		this.extranonce1 = extranonce1;
+		this.coinbaseParameters = new CoinbaseParameters(coinbase1, extranonce1, coinbase2, merkleBranches);
 
 		this.hashPrevBlock = HexUtils.convert(hashPrevBlock);
 		this.version = HexUtils.convert(version);
-		// Create the time BigInteger from the LittleEndian hex data.
-		this.time = new AtomicBigInteger(HexUtils.convert(time));
+		this.time = new AtomicInteger(Ints.fromByteArray(HexUtils.convert(time)));
 		this.bits = HexUtils.convert(bits);
 		this.nonce = DEFAULT_NONCE;
 
 		this.lastDataTemplateUpdateTime = System.currentTimeMillis() / 1000;
 
 		this.target = DEFAULT_TARGET;
-		this.targetInteger = BigInteger.ONE;
+		this.targetValue = UInt256.valueOf(BigInteger.ONE);
 
 		computeTemplateData();
 	}
 
 	public GetworkJobTemplate(GetworkJobTemplate toClone) {
 		this.jobId = toClone.jobId;
-		this.merkleBranches = new ArrayList<String>(toClone.merkleBranches);
-		this.coinbase1 = toClone.coinbase1;
-		this.coinbase2 = toClone.coinbase2;
-		this.extranonce1 = toClone.extranonce1;
+		// The parameters are immutable, they can be shared.
+		this.coinbaseParameters = toClone.coinbaseParameters;
 
 		this.hashPrevBlock = toClone.hashPrevBlock;
 		this.version = toClone.version;
-		// Create the time BigInteger from the LittleEndian hex data.
-		this.time = new AtomicBigInteger(toClone.time);
+		this.time = new AtomicInteger(toClone.time.get());
 		this.bits = toClone.bits;
 		this.nonce = toClone.nonce;
 
 		this.lastDataTemplateUpdateTime = toClone.lastDataTemplateUpdateTime;
 
 		this.target = DEFAULT_TARGET;
-		this.targetInteger = BigInteger.ONE;
+		this.targetValue = UInt256.valueOf(BigInteger.ONE);
 
 		computeTemplateData();
 	}
@@ -146,10 +155,6 @@ public class GetworkJobTemplate {
 		return jobId;
 	}
 
-	public void setJobId(String jobId) {
-		this.jobId = jobId;
-	}
-
 	public void setVersion(String version) {
 		this.version = HexUtils.convert(version);
 		isDataDirty = true;
@@ -161,7 +166,7 @@ public class GetworkJobTemplate {
 	}
 
 	public void setTime(String time) {
-		this.time.set(HexUtils.convert(time));
+		this.time.set(Ints.fromByteArray(HexUtils.convert(time)));
 		isDataDirty = true;
 	}
 
@@ -170,22 +175,9 @@ public class GetworkJobTemplate {
 		isDataDirty = true;
 	}
 
-	public void setMerkleBranches(List<String> merkleBranches) {
-		if (merkleBranches != null && merkleBranches.size() > 0) {
-			this.merkleBranches = merkleBranches;
-		}
-	}
-
-	public void setCoinbase1(String coinbase1) {
-		this.coinbase1 = coinbase1;
-	}
-
-	public void setCoinbase2(String coinbase2) {
-		this.coinbase2 = coinbase2;
-	}
-
-	public void setExtranonce1(String extranonce1) {
-		this.extranonce1 = extranonce1;
+	public synchronized void setExtranonce1(String extranonce1) {
+		CoinbaseParameters parameters = coinbaseParameters;
+		coinbaseParameters = new CoinbaseParameters(parameters.coinbase1, extranonce1, parameters.coinbase2, parameters.merkleBranches);
 	}
 
 	public void setNonce(String nonce) {
@@ -199,31 +191,46 @@ public class GetworkJobTemplate {
 	private void computeTemplateData() {
 		// Compute once again the data only if at least one value has changed or
 		// if the last update was more than 1 second ago.
+		if (isDataDirty || System.currentTimeMillis() / 1000 - lastDataTemplateUpdateTime > 1) {
+			rebuildTemplateData();
+		}
+	}
+
+	/**
+	 * Build the template data if still needed. Synchronized so that
+	 * concurrent callers advance the time only once.
+	 */
+	private synchronized void rebuildTemplateData() {
 		long currentTime = System.currentTimeMillis() / 1000;
 		long secondsSinceLastUpdate = currentTime - lastDataTemplateUpdateTime;
 		if (isDataDirty || secondsSinceLastUpdate > 1) {
 			isDataDirty = false;
 			lastDataTemplateUpdateTime = currentTime;
 
-			// Update the time with the secondsSinceLastUpdate
-			time.addAndGet(BigInteger.valueOf(secondsSinceLastUpdate));
+			// Update the time with the secondsSinceLastUpdate. Never go back
+			// in time if the clock is set back.
+			int currentNTime = time.addAndGet((int) Math.max(0, secondsSinceLastUpdate));
 
 			// The block header is 128 Bytes long
 			// 80 bytes of useful data and others as padding.
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream(128);
-
+			// A new array is built so that the requests being served keep a
+			// consistent template.
+			byte[] newTemplateData = new byte[DATA_LENGTH];
 			try {
 				// Build the template block header
-				byteStream.write(version);
-				byteStream.write(hashPrevBlock);
-				byteStream.write(FAKE_MERKLE_ROOT);
-				byteStream.write(time.get().toByteArray());
-				byteStream.write(bits);
-				byteStream.write(nonce);
-				byteStream.write(BLOCK_HEADER_PADDING);
-
-				templateData = byteStream.toByteArray();
-			} catch (IOException e) {
+				System.arraycopy(version, 0, newTemplateData, VERSION_BLOCK_HEADER_POSITION, version.length);
+				System.arraycopy(hashPrevBlock, 0, newTemplateData, HASH_PREV_BLOCK_BLOCK_HEADER_POSITION, hashPrevBlock.length);
+				System.arraycopy(FAKE_MERKLE_ROOT, 0, newTemplateData, MERKLE_ROOT_BLOCK_HEADER_POSITION, FAKE_MERKLE_ROOT.length);
+				newTemplateData[TIME_BLOCK_HEADER_POSITION] = (byte) (currentNTime >>> 24);
+				newTemplateData[TIME_BLOCK_HEADER_POSITION + 1] = (byte) (currentNTime >>> 16);
+				newTemplateData[TIME_BLOCK_HEADER_POSITION + 2] = (byte) (currentNTime >>> 8);
+				newTemplateData[TIME_BLOCK_HEADER_POSITION + 3] = (byte) currentNTime;
+				System.arraycopy(bits, 0, newTemplateData, BITS_BLOCK_HEADER_POSITION, bits.length);
+				System.arraycopy(nonce, 0, newTemplateData, NONCE_BLOCK_HEADER_POSITION, nonce.length);
+				System.arraycopy(BLOCK_HEADER_PADDING, 0, newTemplateData, PADDING_BLOCK_HEADER_POSITION, BLOCK_HEADER_PADDING.length);
+
+				templateData = newTemplateData;
+			} catch (IndexOutOfBoundsException e) {
 				LOGGER.error(
 						"Failed to update GetworkJobTemplate. version: {}, hashPrevBlock: {}, merkleRoot: {}, time: {}, bits: {}, nonce: {}, padding: {}.",
 						version, hashPrevBlock, FAKE_MERKLE_ROOT, time, bits, nonce, BLOCK_HEADER_PADDING, e);
@@ -234,37 +241,41 @@ public class GetworkJobTemplate {
 
 	/**
 	 * Return the merkleRoot and the data of this job based on the extranonce2
-	 * value.
+	 * value. The extranonce2 is written as a big-endian integer of
+	 * extranonce2Size bytes.
 	 * 
 	 * @param extranonce2
+	 * @param extranonce2Size
 	 * @return
 	 */
-	public GetworkRequestResult getData(String extranonce2) {
+	public GetworkRequestResult getData(long extranonce2, int extranonce2Size) {
+		String currentJobId = jobId;
 		computeTemplateData();
 
-		// Build the merkleRoot with the given extranonce2
-		byte[] bigEndianMerkleRootHash = buildMerkleRootHash(extranonce2);
-
-		// Byte swap the merkleRoot of 4-bytes words.
-		byte[] littleEndianMerkleRootHash = strat.mining.stratum.proxy.utils.ArrayUtils.swapBytes(bigEndianMerkleRootHash, 4);
-
-		// And reverse the order of the 4-bytes words.
-		// littleEndianMerkleRootHash =
-		// strat.mining.stratum.proxy.utils.ArrayUtils.reverseWords(littleEndianMerkleRootHash,
-		// 4);
-
-		// Then build the data
-		byte[] data = buildData(littleEndianMerkleRootHash);
+		// Copy the template in the data buffer, then build the merkleRoot
+		// with the given extranonce2 and write it in the data as 4-bytes
+		// little-endian words.
+		DataBuffers buffers = DATA_BUFFERS.get();
+		byte[] data = buffers.data;
+		System.arraycopy(templateData, 0, data, 0, DATA_LENGTH);
+		coinbaseParameters.getMerkleRootBuilder().buildMerkleRoot(extranonce2, extranonce2Size, buffers.merkleRoot, 0);
+		strat.mining.stratum.proxy.utils.ArrayUtils.swapBytes(buffers.merkleRoot, 0, data, MERKLE_ROOT_BLOCK_HEADER_POSITION,
+				buffers.merkleRoot.length, 4);
 
 		// Compute midstate only if enabled.
 		String midstate = null;
 		if (!ConfigurationManager.getInstance().isNoMidsate()) {
-			midstate = HexUtils.convert(buildMidstate(data));
+			SHA256HashingUtils.midstateSHA256(data, 0, buffers.midstate, 0);
+			midstate = HexUtils.convert(buffers.midstate);
 		}
 
+		// The merkle root is read back from the hex data.
+		String dataString = HexUtils.convert(data);
 		GetworkRequestResult result = new GetworkRequestResult();
-		result.setMerkleRoot(HexUtils.convert(littleEndianMerkleRootHash));
-		result.setData(HexUtils.convert(data));
+		result.setJobId(currentJobId);
+		result.setExtranonce2(extranonce2);
+		result.setMerkleRoot(dataString.substring(2 * MERKLE_ROOT_BLOCK_HEADER_POSITION, 2 * (MERKLE_ROOT_BLOCK_HEADER_POSITION + 32)));
+		result.setData(dataString);
 		result.setHash1(getHash1());
 		result.setTarget(getTarget());
 		result.setMidstate(midstate);
@@ -273,59 +284,50 @@ public class GetworkJobTemplate {
 	}
 
 	/**
-	 * Build the midstate of the given block header.
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private byte[] buildMidstate(byte[] data) {
-
-		byte[] midstateData = ArrayUtils.subarray(data, 0, 64);
-
-		return SHA256HashingUtils.midstateSHA256(midstateData);
-	}
-
-	/**
-	 * Build the getwork data based on the given littleEndianMerkleRootHash.
-	 * 
-	 * @param littleEndianMerkleRootHash
-	 * @return
-	 */
-	private byte[] buildData(byte[] littleEndianMerkleRootHash) {
-		// Clone the templateData
-		byte[] data = ArrayUtils.clone(templateData);
-
-		// Then copy the merkleRoot into the data.
-		strat.mining.stratum.proxy.utils.ArrayUtils.copyInto(littleEndianMerkleRootHash, data, MERKLE_ROOT_BLOCK_HEADER_POSITION);
-		return data;
-	}
-
-	/**
-	 * Return the merkleRoot based on the extranonce2. The merkleRoot hash is in
-	 * BigEndian. So all 32 bits word should be converted in LittleEndian.
+	 * Write the block header (80 bytes, little-endian words) of this job with
+	 * the given extranonce2, ntime and nonce in the result array. The template
+	 * is not modified and nothing is allocated.
 	 * 
 	 * @param extranonce2
-	 * @return
+	 *            hex
+	 * @param ntime
+	 *            hex
+	 * @param nonce
+	 *            hex
+	 * @param result
+	 *            at least 80 bytes long
 	 */
-	private byte[] buildMerkleRootHash(String extranonce2) {
-		byte[] merkleRoot = buildCoinbaseHash(extranonce2);
+	public void writeBlockHeader(String extranonce2, String ntime, String nonce, byte[] result) {
+		computeTemplateData();
+		System.arraycopy(templateData, 0, result, 0, PADDING_BLOCK_HEADER_POSITION);
 
-		for (String merkleBranch : merkleBranches) {
-			merkleRoot = SHA256HashingUtils.doubleSha256Hash(ArrayUtils.addAll(merkleRoot, HexUtils.convert(merkleBranch)));
-		}
+		byte[] merkleRoot = DATA_BUFFERS.get().merkleRoot;
+		coinbaseParameters.getMerkleRootBuilder().buildMerkleRoot(extranonce2, merkleRoot, 0);
+		strat.mining.stratum.proxy.utils.ArrayUtils.swapBytes(merkleRoot, 0, result, MERKLE_ROOT_BLOCK_HEADER_POSITION, merkleRoot.length, 4);
 
-		return merkleRoot;
+		decodeWord(ntime, result, TIME_BLOCK_HEADER_POSITION);
+		decodeWord(nonce, result, NONCE_BLOCK_HEADER_POSITION);
 	}
 
 	/**
+	 * Decode the 4 bytes hex word in the result array at the given offset.
 	 * 
-	 * @param extranonce2
-	 * @return
+	 * @param hex
+	 * @param result
+	 * @param offset
 	 */
-	private byte[] buildCoinbaseHash(String extranonce2) {
-		String coinbaseString = coinbase1 + extranonce1 + extranonce2 + coinbase2;
-		byte[] rawCoinbase = HexUtils.convert(coinbaseString);
-		return SHA256HashingUtils.doubleSha256Hash(rawCoinbase);
+	private static void decodeWord(String hex, byte[] result, int offset) {
+		if (hex.length() != 8) {
+			throw new IllegalArgumentException("Invalid 4 bytes hex word: " + hex);
+		}
+		for (int i = 0; i < 4; i++) {
+			int high = Character.digit(hex.charAt(2 * i), 16);
+			int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Invalid 4 bytes hex word: " + hex);
+			}
+			result[offset + i] = (byte) ((high << 4) | low);
+		}
 	}
 
 	public double getDifficulty() {
@@ -348,8 +350,8 @@ public class GetworkJobTemplate {
 		return target;
 	}
 
-	public BigInteger getTargetInteger() {
-		return targetInteger;
+	public UInt256 getTargetValue() {
+		return targetValue;
 	}
 
 	public String getHash1() {
@@ -364,7 +366,8 @@ public class GetworkJobTemplate {
 	 */
 	private void computeTarget(double difficulty, boolean isScrypt) {
 		BigDecimal difficulty1 = isScrypt ? ScryptHashingUtils.DIFFICULTY_1_TARGET : SHA256HashingUtils.DIFFICULTY_1_TARGET;
-		targetInteger = difficulty1.divide(BigDecimal.valueOf(difficulty), 0, RoundingMode.HALF_EVEN).toBigInteger();
+		BigInteger targetInteger = difficulty1.divide(BigDecimal.valueOf(difficulty), 0, RoundingMode.HALF_EVEN).toBigInteger();
+		targetValue = UInt256.valueOf(targetInteger);
 		byte[] bigEndianTargetBytes = targetInteger.toByteArray();
 
 		// Build the target on 32 Bytes
@@ -378,6 +381,59 @@ public class GetworkJobTemplate {
 		this.target = HexUtils.convert(littleEndianTargetBytes);
 	}
 
+	/**
+	 * The stratum parameters used to build the merkle root, and the merkle
+	 * root builder of these parameters. Immutable.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class CoinbaseParameters {
+
+		private final String coinbase1;
+
+		private final String extranonce1;
+
+		private final String coinbase2;
+
+		private final List<String> merkleBranches;
+
+		// Built at the first use. Two threads may build it at the same time,
+		// with the same result.
+		private volatile MerkleRootBuilder merkleRootBuilder;
+
+		private CoinbaseParameters(String coinbase1, String extranonce1, String coinbase2, List<String> merkleBranches) {
+			this.coinbase1 = coinbase1;
+			this.extranonce1 = extranonce1;
+			this.coinbase2 = coinbase2;
+			this.merkleBranches = new ArrayList<String>(merkleBranches);
+		}
+
+		private MerkleRootBuilder getMerkleRootBuilder() {
+			MerkleRootBuilder builder = merkleRootBuilder;
+			if (builder == null) {
+				builder = new MerkleRootBuilder(coinbase1, extranonce1, coinbase2, merkleBranches);
+				merkleRootBuilder = builder;
+			}
+			return builder;
+		}
+	}
+
+	/**
+	 * The buffers of a thread to build the getwork data.
+	 * 
+	 * @author Strat
+	 * 
+	 */
+	private static class DataBuffers {
+
+		private final byte[] data = new byte[DATA_LENGTH];
+
+		private final byte[] merkleRoot = new byte[32];
+
+		private final byte[] midstate = new byte[32];
+	}
+
 	/**
 	 * Contains all fields needed to reply to a getwork request.
 	 * 
@@ -390,6 +446,11 @@ public class GetworkJobTemplate {
 		private String hash1;
 		private String midstate;
 		private String merkleRoot;
+		private String jobId;
+		private long extranonce2;
+		// The JSON result object of the getwork response. Null if not
+		// serialized yet.
+		private String serializedResult;
 
 		public String getData() {
 			return data;
@@ -431,5 +492,29 @@ public class GetworkJobTemplate {
 			this.merkleRoot = merkleRoot;
 		}
 
+		public String getJobId() {
+			return jobId;
+		}
+
+		public void setJobId(String jobId) {
+			this.jobId = jobId;
+		}
+
+		public long getExtranonce2() {
+			return extranonce2;
+		}
+
+		public void setExtranonce2(long extranonce2) {
+			this.extranonce2 = extranonce2;
+		}
+
+		public String getSerializedResult() {
+			return serializedResult;
+		}
+
+		public void setSerializedResult(String serializedResult) {
+			this.serializedResult = serializedResult;
+		}
+
 	}
 }
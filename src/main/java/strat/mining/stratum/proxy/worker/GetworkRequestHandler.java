@@ -22,9 +22,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.glassfish.grizzly.CompletionHandler;
@@ -32,12 +31,14 @@ import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
 import org.glassfish.grizzly.http.util.Header;
+import org.glassfish.grizzly.http.util.HexUtils;
 import org.glassfish.grizzly.http.util.HttpStatus;
 import org.glassfish.grizzly.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import strat.mining.stratum.proxy.callback.ConnectionClosedCallback;
+import strat.mining.stratum.proxy.callback.GetworkSubmitCallback;
 import strat.mining.stratum.proxy.callback.LongPollingCallback;
 import strat.mining.stratum.proxy.configuration.ConfigurationManager;
 import strat.mining.stratum.proxy.constant.Constants;
@@ -56,8 +57,9 @@ import strat.mining.stratum.proxy.json.MiningSubscribeRequest;
 import strat.mining.stratum.proxy.manager.ProxyManager;
 import strat.mining.stratum.proxy.pool.Pool;
 import strat.mining.stratum.proxy.utils.HttpUtils;
-import strat.mining.stratum.proxy.utils.mining.SHA256HashingUtils;
-import strat.mining.stratum.proxy.utils.mining.ScryptHashingUtils;
+import strat.mining.stratum.proxy.utils.mining.ShareValidationExecutor;
+import strat.mining.stratum.proxy.utils.mining.ShareValidationExecutor.ShareValidation;
+import strat.mining.stratum.proxy.utils.mining.UInt256;
 import strat.mining.stratum.proxy.worker.GetworkJobTemplate.GetworkRequestResult;
 
 import com.fasterxml.jackson.core.JsonParseException;
@@ -69,15 +71,20 @@ public class GetworkRequestHandler extends HttpHandler {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GetworkRequestHandler.class);
 
+	// Delay in milliseconds added to the submit timeout to suspend the submit
+	// responses.
+	private static final long SUBMIT_SUSPEND_MARGIN = 10000;
+
 	private ProxyManager manager;
 
 	private static ObjectMapper jsonUnmarshaller = new ObjectMapper();;
 
-	private Map<InetAddress, GetworkWorkerConnection> workerConnections;
+	// The connections by remote address.
+	private ConcurrentMap<String, GetworkWorkerConnection> workerConnections;
 
 	public GetworkRequestHandler() {
 		this.manager = ProxyManager.getInstance();
-		this.workerConnections = Collections.synchronizedMap(new HashMap<InetAddress, GetworkWorkerConnection>());
+		this.workerConnections = new ConcurrentHashMap<String, GetworkWorkerConnection>();
 
 	}
 
@@ -217,55 +224,127 @@ public class GetworkRequestHandler extends HttpHandler {
 
 		GetworkRequestResult requestResult = workerConnection.getGetworkData();
 		// Return the getwork data
-		GetworkResponse jsonResponse = new GetworkResponse();
-		jsonResponse.setId(getworkRequest.getId());
-		jsonResponse.setData(requestResult.getData());
-		jsonResponse.setTarget(requestResult.getTarget());
-		jsonResponse.setHash1(requestResult.getHash1());
-		jsonResponse.setMidstate(requestResult.getMidstate());
-
-		String result = jsonUnmarshaller.writeValueAsString(jsonResponse);
+		String result = null;
+		if (requestResult.getSerializedResult() != null) {
+			// The result object has been serialized with the work. Only the
+			// request id remains to serialize.
+			result = "{\"id\":" + jsonUnmarshaller.writeValueAsString(getworkRequest.getId()) + ",\"error\":null,\"result\":"
+					+ requestResult.getSerializedResult() + "}";
+		} else {
+			GetworkResponse jsonResponse = new GetworkResponse();
+			jsonResponse.setId(getworkRequest.getId());
+			jsonResponse.setData(requestResult.getData());
+			jsonResponse.setTarget(requestResult.getTarget());
+			jsonResponse.setHash1(requestResult.getHash1());
+			jsonResponse.setMidstate(requestResult.getMidstate());
+
+			result = jsonUnmarshaller.writeValueAsString(jsonResponse);
+		}
 		LOGGER.debug("Returning response to {}@{}: {}", request.getAttribute("username"), request.getRemoteAddr(), result);
 		response.getOutputBuffer().write(result);
 	}
 
 	/**
-	 * Process a getwork share submission.
+	 * Process a getwork share submission. The response is suspended until the
+	 * share is validated and the pool has responded, so no thread is blocked
+	 * while waiting.
 	 * 
 	 * @param request
 	 * @param response
 	 * @param workerConnection
 	 * @param getworkRequest
-	 * @throws JsonProcessingException
-	 * @throws IOException
 	 */
-	protected void processGetworkSubmit(Request request, Response response, GetworkWorkerConnection workerConnection, GetworkRequest getworkRequest)
-			throws JsonProcessingException, IOException {
-		MiningSubmitResponse jsonResponse = new MiningSubmitResponse();
-		jsonResponse.setId(getworkRequest.getId());
+	protected void processGetworkSubmit(final Request request, final Response response, final GetworkWorkerConnection workerConnection,
+			final GetworkRequest getworkRequest) {
+		// The submit is always answered after the submit timeout. Grizzly
+		// cancels the response only if something went wrong.
+		response.suspend(workerConnection.getSubmitTimeout() + SUBMIT_SUSPEND_MARGIN, TimeUnit.MILLISECONDS, new CompletionHandler<Response>() {
+			public void updated(Response result) {
+			}
 
-		// If the share check is enabled, check if the SHA256 share is
-		// below the target. If so, submit the share. Else do not submit.
-		String errorMessage = null;
+			public void failed(Throwable throwable) {
+				LOGGER.error("Submit request of {}@{} failed. Cause: {}", request.getAttribute("username"), workerConnection.getConnectionName(),
+						throwable.getMessage());
+			}
+
+			public void completed(Response result) {
+			}
 
-		// Validate the share if the option is set.
-		boolean isShareValid = true;
-		if (ConfigurationManager.getInstance().isValidateGetworkShares()) {
-			if (ConfigurationManager.getInstance().isScrypt()) {
-				isShareValid = !ScryptHashingUtils.isBlockHeaderScryptHashBelowTarget(getworkRequest.getData(), workerConnection.getGetworkTarget());
+			public void cancelled() {
+				LOGGER.error("Submit request of {}@{} cancelled.", request.getAttribute("username"), workerConnection.getConnectionName());
+			}
+		});
+
+		try {
+			// Validate the share if the option is set. If the share is above
+			// the target, it is not submitted.
+			if (ConfigurationManager.getInstance().isValidateGetworkShares()) {
+				final UInt256 target = workerConnection.getGetworkTarget();
+				ShareValidationExecutor.getInstance().validate(new ShareValidation() {
+					protected void buildBlockHeader(byte[] blockHeader) {
+						System.arraycopy(HexUtils.convert(getworkRequest.getData()), 0, blockHeader, 0, blockHeader.length);
+					}
+
+					protected UInt256 getTarget() {
+						return target;
+					}
+
+					protected void onValidated(boolean isBelowTarget) {
+						submitShare(request, response, workerConnection, getworkRequest, isBelowTarget);
+					}
+
+					protected void onValidationFailed() {
+						submitShare(request, response, workerConnection, getworkRequest, false);
+					}
+				});
 			} else {
-				isShareValid = !SHA256HashingUtils.isBlockHeaderSHA256HashBelowTarget(getworkRequest.getData(), workerConnection.getGetworkTarget());
+				submitShare(request, response, workerConnection, getworkRequest, true);
 			}
+		} catch (Exception e) {
+			LOGGER.error("Failed to process submit request of {}@{}.", request.getAttribute("username"), workerConnection.getConnectionName(), e);
+			sendSubmitResponse(request, response, getworkRequest, "Submit failed");
 		}
+	}
 
+	/**
+	 * Submit the share to the pool if valid and send the response once the
+	 * result is known.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param workerConnection
+	 * @param getworkRequest
+	 * @param isShareValid
+	 */
+	private void submitShare(final Request request, final Response response, GetworkWorkerConnection workerConnection,
+			final GetworkRequest getworkRequest, boolean isShareValid) {
 		if (!isShareValid) {
-			errorMessage = "Share is above the target (proxy check)";
 			LOGGER.debug("Share submitted by {}@{} is above the target. The share is not submitted to the pool.",
 					(String) request.getAttribute("username"), request.getRemoteAddr());
+			sendSubmitResponse(request, response, getworkRequest, "Share is above the target (proxy check)");
 		} else {
 			// Submit only if the share is not above the target
-			errorMessage = workerConnection.submitWork((String) request.getAttribute("username"), getworkRequest.getData());
+			workerConnection.submitWork((String) request.getAttribute("username"), getworkRequest.getData(), new GetworkSubmitCallback() {
+				public void onSubmitResult(String errorMessage) {
+					sendSubmitResponse(request, response, getworkRequest, errorMessage);
+				}
+			});
 		}
+	}
+
+	/**
+	 * Fill the response of the submit request and resume it.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param getworkRequest
+	 * @param errorMessage
+	 *            the reason of the failure/rejection, or null if the share is
+	 *            accepted.
+	 */
+	private void sendSubmitResponse(Request request, Response response, GetworkRequest getworkRequest, String errorMessage) {
+		MiningSubmitResponse jsonResponse = new MiningSubmitResponse();
+		jsonResponse.setId(getworkRequest.getId());
 
 		// If there is an error message, the share submit has
 		// failed/been rejected
@@ -276,9 +355,14 @@ public class GetworkRequestHandler extends HttpHandler {
 			jsonResponse.setIsAccepted(true);
 		}
 
-		String result = jsonUnmarshaller.writeValueAsString(jsonResponse);
-		LOGGER.debug("Returning response to {}@{}: {}", request.getAttribute("username"), request.getRemoteAddr(), result);
-		response.getOutputBuffer().write(result);
+		try {
+			String result = jsonUnmarshaller.writeValueAsString(jsonResponse);
+			LOGGER.debug("Returning response to {}@{}: {}", request.getAttribute("username"), request.getRemoteAddr(), result);
+			response.getOutputBuffer().write(result);
+			response.resume();
+		} catch (Exception e) {
+			LOGGER.error("Failed to send submit response to {}@{}.", request.getAttribute("username"), request.getRemoteAddr(), e);
+		}
 	}
 
 	/**
@@ -297,7 +381,9 @@ public class GetworkRequestHandler extends HttpHandler {
 	}
 
 	/**
-	 * Return the worker connection of the request.
+	 * Return the worker connection of the request. The connections are looked
+	 * up without lock and the authorization is checked only for the
+	 * credentials not already authorized on the connection.
 	 * 
 	 * @param request
 	 * @return
@@ -306,42 +392,69 @@ public class GetworkRequestHandler extends HttpHandler {
 	 * @throws NoCredentialsException
 	 * @throws AuthorizationException
 	 */
-	private synchronized GetworkWorkerConnection getWorkerConnection(Request request) throws UnknownHostException, NoPoolAvailableException,
+	private GetworkWorkerConnection getWorkerConnection(Request request) throws UnknownHostException, NoPoolAvailableException,
 			TooManyWorkersException, ChangeExtranonceNotSupportedException, NoCredentialsException, AuthorizationException {
-		final InetAddress address = InetAddress.getByName(request.getRemoteAddr());
-
-		GetworkWorkerConnection workerConnection = workerConnections.get(address);
+		String remoteAddress = request.getRemoteAddr();
+		GetworkWorkerConnection workerConnection = workerConnections.get(remoteAddress);
 		// If the worker connection is null, try to create it.
 		if (workerConnection == null) {
-			LOGGER.debug("No existing getwork connections for address {}. Create it.", request.getRemoteAddr());
-			workerConnection = new GetworkWorkerConnection(address, manager, new ConnectionClosedCallback() {
-				public void onConnectionClosed(WorkerConnection connection) {
-					// When the connection is closed, remove it from the
-					// connection list.
-					workerConnections.remove(address);
-					LOGGER.debug("Getwork connection {} removed from Getwork handler.", connection.getConnectionName());
-				}
-			});
-
-			MiningSubscribeRequest subscribeRequest = new MiningSubscribeRequest();
-			Pool pool = manager.onSubscribeRequest(workerConnection, subscribeRequest);
-			workerConnection.rebindToPool(pool);
-
-			workerConnections.put(address, workerConnection);
+			workerConnection = createWorkerConnection(remoteAddress);
 		}
 
-		try {
-			checkAuthorization(workerConnection, request);
-			workerConnection.addAuthorizedUsername((String) request.getAttribute("username"), (String) request.getAttribute("password"));
-		} catch (AuthorizationException e) {
-			workerConnections.remove(address);
-			manager.onWorkerDisconnection(workerConnection, e);
-			throw e;
+		String username = (String) request.getAttribute("username");
+		String password = (String) request.getAttribute("password");
+		// Read the version before the check, so a ban during the check
+		// invalidates this authorization.
+		long authorizationsVersion = manager.getAuthorizationsVersion();
+		if (!workerConnection.isAuthorized(username, password, authorizationsVersion)) {
+			try {
+				checkAuthorization(workerConnection, request);
+				workerConnection.addAuthorizedUsername(username, password, authorizationsVersion);
+			} catch (AuthorizationException e) {
+				workerConnections.remove(remoteAddress, workerConnection);
+				manager.onWorkerDisconnection(workerConnection, e);
+				throw e;
+			}
 		}
 
 		return workerConnection;
 	}
 
+	/**
+	 * Create the worker connection of the given address if it does not exist
+	 * yet. Only the creations are serialized.
+	 * 
+	 * @param remoteAddress
+	 * @return
+	 * @throws ChangeExtranonceNotSupportedException
+	 * @throws TooManyWorkersException
+	 */
+	private GetworkWorkerConnection createWorkerConnection(final String remoteAddress) throws UnknownHostException, NoPoolAvailableException,
+			TooManyWorkersException, ChangeExtranonceNotSupportedException {
+		synchronized (workerConnections) {
+			GetworkWorkerConnection workerConnection = workerConnections.get(remoteAddress);
+			if (workerConnection == null) {
+				LOGGER.debug("No existing getwork connections for address {}. Create it.", remoteAddress);
+				final InetAddress address = InetAddress.getByName(remoteAddress);
+				workerConnection = new GetworkWorkerConnection(address, manager, new ConnectionClosedCallback() {
+					public void onConnectionClosed(WorkerConnection connection) {
+						// When the connection is closed, remove it from the
+						// connection list.
+						workerConnections.remove(remoteAddress, connection);
+						LOGGER.debug("Getwork connection {} removed from Getwork handler.", connection.getConnectionName());
+					}
+				});
+
+				MiningSubscribeRequest subscribeRequest = new MiningSubscribeRequest();
+				Pool pool = manager.onSubscribeRequest(workerConnection, subscribeRequest);
+				workerConnection.rebindToPool(pool);
+
+				workerConnections.put(remoteAddress, workerConnection);
+			}
+			return workerConnection;
+		}
+	}
+
 	/**
 	 * Set the username/password of the request in the request attributes if
 	 * they exist. Else, throw an exception.
@@ -18,72 +18,117 @@
  */
 package strat.mining.stratum.proxy.worker;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.glassfish.grizzly.http.util.HexUtils;
-import org.glassfish.grizzly.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import strat.mining.stratum.proxy.callback.ConnectionClosedCallback;
+import strat.mining.stratum.proxy.callback.GetworkSubmitCallback;
 import strat.mining.stratum.proxy.callback.LongPollingCallback;
 import strat.mining.stratum.proxy.configuration.ConfigurationManager;
 import strat.mining.stratum.proxy.constant.Constants;
 import strat.mining.stratum.proxy.exception.ChangeExtranonceNotSupportedException;
 import strat.mining.stratum.proxy.exception.TooManyWorkersException;
 import strat.mining.stratum.proxy.json.ClientShowMessageNotification;
+import strat.mining.stratum.proxy.json.GetworkResponse;
 import strat.mining.stratum.proxy.json.MiningNotifyNotification;
 import strat.mining.stratum.proxy.json.MiningSetDifficultyNotification;
 import strat.mining.stratum.proxy.json.MiningSubmitRequest;
 import strat.mining.stratum.proxy.json.MiningSubmitResponse;
 import strat.mining.stratum.proxy.manager.ProxyManager;
 import strat.mining.stratum.proxy.model.Share;
+import strat.mining.stratum.proxy.network.SerializedNotification;
 import strat.mining.stratum.proxy.pool.Pool;
-import strat.mining.stratum.proxy.utils.ArrayUtils;
-import strat.mining.stratum.proxy.utils.AtomicBigInteger;
+import strat.mining.stratum.proxy.pool.PoolSession;
+import strat.mining.stratum.proxy.utils.PendingRequestTable;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
 import strat.mining.stratum.proxy.utils.Timer;
 import strat.mining.stratum.proxy.utils.Timer.Task;
 import strat.mining.stratum.proxy.utils.mining.DifficultyUtils;
+import strat.mining.stratum.proxy.utils.mining.MerkleRootTable;
+import strat.mining.stratum.proxy.utils.mining.UInt256;
 import strat.mining.stratum.proxy.utils.mining.WorkerConnectionHashrateDelegator;
 import strat.mining.stratum.proxy.worker.GetworkJobTemplate.GetworkRequestResult;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class GetworkWorkerConnection implements WorkerConnection {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GetworkWorkerConnection.class);
 
-    private static final byte[] ZERO_BIG_INTEGER_BYTES = { 0 };
+    // Pregenerated work older than this delay (in ms) is not served.
+    private static final long PREGENERATED_WORK_MAX_AGE = 60000;
+
+    private static final ExecutorService pregenerationExecutor = ThreadingUtils.newBoundedExecutor("GetworkPregenerationThread-", Runtime
+            .getRuntime().availableProcessors());
+
+    private static final ObjectMapper jsonMarshaller = new ObjectMapper();
+
+    // The number of job ids remembered to submit the works. Must be a power
+    // of two.
+    private static final int JOB_ID_HISTORY_SIZE = 16;
 
     private ProxyManager manager;
 
     private Pool pool;
+    private PoolSession poolSession;
 
     private Set<LongPollingCallback> longPollingCallbacks;
 
-    private Map<String, String> authorizedWorkers;
+    // The authorized usernames with their password and the version of the
+    // authorizations when they have been checked.
+    private ConcurrentMap<String, Authorization> authorizedWorkers;
 
     private InetAddress remoteAddress;
 
     private volatile GetworkJobTemplate currentJob;
 
     private String extranonce1Tail;
-    private long extranonce2MaxValue;
-    private AtomicBigInteger extranonce2Counter;
-
-    // Contains the merkleRoot as key and extranonce2/jobId as value.
-    private Map<String, Pair<String, String>> extranonce2AndJobIdByMerkleRoot;
-
-    private Map<Object, CountDownLatch> submitResponseLatches;
-    private Map<Object, MiningSubmitResponse> submitResponses;
+    // The extranonce2 values are stored as int in the merkle root table, so
+    // the max value is at most Integer.MAX_VALUE.
+    private volatile long extranonce2MaxValue;
+    private volatile int extranonce2Size;
+    private AtomicLong extranonce2Counter;
+
+    // Contains the merkleRoot as key and extranonce2/jobIndex as value.
+    private MerkleRootTable extranonce2AndJobIndexByMerkleRoot;
+
+    // The last job ids, indexed by the job index modulo the history size.
+    private String[] jobIdHistory;
+    private int lastJobIndex = 0;
+
+    // The work units ready to be served and their number.
+    private Queue<PregeneratedWork> pregeneratedWorks;
+    private AtomicInteger numberOfPregeneratedWorks;
+    private int pregenerationDepth = ConfigurationManager.getInstance().getGetworkPregenerationDepth();
+    private AtomicBoolean isPregenerationScheduled;
+    // Incremented each time the pregenerated works are flushed. Works of a
+    // previous generation are not served.
+    private AtomicInteger workGeneration;
+    private Runnable pregenerationTask;
+    private volatile boolean isClosed = false;
+
+    // The submits waiting for the pool response, by request id.
+    private PendingRequestTable<PendingSubmit> pendingSubmits;
+    private Integer submitTimeout = ConfigurationManager.getInstance().getGetworkSubmitTimeout();
 
     private Boolean logRealShareDifficulty = ConfigurationManager.getInstance().getLogRealShareDifficulty();
 
@@ -102,11 +147,20 @@ public class GetworkWorkerConnection implements WorkerConnection {
         this.manager = manager;
         this.remoteAddress = remoteAddress;
         this.longPollingCallbacks = Collections.synchronizedSet(new HashSet<LongPollingCallback>());
-        this.authorizedWorkers = Collections.synchronizedMap(new HashMap<String, String>());
-        this.extranonce2Counter = new AtomicBigInteger(ZERO_BIG_INTEGER_BYTES);
-        this.extranonce2AndJobIdByMerkleRoot = Collections.synchronizedMap(new HashMap<String, Pair<String, String>>());
-        this.submitResponseLatches = Collections.synchronizedMap(new HashMap<Object, CountDownLatch>());
-        this.submitResponses = Collections.synchronizedMap(new HashMap<Object, MiningSubmitResponse>());
+        this.authorizedWorkers = new ConcurrentHashMap<String, Authorization>();
+        this.extranonce2Counter = new AtomicLong(0);
+        this.extranonce2AndJobIndexByMerkleRoot = new MerkleRootTable(ConfigurationManager.getInstance().getGetworkWorkHistorySize());
+        this.jobIdHistory = new String[JOB_ID_HISTORY_SIZE];
+        this.pendingSubmits = new PendingRequestTable<PendingSubmit>();
+        this.pregeneratedWorks = new ConcurrentLinkedQueue<PregeneratedWork>();
+        this.numberOfPregeneratedWorks = new AtomicInteger(0);
+        this.isPregenerationScheduled = new AtomicBoolean(false);
+        this.workGeneration = new AtomicInteger(0);
+        this.pregenerationTask = new Runnable() {
+            public void run() {
+                pregenerateWorks();
+            }
+        };
 
         this.workerHashrateDelegator = new WorkerConnectionHashrateDelegator();
         this.isActiveSince = new Date();
@@ -119,9 +173,12 @@ public class GetworkWorkerConnection implements WorkerConnection {
 
     @Override
     public void close() {
-        if (pool != null) {
+        isClosed = true;
+        flushPregeneratedWorks();
+
+        if (poolSession != null) {
             if (extranonce1Tail != null) {
-                pool.releaseTail(extranonce1Tail);
+                poolSession.releaseTail(extranonce1Tail);
             }
         }
 
@@ -175,6 +232,11 @@ public class GetworkWorkerConnection implements WorkerConnection {
         return pool;
     }
 
+    @Override
+    public PoolSession getPoolSession() {
+        return poolSession;
+    }
+
     @Override
     public boolean isConnected() {
         return true;
@@ -182,44 +244,70 @@ public class GetworkWorkerConnection implements WorkerConnection {
 
     @Override
     public void rebindToPool(Pool newPool) throws TooManyWorkersException, ChangeExtranonceNotSupportedException {
-        if (pool != null) {
+        if (poolSession != null) {
             if (extranonce1Tail != null) {
-                pool.releaseTail(extranonce1Tail);
+                poolSession.releaseTail(extranonce1Tail);
             }
         }
 
+        PoolSession newPoolSession = newPool.getFreeSession();
+        extranonce1Tail = newPoolSession.getFreeTail();
         pool = newPool;
-        extranonce1Tail = newPool.getFreeTail();
-        updateCurrentJobTemplateFromStratumJob(getPool().getCurrentStratumJob());
+        poolSession = newPoolSession;
+        updateCurrentJobTemplateFromStratumJob(poolSession.getCurrentStratumJob());
     }
 
     @Override
     public void onPoolExtranonceChange() throws ChangeExtranonceNotSupportedException {
-        updateCurrentJobTemplateFromStratumJob(getPool().getCurrentStratumJob());
+        updateCurrentJobTemplateFromStratumJob(poolSession.getCurrentStratumJob());
     }
 
     @Override
     public void onPoolDifficultyChanged(MiningSetDifficultyNotification notification) {
         currentJob.setDifficulty(notification.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
+        // The target of the pregenerated works is no more valid.
+        flushPregeneratedWorks();
+        schedulePregeneration();
         callLongPollingCallbacks();
     }
 
     @Override
-    public void onPoolNotify(MiningNotifyNotification notification) {
+    public void onPoolNotify(MiningNotifyNotification notification, SerializedNotification serializedNotification) {
         updateCurrentJobTemplateFromStratumJob(notification);
     }
 
     @Override
     public void onPoolSubmitResponse(MiningSubmitRequest workerRequest, MiningSubmitResponse poolResponse) {
-        // Get the latch for the response.
-        CountDownLatch responseLatch = submitResponseLatches.remove(workerRequest.getId());
-
-        // If no latches, the response is maybe in timeout or not expected.
-        if (responseLatch != null) {
-            // Save the response with the id.
-            submitResponses.put(workerRequest.getId(), poolResponse);
-            // Then awake the thread waiting for the response.
-            responseLatch.countDown();
+        // Get the pending submit of the response.
+        PendingSubmit pendingSubmit = pendingSubmits.remove(workerRequest.getId());
+
+        // If no pending submit, the response is maybe in timeout or not
+        // expected.
+        if (pendingSubmit != null) {
+            pendingSubmit.timeoutTask.cancel();
+
+            String errorMessage = null;
+            MiningSubmitRequest submitRequest = pendingSubmit.request;
+            // Build the real difficulty string if enabled. Else, just
+            // display the pool difficulty
+            String difficultyString = poolSession != null ? Double.toString(poolSession.getDifficulty()) : "Unknown";
+            if (logRealShareDifficulty) {
+                Double realShareDifficulty = DifficultyUtils.getRealShareDifficulty(currentJob, extranonce1Tail, submitRequest.getExtranonce2(),
+                        submitRequest.getNtime(), submitRequest.getNonce());
+                difficultyString = Double.toString(realShareDifficulty) + "/" + difficultyString;
+            }
+
+            if (poolResponse.getIsAccepted() != null && poolResponse.getIsAccepted()) {
+                LOGGER.info("Accepted share (diff: {}) from {}@{} on {}. Yeah !!!!", difficultyString, submitRequest.getWorkerName(),
+                        getConnectionName(), pool.getName());
+            } else {
+                LOGGER.info("REJECTED share (diff: {}) from {}@{} on {}. Booo !!!!. Error: {}", difficultyString, submitRequest.getWorkerName(),
+                        getConnectionName(), pool.getName(), poolResponse.getJsonError());
+                errorMessage = poolResponse.getJsonError() != null && poolResponse.getJsonError().getMessage() != null ? poolResponse
+                        .getJsonError().getMessage() : "Unknown";
+            }
+
+            pendingSubmit.callback.onSubmitResult(errorMessage);
         }
     }
 
@@ -227,9 +315,27 @@ public class GetworkWorkerConnection implements WorkerConnection {
      * Add an authorized username on this connection.
      * 
      * @param username
+     * @param password
+     * @param authorizationsVersion
+     *            the version of the authorizations before the check of this
+     *            username.
      */
-    public void addAuthorizedUsername(String username, String password) {
-        authorizedWorkers.put(username, password);
+    public void addAuthorizedUsername(String username, String password, long authorizationsVersion) {
+        authorizedWorkers.put(username, new Authorization(password, authorizationsVersion));
+    }
+
+    /**
+     * Return true if the given username/password has already been authorized
+     * on this connection with the given version of the authorizations.
+     * 
+     * @param username
+     * @param password
+     * @param authorizationsVersion
+     * @return
+     */
+    public boolean isAuthorized(String username, String password, long authorizationsVersion) {
+        Authorization authorization = username != null ? authorizedWorkers.get(username) : null;
+        return authorization != null && authorization.version == authorizationsVersion && authorization.password.equals(password);
     }
 
     /**
@@ -289,28 +395,34 @@ public class GetworkWorkerConnection implements WorkerConnection {
         LOGGER.debug("Update getwork job for connection {}.", getConnectionName());
         // Update the job only if a clean job is requested and if the connection
         // is bound to a pool.
-        if (pool != null && notification.getCleanJobs()) {
+        if (poolSession != null && notification.getCleanJobs()) {
             extranonce2Counter.set(0);
-            extranonce2MaxValue = (int) Math.pow(2, 8 * pool.getWorkerExtranonce2Size()) - 1;
+            extranonce2Size = poolSession.getWorkerExtranonce2Size();
+            extranonce2MaxValue = extranonce2Size >= 4 ? Integer.MAX_VALUE : (1L << (8 * extranonce2Size)) - 1;
             currentJob = new GetworkJobTemplate(notification.getJobId(), notification.getBitcoinVersion(), notification.getPreviousHash(),
                     notification.getCurrentNTime(), notification.getNetworkDifficultyBits(), notification.getMerkleBranches(),
-                    notification.getCoinbase1(), notification.getCoinbase2(), getPool().getExtranonce1() + extranonce1Tail);
-            currentJob.setDifficulty(pool.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
+                    notification.getCoinbase1(), notification.getCoinbase2(), poolSession.getExtranonce1() + extranonce1Tail);
+            currentJob.setDifficulty(poolSession.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
 
             // Reset all extranonce2 stuff
-            extranonce2Counter.set(BigInteger.ZERO);
-            extranonce2AndJobIdByMerkleRoot.clear();
-        } else {
-            currentJob.setJobId(notification.getJobId());
-            currentJob.setCoinbase1(notification.getCoinbase1());
-            currentJob.setCoinbase2(notification.getCoinbase2());
-            currentJob.setHashPrevBlock(notification.getPreviousHash());
-            currentJob.setVersion(notification.getBitcoinVersion());
-            currentJob.setBits(notification.getNetworkDifficultyBits());
-            currentJob.setTime(notification.getCurrentNTime());
-            currentJob.setMerkleBranches(notification.getMerkleBranches());
+            extranonce2AndJobIndexByMerkleRoot.clear();
+        } else if (poolSession != null && currentJob != null) {
+            // Build a new template instead of updating the current one: the
+            // works being built keep a consistent job. The extranonce2 counter
+            // and the works already served are kept.
+            GetworkJobTemplate newJob = new GetworkJobTemplate(notification.getJobId(), notification.getBitcoinVersion(),
+                    notification.getPreviousHash(), notification.getCurrentNTime(), notification.getNetworkDifficultyBits(),
+                    notification.getMerkleBranches(), notification.getCoinbase1(), notification.getCoinbase2(), poolSession.getExtranonce1()
+                            + extranonce1Tail);
+            newJob.setDifficulty(currentJob.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
+            currentJob = newJob;
         }
 
+        // Serve works of the new job only and start to build them now, before
+        // the miners come back for work.
+        flushPregeneratedWorks();
+        schedulePregeneration();
+
         callLongPollingCallbacks();
     }
 
@@ -322,112 +434,253 @@ public class GetworkWorkerConnection implements WorkerConnection {
     public GetworkRequestResult getGetworkData() {
         resetGetworkTimeoutTask();
 
-        // Retrieve a nex extranonce2 for this conenction
-        String extranonce2String = getExtranonce2();
-
-        GetworkRequestResult data = currentJob.getData(extranonce2String);
+        // Serve a pregenerated work if any, else build it now.
+        GetworkRequestResult data = pollPregeneratedWork();
+        if (data == null) {
+            data = generateWork();
+        }
 
         // Save the merkleroot with the extranonce2/jobId value
-        extranonce2AndJobIdByMerkleRoot.put(data.getMerkleRoot(), new Pair<String, String>(extranonce2String, currentJob.getJobId()));
+        extranonce2AndJobIndexByMerkleRoot.put(data.getMerkleRoot(), (int) data.getExtranonce2(), getJobIndex(data.getJobId()));
+
+        schedulePregeneration();
+
+        return data;
+    }
+
+    /**
+     * Build a new work from the current job with a new extranonce2. The result
+     * object of the getwork response is serialized too.
+     * 
+     * @return
+     */
+    private GetworkRequestResult generateWork() {
+        // Retrieve a new extranonce2 for this connection
+        long extranonce2 = getNextExtranonce2();
+
+        GetworkRequestResult data = currentJob.getData(extranonce2, extranonce2Size);
+
+        GetworkResponse response = new GetworkResponse();
+        response.setData(data.getData());
+        response.setTarget(data.getTarget());
+        response.setHash1(data.getHash1());
+        response.setMidstate(data.getMidstate());
+        try {
+            data.setSerializedResult(jsonMarshaller.writeValueAsString(response.getResult()));
+        } catch (JsonProcessingException e) {
+            // The response will be fully serialized when sent.
+            LOGGER.warn("Failed to serialize getwork data for connection {}.", getConnectionName(), e);
+        }
 
         return data;
     }
 
     /**
-     * Return a new extranonce2 for this connection
+     * Return the next pregenerated work that can be served, or null if none.
+     * The works of a previous generation or too old are dropped.
      * 
      * @return
      */
-    protected String getExtranonce2() {
-        // Reset the counter if the max value is reached
-        if (extranonce2Counter.get().compareTo(BigInteger.valueOf(extranonce2MaxValue)) >= 0) {
-            extranonce2Counter.set(ZERO_BIG_INTEGER_BYTES);
+    private GetworkRequestResult pollPregeneratedWork() {
+        GetworkRequestResult result = null;
+        int currentGeneration = workGeneration.get();
+        long minCreationTime = System.currentTimeMillis() - PREGENERATED_WORK_MAX_AGE;
+        PregeneratedWork work = pregeneratedWorks.poll();
+        while (result == null && work != null) {
+            numberOfPregeneratedWorks.decrementAndGet();
+            if (work.generation == currentGeneration && work.creationTime >= minCreationTime) {
+                result = work.result;
+            } else {
+                work = pregeneratedWorks.poll();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drop all the pregenerated works. The works being built are dropped too
+     * since they belong to the previous generation.
+     */
+    private void flushPregeneratedWorks() {
+        workGeneration.incrementAndGet();
+        while (pregeneratedWorks.poll() != null) {
+            numberOfPregeneratedWorks.decrementAndGet();
         }
+    }
 
-        // Get the extranonce2
-        byte[] extranonce2 = extranonce2Counter.incrementAndGet().toByteArray();
+    /**
+     * Start to refill the pregenerated works in background if needed and not
+     * already in progress.
+     */
+    private void schedulePregeneration() {
+        if (pregenerationDepth > 0 && !isClosed && currentJob != null && numberOfPregeneratedWorks.get() < pregenerationDepth
+                && isPregenerationScheduled.compareAndSet(false, true)) {
+            pregenerationExecutor.execute(pregenerationTask);
+        }
+    }
 
-        // Then add padding to the extranonce2
-        byte[] extranonce2Padded = new byte[pool.getWorkerExtranonce2Size()];
-        ArrayUtils.copyInto(extranonce2, extranonce2Padded, extranonce2Padded.length - extranonce2.length);
+    /**
+     * Fill the pregenerated works until the pregeneration depth is reached.
+     */
+    private void pregenerateWorks() {
+        try {
+            int generation = workGeneration.get();
+            while (!isClosed && numberOfPregeneratedWorks.get() < pregenerationDepth && generation == workGeneration.get()) {
+                PregeneratedWork work = new PregeneratedWork(generateWork(), generation);
+                pregeneratedWorks.offer(work);
+                numberOfPregeneratedWorks.incrementAndGet();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to pregenerate getwork data for connection {}.", getConnectionName(), e);
+            return;
+        } finally {
+            isPregenerationScheduled.set(false);
+        }
 
-        String extranonce2String = HexUtils.convert(extranonce2Padded);
-        return extranonce2String;
+        // Works may have been served or flushed since the last check.
+        schedulePregeneration();
     }
 
     /**
-     * Return the target of the current data.
+     * Return a new extranonce2 for this connection. Restart from 1 when the
+     * max value is reached.
      * 
      * @return
      */
-    public BigInteger getGetworkTarget() {
-        return currentJob.getTargetInteger();
+    protected long getNextExtranonce2() {
+        long current;
+        long next;
+        do {
+            current = extranonce2Counter.get();
+            next = current >= extranonce2MaxValue ? 1 : current + 1;
+        } while (!extranonce2Counter.compareAndSet(current, next));
+        return next;
     }
 
     /**
-     * Submit the work the pool.
+     * Return the extranonce2 string of the given extranonce2 value.
      * 
-     * @param workerName
-     * @param data
-     * @return an error message is submit has failed, or null if the share is
-     *         accepted.
+     * @param extranonce2
+     * @return
      */
-    public String submitWork(String workerName, String data) {
-        String errorMessage = null;
+    private String formatExtranonce2(int extranonce2) {
+        byte[] extranonce2Padded = new byte[extranonce2Size];
+        int value = extranonce2;
+        for (int i = extranonce2Padded.length - 1; i >= 0 && value != 0; i--) {
+            extranonce2Padded[i] = (byte) value;
+            value >>>= 8;
+        }
+        return HexUtils.convert(extranonce2Padded);
+    }
 
-        GetworkJobSubmit jobSubmit = new GetworkJobSubmit(data);
-        Pair<String, String> extranonce2JobId = extranonce2AndJobIdByMerkleRoot.get(jobSubmit.getMerkleRoot());
+    /**
+     * Return the index of the given job id. A new index is given to the job if
+     * it is not one of the last ones.
+     * 
+     * @param jobId
+     * @return
+     */
+    private int getJobIndex(String jobId) {
+        int result = 0;
+        synchronized (jobIdHistory) {
+            // Look for the job from the last one.
+            for (int index = lastJobIndex; result == 0 && index > 0 && index > lastJobIndex - JOB_ID_HISTORY_SIZE; index--) {
+                if (jobId.equals(jobIdHistory[index & (JOB_ID_HISTORY_SIZE - 1)])) {
+                    result = index;
+                }
+            }
 
-        MiningSubmitRequest submitRequest = new MiningSubmitRequest();
-        submitRequest.setWorkerName(workerName);
-        submitRequest.setExtranonce2(extranonce1Tail + extranonce2JobId.getFirst());
-        submitRequest.setJobId(extranonce2JobId.getSecond());
-        submitRequest.setNtime(jobSubmit.getTime());
-        submitRequest.setNonce(jobSubmit.getNonce());
+            if (result == 0) {
+                lastJobIndex++;
+                jobIdHistory[lastJobIndex & (JOB_ID_HISTORY_SIZE - 1)] = jobId;
+                result = lastJobIndex;
+            }
+        }
+        return result;
+    }
 
-        // Create the latch to wait the submit response.
-        CountDownLatch responseLatch = new CountDownLatch(1);
-        // Save the latch with the request id.
-        submitResponseLatches.put(submitRequest.getId(), responseLatch);
+    /**
+     * Return the job id of the given job index, or null if the job is too old.
+     * 
+     * @param jobIndex
+     * @return
+     */
+    private String getJobId(int jobIndex) {
+        String result = null;
+        synchronized (jobIdHistory) {
+            if (jobIndex > 0 && jobIndex <= lastJobIndex && jobIndex > lastJobIndex - JOB_ID_HISTORY_SIZE) {
+                result = jobIdHistory[jobIndex & (JOB_ID_HISTORY_SIZE - 1)];
+            }
+        }
+        return result;
+    }
 
-        manager.onSubmitRequest(this, submitRequest);
+    /**
+     * Return the target of the current data.
+     * 
+     * @return
+     */
+    public UInt256 getGetworkTarget() {
+        return currentJob.getTargetValue();
+    }
 
-        try {
-            // Wait for the response for 1 second max.
-            boolean isTimeout = !responseLatch.await(1, TimeUnit.SECONDS);
-            if (isTimeout) {
-                errorMessage = "MAYBE accepted share. Timeout on submit.";
-                // Remove the latch since no response has been received.
-                submitResponseLatches.remove(submitRequest.getId());
-                LOGGER.warn("Share MAYBE accepted (diff: {}) from {}@{}. (Timeout on submit request on pool {}", pool != null ? pool.getDifficulty()
-                        : "Unknown", submitRequest.getWorkerName(), getConnectionName(), pool.getName());
-            } else {
-                MiningSubmitResponse response = submitResponses.remove(submitRequest.getId());
-
-                // Build the real difficulty string if enabled. Else, just
-                // display the pool difficulty
-                String difficultyString = pool != null ? Double.toString(pool.getDifficulty()) : "Unknown";
-                if (logRealShareDifficulty) {
-                    Double realShareDifficulty = DifficultyUtils.getRealShareDifficulty(currentJob, extranonce1Tail, submitRequest.getExtranonce2(),
-                            submitRequest.getNtime(), submitRequest.getNonce());
-                    difficultyString = Double.toString(realShareDifficulty) + "/" + difficultyString;
+    /**
+     * Submit the work the pool. The callback is called with the result once
+     * the pool has responded or after the submit timeout.
+     * 
+     * @param workerName
+     * @param data
+     * @param callback
+     *            called with an error message if submit has failed, or null if
+     *            the share is accepted.
+     */
+    public void submitWork(String workerName, String data, GetworkSubmitCallback callback) {
+        GetworkJobSubmit jobSubmit = new GetworkJobSubmit(data);
+        long extranonce2JobIndex = extranonce2AndJobIndexByMerkleRoot.get(jobSubmit.getMerkleRoot());
+        String jobId = extranonce2JobIndex != MerkleRootTable.NOT_FOUND ? getJobId(MerkleRootTable.getJobIndex(extranonce2JobIndex)) : null;
+        if (jobId == null) {
+            // The work has not been served by this connection or is too old.
+            LOGGER.info("Share from {}@{} submitted on an unknown or stale work. The share is not submitted to the pool.", workerName,
+                    getConnectionName());
+            callback.onSubmitResult("Stale or unknown work");
+        } else {
+            final MiningSubmitRequest submitRequest = new MiningSubmitRequest();
+            submitRequest.setWorkerName(workerName);
+            submitRequest.setExtranonce2(extranonce1Tail + formatExtranonce2(MerkleRootTable.getExtranonce2(extranonce2JobIndex)));
+            submitRequest.setJobId(jobId);
+            submitRequest.setNtime(jobSubmit.getTime());
+            submitRequest.setNonce(jobSubmit.getNonce());
+
+            // Answer the miner if the pool does not respond in time.
+            Task timeoutTask = new Task() {
+                public void run() {
+                    PendingSubmit pendingSubmit = pendingSubmits.remove(submitRequest.getId());
+                    if (pendingSubmit != null) {
+                        LOGGER.warn("Share MAYBE accepted (diff: {}) from {}@{}. (Timeout on submit request on pool {}",
+                                poolSession != null ? poolSession.getDifficulty() : "Unknown", submitRequest.getWorkerName(), getConnectionName(),
+                                pool != null ? pool.getName() : "Unknown");
+                        pendingSubmit.callback.onSubmitResult("MAYBE accepted share. Timeout on submit.");
+                    }
                 }
+            };
+            timeoutTask.setName("GetworkSubmitTimeoutTask-" + getConnectionName());
 
-                if (response.getIsAccepted() != null && response.getIsAccepted()) {
-                    LOGGER.info("Accepted share (diff: {}) from {}@{} on {}. Yeah !!!!", difficultyString, submitRequest.getWorkerName(),
-                            getConnectionName(), pool.getName());
-                } else {
-                    LOGGER.info("REJECTED share (diff: {}) from {}@{} on {}. Booo !!!!. Error: {}", difficultyString, submitRequest.getWorkerName(),
-                            getConnectionName(), pool.getName(), response.getJsonError());
-                    errorMessage = response.getJsonError() != null && response.getJsonError().getMessage() != null ? response.getJsonError()
-                            .getMessage() : "Unknown";
-                }
-            }
-        } catch (Exception e) {
-            // Nothing to do.
+            // Save the pending submit with the request id before submitting.
+            pendingSubmits.put(submitRequest.getId(), new PendingSubmit(submitRequest, callback, timeoutTask));
+            Timer.getInstance().schedule(timeoutTask, submitTimeout);
+
+            manager.onSubmitRequest(this, submitRequest);
         }
+    }
 
-        return errorMessage;
+    /**
+     * Return the delay in milliseconds after which a submit is answered
+     * without the pool response.
+     * 
+     * @return
+     */
+    public Integer getSubmitTimeout() {
+        return submitTimeout;
     }
 
     /**
@@ -449,9 +702,9 @@ public class GetworkWorkerConnection implements WorkerConnection {
 
     @Override
     public Map<String, String> getAuthorizedWorkers() {
-        Map<String, String> result = null;
-        synchronized (authorizedWorkers) {
-            result = new HashMap<>(authorizedWorkers);
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, Authorization> entry : authorizedWorkers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().password);
         }
         return result;
     }
@@ -472,4 +725,65 @@ public class GetworkWorkerConnection implements WorkerConnection {
         // Not supported with Getwork.
 
     }
+
+    /**
+     * The password of an authorized username and the version of the
+     * authorizations when it has been checked.
+     * 
+     * @author Strat
+     * 
+     */
+    private static class Authorization {
+
+        private final String password;
+
+        private final long version;
+
+        public Authorization(String password, long version) {
+            this.password = password;
+            this.version = version;
+        }
+    }
+
+    /**
+     * A submit waiting for the pool response.
+     * 
+     * @author Strat
+     * 
+     */
+    private static class PendingSubmit {
+
+        private final MiningSubmitRequest request;
+
+        private final GetworkSubmitCallback callback;
+
+        private final Task timeoutTask;
+
+        public PendingSubmit(MiningSubmitRequest request, GetworkSubmitCallback callback, Task timeoutTask) {
+            this.request = request;
+            this.callback = callback;
+            this.timeoutTask = timeoutTask;
+        }
+    }
+
+    /**
+     * A work built in advance, with the generation it belongs to.
+     * 
+     * @author Strat
+     * 
+     */
+    private static class PregeneratedWork {
+
+        private final GetworkRequestResult result;
+
+        private final int generation;
+
+        private final long creationTime;
+
+        public PregeneratedWork(GetworkRequestResult result, int generation) {
+            this.result = result;
+            this.generation = generation;
+            this.creationTime = System.currentTimeMillis();
+        }
+    }
 }
@@ -55,13 +55,16 @@ import strat.mining.stratum.proxy.json.MiningSubscribeRequest;
 import strat.mining.stratum.proxy.json.MiningSubscribeResponse;
 import strat.mining.stratum.proxy.manager.ProxyManager;
 import strat.mining.stratum.proxy.model.Share;
+import strat.mining.stratum.proxy.network.SerializedNotification;
 import strat.mining.stratum.proxy.network.StratumConnection;
 import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.pool.PoolSession;
 import strat.mining.stratum.proxy.utils.Timer;
 import strat.mining.stratum.proxy.utils.Timer.Task;
 import strat.mining.stratum.proxy.utils.mining.DifficultyUtils;
-import strat.mining.stratum.proxy.utils.mining.SHA256HashingUtils;
-import strat.mining.stratum.proxy.utils.mining.ScryptHashingUtils;
+import strat.mining.stratum.proxy.utils.mining.ShareValidationExecutor;
+import strat.mining.stratum.proxy.utils.mining.ShareValidationExecutor.ShareValidation;
+import strat.mining.stratum.proxy.utils.mining.UInt256;
 import strat.mining.stratum.proxy.utils.mining.WorkerConnectionHashrateDelegator;
 
 import com.google.common.collect.Lists;
@@ -71,6 +74,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
     private static final Logger LOGGER = LoggerFactory.getLogger(WorkerConnection.class);
 
     private Pool pool;
+    private PoolSession poolSession;
 
     private ProxyManager manager;
 
@@ -92,7 +96,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
 
     private Boolean logRealShareDifficulty = ConfigurationManager.getInstance().getLogRealShareDifficulty();
     private Boolean validateShare = ConfigurationManager.getInstance().isValidateGetworkShares();
-    private GetworkJobTemplate currentHeader;
+    private volatile GetworkJobTemplate currentHeader;
 
     private String workerVersion;
 
@@ -154,7 +158,21 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
     }
 
     @Override
-    protected void onAuthorizeRequest(MiningAuthorizeRequest request) {
+    protected void onAuthorizeRequest(final MiningAuthorizeRequest request) {
+        // The authorization waits for the response of the pool.
+        runBlocking(new Runnable() {
+            public void run() {
+                authorize(request);
+            }
+        });
+    }
+
+    /**
+     * Authorize the worker of the request and send the response.
+     * 
+     * @param request
+     */
+    private void authorize(MiningAuthorizeRequest request) {
         MiningAuthorizeResponse response = new MiningAuthorizeResponse();
         response.setId(request.getId());
 
@@ -194,8 +212,9 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
 
         if (error == null) {
             try {
-                extranonce1Tail = pool.getFreeTail();
-                extranonce2Size = pool.getWorkerExtranonce2Size();
+                poolSession = pool.getFreeSession();
+                extranonce1Tail = poolSession.getFreeTail();
+                extranonce2Size = poolSession.getWorkerExtranonce2Size();
             } catch (TooManyWorkersException e) {
                 LOGGER.error("Too many connections on pool {} for the connection {}. Sending error and close the connection.", pool.getName(),
                         getConnectionName(), e);
@@ -211,7 +230,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         if (error != null) {
             response.setErrorRpc(error);
         } else {
-            response.setExtranonce1(pool.getExtranonce1() + extranonce1Tail);
+            response.setExtranonce1(poolSession.getExtranonce1() + extranonce1Tail);
             response.setExtranonce2Size(extranonce2Size);
             response.setSubscriptionDetails(getSubscibtionDetails());
             isActiveSince = new Date();
@@ -228,31 +247,47 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
     }
 
     @Override
-    protected void onSubmitRequest(MiningSubmitRequest request) {
+    protected void onSubmitRequest(final MiningSubmitRequest request) {
         MiningSubmitResponse response = new MiningSubmitResponse();
         response.setId(request.getId());
         JsonRpcError error = null;
 
         if (authorizedWorkers.get(request.getWorkerName()) != null) {
+            // The job template already contains the tail of extranonce1, so
+            // the share is validated with the submitted extranonce2.
+            final String workerExtranonce2 = request.getExtranonce2();
+
             // Modify the request to add the tail of extranonce1 to the
             // submitted extranonce2
-            request.setExtranonce2(extranonce1Tail + request.getExtranonce2());
+            request.setExtranonce2(extranonce1Tail + workerExtranonce2);
 
-            boolean isShareValid = true;
             if (validateShare) {
-                isShareValid = checkTarget(request);
-            }
-
-            if (isShareValid) {
-                manager.onSubmitRequest(this, request);
+                // Validate the share against the job it has been submitted
+                // for, out of the read thread.
+                final GetworkJobTemplate jobTemplate = currentHeader;
+                if (jobTemplate != null) {
+                    ShareValidationExecutor.getInstance().validate(new ShareValidation() {
+                        protected void buildBlockHeader(byte[] blockHeader) {
+                            jobTemplate.writeBlockHeader(workerExtranonce2, request.getNtime(), request.getNonce(), blockHeader);
+                        }
+
+                        protected UInt256 getTarget() {
+                            return jobTemplate.getTargetValue();
+                        }
+
+                        protected void onValidated(boolean isBelowTarget) {
+                            processSubmitRequest(request, isBelowTarget);
+                        }
+
+                        protected void onValidationFailed() {
+                            processSubmitRequest(request, false);
+                        }
+                    });
+                } else {
+                    processSubmitRequest(request, false);
+                }
             } else {
-                error = new JsonRpcError();
-                error.setCode(JsonRpcError.ErrorCode.LOW_DIFFICULTY_SHARE.getCode());
-                error.setMessage("Share is above the target (proxy check)");
-                response.setErrorRpc(error);
-                LOGGER.debug("Share submitted by {}@{} is above the target. The share is not submitted to the pool.",
-                        (String) request.getWorkerName(), getConnectionName());
-                sendResponse(response);
+                processSubmitRequest(request, true);
             }
         } else {
             error = new JsonRpcError();
@@ -263,6 +298,28 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         }
     }
 
+    /**
+     * Submit the share to the pool if valid, else reject it.
+     * 
+     * @param request
+     * @param isShareValid
+     */
+    private void processSubmitRequest(MiningSubmitRequest request, boolean isShareValid) {
+        if (isShareValid) {
+            manager.onSubmitRequest(this, request);
+        } else {
+            MiningSubmitResponse response = new MiningSubmitResponse();
+            response.setId(request.getId());
+            JsonRpcError error = new JsonRpcError();
+            error.setCode(JsonRpcError.ErrorCode.LOW_DIFFICULTY_SHARE.getCode());
+            error.setMessage("Share is above the target (proxy check)");
+            response.setErrorRpc(error);
+            LOGGER.debug("Share submitted by {}@{} is above the target. The share is not submitted to the pool.", (String) request.getWorkerName(),
+                    getConnectionName());
+            sendResponse(response);
+        }
+    }
+
     @Override
     protected void onExtranonceSubscribeRequest(MiningExtranonceSubscribeRequest request) {
         this.isSetExtranonceNotificationSupported = true;
@@ -297,7 +354,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
      * @param poolResponse
      */
     public void onPoolSubmitResponse(MiningSubmitRequest workerRequest, MiningSubmitResponse poolResponse) {
-        String difficultyString = pool != null ? Double.toString(pool.getDifficulty()) : "Unknown";
+        String difficultyString = poolSession != null ? Double.toString(poolSession.getDifficulty()) : "Unknown";
 
         if (logRealShareDifficulty) {
             Double realDifficulty = DifficultyUtils.getRealShareDifficulty(currentHeader, extranonce1Tail, workerRequest.getExtranonce2(),
@@ -328,9 +385,9 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
      */
     public void onPoolExtranonceChange() throws ChangeExtranonceNotSupportedException {
         if (isSetExtranonceNotificationSupported) {
-            extranonce2Size = pool.getWorkerExtranonce2Size();
+            extranonce2Size = poolSession.getWorkerExtranonce2Size();
             MiningSetExtranonceNotification extranonceNotif = new MiningSetExtranonceNotification();
-            extranonceNotif.setExtranonce1(pool.getExtranonce1() + extranonce1Tail);
+            extranonceNotif.setExtranonce1(poolSession.getExtranonce1() + extranonce1Tail);
             extranonceNotif.setExtranonce2Size(extranonce2Size);
             sendNotification(extranonceNotif);
 
@@ -396,6 +453,15 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         return pool;
     }
 
+    /**
+     * Return the pool session on which this connection is bound.
+     * 
+     * @return
+     */
+    public PoolSession getPoolSession() {
+        return poolSession;
+    }
+
     /**
      * Send the first notifications to the worker. The setDifficulty and the
      * current job.
@@ -404,7 +470,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         // Send the setExtranonce notif
         if (isSetExtranonceNotificationSupported) {
             MiningSetExtranonceNotification extranonceNotif = new MiningSetExtranonceNotification();
-            extranonceNotif.setExtranonce1(pool.getExtranonce1() + extranonce1Tail);
+            extranonceNotif.setExtranonce1(poolSession.getExtranonce1() + extranonce1Tail);
             extranonceNotif.setExtranonce2Size(extranonce2Size);
             sendNotification(extranonceNotif);
             updateBlockExtranonce();
@@ -412,7 +478,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         }
 
         // Send the difficulty if available
-        Double difficulty = pool.getDifficulty();
+        Double difficulty = poolSession.getDifficulty();
         if (difficulty != null) {
             MiningSetDifficultyNotification setDifficulty = new MiningSetDifficultyNotification();
             setDifficulty.setDifficulty(difficulty);
@@ -421,8 +487,11 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         }
 
         // Then send the first job if available.
-        MiningNotifyNotification notify = pool.getCurrentStratumJob();
+        MiningNotifyNotification notify = poolSession.getCurrentStratumJob();
         if (notify != null) {
+            if (logRealShareDifficulty || validateShare) {
+                updateBlockHeader(notify);
+            }
             sendNotification(notify);
             LOGGER.debug("Initial job sent to {}.", getConnectionName());
         }
@@ -450,12 +519,14 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
             LOGGER.info("Rebind connection {} from pool {} to pool {} with setExtranonce notification.", getConnectionName(), pool.getName(),
                     newPool.getName());
             // Release the old extranonce
-            pool.releaseTail(extranonce1Tail);
+            poolSession.releaseTail(extranonce1Tail);
 
             // Then retrieve a free tail from the new pool.
-            extranonce1Tail = newPool.getFreeTail();
-            extranonce2Size = newPool.getWorkerExtranonce2Size();
+            PoolSession newPoolSession = newPool.getFreeSession();
+            extranonce1Tail = newPoolSession.getFreeTail();
+            extranonce2Size = newPoolSession.getWorkerExtranonce2Size();
             pool = newPool;
+            poolSession = newPoolSession;
 
             // Finally, send all notifications to the worker
             sendInitialNotifications();
@@ -469,8 +540,8 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
     @Override
     public void close() {
         super.close();
-        if (pool != null) {
-            pool.releaseTail(extranonce1Tail);
+        if (poolSession != null) {
+            poolSession.releaseTail(extranonce1Tail);
         }
     }
 
@@ -521,11 +592,11 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
     }
 
     @Override
-    public void onPoolNotify(MiningNotifyNotification notification) {
+    public void onPoolNotify(MiningNotifyNotification notification, SerializedNotification serializedNotification) {
         if (logRealShareDifficulty || validateShare) {
             updateBlockHeader(notification);
         }
-        sendNotification(notification);
+        sendNotification(serializedNotification);
     }
 
     @Override
@@ -547,8 +618,8 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
         if (pool != null) {
             currentHeader = new GetworkJobTemplate(notification.getJobId(), notification.getBitcoinVersion(), notification.getPreviousHash(),
                     notification.getCurrentNTime(), notification.getNetworkDifficultyBits(), notification.getMerkleBranches(),
-                    notification.getCoinbase1(), notification.getCoinbase2(), getPool().getExtranonce1() + extranonce1Tail);
-            currentHeader.setDifficulty(pool.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
+                    notification.getCoinbase1(), notification.getCoinbase2(), poolSession.getExtranonce1() + extranonce1Tail);
+            currentHeader.setDifficulty(poolSession.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
         }
     }
 
@@ -557,7 +628,7 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
      */
     private void updateBlockDifficulty() {
         if (currentHeader != null) {
-            currentHeader.setDifficulty(pool.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
+            currentHeader.setDifficulty(poolSession.getDifficulty(), ConfigurationManager.getInstance().isScrypt());
         }
     }
 
@@ -566,30 +637,8 @@ public class StratumWorkerConnection extends StratumConnection implements Worker
      */
     private void updateBlockExtranonce() {
         if (currentHeader != null) {
-            currentHeader.setExtranonce1(getPool().getExtranonce1() + extranonce1Tail);
-        }
-    }
-
-    /**
-     * Check if the submitted share matches the target.
-     * 
-     * @param request
-     * 
-     * @return
-     */
-    private boolean checkTarget(MiningSubmitRequest request) {
-        boolean isShareValid = false;
-        if (currentHeader != null) {
-            GetworkJobTemplate jobTemplate = new GetworkJobTemplate(currentHeader);
-            if (ConfigurationManager.getInstance().isScrypt()) {
-                isShareValid = !ScryptHashingUtils.isBlockHeaderScryptHashBelowTarget(jobTemplate.getData(request.getExtranonce2()).getData(),
-                        currentHeader.getTargetInteger());
-            } else {
-                isShareValid = !SHA256HashingUtils.isBlockHeaderSHA256HashBelowTarget(jobTemplate.getData(request.getExtranonce2()).getData(),
-                        currentHeader.getTargetInteger());
-            }
+            currentHeader.setExtranonce1(poolSession.getExtranonce1() + extranonce1Tail);
         }
-        return isShareValid;
     }
 
     @Override
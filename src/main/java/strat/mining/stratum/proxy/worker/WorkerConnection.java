@@ -30,7 +30,9 @@ import strat.mining.stratum.proxy.json.MiningSubmitRequest;
 import strat.mining.stratum.proxy.json.MiningSubmitResponse;
 import strat.mining.stratum.proxy.model.Share;
 import strat.mining.stratum.proxy.network.Connection;
+import strat.mining.stratum.proxy.network.SerializedNotification;
 import strat.mining.stratum.proxy.pool.Pool;
+import strat.mining.stratum.proxy.pool.PoolSession;
 
 public interface WorkerConnection extends Connection {
 
@@ -41,6 +43,13 @@ public interface WorkerConnection extends Connection {
      */
     public Pool getPool();
 
+    /**
+     * Return the pool session on which this connection is bound.
+     * 
+     * @return
+     */
+    public PoolSession getPoolSession();
+
     /**
      * Return true if the connection is connected
      * 
@@ -73,11 +82,13 @@ public interface WorkerConnection extends Connection {
     public void onPoolDifficultyChanged(MiningSetDifficultyNotification notification);
 
     /**
-     * Called when the pool has sent a new notify notification.
+     * Called when the pool has sent a new notify notification. The serialized
+     * notification is shared by all the connections bound to the pool.
      * 
      * @param notification
+     * @param serializedNotification
      */
-    public void onPoolNotify(MiningNotifyNotification notification);
+    public void onPoolNotify(MiningNotifyNotification notification, SerializedNotification serializedNotification);
 
     /**
      * Called when the pool has sent a new message.
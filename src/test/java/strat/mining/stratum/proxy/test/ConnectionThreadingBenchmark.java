@@ -0,0 +1,264 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import strat.mining.stratum.proxy.configuration.ConfigurationManager;
+import strat.mining.stratum.proxy.json.ClientGetVersionRequest;
+import strat.mining.stratum.proxy.json.ClientGetVersionResponse;
+import strat.mining.stratum.proxy.json.ClientReconnectNotification;
+import strat.mining.stratum.proxy.json.ClientShowMessageNotification;
+import strat.mining.stratum.proxy.json.MiningAuthorizeRequest;
+import strat.mining.stratum.proxy.json.MiningAuthorizeResponse;
+import strat.mining.stratum.proxy.json.MiningExtranonceSubscribeRequest;
+import strat.mining.stratum.proxy.json.MiningExtranonceSubscribeResponse;
+import strat.mining.stratum.proxy.json.MiningGetTransactionsRequest;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.json.MiningSetDifficultyNotification;
+import strat.mining.stratum.proxy.json.MiningSetExtranonceNotification;
+import strat.mining.stratum.proxy.json.MiningSubmitRequest;
+import strat.mining.stratum.proxy.json.MiningSubmitResponse;
+import strat.mining.stratum.proxy.json.MiningSubscribeRequest;
+import strat.mining.stratum.proxy.json.MiningSubscribeResponse;
+import strat.mining.stratum.proxy.network.StratumConnection;
+import strat.mining.stratum.proxy.utils.ThreadingUtils;
+
+/**
+ * Compare the thread count, the RSS and the submit latency of the connection
+ * read loops with platform threads and with virtual threads.
+ * 
+ * Run once per mode (in separate JVMs to get meaningful RSS values):
+ * 
+ * ConnectionThreadingBenchmark [--enable-virtual-threads] [numberOfMiners...]
+ * 
+ * Default numbers of simulated miners are 1000, 10000 and 50000. The open
+ * files limit (ulimit -n) has to be above twice the number of miners.
+ * 
+ * @author Strat
+ * 
+ */
+public class ConnectionThreadingBenchmark {
+
+	private static final int LATENCY_SAMPLES = 1000;
+
+	private static final String SUBMIT_LINE = "{\"id\": 4, \"method\": \"mining.submit\", \"params\": [\"worker\", \"bf\", \"00000001\", \"504e86b9\", \"b2957c02\"]}\n";
+
+	public static void main(String[] args) throws Exception {
+		List<String> cliArguments = new ArrayList<String>();
+		List<Integer> numbersOfMiners = new ArrayList<Integer>();
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				cliArguments.add(arg);
+			} else {
+				numbersOfMiners.add(Integer.valueOf(arg));
+			}
+		}
+		if (numbersOfMiners.isEmpty()) {
+			numbersOfMiners.addAll(Arrays.asList(1000, 10000, 50000));
+		}
+
+		File tmpDirectory = Files.createTempDirectory("stratum-proxy-benchmark").toFile();
+		cliArguments.addAll(Arrays.asList("--log-level", "WARN", "--log-directory", tmpDirectory.getAbsolutePath(), "--database-directory",
+				tmpDirectory.getAbsolutePath()));
+		ConfigurationManager.getInstance().loadConfiguration(cliArguments.toArray(new String[cliArguments.size()]));
+
+		System.out.println("Virtual threads: " + ThreadingUtils.isUsingVirtualThreads());
+		System.out.println("miners;platformThreads;rssMB;avgLatencyUs;p50LatencyUs;p99LatencyUs");
+		for (Integer numberOfMiners : numbersOfMiners) {
+			runRound(numberOfMiners);
+		}
+
+		// Some threads started by the logging system are not daemon.
+		System.exit(0);
+	}
+
+	private static void runRound(int numberOfMiners) throws Exception {
+		final ServerSocket serverSocket = new ServerSocket(0, numberOfMiners, InetAddress.getLoopbackAddress());
+		final List<StratumConnection> serverConnections = new CopyOnWriteArrayList<StratumConnection>();
+		Thread acceptThread = new Thread() {
+			public void run() {
+				try {
+					while (!serverSocket.isClosed()) {
+						StratumConnection connection = new SubmitEchoConnection(serverSocket.accept());
+						connection.startReading();
+						serverConnections.add(connection);
+					}
+				} catch (IOException e) {
+					// Server socket closed.
+				}
+			}
+		};
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+
+		List<Socket> miners = new ArrayList<Socket>(numberOfMiners);
+		try {
+			for (int i = 0; i < numberOfMiners; i++) {
+				miners.add(new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort()));
+			}
+		} catch (IOException e) {
+			System.out.println("Only " + miners.size() + " miners connected: " + e.getMessage());
+		}
+
+		while (serverConnections.size() < miners.size()) {
+			Thread.sleep(10);
+		}
+		System.gc();
+		Thread.sleep(1000);
+
+		int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+		long rss = getRssInKB();
+
+		int numberOfSamples = Math.min(LATENCY_SAMPLES, miners.size());
+		long[] latencies = new long[numberOfSamples];
+		byte[] submitBytes = SUBMIT_LINE.getBytes("UTF-8");
+		for (int i = 0; i < numberOfSamples; i++) {
+			Socket miner = miners.get((int) ((long) i * miners.size() / numberOfSamples));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(miner.getInputStream()));
+			OutputStream outputStream = miner.getOutputStream();
+			long start = System.nanoTime();
+			outputStream.write(submitBytes);
+			outputStream.flush();
+			reader.readLine();
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		long sum = 0;
+		for (long latency : latencies) {
+			sum += latency;
+		}
+
+		System.out.println(miners.size() + ";" + threadCount + ";" + (rss / 1024) + ";" + (sum / numberOfSamples / 1000) + ";"
+				+ (latencies[numberOfSamples / 2] / 1000) + ";" + (latencies[numberOfSamples * 99 / 100] / 1000));
+
+		for (Socket miner : miners) {
+			miner.close();
+		}
+		for (StratumConnection connection : serverConnections) {
+			connection.close();
+		}
+		serverSocket.close();
+	}
+
+	/**
+	 * Return the resident set size of the process (Linux only, -1 elsewhere).
+	 * 
+	 * @return
+	 */
+	private static long getRssInKB() {
+		long result = -1;
+		try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+			String line = reader.readLine();
+			while (line != null) {
+				if (line.startsWith("VmRSS:")) {
+					result = Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+				line = reader.readLine();
+			}
+		} catch (IOException e) {
+			// Not available on this OS.
+		}
+		return result;
+	}
+
+	/**
+	 * A connection that accepts all the submitted shares.
+	 */
+	private static class SubmitEchoConnection extends StratumConnection {
+
+		public SubmitEchoConnection(Socket socket) {
+			super(socket);
+		}
+
+		protected void onSubmitRequest(MiningSubmitRequest request) {
+			MiningSubmitResponse response = new MiningSubmitResponse();
+			response.setId(request.getId());
+			response.setIsAccepted(true);
+			sendResponse(response);
+		}
+
+		protected void onNotify(MiningNotifyNotification notify) {
+		}
+
+		protected void onSetDifficulty(MiningSetDifficultyNotification setDifficulty) {
+		}
+
+		protected void onSetExtranonce(MiningSetExtranonceNotification setExtranonce) {
+		}
+
+		protected void onShowMessage(ClientShowMessageNotification showMessage) {
+		}
+
+		protected void onClientReconnect(ClientReconnectNotification clientReconnect) {
+		}
+
+		protected void onAuthorizeRequest(MiningAuthorizeRequest request) {
+		}
+
+		protected void onSubscribeRequest(MiningSubscribeRequest request) {
+		}
+
+		protected void onExtranonceSubscribeRequest(MiningExtranonceSubscribeRequest request) {
+		}
+
+		protected void onGetVersionRequest(ClientGetVersionRequest request) {
+		}
+
+		protected void onGetTransactionsRequest(MiningGetTransactionsRequest request) {
+		}
+
+		protected void onExtranonceSubscribeResponse(MiningExtranonceSubscribeRequest request, MiningExtranonceSubscribeResponse response) {
+		}
+
+		protected void onAuthorizeResponse(MiningAuthorizeRequest request, MiningAuthorizeResponse response) {
+		}
+
+		protected void onSubscribeResponse(MiningSubscribeRequest request, MiningSubscribeResponse response) {
+		}
+
+		protected void onSubmitResponse(MiningSubmitRequest request, MiningSubmitResponse response) {
+		}
+
+		protected void onGetVersionResponse(ClientGetVersionRequest request, ClientGetVersionResponse response) {
+		}
+
+		protected void onParsingError(String line, Throwable throwable) {
+		}
+
+		protected void onDisconnectWithError(Throwable cause) {
+		}
+
+	}
+
+}
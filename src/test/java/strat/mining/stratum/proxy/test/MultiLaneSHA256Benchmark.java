@@ -0,0 +1,92 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.util.Random;
+
+import strat.mining.stratum.proxy.utils.mining.MultiLaneSHA256;
+import strat.mining.stratum.proxy.utils.mining.SHA256Digest;
+import strat.mining.stratum.proxy.utils.mining.SHA256HashingUtils;
+
+/**
+ * Measure the block header double SHA256 throughput of one core (hashes per
+ * second) with the {@link MultiLaneSHA256} on 4, 8 and 16 lanes, and with the
+ * scalar engines (JDK digest and {@link SHA256Digest}).
+ * 
+ * @author Strat
+ * 
+ */
+public class MultiLaneSHA256Benchmark {
+
+	private static final int[] LANES = { 4, 8, 16 };
+
+	private static final int HASHES = 2000000;
+
+	private static final int ROUNDS = 3;
+
+	private static long sink;
+
+	public static void main(String[] args) {
+		byte[] headers = new byte[16 * SHA256Digest.BLOCK_HEADER_LENGTH];
+		new Random(42).nextBytes(headers);
+		byte[] hashes = new byte[16 * SHA256Digest.HASH_LENGTH];
+
+		for (int round = 0; round < ROUNDS; round++) {
+			StringBuilder result = new StringBuilder("Round ").append(round).append(":");
+
+			for (int lanes : LANES) {
+				MultiLaneSHA256 multiLaneSha256 = new MultiLaneSHA256(lanes);
+				int batches = HASHES / lanes;
+				long start = System.nanoTime();
+				for (int i = 0; i < batches; i++) {
+					headers[76] = (byte) i;
+					multiLaneSha256.doubleHashBlockHeaders(headers, lanes, hashes);
+					sink += hashes[0];
+				}
+				result.append(" ").append(lanes).append(" lanes ").append(hashesPerSecond(batches * lanes, System.nanoTime() - start))
+						.append(" H/s |");
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < HASHES; i++) {
+				headers[76] = (byte) i;
+				SHA256HashingUtils.doubleSha256BlockHeader(headers, 0, hashes, 0);
+				sink += hashes[0];
+			}
+			result.append(" jdk ").append(hashesPerSecond(HASHES, System.nanoTime() - start)).append(" H/s |");
+
+			SHA256Digest digest = new SHA256Digest();
+			start = System.nanoTime();
+			for (int i = 0; i < HASHES; i++) {
+				headers[76] = (byte) i;
+				digest.doubleHashBlockHeader(headers, 0, hashes, 0);
+				sink += hashes[0];
+			}
+			result.append(" digest ").append(hashesPerSecond(HASHES, System.nanoTime() - start)).append(" H/s");
+
+			System.out.println(result);
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static long hashesPerSecond(long hashes, long duration) {
+		return hashes * 1000000000L / duration;
+	}
+
+}
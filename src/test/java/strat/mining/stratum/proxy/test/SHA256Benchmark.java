@@ -0,0 +1,218 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+import strat.mining.stratum.proxy.utils.mining.SHA256Digest;
+import strat.mining.stratum.proxy.utils.mining.SHA256HashingUtils;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * Compare the SHA256 implementations: the previous Guava double hash of block
+ * headers and merkle nodes, the JDK digest writing in caller buffers (used by
+ * {@link SHA256HashingUtils}) and the {@link SHA256Digest} core, and the
+ * previous LinkedList based midstate with the {@link SHA256Digest} one.
+ * 
+ * @author Strat
+ * 
+ */
+public class SHA256Benchmark {
+
+	private static final int ITERATIONS = 1000000;
+
+	private static final int ROUNDS = 5;
+
+	private static final long[] K = { 0x428a2f98L, 0x71374491L, 0xb5c0fbcfL, 0xe9b5dba5L, 0x3956c25bL, 0x59f111f1L, 0x923f82a4L, 0xab1c5ed5L,
+			0xd807aa98L, 0x12835b01L, 0x243185beL, 0x550c7dc3L, 0x72be5d74L, 0x80deb1feL, 0x9bdc06a7L, 0xc19bf174L, 0xe49b69c1L, 0xefbe4786L,
+			0x0fc19dc6L, 0x240ca1ccL, 0x2de92c6fL, 0x4a7484aaL, 0x5cb0a9dcL, 0x76f988daL, 0x983e5152L, 0xa831c66dL, 0xb00327c8L, 0xbf597fc7L,
+			0xc6e00bf3L, 0xd5a79147L, 0x06ca6351L, 0x14292967L, 0x27b70a85L, 0x2e1b2138L, 0x4d2c6dfcL, 0x53380d13L, 0x650a7354L, 0x766a0abbL,
+			0x81c2c92eL, 0x92722c85L, 0xa2bfe8a1L, 0xa81a664bL, 0xc24b8b70L, 0xc76c51a3L, 0xd192e819L, 0xd6990624L, 0xf40e3585L, 0x106aa070L,
+			0x19a4c116L, 0x1e376c08L, 0x2748774cL, 0x34b0bcb5L, 0x391c0cb3L, 0x4ed8aa4aL, 0x5b9cca4fL, 0x682e6ff3L, 0x748f82eeL, 0x78a5636fL,
+			0x84c87814L, 0x8cc70208L, 0x90befffaL, 0xa4506cebL, 0xbef9a3f7L, 0xc67178f2L };
+
+	private static final long[] H0 = { 0x6a09e667L, 0xbb67ae85L, 0x3c6ef372L, 0xa54ff53aL, 0x510e527fL, 0x9b05688cL, 0x1f83d9abL, 0x5be0cd19L };
+
+	private static long sink;
+
+	public static void main(String[] args) {
+		byte[] header = new byte[80];
+		new Random(42).nextBytes(header);
+		byte[] node = Arrays.copyOf(header, 64);
+		SHA256Digest digest = new SHA256Digest();
+		byte[] hash = new byte[32];
+
+		// Check that all implementations agree.
+		digest.doubleHashBlockHeader(header, 0, hash, 0);
+		if (!Arrays.equals(hash, guavaDoubleHash(header))) {
+			throw new IllegalStateException("Block header hashes differ.");
+		}
+		if (!Arrays.equals(SHA256HashingUtils.midstateSHA256(node), legacyMidstate(node))) {
+			throw new IllegalStateException("Midstates differ.");
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				header[76] = (byte) i;
+				sink += guavaDoubleHash(header)[0];
+			}
+			long guavaHeader = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				header[76] = (byte) i;
+				digest.doubleHashBlockHeader(header, 0, hash, 0);
+				sink += hash[0];
+			}
+			long digestHeader = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				header[76] = (byte) i;
+				SHA256HashingUtils.doubleSha256BlockHeader(header, 0, hash, 0);
+				sink += hash[0];
+			}
+			long jdkHeader = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				node[63] = (byte) i;
+				sink += guavaDoubleHash(node)[0];
+			}
+			long guavaNode = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				node[63] = (byte) i;
+				digest.doubleHash64(node, 0, hash, 0);
+				sink += hash[0];
+			}
+			long digestNode = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				node[63] = (byte) i;
+				SHA256HashingUtils.doubleSha256Hash(node, 0, 64, hash, 0);
+				sink += hash[0];
+			}
+			long jdkNode = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS / 10; i++) {
+				node[63] = (byte) i;
+				sink += legacyMidstate(node)[0];
+			}
+			long legacyMidstate = (System.nanoTime() - start) * 10;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				node[63] = (byte) i;
+				SHA256HashingUtils.midstateSHA256(node, 0, hash, 0);
+				sink += hash[0];
+			}
+			long digestMidstate = System.nanoTime() - start;
+
+			System.out.println("Round " + round + ": block header dsha256 guava " + (guavaHeader / ITERATIONS) + " ns, jdk "
+					+ (jdkHeader / ITERATIONS) + " ns, digest " + (digestHeader / ITERATIONS) + " ns | merkle node dsha256 guava "
+					+ (guavaNode / ITERATIONS) + " ns, jdk " + (jdkNode / ITERATIONS) + " ns, digest " + (digestNode / ITERATIONS)
+					+ " ns | midstate legacy " + (legacyMidstate / ITERATIONS) + " ns, digest " + (digestMidstate / ITERATIONS) + " ns");
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static byte[] guavaDoubleHash(byte[] data) {
+		return Hashing.sha256().hashBytes(Hashing.sha256().hashBytes(data).asBytes()).asBytes();
+	}
+
+	/**
+	 * The previous midstate implementation (message schedule in a LinkedList
+	 * of Long).
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private static byte[] legacyMidstate(byte[] data) {
+		LinkedList<Long> w = new LinkedList<>();
+		for (int i = 0; i < 16; i++) {
+			int dataIndex = i * 4;
+			w.add(Longs.fromBytes((byte) 0, (byte) 0, (byte) 0, (byte) 0, data[dataIndex + 3], data[dataIndex + 2], data[dataIndex + 1],
+					data[dataIndex]));
+		}
+
+		long a = H0[0], b = H0[1], c = H0[2], d = H0[3], e = H0[4], f = H0[5], g = H0[6], h = H0[7];
+		for (long k : K) {
+			long s0 = rotateRight(a, 2) ^ rotateRight(a, 13) ^ rotateRight(a, 22);
+			long s1 = rotateRight(e, 6) ^ rotateRight(e, 11) ^ rotateRight(e, 25);
+			long ma = (a & b) ^ (a & c) ^ (b & c);
+			long ch = (e & f) ^ ((~e) & g);
+
+			h = addu32(h, w.get(0), k, ch, s1);
+			d = addu32(d, h);
+			h = addu32(h, ma, s0);
+
+			long tempa = a;
+			a = h;
+			h = g;
+			g = f;
+			f = e;
+			e = d;
+			d = c;
+			c = b;
+			b = tempa;
+
+			long w1 = w.get(1);
+			long w14 = w.get(14);
+			s0 = rotateRight(w1, 7) ^ rotateRight(w1, 18) ^ (w1 >> 3);
+			s1 = rotateRight(w14, 17) ^ rotateRight(w14, 19) ^ (w14 >> 10);
+			w.add(addu32(w.get(0), s0, w.get(9), s1));
+			w.remove(0);
+		}
+
+		long[] state = { addu32(a, H0[0]), addu32(b, H0[1]), addu32(c, H0[2]), addu32(d, H0[3]), addu32(e, H0[4]), addu32(f, H0[5]),
+				addu32(g, H0[6]), addu32(h, H0[7]) };
+		byte[] result = new byte[32];
+		for (int i = 0; i < 8; i++) {
+			byte[] bytes = Longs.toByteArray(state[i]);
+			result[i * 4] = bytes[7];
+			result[i * 4 + 1] = bytes[6];
+			result[i * 4 + 2] = bytes[5];
+			result[i * 4 + 3] = bytes[4];
+		}
+		return result;
+	}
+
+	private static long rotateRight(long i, int p) {
+		p &= 0x1F;
+		return i >> p | ((i << (32 - p)) & 0xFFFFFFFFL);
+	}
+
+	private static long addu32(Long... toAdd) {
+		long result = 0;
+		for (int i = 0; i < toAdd.length; i++) {
+			result += toAdd[i];
+		}
+		return result & 0xFFFFFFFFL;
+	}
+
+}
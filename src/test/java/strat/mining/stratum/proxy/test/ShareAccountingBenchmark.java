@@ -0,0 +1,77 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.util.concurrent.CountDownLatch;
+
+import strat.mining.stratum.proxy.model.Share;
+import strat.mining.stratum.proxy.model.User;
+
+/**
+ * Update the share accounting of a single user from several threads and check
+ * that the totals are exact. Print the throughput of the updates.
+ * 
+ * @author Strat
+ * 
+ */
+public class ShareAccountingBenchmark {
+
+	private static final int THREADS = 16;
+	private static final int SHARES_PER_THREAD = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		final User user = new User("benchmark");
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(THREADS);
+
+		for (int i = 0; i < THREADS; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						startLatch.await();
+						Share share = new Share();
+						share.setDifficulty(2);
+						for (int j = 0; j < SHARES_PER_THREAD; j++) {
+							share.setTime(System.currentTimeMillis());
+							user.updateShareLists(share, j % 10 != 0);
+						}
+					} catch (InterruptedException e) {
+					} finally {
+						endLatch.countDown();
+					}
+				}
+			});
+			thread.start();
+		}
+
+		long start = System.nanoTime();
+		startLatch.countDown();
+		endLatch.await();
+		long duration = System.nanoTime() - start;
+
+		long expectedAccepted = (long) THREADS * (SHARES_PER_THREAD - SHARES_PER_THREAD / 10);
+		long expectedRejected = (long) THREADS * (SHARES_PER_THREAD / 10);
+		System.out.println("Accepted shares: " + user.getAcceptedShareNumber() + "/" + expectedAccepted + ", difficulty: " + user.getAcceptedDifficulty()
+				+ "/" + (expectedAccepted * 2));
+		System.out.println("Rejected shares: " + user.getRejectedShareNumber() + "/" + expectedRejected + ", difficulty: " + user.getRejectedDifficulty()
+				+ "/" + (expectedRejected * 2));
+		System.out.println("Throughput: " + ((long) THREADS * SHARES_PER_THREAD * 1000000000L / duration) + " shares/s with " + THREADS + " threads");
+	}
+
+}
@@ -0,0 +1,226 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.lang.management.ManagementFactory;
+
+import strat.mining.stratum.proxy.json.JsonRpcNotification;
+import strat.mining.stratum.proxy.json.JsonRpcRequest;
+import strat.mining.stratum.proxy.json.JsonRpcResponse;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.json.MiningSubmitRequest;
+import strat.mining.stratum.proxy.network.StratumMessageReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compare the parsing of recorded pool and miner traffic with the single pass
+ * StratumMessageReader against the previous Jackson parsing (the line is
+ * parsed as a request, and parsed again as a response when there is no
+ * method). Check first that both give the same messages and the same
+ * submit and notify fields, then print the time and the allocated bytes per
+ * line, including the creation of the typed submit and notify messages done by
+ * StratumConnection.
+ * 
+ * @author Strat
+ * 
+ */
+public class StratumMessageReaderBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 500000;
+	private static final int ITERATIONS = 500000;
+
+	private static final String[] POOL_TRAFFIC = new String[] {
+			"{\"id\": 1, \"result\": [[[\"mining.set_difficulty\", \"b4b6693b72a50c7116db18d6497cac52\"], [\"mining.notify\", \"ae6812eb4cd7735a302a8a9dd95cf71f\"]], \"08000002\", 4], \"error\": null}",
+			"{\"id\": 2, \"result\": true, \"error\": null}",
+			"{\"id\": null, \"method\": \"mining.set_difficulty\", \"params\": [512]}",
+			"{\"params\": [\"1850\", \"72417428ad46bd3265c270b1d1c2dee6723136c98e3cff7be0b72b8ed00e012f\", \"01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff230362e608062f503253482f0412f8965308\", \"092f7374726174756d2f000000000100c6362a010000001976a914c8f58075fdf2ba12619f34d15385567e5a1cb99488ac00000000\", [\"32bac6b596b722100e6d0d5a451ec78b4252161603e5c140ce61ce29f1451ff9\", \"0808cdd8a165d9151856258b7ce65c476220afc669e56076f5f7b541099de3d4\", \"b1a7f5c2e4b1d68e3a3c1a0b8bdfba0e50c6e7a1e9e4e1be9f0ec5d95cbc3b0d\"], \"00000002\", \"1b0616be\", \"5396f810\", true], \"id\": null, \"method\": \"mining.notify\"}",
+			"{\"id\": 10, \"result\": true, \"error\": null}",
+			"{\"id\": 11, \"result\": null, \"error\": [23, \"Low difficulty share\", null]}",
+			"{\"id\":12,\"result\":false,\"error\":[21,\"Job not found (=stale)\",null]}",
+			"{\"id\": null, \"method\": \"client.show_message\", \"params\": [\"Pool restart in 5 minutes \\u0022soon\\u0022\"]}" };
+
+	private static final String[] MINER_TRAFFIC = new String[] {
+			"{\"id\": 1, \"method\": \"mining.subscribe\", \"params\": [\"cgminer/4.3.5\"]}",
+			"{\"id\": 2, \"method\": \"mining.authorize\", \"params\": [\"19wv8FQKv3NkwTdzBCQn1AGsb9ghqBPWXi.rig1\", \"x\"]}",
+			"{\"params\": [\"19wv8FQKv3NkwTdzBCQn1AGsb9ghqBPWXi.rig1\", \"1850\", \"00000001\", \"5396f810\", \"b2957c02\"], \"id\": 4, \"method\": \"mining.submit\"}",
+			"{\"params\": [\"19wv8FQKv3NkwTdzBCQn1AGsb9ghqBPWXi.rig1\", \"1850\", \"00000002\", \"5396f811\", \"0c9a3e17\"], \"id\": 5, \"method\": \"mining.submit\"}",
+			"{\"id\": 6, \"method\": \"mining.submit\", \"params\": [\"19wv8FQKv3NkwTdzBCQn1AGsb9ghqBPWXi.rig1\", \"1850\", \"00000003\", \"5396f811\", \"8d2a1b44\"]}" };
+
+	private static final String[] FALLBACK_LINES = new String[] { "not json", "[1, 2]", "{\"id\": 1, \"method\": 5, \"params\": []}",
+			"{\"id\": 123456789012345678901234567890, \"result\": true}", "{\"id\": 1, \"params\": \"a\"}", "{\"id\": 01}", "{\"id\": 1} trailing" };
+
+	// Lines whose params are not the usual submit or notify params, or are
+	// read after the method.
+	private static final String[] UNTYPED_LINES = new String[] {
+			"{\"id\": 7, \"method\": \"mining.submit\", \"params\": [\"rig1\", \"1850\", \"00000003\", \"5396f811\", \"8d2a1b44\", \"1fffe000\"]}",
+			"{\"params\": [\"rig\\u0031\", \"1850\", \"00000003\", \"5396f811\", \"8d2a1b44\"], \"id\": 8, \"method\": \"mining.submit\"}",
+			"{\"id\": 9, \"method\": \"mining.notify\", \"params\": [\"1850\", \"72\", \"01\", \"09\", [], \"00000002\", \"1b0616be\", \"5396f810\", true]}",
+			"{\"id\": null, \"method\": \"mining.notify\", \"params\": [\"1850\", \"72\", \"01\", \"09\", [\"32\"], \"00000002\", \"1b0616be\", \"5396f810\"]}",
+			"{\"params\": [{\"k\": [1, 2.5, null, \"a\\u0041\\n\"]}], \"id\": 10, \"method\": \"mining.configure\"}" };
+
+	public static void main(String[] args) throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		StratumMessageReader messageReader = new StratumMessageReader();
+
+		checkEquivalence(objectMapper, messageReader, POOL_TRAFFIC);
+		checkEquivalence(objectMapper, messageReader, MINER_TRAFFIC);
+		checkEquivalence(objectMapper, messageReader, UNTYPED_LINES);
+		for (String line : FALLBACK_LINES) {
+			if (messageReader.read(line) != null) {
+				System.out.println("Line should not be handled by the reader: " + line);
+			}
+		}
+
+		System.out.println("traffic;jacksonNsPerLine;jacksonBytesPerLine;readerNsPerLine;readerBytesPerLine");
+		benchmark("pool", objectMapper, messageReader, POOL_TRAFFIC);
+		benchmark("miner", objectMapper, messageReader, MINER_TRAFFIC);
+	}
+
+	private static void checkEquivalence(ObjectMapper objectMapper, StratumMessageReader messageReader, String[] lines) throws Exception {
+		for (String line : lines) {
+			String expected = describe(jacksonRead(objectMapper, line));
+			String actual = describe(messageReader.read(line));
+			if (!expected.equals(actual)) {
+				System.out.println("Messages differ for line " + line + ":\n" + expected + "\n" + actual);
+			}
+		}
+	}
+
+	private static void benchmark(String name, ObjectMapper objectMapper, StratumMessageReader messageReader, String[] lines) throws Exception {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			String line = lines[i % lines.length];
+			toTypedMessage(jacksonRead(objectMapper, line));
+			toTypedMessage(messageReader.read(line));
+		}
+
+		long allocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			toTypedMessage(jacksonRead(objectMapper, lines[i % lines.length]));
+		}
+		long jacksonTime = System.nanoTime() - start;
+		long jacksonAllocated = getAllocatedBytes() - allocated;
+
+		allocated = getAllocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			toTypedMessage(messageReader.read(lines[i % lines.length]));
+		}
+		long readerTime = System.nanoTime() - start;
+		long readerAllocated = getAllocatedBytes() - allocated;
+
+		System.out.println(name + ";" + (jacksonTime / ITERATIONS) + ";" + (jacksonAllocated / ITERATIONS) + ";" + (readerTime / ITERATIONS) + ";"
+				+ (readerAllocated / ITERATIONS));
+	}
+
+	/**
+	 * The parsing done by StratumConnection before the StratumMessageReader.
+	 */
+	private static Object jacksonRead(ObjectMapper objectMapper, String line) throws Exception {
+		Object message = null;
+		JsonRpcRequest request = objectMapper.readValue(line, JsonRpcRequest.class);
+		if (request.getId() != null) {
+			if (request.getMethod() != null) {
+				message = request;
+			} else {
+				message = objectMapper.readValue(line, JsonRpcResponse.class);
+			}
+		} else {
+			message = new JsonRpcNotification(request);
+		}
+		return message;
+	}
+
+	private static String describe(Object message) {
+		StringBuilder builder = new StringBuilder();
+		if (message instanceof JsonRpcRequest) {
+			JsonRpcRequest request = (JsonRpcRequest) message;
+			builder.append("request ").append(describeValue(request.getId())).append(" ").append(request.getMethod()).append(" ")
+					.append(describeValue(request.getParams()));
+		} else if (message instanceof JsonRpcResponse) {
+			JsonRpcResponse response = (JsonRpcResponse) message;
+			builder.append("response ").append(describeValue(response.getId())).append(" ").append(describeValue(response.getResult())).append(" ")
+					.append(describeValue(response.getError()));
+		} else if (message instanceof JsonRpcNotification) {
+			JsonRpcNotification notification = (JsonRpcNotification) message;
+			builder.append("notification ").append(notification.getMethod()).append(" ").append(describeValue(notification.getParams()));
+		} else {
+			builder.append(message);
+		}
+		describeTypedFields(builder, message);
+		return builder.toString();
+	}
+
+	/**
+	 * Return the submit request or the notify typed as StratumConnection does,
+	 * else the given message.
+	 */
+	private static Object toTypedMessage(Object message) {
+		Object result = message;
+		if (message instanceof JsonRpcRequest && MiningSubmitRequest.METHOD_NAME.equals(((JsonRpcRequest) message).getMethod())) {
+			result = message instanceof MiningSubmitRequest ? message : new MiningSubmitRequest((JsonRpcRequest) message);
+		} else if (message instanceof JsonRpcNotification
+				&& MiningNotifyNotification.METHOD_NAME.equals(((JsonRpcNotification) message).getMethod())) {
+			result = message instanceof MiningNotifyNotification ? message : new MiningNotifyNotification((JsonRpcNotification) message);
+		}
+		return result;
+	}
+
+	/**
+	 * Append the fields of the submit request or of the notify, typed as
+	 * StratumConnection does.
+	 */
+	private static void describeTypedFields(StringBuilder builder, Object message) {
+		Object typedMessage = toTypedMessage(message);
+		if (typedMessage instanceof MiningSubmitRequest) {
+			MiningSubmitRequest request = (MiningSubmitRequest) typedMessage;
+			builder.append(" fields ").append(request.getWorkerName()).append(",").append(request.getJobId()).append(",")
+					.append(request.getExtranonce2()).append(",").append(request.getNtime()).append(",").append(request.getNonce());
+		} else if (typedMessage instanceof MiningNotifyNotification) {
+			MiningNotifyNotification notify = (MiningNotifyNotification) typedMessage;
+			builder.append(" fields ").append(notify.getJobId()).append(",").append(notify.getPreviousHash()).append(",")
+					.append(notify.getCoinbase1()).append(",").append(notify.getCoinbase2()).append(",")
+					.append(describeValue(notify.getMerkleBranches())).append(",").append(notify.getBitcoinVersion()).append(",")
+					.append(notify.getNetworkDifficultyBits()).append(",").append(notify.getCurrentNTime()).append(",")
+					.append(notify.getCleanJobs());
+		}
+	}
+
+	private static String describeValue(Object value) {
+		StringBuilder builder = new StringBuilder();
+		if (value instanceof Iterable) {
+			builder.append("[");
+			for (Object element : (Iterable<?>) value) {
+				builder.append(describeValue(element)).append(",");
+			}
+			builder.append("]");
+		} else if (value != null) {
+			builder.append(value.getClass().getSimpleName()).append(":").append(value);
+		} else {
+			builder.append("null");
+		}
+		return builder.toString();
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
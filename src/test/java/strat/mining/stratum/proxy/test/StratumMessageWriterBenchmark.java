@@ -0,0 +1,139 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import strat.mining.stratum.proxy.json.JsonRpcError;
+import strat.mining.stratum.proxy.json.MiningNotifyNotification;
+import strat.mining.stratum.proxy.json.MiningSetDifficultyNotification;
+import strat.mining.stratum.proxy.json.MiningSubmitRequest;
+import strat.mining.stratum.proxy.json.MiningSubmitResponse;
+import strat.mining.stratum.proxy.network.StratumMessageWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compare the encoding of the outbound messages with the streaming
+ * StratumMessageWriter against the Jackson + regex formatting path. Check
+ * first that both produce the same bytes, then print the time and the
+ * allocated bytes per message.
+ * 
+ * @author Strat
+ * 
+ */
+public class StratumMessageWriterBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 200000;
+	private static final int ITERATIONS = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		MiningSubmitRequest submitRequest = new MiningSubmitRequest();
+		submitRequest.setWorkerName("19wv8FQKv3NkwTdzBCQn1AGsb9ghqBPWXi.rig1");
+		submitRequest.setJobId("bf");
+		submitRequest.setExtranonce2("00000001");
+		submitRequest.setNtime("504e86b9");
+		submitRequest.setNonce("b2957c02");
+
+		MiningSubmitResponse submitResponse = new MiningSubmitResponse();
+		submitResponse.setId(4);
+		submitResponse.setIsAccepted(true);
+
+		MiningSubmitResponse rejectedResponse = new MiningSubmitResponse();
+		rejectedResponse.setId(5);
+		rejectedResponse.setIsAccepted(false);
+		JsonRpcError error = new JsonRpcError();
+		error.setCode(23);
+		error.setMessage("Low difficulty share \"x\"\n");
+		rejectedResponse.setErrorRpc(error);
+
+		MiningNotifyNotification notify = new MiningNotifyNotification();
+		notify.setJobId("1850");
+		notify.setPreviousHash("72417428ad46bd3265c270b1d1c2dee6723136c98e3cff7be0b72b8ed00e012f");
+		notify.setCoinbase1("01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff230362e608062f503253482f0412f8965308");
+		notify.setCoinbase2("092f7374726174756d2f000000000100c6362a010000001976a914c8f58075fdf2ba12619f34d15385567e5a1cb99488ac00000000");
+		notify.setMerkleBranches(Arrays.asList("32bac6b596b722100e6d0d5a451ec78b4252161603e5c140ce61ce29f1451ff9",
+				"0808cdd8a165d9151856258b7ce65c476220afc669e56076f5f7b541099de3d4"));
+		notify.setBitcoinVersion("00000002");
+		notify.setNetworkDifficultyBits("1b0616be");
+		notify.setCurrentNTime("5396f810");
+		notify.setCleanJobs(true);
+
+		MiningSetDifficultyNotification setDifficulty = new MiningSetDifficultyNotification();
+		setDifficulty.setDifficulty(0.0001);
+
+		Object[] messages = new Object[] { submitRequest, submitResponse, rejectedResponse, notify, setDifficulty };
+		String[] names = new String[] { "submitRequest", "submitResponse", "rejectedSubmitResponse", "notify", "setDifficulty" };
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		StratumMessageWriter messageWriter = new StratumMessageWriter();
+
+		for (int i = 0; i < messages.length; i++) {
+			String expected = jacksonEncode(objectMapper, messages[i]);
+			messageWriter.encode(messages[i]);
+			String actual = new String(messageWriter.getBuffer(), 0, messageWriter.getLength(), "UTF-8");
+			if (!expected.equals(actual)) {
+				System.out.println("Output differs for " + names[i] + ":\n" + expected + actual);
+			}
+		}
+
+		System.out.println("message;jacksonNsPerOp;jacksonBytesPerOp;writerNsPerOp;writerBytesPerOp");
+		for (int i = 0; i < messages.length; i++) {
+			Object message = messages[i];
+			for (int j = 0; j < WARMUP_ITERATIONS; j++) {
+				jacksonEncode(objectMapper, message);
+				messageWriter.encode(message);
+			}
+
+			long allocated = getAllocatedBytes();
+			long start = System.nanoTime();
+			for (int j = 0; j < ITERATIONS; j++) {
+				jacksonEncode(objectMapper, message);
+			}
+			long jacksonTime = System.nanoTime() - start;
+			long jacksonAllocated = getAllocatedBytes() - allocated;
+
+			allocated = getAllocatedBytes();
+			start = System.nanoTime();
+			for (int j = 0; j < ITERATIONS; j++) {
+				messageWriter.encode(message);
+			}
+			long writerTime = System.nanoTime() - start;
+			long writerAllocated = getAllocatedBytes() - allocated;
+
+			System.out.println(names[i] + ";" + (jacksonTime / ITERATIONS) + ";" + (jacksonAllocated / ITERATIONS) + ";" + (writerTime / ITERATIONS) + ";"
+					+ (writerAllocated / ITERATIONS));
+		}
+	}
+
+	/**
+	 * The encoding done by StratumConnection before the StratumMessageWriter.
+	 */
+	private static String jacksonEncode(ObjectMapper objectMapper, Object message) throws Exception {
+		String json = objectMapper.writeValueAsString(message);
+		json = json.replaceAll("\":", "\": ").replaceAll(",\"", ", \"");
+		return new String((json + "\n").getBytes("UTF-8"), "UTF-8");
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
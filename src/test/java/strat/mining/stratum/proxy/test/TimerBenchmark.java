@@ -0,0 +1,116 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import strat.mining.stratum.proxy.utils.Timer;
+import strat.mining.stratum.proxy.utils.Timer.Task;
+
+/**
+ * Measure the cost of scheduling and cancelling timeouts on the {@link Timer}
+ * with 100k outstanding timeouts (as connection and getwork timeouts do), and
+ * the lateness of short tasks under this load.
+ * 
+ * @author Strat
+ * 
+ */
+public class TimerBenchmark {
+
+	private static final int OUTSTANDING_TASKS = 100000;
+	private static final int ITERATIONS = 20000;
+	private static final int SHORT_TASKS = 1000;
+
+	// Delays of the outstanding and benchmarked tasks are between 1 and 10
+	// minutes.
+	private static final int MIN_DELAY = 60000;
+	private static final int DELAY_RANGE = 540000;
+
+	private static final Random RANDOM = new Random(42);
+
+	public static void main(String[] args) throws Exception {
+		Timer timer = Timer.getInstance();
+
+		// The outstanding timeouts, never executed during the benchmark.
+		List<Task> outstandingTasks = new ArrayList<Task>(OUTSTANDING_TASKS);
+		for (int i = 0; i < OUTSTANDING_TASKS; i++) {
+			Task task = new NoopTask();
+			timer.schedule(task, MIN_DELAY + RANDOM.nextInt(DELAY_RANGE));
+			outstandingTasks.add(task);
+		}
+
+		// Warmup
+		scheduleAndCancel(timer, ITERATIONS);
+
+		long start = System.nanoTime();
+		scheduleAndCancel(timer, ITERATIONS);
+		long scheduleCancelTime = System.nanoTime() - start;
+		System.out.println("Schedule + cancel with " + OUTSTANDING_TASKS + " outstanding tasks: " + (scheduleCancelTime / ITERATIONS) + " ns/op");
+
+		// Lateness of short tasks
+		final CountDownLatch latch = new CountDownLatch(SHORT_TASKS);
+		final AtomicLong totalLateness = new AtomicLong();
+		final AtomicLong maxLateness = new AtomicLong();
+		for (int i = 0; i < SHORT_TASKS; i++) {
+			final long delay = 10 + (i % 100);
+			final long expected = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			timer.schedule(new Task() {
+				public void run() {
+					long lateness = System.nanoTime() - expected;
+					totalLateness.addAndGet(lateness);
+					long max = maxLateness.get();
+					while (lateness > max && !maxLateness.compareAndSet(max, lateness)) {
+						max = maxLateness.get();
+					}
+					latch.countDown();
+				}
+			}, delay);
+		}
+		latch.await(30, TimeUnit.SECONDS);
+		System.out.println("Short tasks lateness: avg " + TimeUnit.NANOSECONDS.toMicros(totalLateness.get() / SHORT_TASKS) + " µs, max "
+				+ TimeUnit.NANOSECONDS.toMicros(maxLateness.get()) + " µs");
+
+		start = System.nanoTime();
+		for (Task task : outstandingTasks) {
+			task.cancel();
+		}
+		System.out.println("Cancel of the " + OUTSTANDING_TASKS + " outstanding tasks: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ " ms");
+		System.exit(0);
+	}
+
+	private static void scheduleAndCancel(Timer timer, int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			Task task = new NoopTask();
+			timer.schedule(task, MIN_DELAY + RANDOM.nextInt(DELAY_RANGE));
+			task.cancel();
+		}
+	}
+
+	private static class NoopTask extends Task {
+		public void run() {
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Check the slots, the overflow map and the expiry of the
+ * PendingRequestTable.
+ * 
+ * @author Strat
+ * 
+ */
+public class PendingRequestTableTest {
+
+	private static final long SHORT_TIMEOUT = 50;
+
+	@Test
+	public void testPutRemove() {
+		PendingRequestTable<String> table = new PendingRequestTable<String>(4, PendingRequestTable.DEFAULT_TIMEOUT);
+		table.put(1, "one");
+		table.put(2L, "two");
+		table.put("three", "three");
+		table.put(null, "null");
+		assertEquals(3, table.size());
+
+		assertEquals("one", table.remove(1L));
+		assertEquals("two", table.remove(2));
+		assertEquals("three", table.remove("three"));
+		assertNull(table.remove(null));
+		assertEquals(0, table.size());
+
+		// Already removed
+		assertNull(table.remove(1));
+		assertNull(table.remove("three"));
+	}
+
+	@Test
+	public void testSlotCollision() {
+		PendingRequestTable<String> table = new PendingRequestTable<String>(4, PendingRequestTable.DEFAULT_TIMEOUT);
+		// 1, 5 and 9 have the same slot: 5 and 9 go in the overflow map.
+		table.put(1, "one");
+		table.put(5, "five");
+		table.put(9, "nine");
+		assertEquals(3, table.size());
+
+		assertNull(table.remove(13));
+		assertEquals("five", table.remove(5));
+		assertEquals("one", table.remove(1));
+		// The slot is free, but 9 is still found in the overflow map.
+		assertEquals("nine", table.remove(9));
+		assertEquals(0, table.size());
+
+		// The freed slot is used again.
+		table.put(13, "thirteen");
+		table.put(17, "seventeen");
+		assertEquals("seventeen", table.remove(17));
+		assertEquals("thirteen", table.remove(13));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testExpiry() throws InterruptedException {
+		PendingRequestTable<String> table = new PendingRequestTable<String>(4, SHORT_TIMEOUT);
+		table.put(1, "one");
+		table.put(5, "five");
+		table.put("six", "six");
+		Thread.sleep(SHORT_TIMEOUT * 2);
+
+		// Expired entries are kept until purged.
+		assertEquals(3, table.size());
+		assertEquals(3, table.purgeExpired());
+		assertEquals(0, table.size());
+		assertNull(table.remove(1));
+		assertNull(table.remove(5));
+		assertNull(table.remove("six"));
+	}
+
+	@Test
+	public void testRemoveAfterExpire() throws InterruptedException {
+		PendingRequestTable<String> table = new PendingRequestTable<String>(4, SHORT_TIMEOUT);
+		table.put(1, "one");
+		table.put(5, "five");
+		table.put("six", "six");
+		Thread.sleep(SHORT_TIMEOUT * 2);
+
+		// An expired entry is not returned, but is removed anyway.
+		assertNull(table.remove(1));
+		assertNull(table.remove(5));
+		assertNull(table.remove("six"));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testExpiredSlotReused() throws InterruptedException {
+		PendingRequestTable<String> table = new PendingRequestTable<String>(4, SHORT_TIMEOUT);
+		table.put(1, "one");
+		Thread.sleep(SHORT_TIMEOUT * 2);
+
+		// The put purges the expired entries, and takes the slot of 1.
+		table.put(5, "five");
+		assertEquals(1, table.size());
+		assertNull(table.remove(1));
+		assertEquals("five", table.remove(5));
+		assertEquals(0, table.size());
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check the lookups, the probing, the evictions and the capacity bound of the
+ * MerkleRootTable.
+ * 
+ * @author Strat
+ * 
+ */
+public class MerkleRootTableTest {
+
+	// The max number of slots a merkle root can be stored in.
+	private static final int PROBE_LENGTH = 16;
+
+	// The first 16 bytes (which give the slot) of the colliding merkle roots.
+	private static final String COLLIDING_PREFIX = "0123456789abcdef0123456789abcdef";
+
+	private static final Random RANDOM = new Random(42);
+
+	private static String randomMerkleRoot() {
+		StringBuilder builder = new StringBuilder(64);
+		for (int i = 0; i < 64; i++) {
+			builder.append(Character.forDigit(RANDOM.nextInt(16), 16));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Return a merkle root with the same slot as all the others returned by
+	 * this method.
+	 */
+	private static String collidingMerkleRoot(int i) {
+		return COLLIDING_PREFIX + String.format("%032x", i);
+	}
+
+	private static void assertFound(MerkleRootTable table, String merkleRoot, int extranonce2, int jobIndex) {
+		long value = table.get(merkleRoot);
+		assertEquals(merkleRoot, extranonce2, MerkleRootTable.getExtranonce2(value));
+		assertEquals(merkleRoot, jobIndex, MerkleRootTable.getJobIndex(value));
+	}
+
+	private static void assertNotFound(MerkleRootTable table, String merkleRoot) {
+		assertEquals(merkleRoot, MerkleRootTable.NOT_FOUND, table.get(merkleRoot));
+	}
+
+	@Test
+	public void testPutGet() {
+		MerkleRootTable table = new MerkleRootTable(100);
+		String[] merkleRoots = new String[100];
+		for (int i = 0; i < merkleRoots.length; i++) {
+			merkleRoots[i] = randomMerkleRoot();
+			// Negative extranonce2s must be unpacked as they were.
+			table.put(merkleRoots[i], i - 50, i + 1);
+		}
+		assertEquals(merkleRoots.length, table.size());
+		for (int i = 0; i < merkleRoots.length; i++) {
+			assertFound(table, merkleRoots[i], i - 50, i + 1);
+		}
+		assertNotFound(table, randomMerkleRoot());
+
+		// The hex digits are case insensitive.
+		assertFound(table, merkleRoots[0].toUpperCase(), -50, 1);
+
+		// Put again with the same merkle root replaces the entry.
+		table.put(merkleRoots[0], 7, 8);
+		assertFound(table, merkleRoots[0], 7, 8);
+	}
+
+	@Test
+	public void testBadMerkleRoot() {
+		MerkleRootTable table = new MerkleRootTable(10);
+		assertNotFound(table, null);
+		assertNotFound(table, "0123");
+		assertNotFound(table, COLLIDING_PREFIX + "0123456789abcdef0123456789abcdeg");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutBadMerkleRoot() {
+		new MerkleRootTable(10).put(COLLIDING_PREFIX + "xyz", 0, 1);
+	}
+
+	@Test
+	public void testProbingOverEvictedSlots() {
+		MerkleRootTable table = new MerkleRootTable(100);
+		// Fill all the slots of the colliding merkle roots.
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			table.put(collidingMerkleRoot(i), i, i + 1);
+		}
+		for (int i = 0; i < PROBE_LENGTH; i++) {
+			assertFound(table, collidingMerkleRoot(i), i, i + 1);
+		}
+
+		// One more evicts the oldest, the first of the probe sequence. The
+		// entries after it are still found.
+		table.put(collidingMerkleRoot(PROBE_LENGTH), PROBE_LENGTH, PROBE_LENGTH + 1);
+		assertNotFound(table, collidingMerkleRoot(0));
+		for (int i = 1; i <= PROBE_LENGTH; i++) {
+			assertFound(table, collidingMerkleRoot(i), i, i + 1);
+		}
+
+		// Then the next oldest one.
+		table.put(collidingMerkleRoot(PROBE_LENGTH + 1), PROBE_LENGTH + 1, PROBE_LENGTH + 2);
+		assertNotFound(table, collidingMerkleRoot(1));
+		for (int i = 2; i <= PROBE_LENGTH + 1; i++) {
+			assertFound(table, collidingMerkleRoot(i), i, i + 1);
+		}
+		assertEquals(PROBE_LENGTH, table.size());
+	}
+
+	@Test
+	public void testProbingOverExpiredSlots() {
+		int capacity = 20;
+		MerkleRootTable table = new MerkleRootTable(capacity);
+		table.put(collidingMerkleRoot(0), 0, 1);
+		table.put(collidingMerkleRoot(1), 1, 2);
+		// Expire the first colliding entry only.
+		for (int i = 0; i < capacity - 1; i++) {
+			table.put(randomMerkleRoot(), i, 1);
+		}
+		assertNotFound(table, collidingMerkleRoot(0));
+		// Found after the expired slot.
+		assertFound(table, collidingMerkleRoot(1), 1, 2);
+
+		// The expired slot is reused.
+		table.put(collidingMerkleRoot(2), 2, 3);
+		assertFound(table, collidingMerkleRoot(2), 2, 3);
+		assertNotFound(table, collidingMerkleRoot(0));
+		assertEquals(capacity, table.size());
+	}
+
+	@Test
+	public void testClear() {
+		MerkleRootTable table = new MerkleRootTable(100);
+		for (int i = 0; i < 10; i++) {
+			table.put(collidingMerkleRoot(i), i, i + 1);
+		}
+		table.clear();
+		assertEquals(0, table.size());
+		for (int i = 0; i < 10; i++) {
+			assertNotFound(table, collidingMerkleRoot(i));
+		}
+
+		// The cleared slots are used again, without bringing back the old
+		// entries.
+		table.put(collidingMerkleRoot(5), 50, 51);
+		table.put(collidingMerkleRoot(20), 20, 21);
+		assertEquals(2, table.size());
+		assertFound(table, collidingMerkleRoot(5), 50, 51);
+		assertFound(table, collidingMerkleRoot(20), 20, 21);
+		for (int i = 0; i < 10; i++) {
+			if (i != 5) {
+				assertNotFound(table, collidingMerkleRoot(i));
+			}
+		}
+	}
+
+	@Test
+	public void testCapacity() {
+		int capacity = 50;
+		MerkleRootTable table = new MerkleRootTable(capacity);
+		String[] merkleRoots = new String[capacity * 3];
+		for (int i = 0; i < merkleRoots.length; i++) {
+			merkleRoots[i] = randomMerkleRoot();
+			table.put(merkleRoots[i], i, i + 1);
+			assertEquals(Math.min(i + 1, capacity), table.size());
+		}
+		// Only the last capacity entries are kept.
+		for (int i = 0; i < merkleRoots.length - capacity; i++) {
+			assertNotFound(table, merkleRoots[i]);
+		}
+		for (int i = merkleRoots.length - capacity; i < merkleRoots.length; i++) {
+			assertFound(table, merkleRoots[i], i, i + 1);
+		}
+	}
+
+}
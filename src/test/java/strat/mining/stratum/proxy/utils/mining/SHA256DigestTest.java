@@ -0,0 +1,151 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check the SHA256Digest hashes against the JDK SHA-256 digest.
+ * 
+ * @author Strat
+ * 
+ */
+public class SHA256DigestTest {
+
+	private static final Random RANDOM = new Random(42);
+
+	private static byte[] randomBytes(int length) {
+		byte[] result = new byte[length];
+		RANDOM.nextBytes(result);
+		return result;
+	}
+
+	private static byte[] sha256(byte[] data, int offset, int length) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(data, offset, length);
+		return digest.digest();
+	}
+
+	private static byte[] doubleSha256(byte[] data, int offset, int length) throws NoSuchAlgorithmException {
+		byte[] hash = sha256(data, offset, length);
+		return sha256(hash, 0, hash.length);
+	}
+
+	@Test
+	public void testDigest() throws NoSuchAlgorithmException {
+		SHA256Digest digest = new SHA256Digest();
+		byte[] result = new byte[SHA256Digest.HASH_LENGTH];
+		// Around the padding limits (55, 56, 64) and over several blocks.
+		for (int length = 0; length < 200; length++) {
+			byte[] data = randomBytes(length);
+			// Updated in two parts to go through the buffer
+			int split = length / 3;
+			digest.update(data, 0, split);
+			digest.update(data, split, length - split);
+			digest.digest(result, 0);
+			assertArrayEquals("Length " + length, sha256(data, 0, length), result);
+		}
+	}
+
+	@Test
+	public void testDoubleHash64() throws NoSuchAlgorithmException {
+		SHA256Digest digest = new SHA256Digest();
+		byte[] result = new byte[SHA256Digest.HASH_LENGTH + 7];
+		for (int i = 0; i < 100; i++) {
+			byte[] data = randomBytes(SHA256Digest.BLOCK_LENGTH + 11);
+			digest.doubleHash64(data, 11, result, 7);
+			assertArrayEquals(doubleSha256(data, 11, SHA256Digest.BLOCK_LENGTH), copy(result, 7, SHA256Digest.HASH_LENGTH));
+		}
+	}
+
+	@Test
+	public void testMidstate() throws NoSuchAlgorithmException {
+		SHA256Digest digest = new SHA256Digest();
+		int[] midstate = new int[8];
+		byte[] result = new byte[SHA256Digest.HASH_LENGTH];
+		for (int i = 0; i < 100; i++) {
+			byte[] header = randomBytes(SHA256Digest.BLOCK_HEADER_LENGTH);
+			digest.update(header, 0, SHA256Digest.BLOCK_LENGTH);
+			digest.getMidstate(midstate);
+			digest.reset();
+
+			// The tail hashed from the midstate gives the hash of the whole
+			// header.
+			digest.reset(midstate, SHA256Digest.BLOCK_LENGTH);
+			digest.update(header, SHA256Digest.BLOCK_LENGTH, SHA256Digest.BLOCK_HEADER_LENGTH - SHA256Digest.BLOCK_LENGTH);
+			digest.digest(result, 0);
+			assertArrayEquals(sha256(header, 0, SHA256Digest.BLOCK_HEADER_LENGTH), result);
+
+			byte[] expected = doubleSha256(header, 0, SHA256Digest.BLOCK_HEADER_LENGTH);
+			digest.doubleHashBlockHeader(midstate, header, 0, result, 0);
+			assertArrayEquals(expected, result);
+			digest.doubleHashBlockHeader(header, 0, result, 0);
+			assertArrayEquals(expected, result);
+		}
+	}
+
+	@Test
+	public void testMidstateLittleEndian() {
+		SHA256Digest digest = new SHA256Digest();
+		int[] midstate = new int[8];
+		byte[] result = new byte[SHA256Digest.HASH_LENGTH];
+		for (int i = 0; i < 100; i++) {
+			byte[] data = randomBytes(SHA256Digest.BLOCK_LENGTH);
+			// The midstate of the little-endian words is the one of the
+			// byte-swapped data.
+			digest.update(swapWords(data), 0, SHA256Digest.BLOCK_LENGTH);
+			digest.getMidstate(midstate);
+			digest.reset();
+
+			byte[] expected = new byte[SHA256Digest.HASH_LENGTH];
+			for (int j = 0; j < 8; j++) {
+				expected[j << 2] = (byte) midstate[j];
+				expected[(j << 2) + 1] = (byte) (midstate[j] >>> 8);
+				expected[(j << 2) + 2] = (byte) (midstate[j] >>> 16);
+				expected[(j << 2) + 3] = (byte) (midstate[j] >>> 24);
+			}
+			digest.midstateLittleEndian(data, 0, result, 0);
+			assertArrayEquals(expected, result);
+		}
+	}
+
+	private static byte[] swapWords(byte[] data) {
+		byte[] result = new byte[data.length];
+		for (int i = 0; i < data.length; i += 4) {
+			result[i] = data[i + 3];
+			result[i + 1] = data[i + 2];
+			result[i + 2] = data[i + 1];
+			result[i + 3] = data[i];
+		}
+		return result;
+	}
+
+	private static byte[] copy(byte[] data, int offset, int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(data, offset, result, 0, length);
+		return result;
+	}
+
+}
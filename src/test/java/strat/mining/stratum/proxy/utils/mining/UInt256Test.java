@@ -0,0 +1,128 @@
+/**
+ * stratum-proxy is a proxy supporting the crypto-currency stratum pool mining
+ * protocol.
+ * Copyright (C) 2014-2015  Stratehm (stratehm@hotmail.com)
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with multipool-stats-backend. If not, see <http://www.gnu.org/licenses/>.
+ */
+package strat.mining.stratum.proxy.utils.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Check the UInt256 comparisons and difficulties against BigInteger.
+ * 
+ * @author Strat
+ * 
+ */
+public class UInt256Test {
+
+	private static final BigInteger MAX_VALUE = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+	private static final BigInteger DIFFICULTY_1_TARGET = new BigInteger("00000000FFFF0000000000000000000000000000000000000000000000000000", 16);
+
+	private static List<BigInteger> getValues() {
+		List<BigInteger> values = new ArrayList<BigInteger>();
+		values.add(BigInteger.ZERO);
+		values.add(BigInteger.ONE);
+		values.add(MAX_VALUE);
+		values.add(MAX_VALUE.subtract(BigInteger.ONE));
+		values.add(DIFFICULTY_1_TARGET);
+		values.add(DIFFICULTY_1_TARGET.subtract(BigInteger.ONE));
+		values.add(DIFFICULTY_1_TARGET.add(BigInteger.ONE));
+
+		// Equal in the high word, different in the lower ones (with the sign
+		// bit of the words set or not).
+		BigInteger highWord = new BigInteger("8000000000000001", 16).shiftLeft(192);
+		values.add(highWord);
+		values.add(highWord.add(BigInteger.ONE));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(63)));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(64)));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(127)));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(191)));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(191)).add(BigInteger.ONE));
+		values.add(highWord.add(BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE)));
+		values.add(new BigInteger("7fffffffffffffff", 16).shiftLeft(192));
+		values.add(BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE));
+		return values;
+	}
+
+	private static byte[] toLittleEndian(BigInteger value, int offset) {
+		byte[] result = new byte[offset + 32];
+		byte[] bigEndian = value.toByteArray();
+		for (int i = 0; i < 32 && i < bigEndian.length; i++) {
+			result[offset + i] = bigEndian[bigEndian.length - 1 - i];
+		}
+		return result;
+	}
+
+	@Test
+	public void testConversions() {
+		for (BigInteger value : getValues()) {
+			UInt256 uint = UInt256.valueOf(value);
+			assertEquals(value, uint.toBigInteger());
+			assertEquals(uint, UInt256.fromLittleEndian(toLittleEndian(value, 3), 3));
+			assertEquals(value, UInt256.fromLittleEndian(uint.toLittleEndianBytes(), 0).toBigInteger());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueOfTooLarge() {
+		UInt256.valueOf(MAX_VALUE.add(BigInteger.ONE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueOfNegative() {
+		UInt256.valueOf(BigInteger.ONE.negate());
+	}
+
+	@Test
+	public void testCompareToLittleEndian() {
+		List<BigInteger> values = getValues();
+		for (BigInteger value : values) {
+			UInt256 uint = UInt256.valueOf(value);
+			for (BigInteger other : values) {
+				int expected = Integer.signum(value.compareTo(other));
+				assertEquals(value.toString(16) + " <> " + other.toString(16), expected,
+						Integer.signum(uint.compareToLittleEndian(toLittleEndian(other, 5), 5)));
+				assertEquals(expected, Integer.signum(uint.compareTo(UInt256.valueOf(other))));
+			}
+		}
+	}
+
+	@Test
+	public void testGetDifficulty() {
+		UInt256 difficulty1Target = UInt256.valueOf(DIFFICULTY_1_TARGET);
+		for (BigInteger value : getValues()) {
+			UInt256 uint = UInt256.valueOf(value);
+			double expected = DIFFICULTY_1_TARGET.doubleValue() / value.doubleValue();
+			double difficulty = uint.getDifficulty(difficulty1Target);
+			if (value.signum() == 0) {
+				assertTrue(Double.isInfinite(difficulty));
+			} else {
+				assertEquals(value.toString(16), expected, difficulty, Math.abs(expected) * 1e-12);
+			}
+			assertEquals(value.doubleValue(), uint.doubleValue(), value.doubleValue() * 1e-12);
+		}
+		assertEquals(1d, difficulty1Target.getDifficulty(difficulty1Target), 0d);
+	}
+
+}